@@ -0,0 +1,176 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito.benchmark.codec;
+
+import com.amazonaws.services.cognitosync.model.Operation;
+import com.amazonaws.services.cognitosync.model.RecordPatch;
+import com.amazonaws.services.cognitosync.model.UpdateRecordsRequest;
+import com.amazonaws.transform.JsonUnmarshallerContext;
+import com.amazonaws.util.json.JsonUtils;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Payloads shaped like the ones Cognito Sync sends and receives. Keys look
+ * like app keys, values are of the given size and dates are epoch seconds
+ * with milliseconds, as on the wire.
+ */
+final class CodecFixtures {
+
+    static final String IDENTITY_POOL_ID = "us-east-1:0b5a3f4e-1c2d-4e5f-8a9b-0c1d2e3f4a5b";
+    static final String IDENTITY_ID = "us-east-1:6f1e2d3c-4b5a-4968-8776-a5b4c3d2e1f0";
+    static final String DEVICE_ID = "e3b0c442-98fc-4c14-9afb-f4c8996fb924";
+    static final String SYNC_SESSION_TOKEN = "AQoDYXdzEJr1K2JTmlSTm5Sj6cY7ZfR5d3uS8a7QXlN";
+    private static final double LAST_MODIFIED_SECONDS = 1443540000.123;
+
+    private CodecFixtures() {
+    }
+
+    static String key(int i) {
+        return "player.settings.key" + i;
+    }
+
+    static String value(int i, int size) {
+        StringBuilder sb = new StringBuilder(size);
+        while (sb.length() < size) {
+            sb.append((char) ('a' + (sb.length() + i) % 26));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return an UpdateRecords request with the given number of patches
+     */
+    static UpdateRecordsRequest updateRecordsRequest(int patchCount, int valueSize) {
+        List<RecordPatch> patches = new ArrayList<RecordPatch>(patchCount);
+        Date now = new Date((long) (LAST_MODIFIED_SECONDS * 1000));
+        for (int i = 0; i < patchCount; i++) {
+            patches.add(new RecordPatch()
+                    .withOp(Operation.Replace)
+                    .withKey(key(i))
+                    .withValue(value(i, valueSize))
+                    .withSyncCount((long) i)
+                    .withDeviceLastModifiedDate(now));
+        }
+        return new UpdateRecordsRequest()
+                .withIdentityPoolId(IDENTITY_POOL_ID)
+                .withIdentityId(IDENTITY_ID)
+                .withDatasetName("settings")
+                .withDeviceId(DEVICE_ID)
+                .withSyncSessionToken(SYNC_SESSION_TOKEN)
+                .withRecordPatches(patches);
+    }
+
+    /**
+     * @return the body of a ListRecords response with the given number of
+     *         records
+     */
+    static byte[] listRecordsResponse(int recordCount, int valueSize) throws IOException {
+        StringWriter out = new StringWriter();
+        JsonWriter w = new JsonWriter(out);
+        w.beginObject();
+        w.name("Count").value(recordCount);
+        w.name("DatasetDeletedAfterRequestedSyncCount").value(false);
+        w.name("DatasetExists").value(true);
+        w.name("DatasetSyncCount").value(recordCount);
+        w.name("LastModifiedBy").value(IDENTITY_ID);
+        w.name("MergedDatasetNames").nullValue();
+        w.name("NextToken").nullValue();
+        w.name("Records").beginArray();
+        for (int i = 0; i < recordCount; i++) {
+            writeRecord(w, i, valueSize);
+        }
+        w.endArray();
+        w.name("SyncSessionToken").value(SYNC_SESSION_TOKEN);
+        w.endObject();
+        w.close();
+        return utf8(out.toString());
+    }
+
+    /**
+     * @return a single record as found in the Records of a ListRecords
+     *         response
+     */
+    static byte[] record(int valueSize) throws IOException {
+        StringWriter out = new StringWriter();
+        JsonWriter w = new JsonWriter(out);
+        writeRecord(w, 0, valueSize);
+        w.close();
+        return utf8(out.toString());
+    }
+
+    /**
+     * @return the body of a ListDatasets response with the given number of
+     *         datasets
+     */
+    static byte[] listDatasetsResponse(int datasetCount) throws IOException {
+        StringWriter out = new StringWriter();
+        JsonWriter w = new JsonWriter(out);
+        w.beginObject();
+        w.name("Count").value(datasetCount);
+        w.name("Datasets").beginArray();
+        for (int i = 0; i < datasetCount; i++) {
+            w.beginObject();
+            w.name("CreationDate").value(LAST_MODIFIED_SECONDS - 86400);
+            w.name("DataStorage").value(1024L * (i + 1));
+            w.name("DatasetName").value("dataset" + i);
+            w.name("IdentityId").value(IDENTITY_ID);
+            w.name("LastModifiedBy").value(DEVICE_ID);
+            w.name("LastModifiedDate").value(LAST_MODIFIED_SECONDS);
+            w.name("NumRecords").value(i + 1);
+            w.endObject();
+        }
+        w.endArray();
+        w.name("NextToken").nullValue();
+        w.endObject();
+        w.close();
+        return utf8(out.toString());
+    }
+
+    private static void writeRecord(JsonWriter w, int i, int valueSize) throws IOException {
+        w.beginObject();
+        w.name("DeviceLastModifiedDate").value(LAST_MODIFIED_SECONDS);
+        w.name("Key").value(key(i));
+        w.name("LastModifiedBy").value(DEVICE_ID);
+        w.name("LastModifiedDate").value(LAST_MODIFIED_SECONDS);
+        w.name("SyncCount").value(i + 1);
+        w.name("Value").value(value(i, valueSize));
+        w.endObject();
+    }
+
+    /**
+     * Opens a response body the way the client's JSON response handler does.
+     */
+    static JsonUnmarshallerContext context(byte[] body) throws UnsupportedEncodingException {
+        return new JsonUnmarshallerContext(JsonUtils.getJsonReader(new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(body), "UTF-8"))));
+    }
+
+    private static byte[] utf8(String s) throws UnsupportedEncodingException {
+        return s.getBytes("UTF-8");
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito.benchmark.codec;
+
+import com.amazonaws.services.cognitosync.model.ListDatasetsResult;
+import com.amazonaws.services.cognitosync.model.transform.ListDatasetsResultJsonUnmarshaller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unmarshalling of ListDatasets responses, up to a full page of 64 datasets.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ListDatasetsResultUnmarshallerBenchmark {
+
+    @Param({
+            "1", "20", "64"
+    })
+    public int datasetCount;
+
+    private final ListDatasetsResultJsonUnmarshaller unmarshaller = new ListDatasetsResultJsonUnmarshaller();
+    private byte[] body;
+
+    @Setup
+    public void setUp() throws IOException {
+        body = CodecFixtures.listDatasetsResponse(datasetCount);
+    }
+
+    @Benchmark
+    public ListDatasetsResult unmarshall() throws Exception {
+        return unmarshaller.unmarshall(CodecFixtures.context(body));
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito.benchmark.codec;
+
+import com.amazonaws.services.cognitosync.model.Record;
+import com.amazonaws.services.cognitosync.model.transform.RecordJsonUnmarshaller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unmarshalling of a single record, isolated from the list around it. Values
+ * go up to the 1 MB limit of a dataset divided among a few records.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RecordJsonUnmarshallerBenchmark {
+
+    @Param({
+            "16", "1024", "65536"
+    })
+    public int valueSize;
+
+    private final RecordJsonUnmarshaller unmarshaller = new RecordJsonUnmarshaller();
+    private byte[] body;
+
+    @Setup
+    public void setUp() throws IOException {
+        body = CodecFixtures.record(valueSize);
+    }
+
+    @Benchmark
+    public Record unmarshall() throws Exception {
+        return unmarshaller.unmarshall(CodecFixtures.context(body));
+    }
+}
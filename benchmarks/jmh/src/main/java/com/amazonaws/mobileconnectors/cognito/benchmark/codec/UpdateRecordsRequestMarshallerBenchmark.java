@@ -0,0 +1,72 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito.benchmark.codec;
+
+import com.amazonaws.Request;
+import com.amazonaws.services.cognitosync.model.UpdateRecordsRequest;
+import com.amazonaws.services.cognitosync.model.transform.UpdateRecordsRequestMarshaller;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Marshalling of the UpdateRecords request of a push, from a few changed
+ * records to a large offline backlog.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UpdateRecordsRequestMarshallerBenchmark {
+
+    @Param({
+            "1", "50", "500"
+    })
+    public int patchCount;
+
+    @Param({
+            "32", "1024"
+    })
+    public int valueSize;
+
+    private final UpdateRecordsRequestMarshaller marshaller = new UpdateRecordsRequestMarshaller();
+    private UpdateRecordsRequest request;
+
+    @Setup
+    public void setUp() {
+        request = CodecFixtures.updateRecordsRequest(patchCount, valueSize);
+    }
+
+    @Benchmark
+    public Request<UpdateRecordsRequest> marshall() {
+        return marshaller.marshall(request);
+    }
+}
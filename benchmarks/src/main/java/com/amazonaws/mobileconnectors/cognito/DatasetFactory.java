@@ -0,0 +1,51 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito;
+
+import com.amazonaws.auth.CognitoCredentialsProvider;
+import com.amazonaws.mobileconnectors.cognito.internal.storage.LocalStorage;
+import com.amazonaws.mobileconnectors.cognito.internal.storage.RemoteDataStorage;
+import com.amazonaws.mobileconnectors.cognito.platform.Platform;
+
+/**
+ * Opens {@link DefaultDataset}s on storages chosen by the caller, so that
+ * several devices with their own local storage can run in one process, which
+ * {@link CognitoSyncManager} doesn't allow. It's in the package of
+ * DefaultDataset to reach it, from the benchmarks module.
+ */
+public final class DatasetFactory {
+
+    private DatasetFactory() {
+    }
+
+    /**
+     * Opens or creates a dataset.
+     *
+     * @param platform platform of the device
+     * @param datasetName dataset name
+     * @param provider the credentials provider of the identity
+     * @param local local storage of the device
+     * @param remote remote storage
+     * @return the dataset
+     */
+    public static Dataset openOrCreateDataset(Platform platform, String datasetName,
+            CognitoCredentialsProvider provider, LocalStorage local, RemoteDataStorage remote) {
+        local.createDataset(provider.getIdentityId(), datasetName);
+        return new DefaultDataset(platform, datasetName, provider, local, remote);
+    }
+}
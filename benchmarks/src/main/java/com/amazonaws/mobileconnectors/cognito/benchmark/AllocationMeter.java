@@ -0,0 +1,111 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Measures bytes allocated by the client while a scenario runs. A sync runs
+ * on threads the engine starts and that are gone by the time the scenario
+ * ends, so those threads report their own count through
+ * {@link #captureCurrentThread()} when they call back. Threads alive at both
+ * ends are measured by difference. Threads of the service stand-in are left
+ * out. Relies on com.sun.management.ThreadMXBean, as found in HotSpot.
+ */
+public class AllocationMeter {
+
+    private static final String EXCLUDED_THREAD_PREFIX = "SyncServiceStandIn";
+
+    private final com.sun.management.ThreadMXBean threads;
+    private final Map<Long, Long> baseline = new HashMap<Long, Long>();
+    private final Map<Long, Long> captured = new HashMap<Long, Long>();
+
+    /**
+     * Constructs a meter.
+     *
+     * @throws IllegalStateException if the JVM can't measure allocations
+     */
+    public AllocationMeter() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            throw new IllegalStateException("allocation measurement isn't supported");
+        }
+        threads = (com.sun.management.ThreadMXBean) bean;
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    /**
+     * Starts measuring.
+     */
+    public synchronized void begin() {
+        baseline.clear();
+        captured.clear();
+        for (Map.Entry<Long, Long> entry : liveThreads().entrySet()) {
+            baseline.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Records the bytes allocated so far by the calling thread.
+     */
+    public void captureCurrentThread() {
+        long id = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes(id);
+        synchronized (this) {
+            Long previous = captured.get(id);
+            if (previous == null || previous < allocated) {
+                captured.put(id, allocated);
+            }
+        }
+    }
+
+    /**
+     * Stops measuring.
+     *
+     * @return bytes allocated since {@link #begin()}
+     */
+    public synchronized long end() {
+        Map<Long, Long> live = liveThreads();
+        Map<Long, Long> last = new HashMap<Long, Long>(captured);
+        last.putAll(live);
+        long total = 0;
+        for (Map.Entry<Long, Long> entry : last.entrySet()) {
+            Long start = baseline.get(entry.getKey());
+            total += entry.getValue() - (start == null ? 0 : start);
+        }
+        return total;
+    }
+
+    private Map<Long, Long> liveThreads() {
+        // thread infos without stack traces keep the meter's own allocations small
+        long[] ids = threads.getAllThreadIds();
+        java.lang.management.ThreadInfo[] infos = threads.getThreadInfo(ids);
+        long[] bytes = threads.getThreadAllocatedBytes(ids);
+        Map<Long, Long> allocated = new HashMap<Long, Long>();
+        for (int i = 0; i < ids.length; i++) {
+            if (infos[i] == null || bytes[i] < 0
+                    || infos[i].getThreadName().startsWith(EXCLUDED_THREAD_PREFIX)) {
+                continue;
+            }
+            allocated.put(ids[i], bytes[i]);
+        }
+        return allocated;
+    }
+}
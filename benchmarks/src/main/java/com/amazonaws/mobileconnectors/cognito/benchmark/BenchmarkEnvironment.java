@@ -0,0 +1,289 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito.benchmark;
+
+import com.amazonaws.auth.AWSSessionCredentials;
+import com.amazonaws.auth.BasicSessionCredentials;
+import com.amazonaws.auth.CognitoCredentialsProvider;
+import com.amazonaws.mobileconnectors.cognito.CognitoSyncManager;
+import com.amazonaws.mobileconnectors.cognito.Dataset;
+import com.amazonaws.mobileconnectors.cognito.Record;
+import com.amazonaws.mobileconnectors.cognito.SyncConflict;
+import com.amazonaws.mobileconnectors.cognito.exceptions.DataStorageException;
+import com.amazonaws.mobileconnectors.cognito.internal.storage.InMemoryLocalStorage;
+import com.amazonaws.mobileconnectors.cognito.internal.storage.LocalStorage;
+import com.amazonaws.mobileconnectors.cognito.platform.JavaUtilLogger;
+import com.amazonaws.mobileconnectors.cognito.platform.JvmPlatform;
+import com.amazonaws.mobileconnectors.cognito.platform.Logger;
+import com.amazonaws.mobileconnectors.cognito.standin.FaultConfig;
+import com.amazonaws.mobileconnectors.cognito.standin.SyncBackend;
+import com.amazonaws.mobileconnectors.cognito.standin.SyncServiceStandIn;
+import com.amazonaws.regions.Regions;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Everything a scenario runs against: a {@link CognitoSyncManager} on a
+ * {@link JvmPlatform} whose local storage is counted, talking over HTTP to a
+ * {@link SyncServiceStandIn}. The local storage of the manager is a process
+ * wide singleton, so there is a single environment per process, and
+ * scenarios are isolated by {@link #reset()}.
+ */
+public class BenchmarkEnvironment {
+
+    /**
+     * Identity all scenarios run as.
+     */
+    public static final String IDENTITY_ID = "us-east-1:00000000-0000-0000-0000-000000000001";
+
+    private static final long SYNC_TIMEOUT_SECONDS = 60;
+
+    private final SyncServiceStandIn standIn;
+    private final CountingLocalStorage local;
+    private final CognitoSyncManager manager;
+    private final AllocationMeter meter = new AllocationMeter();
+
+    /**
+     * Starts the stand-in and creates the manager.
+     *
+     * @throws IOException if the stand-in can't start
+     */
+    public BenchmarkEnvironment() throws IOException {
+        standIn = new SyncServiceStandIn(new SyncBackend(), FaultConfig.NONE);
+        standIn.start();
+        local = new CountingLocalStorage(new InMemoryLocalStorage());
+        JvmPlatform platform = new JvmPlatform(new QuietLogger()) {
+            @Override
+            public LocalStorage createLocalStorage(String name) {
+                return local;
+            }
+        };
+        CognitoCredentialsProvider provider = new CognitoCredentialsProvider(
+                "us-east-1:00000000-0000-0000-0000-000000000000", Regions.US_EAST_1) {
+            @Override
+            public String getIdentityId() {
+                return IDENTITY_ID;
+            }
+
+            @Override
+            public AWSSessionCredentials getCredentials() {
+                // the stand-in doesn't authenticate requests
+                return new BasicSessionCredentials("benchmark", "benchmark", "benchmark");
+            }
+        };
+        manager = new CognitoSyncManager.Builder(platform, Regions.US_EAST_1, provider)
+                .endpoint(standIn.getEndpoint())
+                .build();
+    }
+
+    public CognitoSyncManager getManager() {
+        return manager;
+    }
+
+    public SyncServiceStandIn getStandIn() {
+        return standIn;
+    }
+
+    public SyncBackend getBackend() {
+        return standIn.getBackend();
+    }
+
+    public CountingLocalStorage getLocalStorage() {
+        return local;
+    }
+
+    public AllocationMeter getAllocationMeter() {
+        return meter;
+    }
+
+    /**
+     * Drops all local and remote data.
+     */
+    public void reset() {
+        manager.wipeData();
+        standIn.getBackend().clear();
+    }
+
+    /**
+     * Resets local storage and network counters.
+     */
+    public void resetCounters() {
+        local.reset();
+        standIn.resetCounters();
+    }
+
+    /**
+     * Stops the stand-in.
+     */
+    public void close() {
+        standIn.stop();
+    }
+
+    /**
+     * Puts records remotely as if another device synced them.
+     *
+     * @param datasetName dataset name
+     * @param count number of records, keys are key0000, key0001...
+     * @param valueSize size of every value in characters
+     * @param salt varies the values between calls
+     */
+    public void seedRemote(String datasetName, int count, int valueSize, String salt) {
+        standIn.getBackend().seed(IDENTITY_ID, datasetName, values(count, valueSize, salt));
+    }
+
+    /**
+     * Builds records values.
+     *
+     * @param count number of records, keys are key0000, key0001...
+     * @param valueSize size of every value in characters
+     * @param salt varies the values between calls
+     * @return values by key
+     */
+    public static Map<String, String> values(int count, int valueSize, String salt) {
+        Map<String, String> values = new LinkedHashMap<String, String>();
+        for (int i = 0; i < count; i++) {
+            values.put(key(i), value(i, valueSize, salt));
+        }
+        return values;
+    }
+
+    public static String key(int i) {
+        return String.format("key%04d", i);
+    }
+
+    static String value(int i, int valueSize, String salt) {
+        StringBuilder sb = new StringBuilder(valueSize);
+        sb.append(salt).append(i).append(':');
+        while (sb.length() < valueSize) {
+            sb.append((char) ('a' + (sb.length() + i) % 26));
+        }
+        sb.setLength(valueSize);
+        return sb.toString();
+    }
+
+    /**
+     * Synchronizes a dataset and waits for it, resolving conflicts with the
+     * remote records.
+     *
+     * @param dataset the dataset
+     * @return number of conflicts resolved
+     */
+    public int sync(Dataset dataset) {
+        BlockingSyncCallback callback = new BlockingSyncCallback(1);
+        dataset.synchronize(callback);
+        return callback.await();
+    }
+
+    /**
+     * Runs {@link CognitoSyncManager#synchronizeChangedDatasets} and waits
+     * for it.
+     *
+     * @param datasetCount number of local datasets, one callback each
+     * @return number of conflicts resolved
+     */
+    public int syncChanged(int datasetCount) {
+        BlockingSyncCallback callback = new BlockingSyncCallback(datasetCount);
+        manager.synchronizeChangedDatasets(callback);
+        return callback.await();
+    }
+
+    /**
+     * A callback that lets the caller wait for syncs, resolves conflicts with
+     * the remote records and reports the allocations of the sync threads.
+     */
+    class BlockingSyncCallback implements Dataset.SyncCallback {
+        private final CountDownLatch done;
+        private final AtomicInteger conflicts = new AtomicInteger();
+        private volatile DataStorageException failure;
+
+        BlockingSyncCallback(int count) {
+            done = new CountDownLatch(count);
+        }
+
+        int await() {
+            try {
+                if (!done.await(SYNC_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException("sync timed out");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted", e);
+            }
+            if (failure != null) {
+                throw new IllegalStateException("sync failed", failure);
+            }
+            return conflicts.get();
+        }
+
+        @Override
+        public void onSuccess(Dataset dataset, List<Record> updatedRecords) {
+            meter.captureCurrentThread();
+            done.countDown();
+        }
+
+        @Override
+        public boolean onConflict(Dataset dataset, List<SyncConflict> syncConflicts) {
+            List<Record> resolved = new ArrayList<Record>(syncConflicts.size());
+            for (SyncConflict conflict : syncConflicts) {
+                resolved.add(conflict.resolveWithRemoteRecord());
+            }
+            dataset.resolve(resolved);
+            conflicts.addAndGet(syncConflicts.size());
+            return true;
+        }
+
+        @Override
+        public boolean onDatasetDeleted(Dataset dataset, String datasetName) {
+            return true;
+        }
+
+        @Override
+        public boolean onDatasetsMerged(Dataset dataset, List<String> datasetNames) {
+            return true;
+        }
+
+        @Override
+        public void onFailure(DataStorageException dse) {
+            meter.captureCurrentThread();
+            failure = dse;
+            done.countDown();
+        }
+    }
+
+    /**
+     * Logs warnings and errors only, so that logging doesn't weigh on the
+     * numbers.
+     */
+    static class QuietLogger implements Logger {
+        private final Logger delegate = new JavaUtilLogger();
+
+        @Override
+        public void log(Level level, String tag, String message, Throwable t) {
+            if (level == Level.WARN || level == Level.ERROR) {
+                delegate.log(level, tag, message, t);
+            }
+        }
+    }
+}
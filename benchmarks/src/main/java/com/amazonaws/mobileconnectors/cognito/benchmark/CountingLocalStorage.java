@@ -0,0 +1,315 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito.benchmark;
+
+import com.amazonaws.mobileconnectors.cognito.CompactionResult;
+import com.amazonaws.mobileconnectors.cognito.Dataset;
+import com.amazonaws.mobileconnectors.cognito.DatasetMetadata;
+import com.amazonaws.mobileconnectors.cognito.Record;
+import com.amazonaws.mobileconnectors.cognito.RecordBatch;
+import com.amazonaws.mobileconnectors.cognito.StorageProfile;
+import com.amazonaws.mobileconnectors.cognito.StorageStats;
+import com.amazonaws.mobileconnectors.cognito.exceptions.DataStorageException;
+import com.amazonaws.mobileconnectors.cognito.exceptions.DatasetNotFoundException;
+import com.amazonaws.mobileconnectors.cognito.internal.storage.LocalStorage;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link LocalStorage} that counts calls per method before delegating. On
+ * Android every call is one or a few SQLite statements, so the counts stand
+ * for the statement counts of a sync when it runs on a plain JVM without
+ * SQLite.
+ */
+public class CountingLocalStorage implements LocalStorage {
+
+    private final LocalStorage delegate;
+    private final ConcurrentHashMap<String, AtomicLong> counts = new ConcurrentHashMap<String, AtomicLong>();
+
+    /**
+     * Constructs a counting storage.
+     *
+     * @param delegate the storage calls are delegated to
+     */
+    public CountingLocalStorage(LocalStorage delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * @return number of calls by method name
+     */
+    public Map<String, Long> getCounts() {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : counts.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return result;
+    }
+
+    /**
+     * @return number of calls of all methods
+     */
+    public long getTotal() {
+        long total = 0;
+        for (AtomicLong count : counts.values()) {
+            total += count.get();
+        }
+        return total;
+    }
+
+    /**
+     * Resets all counts.
+     */
+    public void reset() {
+        counts.clear();
+    }
+
+    private void count(String method) {
+        AtomicLong count = counts.get(method);
+        if (count == null) {
+            AtomicLong created = new AtomicLong();
+            count = counts.putIfAbsent(method, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    @Override
+    public void createDataset(String identityId, String datasetName) {
+        count("createDataset");
+        delegate.createDataset(identityId, datasetName);
+    }
+
+    @Override
+    public String getValue(String identityId, String datasetName, String key) {
+        count("getValue");
+        return delegate.getValue(identityId, datasetName, key);
+    }
+
+    @Override
+    public void putValue(String identityId, String datasetName, String key, String value) {
+        count("putValue");
+        delegate.putValue(identityId, datasetName, key, value);
+    }
+
+    @Override
+    public Map<String, String> getValueMap(String identityId, String datasetName) {
+        count("getValueMap");
+        return delegate.getValueMap(identityId, datasetName);
+    }
+
+    @Override
+    public void putAllValues(String identityId, String datasetName, Map<String, String> values) {
+        count("putAllValues");
+        delegate.putAllValues(identityId, datasetName, values);
+    }
+
+    @Override
+    public int removeValues(String identityId, String datasetName, Collection<String> keys) {
+        count("removeValues");
+        return delegate.removeValues(identityId, datasetName, keys);
+    }
+
+    @Override
+    public int removeAllValues(String identityId, String datasetName) {
+        count("removeAllValues");
+        return delegate.removeAllValues(identityId, datasetName);
+    }
+
+    @Override
+    public CompactionResult compactTombstones(String identityId, String datasetName,
+            int maxRows) {
+        count("compactTombstones");
+        return delegate.compactTombstones(identityId, datasetName, maxRows);
+    }
+
+    @Override
+    public StorageStats getStorageStats() {
+        count("getStorageStats");
+        return delegate.getStorageStats();
+    }
+
+    @Override
+    public long vacuum(int maxPages) {
+        count("vacuum");
+        return delegate.vacuum(maxPages);
+    }
+
+    @Override
+    public boolean convertToIncrementalVacuum() {
+        count("convertToIncrementalVacuum");
+        return delegate.convertToIncrementalVacuum();
+    }
+
+    @Override
+    public void analyze() {
+        count("analyze");
+        delegate.analyze();
+    }
+
+    @Override
+    public void setStorageProfile(StorageProfile profile) {
+        count("setStorageProfile");
+        delegate.setStorageProfile(profile);
+    }
+
+    @Override
+    public boolean compareAndPutValue(String identityId, String datasetName, String key,
+            String expectedValue, String value) {
+        count("compareAndPutValue");
+        return delegate.compareAndPutValue(identityId, datasetName, key, expectedValue, value);
+    }
+
+    @Override
+    public long incrementValue(String identityId, String datasetName, String key, long delta) {
+        count("incrementValue");
+        return delegate.incrementValue(identityId, datasetName, key, delta);
+    }
+
+    @Override
+    public boolean compareAndPutAllValues(String identityId, String datasetName,
+            Map<String, String> expectedValues, Map<String, String> values) {
+        count("compareAndPutAllValues");
+        return delegate.compareAndPutAllValues(identityId, datasetName, expectedValues, values);
+    }
+
+    @Override
+    public Record getRecord(String identityId, String datasetName, String key) {
+        count("getRecord");
+        return delegate.getRecord(identityId, datasetName, key);
+    }
+
+    @Override
+    public List<Record> getRecords(String identityId, String datasetName) {
+        count("getRecords");
+        return delegate.getRecords(identityId, datasetName);
+    }
+
+    @Override
+    public RecordBatch getRecordBatch(String identityId, String datasetName) {
+        count("getRecordBatch");
+        return delegate.getRecordBatch(identityId, datasetName);
+    }
+
+    @Override
+    public void visitRecordsByPrefix(String identityId, String datasetName, String prefix,
+            Dataset.RecordVisitor visitor) {
+        count("visitRecordsByPrefix");
+        delegate.visitRecordsByPrefix(identityId, datasetName, prefix, visitor);
+    }
+
+    @Override
+    public void visitRecordRange(String identityId, String datasetName, String fromKey,
+            String toKey, Dataset.RecordVisitor visitor) {
+        count("visitRecordRange");
+        delegate.visitRecordRange(identityId, datasetName, fromKey, toKey, visitor);
+    }
+
+    @Override
+    public boolean hasModifiedRecords(String identityId, String datasetName) {
+        count("hasModifiedRecords");
+        return delegate.hasModifiedRecords(identityId, datasetName);
+    }
+
+    @Override
+    public List<Record> getModifiedRecords(String identityId, String datasetName) {
+        count("getModifiedRecords");
+        return delegate.getModifiedRecords(identityId, datasetName);
+    }
+
+    @Override
+    public void putRecords(String identityId, String datasetName, List<Record> records) {
+        count("putRecords");
+        delegate.putRecords(identityId, datasetName, records);
+    }
+
+    @Override
+    public void conditionallyPutRecords(String identityId, String datasetName,
+            List<Record> records, List<Record> localRecords) {
+        count("conditionallyPutRecords");
+        delegate.conditionallyPutRecords(identityId, datasetName, records, localRecords);
+    }
+
+    @Override
+    public List<DatasetMetadata> getDatasets(String identityId) throws DataStorageException {
+        count("getDatasets");
+        return delegate.getDatasets(identityId);
+    }
+
+    @Override
+    public void deleteDataset(String identityId, String datasetName)
+            throws DatasetNotFoundException {
+        count("deleteDataset");
+        delegate.deleteDataset(identityId, datasetName);
+    }
+
+    @Override
+    public void purgeDataset(String identityId, String datasetName) {
+        count("purgeDataset");
+        delegate.purgeDataset(identityId, datasetName);
+    }
+
+    @Override
+    public DatasetMetadata getDatasetMetadata(String identityId, String datasetName)
+            throws DataStorageException {
+        count("getDatasetMetadata");
+        return delegate.getDatasetMetadata(identityId, datasetName);
+    }
+
+    @Override
+    public long getLastSyncCount(String identityId, String datasetName) {
+        count("getLastSyncCount");
+        return delegate.getLastSyncCount(identityId, datasetName);
+    }
+
+    @Override
+    public void updateLastSyncCount(String identityId, String datasetName, long lastSyncCount) {
+        count("updateLastSyncCount");
+        delegate.updateLastSyncCount(identityId, datasetName, lastSyncCount);
+    }
+
+    @Override
+    public void wipeData() {
+        count("wipeData");
+        delegate.wipeData();
+    }
+
+    @Override
+    public void changeIdentityId(String oldIdentityId, String newIdentityId) {
+        count("changeIdentityId");
+        delegate.changeIdentityId(oldIdentityId, newIdentityId);
+    }
+
+    @Override
+    public void updateDatasetMetadata(String identityId, List<DatasetMetadata> datasetMetadata) {
+        count("updateDatasetMetadata");
+        delegate.updateDatasetMetadata(identityId, datasetMetadata);
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito.benchmark;
+
+import com.amazonaws.mobileconnectors.cognito.Record;
+import com.amazonaws.mobileconnectors.cognito.RecordBatch;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the retained heap of resident datasets held as a
+ * {@code List<Record>} and as a {@link RecordBatch}. Each dataset is built
+ * the way local storage reads it, with fresh strings per row, and many copies
+ * are kept alive so that the heap difference measured around them after a GC
+ * is per dataset. Both forms hold the same key and value strings, so the
+ * difference is the overhead of the representation.
+ * <p>
+ * Options:
+ * <ul>
+ * <li>--records N: records per dataset, 1024 by default</li>
+ * <li>--value-size N: characters per value, 32 by default</li>
+ * <li>--datasets N: resident copies measured, 64 by default</li>
+ * </ul>
+ */
+public class DatasetFootprintBenchmark {
+
+    private static final String DEVICE = "us-east-1:0e5b4c3a-7f7d-4c4e-9a55-8d1e2b3c4d5e";
+
+    private int recordCount = 1024;
+    private int valueSize = 32;
+    private int datasetCount = 64;
+
+    public static void main(String[] args) throws Exception {
+        DatasetFootprintBenchmark benchmark = new DatasetFootprintBenchmark();
+        benchmark.parse(args);
+        benchmark.run();
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("missing value of " + arg);
+            }
+            String value = args[++i];
+            if ("--records".equals(arg)) {
+                recordCount = Integer.parseInt(value);
+            } else if ("--value-size".equals(arg)) {
+                valueSize = Integer.parseInt(value);
+            } else if ("--datasets".equals(arg)) {
+                datasetCount = Integer.parseInt(value);
+            } else {
+                throw new IllegalArgumentException("unknown option " + arg);
+            }
+        }
+        if (recordCount < 1 || datasetCount < 1) {
+            throw new IllegalArgumentException("records and datasets must be at least 1");
+        }
+    }
+
+    private void run() throws InterruptedException {
+        // warm up class loading and the JIT so that neither lands in a measurement
+        measureObjects(1);
+        measureBatches(1);
+        long strings = measureStrings(datasetCount);
+        long objects = measureObjects(datasetCount);
+        long batches = measureBatches(datasetCount);
+        System.out.println(String.format("%d records of %d chars per dataset, %d datasets",
+                recordCount, valueSize, datasetCount));
+        print("strings only", strings, strings);
+        print("List<Record>", objects, strings);
+        print("RecordBatch", batches, strings);
+        System.out.println(String.format("RecordBatch overhead is %.1f%% of List<Record>'s",
+                100.0 * (batches - strings) / (objects - strings)));
+    }
+
+    private void print(String form, long bytes, long strings) {
+        System.out.println(String.format("%-14s %,10d B/dataset %,7.1f B/record overhead",
+                form, bytes, (double) (bytes - strings) / recordCount));
+    }
+
+    private long measureStrings(int copies) throws InterruptedException {
+        long before = usedHeap();
+        List<String[]> resident = new ArrayList<String[]>(copies);
+        for (int copy = 0; copy < copies; copy++) {
+            String[] strings = new String[recordCount * 2];
+            for (int i = 0; i < recordCount; i++) {
+                strings[2 * i] = fresh(BenchmarkEnvironment.key(i));
+                strings[2 * i + 1] = fresh(BenchmarkEnvironment.value(i, valueSize, "v"));
+            }
+            resident.add(strings);
+        }
+        return retained(before, resident, copies);
+    }
+
+    private long measureObjects(int copies) throws InterruptedException {
+        long before = usedHeap();
+        List<List<Record>> resident = new ArrayList<List<Record>>(copies);
+        for (int copy = 0; copy < copies; copy++) {
+            List<Record> records = new ArrayList<Record>();
+            for (int i = 0; i < recordCount; i++) {
+                records.add(new Record.Builder(fresh(BenchmarkEnvironment.key(i)))
+                        .value(fresh(BenchmarkEnvironment.value(i, valueSize, "v")))
+                        .syncCount(i)
+                        .lastModifiedTime(i)
+                        .lastModifiedBy(fresh(DEVICE))
+                        .deviceLastModifiedTime(i)
+                        .modified(i % 2 == 0)
+                        .build());
+            }
+            resident.add(records);
+        }
+        return retained(before, resident, copies);
+    }
+
+    private long measureBatches(int copies) throws InterruptedException {
+        long before = usedHeap();
+        List<RecordBatch> resident = new ArrayList<RecordBatch>(copies);
+        for (int copy = 0; copy < copies; copy++) {
+            RecordBatch.Builder batch = new RecordBatch.Builder(recordCount);
+            for (int i = 0; i < recordCount; i++) {
+                batch.add(fresh(BenchmarkEnvironment.key(i)),
+                        fresh(BenchmarkEnvironment.value(i, valueSize, "v")),
+                        i, i, fresh(DEVICE), i, i % 2 == 0);
+            }
+            resident.add(batch.build());
+        }
+        return retained(before, resident, copies);
+    }
+
+    private long retained(long before, List<?> resident, int copies)
+            throws InterruptedException {
+        long after = usedHeap();
+        if (resident.size() != copies) {
+            throw new IllegalStateException();
+        }
+        return (after - before) / copies;
+    }
+
+    /**
+     * A copy of a string, like the ones a cursor returns per row.
+     */
+    private static String fresh(String string) {
+        return new String(string.toCharArray());
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
@@ -0,0 +1,274 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito.benchmark;
+
+import com.amazonaws.mobileconnectors.cognito.Record;
+import com.amazonaws.mobileconnectors.cognito.StorageProfile;
+import com.amazonaws.mobileconnectors.cognito.internal.storage.InMemoryLocalStorage;
+import com.amazonaws.mobileconnectors.cognito.internal.storage.LocalStorage;
+import com.amazonaws.mobileconnectors.cognito.internal.storage.SnapshotCachingLocalStorage;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures read latency and memory of each {@link StorageProfile} on a large
+ * local cache: many datasets of many records, read with a skew towards a few
+ * of them the way an app reads its hot datasets. Reads go through the same
+ * calls as {@code Dataset.getAll} and {@code Dataset.get}.
+ * <p>
+ * On a plain JVM the local storage is in memory, so what a profile changes
+ * here is how many datasets keep a snapshot of their values. Its SQLite
+ * settings only take effect on a device. Each profile runs in its own JVM so
+ * that the resident set size of one doesn't carry over to the next.
+ * <p>
+ * Options:
+ * <ul>
+ * <li>--datasets N: datasets in the cache, 32 by default</li>
+ * <li>--records N: records per dataset, 1024 by default</li>
+ * <li>--value-size N: characters per value, 1024 by default</li>
+ * <li>--reads N: measured reads, 200000 by default</li>
+ * <li>--heap SIZE: -Xmx of each JVM, 1g by default</li>
+ * <li>--profile NAME: runs a single profile in this JVM</li>
+ * </ul>
+ */
+public class StorageProfileBenchmark {
+
+    private static final String IDENTITY_ID = "us-east-1:00000000-0000-0000-0000-000000000000";
+
+    /**
+     * One read in this many is a whole dataset, the others a single key.
+     */
+    private static final int GET_ALL_EVERY = 10;
+
+    private int datasetCount = 32;
+    private int recordCount = 1024;
+    private int valueSize = 1024;
+    private int readCount = 200000;
+    private String heap = "1g";
+    private StorageProfile profile;
+
+    public static void main(String[] args) throws Exception {
+        StorageProfileBenchmark benchmark = new StorageProfileBenchmark();
+        benchmark.parse(args);
+        if (benchmark.profile != null) {
+            System.out.println(benchmark.measure());
+        } else {
+            benchmark.fork(args);
+        }
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("missing value of " + arg);
+            }
+            String value = args[++i];
+            if ("--datasets".equals(arg)) {
+                datasetCount = Integer.parseInt(value);
+            } else if ("--records".equals(arg)) {
+                recordCount = Integer.parseInt(value);
+            } else if ("--value-size".equals(arg)) {
+                valueSize = Integer.parseInt(value);
+            } else if ("--reads".equals(arg)) {
+                readCount = Integer.parseInt(value);
+            } else if ("--heap".equals(arg)) {
+                heap = value;
+            } else if ("--profile".equals(arg)) {
+                profile = StorageProfile.valueOf(value);
+            } else {
+                throw new IllegalArgumentException("unknown option " + arg);
+            }
+        }
+        if (datasetCount < 1 || recordCount < 1 || readCount < 1) {
+            throw new IllegalArgumentException("datasets, records and reads must be at least 1");
+        }
+    }
+
+    private void fork(String[] args) throws IOException, InterruptedException {
+        System.out.println(String.format(
+                "%d datasets of %d records of %d chars, %d reads, 1 in %d a whole dataset",
+                datasetCount, recordCount, valueSize, readCount, GET_ALL_EVERY));
+        System.out.println(String.format("%-10s %9s %9s %9s %9s %9s %9s %9s",
+                "profile", "snapshots", "getAll50", "getAll99", "get50", "get99", "heap MB",
+                "RSS MB"));
+        String java = System.getProperty("java.home") + File.separator + "bin"
+                + File.separator + "java";
+        for (StorageProfile each : StorageProfile.values()) {
+            List<String> command = new ArrayList<String>(Arrays.asList(java, "-Xmx" + heap,
+                    "-cp", classPath(), StorageProfileBenchmark.class.getName()));
+            command.addAll(Arrays.asList(args));
+            command.addAll(Arrays.asList("--profile", each.name()));
+            Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+            BufferedReader output = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), "UTF-8"));
+            try {
+                for (String line; (line = output.readLine()) != null;) {
+                    System.out.println(line);
+                }
+            } finally {
+                output.close();
+            }
+            if (process.waitFor() != 0) {
+                throw new IllegalStateException(each + " failed");
+            }
+        }
+        System.out.println("latencies in microseconds");
+    }
+
+    private String measure() throws InterruptedException {
+        SnapshotCachingLocalStorage local = new SnapshotCachingLocalStorage(
+                new InMemoryLocalStorage());
+        local.setStorageProfile(profile);
+        for (int d = 0; d < datasetCount; d++) {
+            load(local, "dataset" + d);
+        }
+        Random random = new Random(42);
+        // warm up the JIT and the snapshots
+        read(local, random, readCount / 10, null, null);
+        long[] getAll = new long[readCount / GET_ALL_EVERY];
+        long[] get = new long[readCount - getAll.length];
+        read(local, random, readCount, getAll, get);
+        Arrays.sort(getAll);
+        Arrays.sort(get);
+        return String.format("%-10s %9d %9.1f %9.1f %9.2f %9.2f %9.1f %9s",
+                profile, Math.min(profile.getMaxSnapshots(), datasetCount),
+                percentile(getAll, 50), percentile(getAll, 99),
+                percentile(get, 50), percentile(get, 99),
+                usedHeap() / 1048576.0, residentSetSize());
+    }
+
+    private void load(LocalStorage local, String datasetName) {
+        local.createDataset(IDENTITY_ID, datasetName);
+        List<Record> records = new ArrayList<Record>(recordCount);
+        for (int i = 0; i < recordCount; i++) {
+            records.add(new Record.Builder(BenchmarkEnvironment.key(i))
+                    .value(BenchmarkEnvironment.value(i, valueSize, datasetName))
+                    .syncCount(1)
+                    .lastModifiedTime(i)
+                    .deviceLastModifiedTime(i)
+                    .build());
+        }
+        local.putRecords(IDENTITY_ID, datasetName, records);
+    }
+
+    /**
+     * Reads datasets picked with a quadratic skew, so that the first fifth
+     * of them take close to half of the reads.
+     */
+    private void read(LocalStorage local, Random random, int reads, long[] getAll,
+            long[] get) {
+        int getAllIndex = 0;
+        int getIndex = 0;
+        long sink = 0;
+        for (int i = 0; i < reads; i++) {
+            double r = random.nextDouble();
+            String datasetName = "dataset" + (int) (datasetCount * r * r);
+            if (i % GET_ALL_EVERY == 0) {
+                long start = System.nanoTime();
+                sink += local.getValueMap(IDENTITY_ID, datasetName).size();
+                long elapsed = System.nanoTime() - start;
+                if (getAll != null) {
+                    getAll[getAllIndex++] = elapsed;
+                }
+            } else {
+                String key = BenchmarkEnvironment.key(random.nextInt(recordCount));
+                long start = System.nanoTime();
+                sink += local.getValue(IDENTITY_ID, datasetName, key).length();
+                long elapsed = System.nanoTime() - start;
+                if (get != null) {
+                    get[getIndex++] = elapsed;
+                }
+            }
+        }
+        if (sink == 0) {
+            throw new IllegalStateException("nothing was read");
+        }
+    }
+
+    private static double percentile(long[] sorted, int percent) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)] / 1000.0;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Reads VmRSS of this process, which only Linux reports.
+     */
+    private static String residentSetSize() {
+        File status = new File("/proc/self/status");
+        if (!status.exists()) {
+            return "n/a";
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(status));
+            try {
+                for (String line; (line = reader.readLine()) != null;) {
+                    if (line.startsWith("VmRSS:")) {
+                        String kb = line.substring("VmRSS:".length()).trim().split("\\s+")[0];
+                        return String.format("%.1f", Long.parseLong(kb) / 1024.0);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            // reported as unavailable
+        }
+        return "n/a";
+    }
+
+    /**
+     * The class path this class was loaded from. exec:java loads it in its
+     * own class loader, so java.class.path isn't it.
+     */
+    private static String classPath() {
+        ClassLoader loader = StorageProfileBenchmark.class.getClassLoader();
+        if (!(loader instanceof URLClassLoader)) {
+            return System.getProperty("java.class.path");
+        }
+        StringBuilder sb = new StringBuilder();
+        for (URL url : ((URLClassLoader) loader).getURLs()) {
+            if (sb.length() > 0) {
+                sb.append(File.pathSeparatorChar);
+            }
+            sb.append(new File(url.getPath()).getPath());
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,213 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito.benchmark;
+
+import com.amazonaws.mobileconnectors.cognito.Dataset;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A sync workload. {@link #setUp(BenchmarkEnvironment)} brings local and
+ * remote data to the starting point, on a freshly reset environment, and
+ * {@link #run(BenchmarkEnvironment)} is the measured part.
+ */
+public abstract class SyncScenario {
+
+    private final String name;
+
+    protected SyncScenario(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return name of the scenario, used as key in the baseline
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Prepares local and remote data. Not measured.
+     *
+     * @param env a reset environment
+     */
+    public abstract void setUp(BenchmarkEnvironment env);
+
+    /**
+     * Runs the measured workload.
+     *
+     * @param env the environment set up by {@link #setUp(BenchmarkEnvironment)}
+     */
+    public abstract void run(BenchmarkEnvironment env);
+
+    /**
+     * @return all scenarios, in the order they run
+     */
+    public static List<SyncScenario> all() {
+        return Arrays.asList(
+                new FirstPull(),
+                new IncrementalPull(),
+                new PushDirty(),
+                new ConflictHeavy(),
+                new AppResume());
+    }
+
+    /**
+     * First sync of a new device: a full dataset of 1024 records of about 1
+     * KB each, 1 MB in total, is pulled into empty local storage.
+     */
+    static class FirstPull extends SyncScenario {
+        FirstPull() {
+            super("first_pull_1024x1k");
+        }
+
+        @Override
+        public void setUp(BenchmarkEnvironment env) {
+            env.seedRemote("profile", 1024, 1017, "v1-");
+        }
+
+        @Override
+        public void run(BenchmarkEnvironment env) {
+            env.sync(env.getManager().openOrCreateDataset("profile"));
+        }
+    }
+
+    /**
+     * Sync of an up to date device after another device changed 10 records
+     * of a 1024 records dataset.
+     */
+    static class IncrementalPull extends SyncScenario {
+        IncrementalPull() {
+            super("incremental_pull_10_of_1024");
+        }
+
+        @Override
+        public void setUp(BenchmarkEnvironment env) {
+            env.seedRemote("profile", 1024, 256, "v1-");
+            env.sync(env.getManager().openOrCreateDataset("profile"));
+            Map<String, String> changes = new LinkedHashMap<String, String>();
+            for (int i = 0; i < 10; i++) {
+                int index = i * 100;
+                changes.put(BenchmarkEnvironment.key(index),
+                        BenchmarkEnvironment.value(index, 256, "v2-"));
+            }
+            env.getBackend().seed(BenchmarkEnvironment.IDENTITY_ID, "profile", changes);
+        }
+
+        @Override
+        public void run(BenchmarkEnvironment env) {
+            env.sync(env.getManager().openOrCreateDataset("profile"));
+        }
+    }
+
+    /**
+     * Push of 500 records written offline to a new dataset.
+     */
+    static class PushDirty extends SyncScenario {
+        PushDirty() {
+            super("push_500_dirty");
+        }
+
+        @Override
+        public void setUp(BenchmarkEnvironment env) {
+            Dataset dataset = env.getManager().openOrCreateDataset("settings");
+            dataset.putAll(BenchmarkEnvironment.values(500, 256, "local-"));
+        }
+
+        @Override
+        public void run(BenchmarkEnvironment env) {
+            env.sync(env.getManager().openOrCreateDataset("settings"));
+        }
+    }
+
+    /**
+     * Two devices changed the same 100 records of a 200 records dataset
+     * while apart. Every conflict is resolved with the remote record.
+     */
+    static class ConflictHeavy extends SyncScenario {
+        ConflictHeavy() {
+            super("conflicts_100_of_200");
+        }
+
+        @Override
+        public void setUp(BenchmarkEnvironment env) {
+            env.seedRemote("game", 200, 128, "v1-");
+            Dataset dataset = env.getManager().openOrCreateDataset("game");
+            env.sync(dataset);
+            Map<String, String> remote = new LinkedHashMap<String, String>();
+            for (int i = 0; i < 100; i++) {
+                String key = BenchmarkEnvironment.key(i * 2);
+                dataset.put(key, BenchmarkEnvironment.value(i, 128, "local-"));
+                remote.put(key, BenchmarkEnvironment.value(i, 128, "remote-"));
+            }
+            env.getBackend().seed(BenchmarkEnvironment.IDENTITY_ID, "game", remote);
+        }
+
+        @Override
+        public void run(BenchmarkEnvironment env) {
+            int conflicts = env.sync(env.getManager().openOrCreateDataset("game"));
+            if (conflicts != 100) {
+                throw new IllegalStateException("expected 100 conflicts, got " + conflicts);
+            }
+        }
+    }
+
+    /**
+     * App coming back to the foreground with 20 datasets of 50 records:
+     * {@link com.amazonaws.mobileconnectors.cognito.CognitoSyncManager#synchronizeChangedDatasets}
+     * finds 2 datasets changed remotely and 1 changed locally.
+     */
+    static class AppResume extends SyncScenario {
+        private static final int DATASETS = 20;
+
+        AppResume() {
+            super("resume_20_datasets");
+        }
+
+        @Override
+        public void setUp(BenchmarkEnvironment env) {
+            for (int i = 0; i < DATASETS; i++) {
+                String name = "dataset" + i;
+                env.seedRemote(name, 50, 128, "v1-");
+                env.getManager().openOrCreateDataset(name);
+            }
+            // first pass pulls everything and records the remote dates
+            env.syncChanged(DATASETS);
+            try {
+                // the client reads remote dates in whole seconds, changes
+                // made within the second of the first pass would go unseen
+                Thread.sleep(1001 - System.currentTimeMillis() % 1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            Map<String, String> changes = BenchmarkEnvironment.values(5, 128, "v2-");
+            env.getBackend().seed(BenchmarkEnvironment.IDENTITY_ID, "dataset3", changes);
+            env.getBackend().seed(BenchmarkEnvironment.IDENTITY_ID, "dataset11", changes);
+            env.getManager().openOrCreateDataset("dataset17")
+                    .putAll(BenchmarkEnvironment.values(5, 128, "local-"));
+        }
+
+        @Override
+        public void run(BenchmarkEnvironment env) {
+            env.syncChanged(DATASETS);
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito.benchmark;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Runs the {@link SyncScenario}s end to end, from
+ * {@link com.amazonaws.mobileconnectors.cognito.Dataset#synchronize} down to
+ * HTTP requests to a {@link com.amazonaws.mobileconnectors.cognito.standin.SyncServiceStandIn},
+ * and reports per scenario the median wall time, the median bytes allocated,
+ * the local storage calls and the network calls of an iteration.
+ * <p>
+ * Options:
+ * <ul>
+ * <li>--warmup N: iterations run before measuring, 3 by default</li>
+ * <li>--iterations N: measured iterations, 10 by default</li>
+ * <li>--scenario NAME: runs a single scenario</li>
+ * <li>--write-baseline FILE: writes the results as the new baseline</li>
+ * <li>--compare FILE: compares the results with a baseline and exits with 1
+ * on a regression: more local storage or network calls than the baseline, or
+ * allocations more than {@link #ALLOCATION_TOLERANCE} above it. Wall time
+ * depends on the machine and is reported but not checked.</li>
+ * </ul>
+ */
+public class SyncThroughputBenchmark {
+
+    /**
+     * Relative allocation increase tolerated by --compare.
+     */
+    static final double ALLOCATION_TOLERANCE = 0.25;
+
+    private int warmup = 3;
+    private int iterations = 10;
+    private String scenarioName;
+    private File writeBaseline;
+    private File compare;
+
+    public static void main(String[] args) throws Exception {
+        SyncThroughputBenchmark benchmark = new SyncThroughputBenchmark();
+        benchmark.parse(args);
+        System.exit(benchmark.run());
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("missing value of " + arg);
+            }
+            String value = args[++i];
+            if ("--warmup".equals(arg)) {
+                warmup = Integer.parseInt(value);
+            } else if ("--iterations".equals(arg)) {
+                iterations = Integer.parseInt(value);
+            } else if ("--scenario".equals(arg)) {
+                scenarioName = value;
+            } else if ("--write-baseline".equals(arg)) {
+                writeBaseline = new File(value);
+            } else if ("--compare".equals(arg)) {
+                compare = new File(value);
+            } else {
+                throw new IllegalArgumentException("unknown option " + arg);
+            }
+        }
+        if (iterations < 1) {
+            throw new IllegalArgumentException("iterations must be at least 1");
+        }
+    }
+
+    private int run() throws IOException {
+        List<Result> results = new ArrayList<Result>();
+        BenchmarkEnvironment env = new BenchmarkEnvironment();
+        try {
+            for (SyncScenario scenario : SyncScenario.all()) {
+                if (scenarioName == null || scenarioName.equals(scenario.getName())) {
+                    Result result = measure(env, scenario);
+                    System.out.println(result);
+                    results.add(result);
+                }
+            }
+        } finally {
+            env.close();
+        }
+        if (results.isEmpty()) {
+            throw new IllegalArgumentException("unknown scenario " + scenarioName);
+        }
+        if (writeBaseline != null) {
+            write(writeBaseline, results);
+            System.out.println("baseline written to " + writeBaseline);
+        }
+        if (compare != null) {
+            return compare(read(compare), results) ? 0 : 1;
+        }
+        return 0;
+    }
+
+    private Result measure(BenchmarkEnvironment env, SyncScenario scenario) {
+        for (int i = 0; i < warmup; i++) {
+            runOnce(env, scenario);
+        }
+        long[] wallNanos = new long[iterations];
+        long[] allocatedBytes = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            long[] measured = runOnce(env, scenario);
+            wallNanos[i] = measured[0];
+            allocatedBytes[i] = measured[1];
+        }
+        // counts are the same every iteration, take the ones of the last
+        Result result = new Result(scenario.getName());
+        result.wallMillis = median(wallNanos) / 1e6;
+        result.allocatedBytes = median(allocatedBytes);
+        result.localCalls = env.getLocalStorage().getCounts();
+        result.networkCalls = new TreeMap<String, Long>(env.getStandIn().getRequestCounts());
+        result.bytesIn = env.getStandIn().getBytesIn();
+        result.bytesOut = env.getStandIn().getBytesOut();
+        return result;
+    }
+
+    /**
+     * @return wall time in nanoseconds and allocated bytes
+     */
+    private static long[] runOnce(BenchmarkEnvironment env, SyncScenario scenario) {
+        env.reset();
+        scenario.setUp(env);
+        env.resetCounters();
+        AllocationMeter meter = env.getAllocationMeter();
+        meter.begin();
+        long start = System.nanoTime();
+        scenario.run(env);
+        long wall = System.nanoTime() - start;
+        return new long[] {
+                wall, meter.end()
+        };
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static boolean compare(Map<String, Result> baseline, List<Result> results) {
+        boolean ok = true;
+        for (Result result : results) {
+            Result base = baseline.get(result.name);
+            if (base == null) {
+                System.out.println(result.name + ": not in baseline");
+                continue;
+            }
+            System.out.println(String.format("%s: wall %.1f ms (baseline %.1f ms)",
+                    result.name, result.wallMillis, base.wallMillis));
+            ok &= compareCount(result.name, "local storage calls",
+                    total(result.localCalls), total(base.localCalls));
+            ok &= compareCount(result.name, "network calls",
+                    total(result.networkCalls), total(base.networkCalls));
+            double growth = base.allocatedBytes == 0 ? 0
+                    : (double) (result.allocatedBytes - base.allocatedBytes) / base.allocatedBytes;
+            if (growth > ALLOCATION_TOLERANCE) {
+                System.out.println(String.format("%s: REGRESSION allocated %d bytes, %+.0f%%"
+                        + " over baseline %d", result.name, result.allocatedBytes,
+                        growth * 100, base.allocatedBytes));
+                ok = false;
+            }
+        }
+        return ok;
+    }
+
+    private static boolean compareCount(String name, String what, long value, long base) {
+        if (value > base) {
+            System.out.println(String.format("%s: REGRESSION %d %s, baseline %d",
+                    name, value, what, base));
+            return false;
+        }
+        if (value < base) {
+            System.out.println(String.format("%s: %d %s, baseline %d, consider updating it",
+                    name, value, what, base));
+        }
+        return true;
+    }
+
+    private static long total(Map<String, Long> counts) {
+        long total = 0;
+        for (Long count : counts.values()) {
+            total += count;
+        }
+        return total;
+    }
+
+    private static void write(File file, List<Result> results) throws IOException {
+        Map<String, Result> byName = new LinkedHashMap<String, Result>();
+        for (Result result : results) {
+            byName.put(result.name, result);
+        }
+        JsonObject root = new JsonObject();
+        root.addProperty("java", System.getProperty("java.version"));
+        root.add("scenarios", GSON.toJsonTree(byName));
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            GSON.toJson(root, writer);
+            writer.write('\n');
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static Map<String, Result> read(File file) throws IOException {
+        Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try {
+            JsonObject root = new JsonParser().parse(reader).getAsJsonObject();
+            Map<String, Result> results = new LinkedHashMap<String, Result>();
+            for (Map.Entry<String, JsonElement> entry : root.getAsJsonObject("scenarios")
+                    .entrySet()) {
+                Result result = GSON.fromJson(entry.getValue(), Result.class);
+                result.name = entry.getKey();
+                results.put(entry.getKey(), result);
+            }
+            return results;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    /**
+     * Numbers of a scenario, as stored in the baseline.
+     */
+    static class Result {
+        transient String name;
+        double wallMillis;
+        long allocatedBytes;
+        Map<String, Long> localCalls;
+        Map<String, Long> networkCalls;
+        long bytesIn;
+        long bytesOut;
+
+        Result(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: wall %.1f ms, allocated %d KB, local storage calls %d %s,"
+                    + " network calls %d %s, bytes in %d, bytes out %d", name, wallMillis,
+                    allocatedBytes / 1024, total(localCalls), localCalls,
+                    total(networkCalls), networkCalls, bytesIn, bytesOut);
+        }
+    }
+}
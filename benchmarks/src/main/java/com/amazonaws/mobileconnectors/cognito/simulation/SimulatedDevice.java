@@ -0,0 +1,187 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito.simulation;
+
+import com.amazonaws.auth.CognitoCredentialsProvider;
+import com.amazonaws.mobileconnectors.cognito.Dataset;
+import com.amazonaws.mobileconnectors.cognito.DatasetFactory;
+import com.amazonaws.mobileconnectors.cognito.Record;
+import com.amazonaws.mobileconnectors.cognito.SyncConflict;
+import com.amazonaws.mobileconnectors.cognito.exceptions.DataStorageException;
+import com.amazonaws.mobileconnectors.cognito.internal.storage.InMemoryLocalStorage;
+import com.amazonaws.mobileconnectors.cognito.internal.storage.RemoteDataStorage;
+import com.amazonaws.mobileconnectors.cognito.platform.JvmPlatform;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A device of the simulated user: its own local storage and
+ * {@link Dataset}, writing random keys and synchronizing after every
+ * few writes, then polling with syncs until the simulation converges.
+ * Conflicts are resolved with the remote record.
+ */
+class SimulatedDevice {
+
+    private static final long SYNC_TIMEOUT_SECONDS = 60;
+
+    private final int index;
+    private final SyncSimulation.Config config;
+    private final VirtualScheduler scheduler;
+    private final SimulationStats stats;
+    private final VirtualScheduler.Actor actor;
+    private final Random random;
+    private final InMemoryLocalStorage local = new InMemoryLocalStorage();
+    private final Dataset dataset;
+
+    private volatile boolean writing = true;
+    private long lastWriteTime;
+
+    SimulatedDevice(int index, SyncSimulation.Config config, VirtualScheduler scheduler,
+            RemoteDataStorage shared, CognitoCredentialsProvider provider,
+            SimulationStats stats) {
+        this.index = index;
+        this.config = config;
+        this.scheduler = scheduler;
+        this.stats = stats;
+        this.actor = new VirtualScheduler.Actor("device" + index);
+        this.random = new Random(config.seed * 31 + index);
+        RemoteDataStorage remote = new SimulatedRemoteDataStorage(shared, scheduler, actor,
+                new Random(config.seed * 17 + index), config.latencyMillis, stats);
+        dataset = DatasetFactory.openOrCreateDataset(new JvmPlatform(),
+                SyncSimulation.DATASET_NAME, provider, local, remote);
+    }
+
+    /**
+     * Starts the device at a random time within the first think time.
+     *
+     * @param simulation the simulation, to know when to stop
+     */
+    void start(final SyncSimulation simulation) {
+        scheduler.start(actor, nextThinkTime(), new Runnable() {
+            @Override
+            public void run() {
+                SimulatedDevice.this.run(simulation);
+            }
+        });
+    }
+
+    private void run(SyncSimulation simulation) {
+        for (int i = 0; i < config.writesPerDevice; i++) {
+            if (i > 0) {
+                scheduler.sleep(actor, nextThinkTime());
+            }
+            String key = "key" + random.nextInt(config.keyCount);
+            dataset.put(key, "device" + index + "-" + i);
+            stats.writes++;
+            lastWriteTime = scheduler.now();
+            if ((i + 1) % config.writesPerSync == 0 || i + 1 == config.writesPerDevice) {
+                sync();
+            }
+        }
+        writing = false;
+        while (!simulation.isConverged()) {
+            scheduler.sleep(actor, config.pollIntervalMillis);
+            if (!simulation.isConverged()) {
+                sync();
+            }
+        }
+    }
+
+    /**
+     * Think time between writes, exponentially distributed around the
+     * configured write rate.
+     */
+    private long nextThinkTime() {
+        double mean = 60000.0 / config.writesPerMinute;
+        return (long) (-mean * Math.log(1 - random.nextDouble()));
+    }
+
+    private void sync() {
+        stats.syncs++;
+        final CountDownLatch done = new CountDownLatch(1);
+        dataset.synchronize(new Dataset.SyncCallback() {
+            @Override
+            public void onSuccess(Dataset dataset, List<Record> updatedRecords) {
+                done.countDown();
+            }
+
+            @Override
+            public boolean onConflict(Dataset dataset, List<SyncConflict> conflicts) {
+                stats.recordConflicts += conflicts.size();
+                List<Record> resolved = new ArrayList<Record>(conflicts.size());
+                for (SyncConflict conflict : conflicts) {
+                    resolved.add(conflict.resolveWithRemoteRecord());
+                }
+                dataset.resolve(resolved);
+                return true;
+            }
+
+            @Override
+            public boolean onDatasetDeleted(Dataset dataset, String datasetName) {
+                return true;
+            }
+
+            @Override
+            public boolean onDatasetsMerged(Dataset dataset, List<String> datasetNames) {
+                return true;
+            }
+
+            @Override
+            public void onFailure(DataStorageException dse) {
+                stats.failedSyncs++;
+                done.countDown();
+            }
+        });
+        try {
+            // the sync thread has the turn until it calls back
+            if (!done.await(SYNC_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                throw new IllegalStateException(actor + " sync timed out");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(actor + " interrupted", e);
+        }
+    }
+
+    /**
+     * @return true once the device made all its writes
+     */
+    boolean isDoneWriting() {
+        return !writing;
+    }
+
+    long getLastWriteTime() {
+        return lastWriteTime;
+    }
+
+    /**
+     * @param remoteValues values of the shared dataset
+     * @return true if the device has no local change and the same values
+     */
+    boolean isConsistentWith(Map<String, String> remoteValues) {
+        return local.getModifiedRecords(SyncSimulation.IDENTITY_ID, SyncSimulation.DATASET_NAME)
+                .isEmpty()
+                && local.getValueMap(SyncSimulation.IDENTITY_ID, SyncSimulation.DATASET_NAME)
+                        .equals(remoteValues);
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito.simulation;
+
+import com.amazonaws.mobileconnectors.cognito.DatasetMetadata;
+import com.amazonaws.mobileconnectors.cognito.Record;
+import com.amazonaws.mobileconnectors.cognito.exceptions.DataConflictException;
+import com.amazonaws.mobileconnectors.cognito.exceptions.DataStorageException;
+import com.amazonaws.mobileconnectors.cognito.exceptions.DatasetNotFoundException;
+import com.amazonaws.mobileconnectors.cognito.internal.storage.RemoteDataStorage;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The view of the shared remote storage from one device. Every call is a
+ * round trip of the configured latency in virtual time, half before the call
+ * reaches the shared storage and half after, so that other devices can act in
+ * between. Calls are counted in the {@link SimulationStats}.
+ */
+class SimulatedRemoteDataStorage implements RemoteDataStorage {
+
+    private final RemoteDataStorage shared;
+    private final VirtualScheduler scheduler;
+    private final VirtualScheduler.Actor device;
+    private final Random random;
+    private final long latencyMillis;
+    private final SimulationStats stats;
+
+    /**
+     * Sync count returned by the last listUpdates of each dataset.
+     */
+    private final Map<String, Long> listedSyncCounts = new HashMap<String, Long>();
+
+    SimulatedRemoteDataStorage(RemoteDataStorage shared, VirtualScheduler scheduler,
+            VirtualScheduler.Actor device, Random random, long latencyMillis,
+            SimulationStats stats) {
+        this.shared = shared;
+        this.scheduler = scheduler;
+        this.device = device;
+        this.random = random;
+        this.latencyMillis = latencyMillis;
+        this.stats = stats;
+    }
+
+    /**
+     * Waits for half a round trip, with a jitter of +/- 50%.
+     */
+    private void halfRoundTrip() {
+        long half = latencyMillis / 2;
+        scheduler.sleep(device, half / 2 + (long) (random.nextDouble() * half));
+    }
+
+    @Override
+    public List<DatasetMetadata> getDatasets() throws DataStorageException {
+        halfRoundTrip();
+        stats.roundTrips++;
+        try {
+            return shared.getDatasets();
+        } finally {
+            halfRoundTrip();
+        }
+    }
+
+    @Override
+    public DatasetMetadata getDatasetMetadata(String datasetName) throws DataStorageException {
+        halfRoundTrip();
+        stats.roundTrips++;
+        try {
+            return shared.getDatasetMetadata(datasetName);
+        } finally {
+            halfRoundTrip();
+        }
+    }
+
+    @Override
+    public DatasetUpdates listUpdates(String datasetName, long lastSyncCount)
+            throws DataStorageException {
+        halfRoundTrip();
+        stats.roundTrips++;
+        try {
+            DatasetUpdates updates = shared.listUpdates(datasetName, lastSyncCount);
+            stats.recordsPulled += updates.getRecords().size();
+            listedSyncCounts.put(datasetName, updates.getSyncCount());
+            return updates;
+        } finally {
+            halfRoundTrip();
+        }
+    }
+
+    @Override
+    public List<Record> putRecords(String datasetName, List<Record> records,
+            String syncSessionToken, String deviceId)
+            throws DatasetNotFoundException, DataConflictException {
+        halfRoundTrip();
+        stats.roundTrips++;
+        stats.pushes++;
+        stats.recordsPushed += records.size();
+        try {
+            List<Record> result = shared.putRecords(datasetName, records, syncSessionToken,
+                    deviceId);
+            long newSyncCount = 0;
+            for (Record record : result) {
+                newSyncCount = Math.max(newSyncCount, record.getSyncCount());
+            }
+            Long listed = listedSyncCounts.get(datasetName);
+            if (listed == null || newSyncCount != listed + 1) {
+                // the dataset moved in between, the device keeps its old
+                // sync count and pulls its own records again next time
+                stats.pushesNotAdvancingSyncCount++;
+            }
+            return result;
+        } catch (DataConflictException e) {
+            // the push and the listing it was based on are lost
+            stats.pushConflicts++;
+            stats.wastedRoundTrips += 2;
+            throw e;
+        } finally {
+            halfRoundTrip();
+        }
+    }
+
+    @Override
+    public void deleteDataset(String datasetName) throws DatasetNotFoundException {
+        halfRoundTrip();
+        stats.roundTrips++;
+        try {
+            shared.deleteDataset(datasetName);
+        } finally {
+            halfRoundTrip();
+        }
+    }
+
+    @Override
+    public void unsubscribeFromDataset(String datasetName, String deviceId) {
+        shared.unsubscribeFromDataset(datasetName, deviceId);
+    }
+
+    @Override
+    public void subscribeToDataset(String datasetName, String deviceId) {
+        shared.subscribeToDataset(datasetName, deviceId);
+    }
+}
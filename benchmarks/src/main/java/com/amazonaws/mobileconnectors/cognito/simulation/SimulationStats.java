@@ -0,0 +1,36 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito.simulation;
+
+/**
+ * Counters of a simulation run. They are only updated by the actor that has
+ * the turn, so they need no synchronization.
+ */
+class SimulationStats {
+    long writes;
+    long syncs;
+    long failedSyncs;
+    long roundTrips;
+    long wastedRoundTrips;
+    long pushes;
+    long pushConflicts;
+    long pushesNotAdvancingSyncCount;
+    long recordConflicts;
+    long recordsPushed;
+    long recordsPulled;
+}
@@ -0,0 +1,475 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito.simulation;
+
+import com.amazonaws.auth.AWSSessionCredentials;
+import com.amazonaws.auth.BasicSessionCredentials;
+import com.amazonaws.auth.CognitoCredentialsProvider;
+import com.amazonaws.mobileconnectors.cognito.Record;
+import com.amazonaws.mobileconnectors.cognito.internal.storage.RemoteDataStorage;
+import com.amazonaws.mobileconnectors.cognito.internal.util.Log;
+import com.amazonaws.mobileconnectors.cognito.platform.Logger;
+import com.amazonaws.mobileconnectors.cognito.standin.BackendRemoteDataStorage;
+import com.amazonaws.mobileconnectors.cognito.standin.SyncBackend;
+import com.amazonaws.regions.Regions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A deterministic simulation of several devices of one user writing to the
+ * same dataset and synchronizing through a shared in-memory
+ * {@link SyncBackend}. Devices run the real {@link com.amazonaws.mobileconnectors.cognito.DefaultDataset}
+ * sync, one at a time in virtual time, with network round trips as the only
+ * points where they interleave. A run only depends on its {@link Config}, seed
+ * included, so a result can be replayed.
+ * <p>
+ * A run ends when every device made its writes and all of them hold the
+ * remote values without local changes. It reports the virtual time from the
+ * last write to convergence, the round trips, those wasted by conflicts on
+ * push, and the conflicts seen by the devices.
+ * <p>
+ * {@link #main(String[])} sweeps device counts and write rates.
+ */
+public class SyncSimulation {
+
+    static final String IDENTITY_ID = "us-east-1:00000000-0000-0000-0000-000000000002";
+    static final String DATASET_NAME = "shared";
+
+    /**
+     * Parameters of a run.
+     */
+    public static final class Config {
+        final int deviceCount;
+        final int writesPerDevice;
+        final double writesPerMinute;
+        final int writesPerSync;
+        final int keyCount;
+        final long latencyMillis;
+        final long pollIntervalMillis;
+        final long maxVirtualMillis;
+        final long seed;
+
+        private Config(Builder builder) {
+            this.deviceCount = builder.deviceCount;
+            this.writesPerDevice = builder.writesPerDevice;
+            this.writesPerMinute = builder.writesPerMinute;
+            this.writesPerSync = builder.writesPerSync;
+            this.keyCount = builder.keyCount;
+            this.latencyMillis = builder.latencyMillis;
+            this.pollIntervalMillis = builder.pollIntervalMillis;
+            this.maxVirtualMillis = builder.maxVirtualMillis;
+            this.seed = builder.seed;
+        }
+
+        /**
+         * Builder of {@link Config}.
+         */
+        public static final class Builder {
+            private int deviceCount = 4;
+            private int writesPerDevice = 20;
+            private double writesPerMinute = 6;
+            private int writesPerSync = 1;
+            private int keyCount = 50;
+            private long latencyMillis = 150;
+            private long pollIntervalMillis = 10000;
+            private long maxVirtualMillis = 6 * 60 * 60 * 1000L;
+            private long seed = 1;
+
+            /**
+             * @param deviceCount number of devices, 4 by default
+             */
+            public Builder deviceCount(int deviceCount) {
+                this.deviceCount = deviceCount;
+                return this;
+            }
+
+            /**
+             * @param writesPerDevice writes made by every device, 20 by
+             *            default
+             */
+            public Builder writesPerDevice(int writesPerDevice) {
+                this.writesPerDevice = writesPerDevice;
+                return this;
+            }
+
+            /**
+             * @param writesPerMinute mean write rate of a device, 6 by
+             *            default
+             */
+            public Builder writesPerMinute(double writesPerMinute) {
+                this.writesPerMinute = writesPerMinute;
+                return this;
+            }
+
+            /**
+             * @param writesPerSync writes between two syncs of a device, 1
+             *            by default
+             */
+            public Builder writesPerSync(int writesPerSync) {
+                this.writesPerSync = writesPerSync;
+                return this;
+            }
+
+            /**
+             * @param keyCount number of distinct keys written, 50 by default
+             */
+            public Builder keyCount(int keyCount) {
+                this.keyCount = keyCount;
+                return this;
+            }
+
+            /**
+             * @param latencyMillis mean round trip time, 150 ms by default
+             */
+            public Builder latencyMillis(long latencyMillis) {
+                this.latencyMillis = latencyMillis;
+                return this;
+            }
+
+            /**
+             * @param pollIntervalMillis time between syncs of a device once
+             *            it's done writing, 10 s by default
+             */
+            public Builder pollIntervalMillis(long pollIntervalMillis) {
+                this.pollIntervalMillis = pollIntervalMillis;
+                return this;
+            }
+
+            /**
+             * @param maxVirtualMillis virtual time after which a run that
+             *            didn't converge is stopped, 6 hours by default
+             */
+            public Builder maxVirtualMillis(long maxVirtualMillis) {
+                this.maxVirtualMillis = maxVirtualMillis;
+                return this;
+            }
+
+            /**
+             * @param seed seed of all random choices, 1 by default
+             */
+            public Builder seed(long seed) {
+                this.seed = seed;
+                return this;
+            }
+
+            public Config build() {
+                if (deviceCount < 1 || writesPerDevice < 1 || writesPerSync < 1 || keyCount < 1
+                        || writesPerMinute <= 0) {
+                    throw new IllegalArgumentException("invalid simulation parameters");
+                }
+                return new Config(this);
+            }
+        }
+    }
+
+    /**
+     * Outcome of a run.
+     */
+    public static final class Result {
+        private final Config config;
+        private final boolean converged;
+        private final long convergenceMillis;
+        private final long virtualMillis;
+        private final SimulationStats stats;
+
+        Result(Config config, boolean converged, long convergenceMillis, long virtualMillis,
+                SimulationStats stats) {
+            this.config = config;
+            this.converged = converged;
+            this.convergenceMillis = convergenceMillis;
+            this.virtualMillis = virtualMillis;
+            this.stats = stats;
+        }
+
+        /**
+         * @return true if the devices converged within the time limit
+         */
+        public boolean isConverged() {
+            return converged;
+        }
+
+        /**
+         * @return virtual time from the last write to convergence, -1 if the
+         *         run didn't converge
+         */
+        public long getConvergenceMillis() {
+            return convergenceMillis;
+        }
+
+        /**
+         * @return virtual duration of the run
+         */
+        public long getVirtualMillis() {
+            return virtualMillis;
+        }
+
+        public long getSyncs() {
+            return stats.syncs;
+        }
+
+        public long getFailedSyncs() {
+            return stats.failedSyncs;
+        }
+
+        public long getRoundTrips() {
+            return stats.roundTrips;
+        }
+
+        /**
+         * @return round trips of sync attempts lost to a conflict on push
+         */
+        public long getWastedRoundTrips() {
+            return stats.wastedRoundTrips;
+        }
+
+        /**
+         * @return share of pushes rejected with a conflict
+         */
+        public double getPushConflictRate() {
+            return stats.pushes == 0 ? 0 : (double) stats.pushConflicts / stats.pushes;
+        }
+
+        /**
+         * @return share of successful pushes after which the device couldn't
+         *         advance its sync count because the dataset moved in between
+         */
+        public double getStaleSyncCountRate() {
+            long succeeded = stats.pushes - stats.pushConflicts;
+            return succeeded == 0 ? 0 : (double) stats.pushesNotAdvancingSyncCount / succeeded;
+        }
+
+        /**
+         * @return records in conflict per write
+         */
+        public double getRecordConflictRate() {
+            return stats.writes == 0 ? 0 : (double) stats.recordConflicts / stats.writes;
+        }
+
+        /**
+         * @return records pulled per write, 1 per other device at best
+         */
+        public double getPullsPerWrite() {
+            return stats.writes == 0 ? 0 : (double) stats.recordsPulled / stats.writes;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("devices:[%d],writesPerMinute:[%s],seed:[%d],converged:[%s],"
+                    + "convergenceMillis:[%d],syncs:[%d],failedSyncs:[%d],roundTrips:[%d],"
+                    + "wastedRoundTrips:[%d],pushConflictRate:[%.3f],staleSyncCountRate:[%.3f],"
+                    + "recordConflictRate:[%.3f]", config.deviceCount, config.writesPerMinute,
+                    config.seed, converged, convergenceMillis, stats.syncs, stats.failedSyncs,
+                    stats.roundTrips, stats.wastedRoundTrips, getPushConflictRate(),
+                    getStaleSyncCountRate(), getRecordConflictRate());
+        }
+    }
+
+    private final Config config;
+    private final RemoteDataStorage shared;
+    private final List<SimulatedDevice> devices = new ArrayList<SimulatedDevice>();
+    private final SimulationStats stats = new SimulationStats();
+    private final VirtualScheduler scheduler;
+    private volatile boolean converged;
+    private long convergedAt = -1;
+
+    /**
+     * @param config parameters of the run
+     */
+    public SyncSimulation(Config config) {
+        this.config = config;
+        this.scheduler = new VirtualScheduler(config.seed);
+        this.shared = new BackendRemoteDataStorage(new SyncBackend(), IDENTITY_ID);
+        CognitoCredentialsProvider provider = new CognitoCredentialsProvider(
+                "us-east-1:00000000-0000-0000-0000-000000000000", Regions.US_EAST_1) {
+            @Override
+            public String getIdentityId() {
+                return IDENTITY_ID;
+            }
+
+            @Override
+            public AWSSessionCredentials getCredentials() {
+                return new BasicSessionCredentials("simulation", "simulation", "simulation");
+            }
+        };
+        for (int i = 0; i < config.deviceCount; i++) {
+            devices.add(new SimulatedDevice(i, config, scheduler, shared, provider, stats));
+        }
+    }
+
+    boolean isConverged() {
+        return converged;
+    }
+
+    /**
+     * Runs the simulation. Can be called once.
+     *
+     * @return the result
+     */
+    public Result run() {
+        for (SimulatedDevice device : devices) {
+            device.start(this);
+        }
+        scheduler.run(new VirtualScheduler.StepListener() {
+            @Override
+            public void afterStep(long now) {
+                if (!converged && checkConverged()) {
+                    converged = true;
+                    convergedAt = now;
+                }
+            }
+        }, config.maxVirtualMillis);
+        long lastWrite = 0;
+        for (SimulatedDevice device : devices) {
+            lastWrite = Math.max(lastWrite, device.getLastWriteTime());
+        }
+        return new Result(config, converged, converged ? convergedAt - lastWrite : -1,
+                scheduler.now(), stats);
+    }
+
+    private boolean checkConverged() {
+        for (SimulatedDevice device : devices) {
+            if (!device.isDoneWriting()) {
+                return false;
+            }
+        }
+        Map<String, String> remoteValues = new HashMap<String, String>();
+        for (Record record : shared.listUpdates(DATASET_NAME, 0).getRecords()) {
+            if (record.getValue() != null) {
+                remoteValues.put(record.getKey(), record.getValue());
+            }
+        }
+        for (SimulatedDevice device : devices) {
+            if (!device.isConsistentWith(remoteValues)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sweeps device counts and write rates and prints medians over seeds.
+     * Options: --devices 2,4,8,16 --rates 1,6,30 --seeds 5 --writes 20
+     * --keys 50 --latency 150 --poll 10000.
+     */
+    public static void main(String[] args) {
+        int[] deviceCounts = {
+                2, 4, 8, 16
+        };
+        double[] rates = {
+                1, 6, 30
+        };
+        int seeds = 5;
+        Config.Builder base = new Config.Builder();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            if ("--devices".equals(args[i])) {
+                deviceCounts = parseInts(value);
+            } else if ("--rates".equals(args[i])) {
+                int[] parsed = parseInts(value);
+                rates = new double[parsed.length];
+                for (int j = 0; j < parsed.length; j++) {
+                    rates[j] = parsed[j];
+                }
+            } else if ("--seeds".equals(args[i])) {
+                seeds = Integer.parseInt(value);
+            } else if ("--writes".equals(args[i])) {
+                base.writesPerDevice(Integer.parseInt(value));
+            } else if ("--keys".equals(args[i])) {
+                base.keyCount(Integer.parseInt(value));
+            } else if ("--latency".equals(args[i])) {
+                base.latencyMillis(Long.parseLong(value));
+            } else if ("--poll".equals(args[i])) {
+                base.pollIntervalMillis(Long.parseLong(value));
+            } else {
+                throw new IllegalArgumentException("unknown option " + args[i]);
+            }
+        }
+        Log.setLogger(new Logger() {
+            @Override
+            public void log(Level level, String tag, String message, Throwable t) {
+            }
+        });
+
+        System.out.println("devices  writes/min  converged  convergence ms  round trips"
+                + "  wasted  push conflicts  stale sync count  record conflicts/write");
+        for (int deviceCount : deviceCounts) {
+            for (double rate : rates) {
+                List<Result> results = new ArrayList<Result>();
+                for (int seed = 1; seed <= seeds; seed++) {
+                    results.add(new SyncSimulation(base.deviceCount(deviceCount)
+                            .writesPerMinute(rate).seed(seed).build()).run());
+                }
+                printRow(deviceCount, rate, results);
+            }
+        }
+    }
+
+    private static void printRow(int deviceCount, double rate, List<Result> results) {
+        int converged = 0;
+        long[] convergence = new long[results.size()];
+        long[] roundTrips = new long[results.size()];
+        long[] wasted = new long[results.size()];
+        double[] pushConflicts = new double[results.size()];
+        double[] stale = new double[results.size()];
+        double[] recordConflicts = new double[results.size()];
+        for (int i = 0; i < results.size(); i++) {
+            Result result = results.get(i);
+            if (result.isConverged()) {
+                converged++;
+            }
+            convergence[i] = result.isConverged() ? result.getConvergenceMillis()
+                    : Long.MAX_VALUE;
+            roundTrips[i] = result.getRoundTrips();
+            wasted[i] = result.getWastedRoundTrips();
+            pushConflicts[i] = result.getPushConflictRate();
+            stale[i] = result.getStaleSyncCountRate();
+            recordConflicts[i] = result.getRecordConflictRate();
+        }
+        long medianConvergence = median(convergence);
+        System.out.println(String.format("%7d  %10.0f  %9s  %14s  %11d  %6d  %14.3f  %16.3f  %22.3f",
+                deviceCount, rate, converged + "/" + results.size(),
+                medianConvergence == Long.MAX_VALUE ? "never" : String.valueOf(medianConvergence),
+                median(roundTrips), median(wasted), median(pushConflicts), median(stale),
+                median(recordConflicts)));
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static int[] parseInts(String value) {
+        String[] parts = value.split(",");
+        int[] ints = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            ints[i] = Integer.parseInt(parts[i].trim());
+        }
+        return ints;
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito.simulation;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs actors, each on its own thread, one at a time in virtual time. An
+ * actor runs until it calls {@link #sleep(Actor, long)}, which hands control
+ * back to the scheduler; the scheduler then wakes up the actor with the
+ * earliest wake up time and moves the clock to it. Ties are broken with a
+ * seeded random, so a run only depends on the seed and the actors' code.
+ * <p>
+ * An actor can hand its turn to another thread and wait for it, as long as
+ * exactly one of them runs at a time; this is how a sync thread started by
+ * {@link com.amazonaws.mobileconnectors.cognito.Dataset#synchronize} runs on
+ * behalf of its device.
+ */
+class VirtualScheduler {
+
+    /**
+     * A participant of the simulation.
+     */
+    static class Actor {
+        private final String name;
+        private final Semaphore turn = new Semaphore(0);
+
+        Actor(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static final class Wakeup implements Comparable<Wakeup> {
+        final long time;
+        final long tieBreak;
+        final Actor actor;
+
+        Wakeup(long time, long tieBreak, Actor actor) {
+            this.time = time;
+            this.tieBreak = tieBreak;
+            this.actor = actor;
+        }
+
+        @Override
+        public int compareTo(Wakeup other) {
+            if (time != other.time) {
+                return time < other.time ? -1 : 1;
+            }
+            return tieBreak < other.tieBreak ? -1 : tieBreak == other.tieBreak ? 0 : 1;
+        }
+    }
+
+    /**
+     * Called by the scheduler after every step, while no actor runs.
+     */
+    interface StepListener {
+        void afterStep(long now);
+    }
+
+    private final PriorityQueue<Wakeup> queue = new PriorityQueue<Wakeup>();
+    private final Semaphore schedulerTurn = new Semaphore(0);
+    private final Random random;
+    private volatile long now;
+    private volatile Throwable failure;
+
+    VirtualScheduler(long seed) {
+        random = new Random(seed);
+    }
+
+    /**
+     * @return current virtual time in milliseconds
+     */
+    long now() {
+        return now;
+    }
+
+    /**
+     * Starts an actor on a new thread. It first runs at the given time.
+     *
+     * @param actor the actor
+     * @param startTime virtual time of its first step
+     * @param body code of the actor
+     */
+    void start(final Actor actor, long startTime, final Runnable body) {
+        schedule(actor, startTime);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                actor.turn.acquireUninterruptibly();
+                try {
+                    body.run();
+                } catch (Throwable t) {
+                    failure = t;
+                } finally {
+                    schedulerTurn.release();
+                }
+            }
+        }, actor.name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Suspends the calling actor for some virtual time. Must be called by
+     * the thread that holds the actor's turn.
+     *
+     * @param actor the calling actor
+     * @param millis virtual time to sleep
+     */
+    void sleep(Actor actor, long millis) {
+        schedule(actor, now + Math.max(0, millis));
+        schedulerTurn.release();
+        actor.turn.acquireUninterruptibly();
+    }
+
+    private void schedule(Actor actor, long time) {
+        queue.add(new Wakeup(time, random.nextLong(), actor));
+    }
+
+    /**
+     * Runs actors until none is left or the virtual time runs out.
+     *
+     * @param listener called after every step
+     * @param maxTime virtual time limit, actors left are abandoned
+     * @return false if the time ran out
+     */
+    boolean run(StepListener listener, long maxTime) {
+        while (!queue.isEmpty()) {
+            Wakeup wakeup = queue.poll();
+            if (wakeup.time > maxTime) {
+                return false;
+            }
+            now = wakeup.time;
+            wakeup.actor.turn.release();
+            schedulerTurn.acquireUninterruptibly();
+            if (failure != null) {
+                throw new IllegalStateException("actor failed", failure);
+            }
+            listener.afterStep(now);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,231 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito.standin;
+
+import com.amazonaws.mobileconnectors.cognito.DatasetMetadata;
+import com.amazonaws.mobileconnectors.cognito.Record;
+import com.amazonaws.mobileconnectors.cognito.exceptions.DataConflictException;
+import com.amazonaws.mobileconnectors.cognito.exceptions.DataLimitExceededException;
+import com.amazonaws.mobileconnectors.cognito.exceptions.DataStorageException;
+import com.amazonaws.mobileconnectors.cognito.exceptions.DatasetNotFoundException;
+import com.amazonaws.mobileconnectors.cognito.internal.storage.RemoteDataStorage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A {@link RemoteDataStorage} that calls a {@link SyncBackend} directly,
+ * without HTTP nor marshalling. Service errors are turned into the exceptions
+ * {@link com.amazonaws.mobileconnectors.cognito.internal.storage.CognitoSyncStorage}
+ * throws for them. Push subscriptions are ignored.
+ */
+public class BackendRemoteDataStorage implements RemoteDataStorage {
+
+    private final SyncBackend backend;
+    private final String identityId;
+
+    /**
+     * @param backend the backend
+     * @param identityId identity the datasets belong to
+     */
+    public BackendRemoteDataStorage(SyncBackend backend, String identityId) {
+        this.backend = backend;
+        this.identityId = identityId;
+    }
+
+    @Override
+    public List<DatasetMetadata> getDatasets() throws DataStorageException {
+        List<DatasetMetadata> datasets = new ArrayList<DatasetMetadata>();
+        String nextToken = null;
+        do {
+            SyncBackend.DatasetsPage page;
+            try {
+                page = backend.listDatasets(identityId, 0, nextToken);
+            } catch (SyncBackend.ServiceError e) {
+                throw toException(e, "Failed to list dataset metadata");
+            }
+            for (SyncBackend.DatasetInfo info : page.datasets) {
+                datasets.add(toMetadata(info));
+            }
+            nextToken = page.nextToken;
+        } while (nextToken != null);
+        return datasets;
+    }
+
+    @Override
+    public DatasetMetadata getDatasetMetadata(String datasetName) throws DataStorageException {
+        try {
+            return toMetadata(backend.describeDataset(identityId, datasetName));
+        } catch (SyncBackend.ServiceError e) {
+            throw toException(e, "Failed to get metadata of dataset: " + datasetName);
+        }
+    }
+
+    @Override
+    public DatasetUpdates listUpdates(String datasetName, long lastSyncCount)
+            throws DataStorageException {
+        List<Record> records = new ArrayList<Record>();
+        SyncBackend.RecordsPage page;
+        String nextToken = null;
+        int pageCount = 0;
+        do {
+            try {
+                page = backend.listRecords(identityId, datasetName, lastSyncCount, 0, nextToken);
+            } catch (SyncBackend.ServiceError e) {
+                throw toException(e, "Failed to list records in dataset: " + datasetName);
+            }
+            for (SyncBackend.StoredRecord record : page.records) {
+                records.add(toRecord(record));
+            }
+            nextToken = page.nextToken;
+            pageCount++;
+        } while (nextToken != null);
+        return new Updates(datasetName, records, page, pageCount);
+    }
+
+    @Override
+    public List<Record> putRecords(String datasetName, List<Record> records,
+            String syncSessionToken, String deviceId)
+            throws DatasetNotFoundException, DataConflictException {
+        List<SyncBackend.Patch> patches = new ArrayList<SyncBackend.Patch>(records.size());
+        for (Record record : records) {
+            patches.add(new SyncBackend.Patch(record.getKey(), record.getValue(),
+                    record.getSyncCount(), record.getDeviceLastModifiedTime()));
+        }
+        List<SyncBackend.StoredRecord> updated;
+        try {
+            updated = backend.updateRecords(identityId, datasetName, syncSessionToken, deviceId,
+                    patches);
+        } catch (SyncBackend.ServiceError e) {
+            throw toException(e, "Failed to update records in dataset: " + datasetName);
+        }
+        List<Record> result = new ArrayList<Record>(updated.size());
+        for (SyncBackend.StoredRecord record : updated) {
+            result.add(toRecord(record));
+        }
+        return result;
+    }
+
+    @Override
+    public void deleteDataset(String datasetName) throws DatasetNotFoundException {
+        try {
+            backend.deleteDataset(identityId, datasetName);
+        } catch (SyncBackend.ServiceError e) {
+            throw toException(e, "Failed to delete dataset: " + datasetName);
+        }
+    }
+
+    @Override
+    public void subscribeToDataset(String datasetName, String deviceId) {
+    }
+
+    @Override
+    public void unsubscribeFromDataset(String datasetName, String deviceId) {
+    }
+
+    private static DataStorageException toException(SyncBackend.ServiceError e,
+            String message) {
+        String type = e.getErrorType();
+        if ("ResourceNotFoundException".equals(type)) {
+            return new DatasetNotFoundException(message);
+        } else if ("ResourceConflictException".equals(type)) {
+            return new DataConflictException(message);
+        } else if ("LimitExceededException".equals(type)) {
+            return new DataLimitExceededException(message);
+        } else {
+            return new DataStorageException(message, e);
+        }
+    }
+
+    private static Record toRecord(SyncBackend.StoredRecord record) {
+        return new Record.Builder(record.key)
+                .value(record.value)
+                .syncCount(record.syncCount)
+                .lastModifiedBy(record.lastModifiedBy)
+                .lastModifiedTime(record.lastModifiedMillis)
+                .deviceLastModifiedTime(record.deviceLastModifiedMillis)
+                .modified(false)
+                .build();
+    }
+
+    private static DatasetMetadata toMetadata(SyncBackend.DatasetInfo info) {
+        return new DatasetMetadata.Builder(info.name)
+                .creationTime(info.creationMillis)
+                .lastModifiedTime(info.lastModifiedMillis)
+                .lastModifiedBy(info.lastModifiedBy)
+                .storageSizeBytes(info.storageBytes)
+                .recordCount(info.recordCount)
+                .build();
+    }
+
+    private static class Updates implements DatasetUpdates {
+        private final String datasetName;
+        private final List<Record> records;
+        private final SyncBackend.RecordsPage lastPage;
+        private final int pageCount;
+
+        Updates(String datasetName, List<Record> records, SyncBackend.RecordsPage lastPage,
+                int pageCount) {
+            this.datasetName = datasetName;
+            this.records = records;
+            this.lastPage = lastPage;
+            this.pageCount = pageCount;
+        }
+
+        @Override
+        public String getDatasetName() {
+            return datasetName;
+        }
+
+        @Override
+        public List<Record> getRecords() {
+            return records;
+        }
+
+        @Override
+        public long getSyncCount() {
+            return lastPage.datasetSyncCount;
+        }
+
+        @Override
+        public String getSyncSessionToken() {
+            return lastPage.syncSessionToken;
+        }
+
+        @Override
+        public boolean isExists() {
+            return lastPage.exists;
+        }
+
+        @Override
+        public boolean isDeleted() {
+            return lastPage.deletedAfterRequestedSyncCount;
+        }
+
+        @Override
+        public List<String> getMergedDatasetNameList() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public int getPageCount() {
+            return pageCount;
+        }
+    }
+}
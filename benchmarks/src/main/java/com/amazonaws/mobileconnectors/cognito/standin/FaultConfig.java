@@ -0,0 +1,207 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito.standin;
+
+/**
+ * Latency, throttling and fault injection of a {@link SyncServiceStandIn}.
+ * Probabilities are evaluated independently on every request, with a seeded
+ * random so that a scenario is repeatable. The default injects nothing.
+ */
+public final class FaultConfig {
+
+    /**
+     * A config that adds no latency and injects no faults.
+     */
+    public static final FaultConfig NONE = new Builder().build();
+
+    private final long latencyMillis;
+    private final long latencyJitterMillis;
+    private final double throttleProbability;
+    private final int maxRequestsPerSecond;
+    private final double errorProbability;
+    private final double dropProbability;
+    private final long seed;
+
+    private FaultConfig(Builder builder) {
+        this.latencyMillis = builder.latencyMillis;
+        this.latencyJitterMillis = builder.latencyJitterMillis;
+        this.throttleProbability = builder.throttleProbability;
+        this.maxRequestsPerSecond = builder.maxRequestsPerSecond;
+        this.errorProbability = builder.errorProbability;
+        this.dropProbability = builder.dropProbability;
+        this.seed = builder.seed;
+    }
+
+    /**
+     * @return latency added to every request
+     */
+    public long getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    /**
+     * @return upper bound of the random latency added on top
+     */
+    public long getLatencyJitterMillis() {
+        return latencyJitterMillis;
+    }
+
+    /**
+     * @return probability of a request being throttled
+     */
+    public double getThrottleProbability() {
+        return throttleProbability;
+    }
+
+    /**
+     * @return requests per second above which requests are throttled, 0 if
+     *         unlimited
+     */
+    public int getMaxRequestsPerSecond() {
+        return maxRequestsPerSecond;
+    }
+
+    /**
+     * @return probability of a request failing with an internal error
+     */
+    public double getErrorProbability() {
+        return errorProbability;
+    }
+
+    /**
+     * @return probability of the connection being closed without a response
+     */
+    public double getDropProbability() {
+        return dropProbability;
+    }
+
+    /**
+     * @return seed of the random faults
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Builder of a {@link FaultConfig}.
+     */
+    public final static class Builder {
+        private long latencyMillis;
+        private long latencyJitterMillis;
+        private double throttleProbability;
+        private int maxRequestsPerSecond;
+        private double errorProbability;
+        private double dropProbability;
+        private long seed = 42;
+
+        /**
+         * Sets the latency added to every request, and the upper bound of a
+         * uniformly random latency added on top. Default is none.
+         *
+         * @param latencyMillis fixed latency
+         * @param latencyJitterMillis random latency bound
+         * @return builder itself
+         */
+        public Builder latency(long latencyMillis, long latencyJitterMillis) {
+            if (latencyMillis < 0 || latencyJitterMillis < 0) {
+                throw new IllegalArgumentException("latency can't be negative");
+            }
+            this.latencyMillis = latencyMillis;
+            this.latencyJitterMillis = latencyJitterMillis;
+            return this;
+        }
+
+        /**
+         * Sets the probability of a request failing with
+         * TooManyRequestsException. Default is 0.
+         *
+         * @param probability between 0 and 1
+         * @return builder itself
+         */
+        public Builder throttleProbability(double probability) {
+            this.throttleProbability = checkProbability(probability);
+            return this;
+        }
+
+        /**
+         * Sets the request rate above which requests fail with
+         * TooManyRequestsException. Default is 0, unlimited.
+         *
+         * @param maxRequestsPerSecond requests per second
+         * @return builder itself
+         */
+        public Builder maxRequestsPerSecond(int maxRequestsPerSecond) {
+            if (maxRequestsPerSecond < 0) {
+                throw new IllegalArgumentException("rate can't be negative");
+            }
+            this.maxRequestsPerSecond = maxRequestsPerSecond;
+            return this;
+        }
+
+        /**
+         * Sets the probability of a request failing with
+         * InternalErrorException. Default is 0.
+         *
+         * @param probability between 0 and 1
+         * @return builder itself
+         */
+        public Builder errorProbability(double probability) {
+            this.errorProbability = checkProbability(probability);
+            return this;
+        }
+
+        /**
+         * Sets the probability of the connection being closed without a
+         * response, which the client sees as a network error. Default is 0.
+         *
+         * @param probability between 0 and 1
+         * @return builder itself
+         */
+        public Builder dropProbability(double probability) {
+            this.dropProbability = checkProbability(probability);
+            return this;
+        }
+
+        /**
+         * Sets the seed of the random faults and latency. Default is 42.
+         *
+         * @param seed the seed
+         * @return builder itself
+         */
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        /**
+         * Builds a new {@link FaultConfig}.
+         *
+         * @return a new config
+         */
+        public FaultConfig build() {
+            return new FaultConfig(this);
+        }
+
+        private static double checkProbability(double probability) {
+            if (probability < 0 || probability > 1) {
+                throw new IllegalArgumentException("probability must be between 0 and 1");
+            }
+            return probability;
+        }
+    }
+}
@@ -0,0 +1,455 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito.standin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * In-memory model of the Cognito Sync service behind {@link SyncServiceStandIn}.
+ * It follows the service semantics the client relies on: every
+ * UpdateRecords bumps the dataset sync count and stamps the changed records
+ * with it, a patch is rejected with a conflict unless its sync count matches
+ * the record's, a sync session token is issued by ListRecords and consumed by
+ * UpdateRecords, and a deleted dataset is reported as deleted to clients that
+ * synced it before. All methods are thread safe.
+ */
+public class SyncBackend {
+
+    /**
+     * A record as stored by the service. A null value is a removed record.
+     */
+    public static final class StoredRecord {
+        final String key;
+        final String value;
+        final long syncCount;
+        final long lastModifiedMillis;
+        final String lastModifiedBy;
+        final long deviceLastModifiedMillis;
+
+        StoredRecord(String key, String value, long syncCount, long lastModifiedMillis,
+                String lastModifiedBy, long deviceLastModifiedMillis) {
+            this.key = key;
+            this.value = value;
+            this.syncCount = syncCount;
+            this.lastModifiedMillis = lastModifiedMillis;
+            this.lastModifiedBy = lastModifiedBy;
+            this.deviceLastModifiedMillis = deviceLastModifiedMillis;
+        }
+    }
+
+    /**
+     * A patch of UpdateRecords. A null value removes the record.
+     */
+    public static final class Patch {
+        final String key;
+        final String value;
+        final long syncCount;
+        final long deviceLastModifiedMillis;
+
+        public Patch(String key, String value, long syncCount, long deviceLastModifiedMillis) {
+            this.key = key;
+            this.value = value;
+            this.syncCount = syncCount;
+            this.deviceLastModifiedMillis = deviceLastModifiedMillis;
+        }
+    }
+
+    /**
+     * An error returned to the client, named after the service exception.
+     */
+    public static class ServiceError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        final int statusCode;
+        final String errorType;
+
+        public ServiceError(int statusCode, String errorType, String message) {
+            super(message);
+            this.statusCode = statusCode;
+            this.errorType = errorType;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        public String getErrorType() {
+            return errorType;
+        }
+    }
+
+    static final class Dataset {
+        final String name;
+        long creationMillis;
+        long lastModifiedMillis;
+        String lastModifiedBy;
+        long syncCount;
+        boolean deleted;
+        final TreeMap<String, StoredRecord> records = new TreeMap<String, StoredRecord>();
+
+        Dataset(String name) {
+            this.name = name;
+        }
+
+        long recordCount() {
+            long count = 0;
+            for (StoredRecord record : records.values()) {
+                if (record.value != null) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        long storageBytes() {
+            long bytes = 0;
+            for (StoredRecord record : records.values()) {
+                if (record.value != null) {
+                    bytes += utf8Length(record.key) + utf8Length(record.value);
+                }
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * A page of ListRecords.
+     */
+    public static final class RecordsPage {
+        final List<StoredRecord> records;
+        final String nextToken;
+        final long datasetSyncCount;
+        final boolean exists;
+        final boolean deletedAfterRequestedSyncCount;
+        final String syncSessionToken;
+        final String lastModifiedBy;
+
+        RecordsPage(List<StoredRecord> records, String nextToken, long datasetSyncCount,
+                boolean exists, boolean deletedAfterRequestedSyncCount, String syncSessionToken,
+                String lastModifiedBy) {
+            this.records = records;
+            this.nextToken = nextToken;
+            this.datasetSyncCount = datasetSyncCount;
+            this.exists = exists;
+            this.deletedAfterRequestedSyncCount = deletedAfterRequestedSyncCount;
+            this.syncSessionToken = syncSessionToken;
+            this.lastModifiedBy = lastModifiedBy;
+        }
+    }
+
+    /**
+     * Metadata of a dataset, as returned by ListDatasets and DescribeDataset.
+     */
+    public static final class DatasetInfo {
+        final String identityId;
+        final String name;
+        final long creationMillis;
+        final long lastModifiedMillis;
+        final String lastModifiedBy;
+        final long recordCount;
+        final long storageBytes;
+
+        DatasetInfo(String identityId, Dataset dataset) {
+            this.identityId = identityId;
+            this.name = dataset.name;
+            this.creationMillis = dataset.creationMillis;
+            this.lastModifiedMillis = dataset.lastModifiedMillis;
+            this.lastModifiedBy = dataset.lastModifiedBy;
+            this.recordCount = dataset.recordCount();
+            this.storageBytes = dataset.storageBytes();
+        }
+    }
+
+    /**
+     * A page of ListDatasets.
+     */
+    public static final class DatasetsPage {
+        final List<DatasetInfo> datasets;
+        final String nextToken;
+
+        DatasetsPage(List<DatasetInfo> datasets, String nextToken) {
+            this.datasets = datasets;
+            this.nextToken = nextToken;
+        }
+    }
+
+    /**
+     * Largest page size of ListRecords, as the service.
+     */
+    static final int MAX_RECORDS_PAGE = 1024;
+    /**
+     * Largest page size of ListDatasets, as the service.
+     */
+    static final int MAX_DATASETS_PAGE = 64;
+
+    private static final Comparator<StoredRecord> BY_SYNC_COUNT = new Comparator<StoredRecord>() {
+        @Override
+        public int compare(StoredRecord a, StoredRecord b) {
+            if (a.syncCount != b.syncCount) {
+                return a.syncCount < b.syncCount ? -1 : 1;
+            }
+            return a.key.compareTo(b.key);
+        }
+    };
+
+    /**
+     * Datasets by identity id, then by name.
+     */
+    private final Map<String, TreeMap<String, Dataset>> datasets = new HashMap<String, TreeMap<String, Dataset>>();
+    /**
+     * Dataset key of every outstanding sync session token.
+     */
+    private final Map<String, String> sessions = new HashMap<String, String>();
+
+    private static String datasetKey(String identityId, String datasetName) {
+        return identityId + "/" + datasetName;
+    }
+
+    private Dataset getDataset(String identityId, String datasetName) {
+        TreeMap<String, Dataset> byName = datasets.get(identityId);
+        return byName == null ? null : byName.get(datasetName);
+    }
+
+    /**
+     * Lists records changed after a sync count, oldest change first.
+     *
+     * @param identityId identity id
+     * @param datasetName dataset name
+     * @param lastSyncCount sync count the client has
+     * @param maxResults page size, capped at 1024
+     * @param nextToken token of the page to fetch, null for the first one
+     * @return a page of records
+     */
+    public synchronized RecordsPage listRecords(String identityId, String datasetName,
+            long lastSyncCount, int maxResults, String nextToken) {
+        Dataset dataset = getDataset(identityId, datasetName);
+        String token = UUID.randomUUID().toString();
+        sessions.put(token, datasetKey(identityId, datasetName));
+        if (dataset == null || dataset.deleted) {
+            boolean deletedAfter = dataset != null && lastSyncCount > 0;
+            return new RecordsPage(Collections.<StoredRecord> emptyList(), null,
+                    dataset == null ? 0 : dataset.syncCount, false, deletedAfter, token, null);
+        }
+        List<StoredRecord> changed = new ArrayList<StoredRecord>();
+        for (StoredRecord record : dataset.records.values()) {
+            if (record.syncCount > lastSyncCount) {
+                changed.add(record);
+            }
+        }
+        Collections.sort(changed, BY_SYNC_COUNT);
+        int offset = parseToken(nextToken);
+        int pageSize = Math.min(maxResults <= 0 ? MAX_RECORDS_PAGE : maxResults,
+                MAX_RECORDS_PAGE);
+        int end = Math.min(changed.size(), offset + pageSize);
+        String next = end < changed.size() ? String.valueOf(end) : null;
+        return new RecordsPage(new ArrayList<StoredRecord>(changed.subList(
+                Math.min(offset, end), end)), next, dataset.syncCount, true, false, token,
+                dataset.lastModifiedBy);
+    }
+
+    /**
+     * Applies patches atomically. The dataset is created if needed.
+     *
+     * @param identityId identity id
+     * @param datasetName dataset name
+     * @param syncSessionToken token returned by ListRecords
+     * @param deviceId device id, may be null
+     * @param patches patches to apply
+     * @return the updated records
+     * @throws ServiceError on an invalid token or a conflict
+     */
+    public synchronized List<StoredRecord> updateRecords(String identityId, String datasetName,
+            String syncSessionToken, String deviceId, List<Patch> patches) {
+        String key = datasetKey(identityId, datasetName);
+        if (syncSessionToken == null || !key.equals(sessions.remove(syncSessionToken))) {
+            throw new ServiceError(400, "InvalidParameterException",
+                    "invalid sync session token");
+        }
+        Dataset dataset = getDataset(identityId, datasetName);
+        for (Patch patch : patches) {
+            StoredRecord current = dataset == null || dataset.deleted ? null
+                    : dataset.records.get(patch.key);
+            long currentSyncCount = current == null ? 0 : current.syncCount;
+            if (patch.syncCount != currentSyncCount) {
+                throw new ServiceError(409, "ResourceConflictException",
+                        "Current SyncCount for: " + patch.key + " is: " + currentSyncCount
+                                + " not: " + patch.syncCount);
+            }
+        }
+        long now = System.currentTimeMillis();
+        if (dataset == null || dataset.deleted) {
+            TreeMap<String, Dataset> byName = datasets.get(identityId);
+            if (byName == null) {
+                byName = new TreeMap<String, Dataset>();
+                datasets.put(identityId, byName);
+            }
+            long syncCount = dataset == null ? 0 : dataset.syncCount;
+            dataset = new Dataset(datasetName);
+            dataset.creationMillis = now;
+            dataset.syncCount = syncCount;
+            byName.put(datasetName, dataset);
+        }
+        String modifiedBy = deviceId == null ? identityId : deviceId;
+        List<StoredRecord> updated = new ArrayList<StoredRecord>();
+        if (!patches.isEmpty()) {
+            dataset.syncCount++;
+            dataset.lastModifiedMillis = now;
+            dataset.lastModifiedBy = modifiedBy;
+            for (Patch patch : patches) {
+                StoredRecord record = new StoredRecord(patch.key, patch.value, dataset.syncCount,
+                        now, modifiedBy, patch.deviceLastModifiedMillis);
+                dataset.records.put(patch.key, record);
+                updated.add(record);
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * Lists datasets of an identity by name.
+     *
+     * @param identityId identity id
+     * @param maxResults page size, capped at 64
+     * @param nextToken token of the page to fetch, null for the first one
+     * @return a page of datasets
+     */
+    public synchronized DatasetsPage listDatasets(String identityId, int maxResults,
+            String nextToken) {
+        List<DatasetInfo> all = new ArrayList<DatasetInfo>();
+        TreeMap<String, Dataset> byName = datasets.get(identityId);
+        if (byName != null) {
+            for (Dataset dataset : byName.values()) {
+                if (!dataset.deleted) {
+                    all.add(new DatasetInfo(identityId, dataset));
+                }
+            }
+        }
+        int offset = parseToken(nextToken);
+        int pageSize = Math.min(maxResults <= 0 ? MAX_DATASETS_PAGE : maxResults,
+                MAX_DATASETS_PAGE);
+        int end = Math.min(all.size(), offset + pageSize);
+        String next = end < all.size() ? String.valueOf(end) : null;
+        return new DatasetsPage(new ArrayList<DatasetInfo>(all.subList(Math.min(offset, end),
+                end)), next);
+    }
+
+    /**
+     * Describes a dataset.
+     *
+     * @param identityId identity id
+     * @param datasetName dataset name
+     * @return metadata of the dataset
+     * @throws ServiceError if the dataset doesn't exist
+     */
+    public synchronized DatasetInfo describeDataset(String identityId, String datasetName) {
+        Dataset dataset = getDataset(identityId, datasetName);
+        if (dataset == null || dataset.deleted) {
+            throw new ServiceError(404, "ResourceNotFoundException",
+                    "Dataset " + datasetName + " not found");
+        }
+        return new DatasetInfo(identityId, dataset);
+    }
+
+    /**
+     * Deletes a dataset. Clients that synced it before see it as deleted on
+     * their next ListRecords.
+     *
+     * @param identityId identity id
+     * @param datasetName dataset name
+     * @return metadata of the dataset before deletion
+     * @throws ServiceError if the dataset doesn't exist
+     */
+    public synchronized DatasetInfo deleteDataset(String identityId, String datasetName) {
+        Dataset dataset = getDataset(identityId, datasetName);
+        if (dataset == null || dataset.deleted) {
+            throw new ServiceError(404, "ResourceNotFoundException",
+                    "Dataset " + datasetName + " not found");
+        }
+        DatasetInfo info = new DatasetInfo(identityId, dataset);
+        dataset.deleted = true;
+        dataset.records.clear();
+        dataset.lastModifiedMillis = System.currentTimeMillis();
+        return info;
+    }
+
+    /**
+     * Puts records directly, as if another device synced them. Handy to seed
+     * a scenario.
+     *
+     * @param identityId identity id
+     * @param datasetName dataset name
+     * @param values values by key, a null value removes the record
+     */
+    public synchronized void seed(String identityId, String datasetName,
+            Map<String, String> values) {
+        String token = listRecords(identityId, datasetName, 0, 1, null).syncSessionToken;
+        Dataset dataset = getDataset(identityId, datasetName);
+        List<Patch> patches = new ArrayList<Patch>();
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            StoredRecord current = dataset == null || dataset.deleted ? null
+                    : dataset.records.get(entry.getKey());
+            patches.add(new Patch(entry.getKey(), entry.getValue(),
+                    current == null ? 0 : current.syncCount, now));
+        }
+        updateRecords(identityId, datasetName, token, "seed", patches);
+    }
+
+    /**
+     * Drops all datasets and sessions.
+     */
+    public synchronized void clear() {
+        datasets.clear();
+        sessions.clear();
+    }
+
+    private static int parseToken(String token) {
+        if (token == null || token.isEmpty()) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(token));
+        } catch (NumberFormatException e) {
+            throw new ServiceError(400, "InvalidParameterException", "invalid next token");
+        }
+    }
+
+    static long utf8Length(String s) {
+        long length = 0;
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
@@ -0,0 +1,560 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito.standin;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process HTTP stand-in for the Cognito Sync service, so that
+ * AmazonCognitoSyncClient, CognitoSyncStorage and DefaultDataset can be
+ * exercised end to end without the real service. It serves the REST paths
+ * built by the request marshallers under
+ * /identitypools/{IdentityPoolId}/identities/{IdentityId}/datasets: ListRecords,
+ * UpdateRecords, ListDatasets, DescribeDataset and DeleteDataset, backed by a
+ * {@link SyncBackend}. Requests aren't authenticated, and latency, throttling
+ * and faults are injected as configured by a {@link FaultConfig}. Here is a
+ * sample usage:
+ *
+ * <pre>
+ * SyncServiceStandIn standIn = new SyncServiceStandIn(new SyncBackend(), FaultConfig.NONE);
+ * standIn.start();
+ * AmazonCognitoSyncClient client = new AmazonCognitoSyncClient(credentials);
+ * client.setEndpoint(standIn.getEndpoint());
+ * </pre>
+ */
+public class SyncServiceStandIn {
+
+    /**
+     * Names of the operations served, as counted by
+     * {@link #getRequestCount(String)}.
+     */
+    public static final String LIST_RECORDS = "ListRecords";
+    public static final String UPDATE_RECORDS = "UpdateRecords";
+    public static final String LIST_DATASETS = "ListDatasets";
+    public static final String DESCRIBE_DATASET = "DescribeDataset";
+    public static final String DELETE_DATASET = "DeleteDataset";
+
+    private static final String PREFIX = "/identitypools/";
+
+    private final SyncBackend backend;
+    private volatile FaultConfig faults;
+    private Random random;
+
+    private final ConcurrentHashMap<String, AtomicLong> requestCounts = new ConcurrentHashMap<String, AtomicLong>();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+
+    private long windowStartMillis;
+    private int windowCount;
+
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Constructs a stand-in.
+     *
+     * @param backend the model of the service
+     * @param faults latency and faults to inject
+     */
+    public SyncServiceStandIn(SyncBackend backend, FaultConfig faults) {
+        if (backend == null) {
+            throw new IllegalArgumentException("backend can't be null");
+        }
+        this.backend = backend;
+        setFaults(faults);
+    }
+
+    /**
+     * @return the model of the service
+     */
+    public SyncBackend getBackend() {
+        return backend;
+    }
+
+    /**
+     * Changes the injected latency and faults, e.g. between phases of a
+     * scenario. The random sequence restarts from the seed.
+     *
+     * @param faults latency and faults to inject
+     */
+    public synchronized void setFaults(FaultConfig faults) {
+        if (faults == null) {
+            throw new IllegalArgumentException("faults can't be null");
+        }
+        this.faults = faults;
+        this.random = new Random(faults.getSeed());
+    }
+
+    /**
+     * Starts serving on an ephemeral port of the loopback interface.
+     *
+     * @throws IOException if the server can't bind
+     */
+    public synchronized void start() throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("already started");
+        }
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "SyncServiceStandIn");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        server.setExecutor(executor);
+        server.createContext(PREFIX, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    SyncServiceStandIn.this.handle(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+    }
+
+    /**
+     * Stops serving.
+     */
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+            server = null;
+            executor = null;
+        }
+    }
+
+    /**
+     * @return the endpoint to set on the client, e.g. http://127.0.0.1:1234
+     */
+    public synchronized String getEndpoint() {
+        if (server == null) {
+            throw new IllegalStateException("not started");
+        }
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Gets the number of requests received for an operation, faulted ones
+     * included.
+     *
+     * @param operation operation name, e.g. {@link #LIST_RECORDS}
+     * @return number of requests
+     */
+    public long getRequestCount(String operation) {
+        AtomicLong count = requestCounts.get(operation);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * @return number of requests by operation name
+     */
+    public Map<String, Long> getRequestCounts() {
+        Map<String, Long> counts = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : requestCounts.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    /**
+     * @return bytes of request bodies received
+     */
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    /**
+     * @return bytes of response bodies sent
+     */
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+
+    /**
+     * Resets request and byte counters.
+     */
+    public void resetCounters() {
+        requestCounts.clear();
+        bytesIn.set(0);
+        bytesOut.set(0);
+    }
+
+    void handle(HttpExchange exchange) throws IOException {
+        byte[] body = readFully(exchange.getRequestBody());
+        bytesIn.addAndGet(body.length);
+
+        // /identitypools/{pool}/identities/{id}/datasets[/{name}[/records]]
+        String[] path = exchange.getRequestURI().getPath().substring(1).split("/");
+        String method = exchange.getRequestMethod();
+        String operation = null;
+        if (path.length == 5 && "identities".equals(path[2]) && "datasets".equals(path[4])) {
+            operation = "GET".equals(method) ? LIST_DATASETS : null;
+        } else if (path.length == 6 && "identities".equals(path[2])
+                && "datasets".equals(path[4])) {
+            if ("GET".equals(method)) {
+                operation = DESCRIBE_DATASET;
+            } else if ("POST".equals(method)) {
+                operation = UPDATE_RECORDS;
+            } else if ("DELETE".equals(method)) {
+                operation = DELETE_DATASET;
+            }
+        } else if (path.length == 7 && "identities".equals(path[2])
+                && "datasets".equals(path[4]) && "records".equals(path[6])
+                && "GET".equals(method)) {
+            operation = LIST_RECORDS;
+        }
+        if (operation == null) {
+            sendError(exchange, new SyncBackend.ServiceError(404, "UnknownOperationException",
+                    method + " " + exchange.getRequestURI().getPath()));
+            return;
+        }
+        countRequest(operation);
+
+        Fault fault = nextFault();
+        if (fault.latencyMillis > 0) {
+            try {
+                Thread.sleep(fault.latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        if (fault.drop) {
+            // closing without a response is seen as a network error
+            return;
+        }
+        if (fault.error != null) {
+            sendError(exchange, fault.error);
+            return;
+        }
+
+        String identityId = path[3];
+        Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+        try {
+            String response;
+            if (LIST_DATASETS.equals(operation)) {
+                response = listDatasets(identityId, query);
+            } else if (DESCRIBE_DATASET.equals(operation)) {
+                response = datasetResponse(backend.describeDataset(identityId, path[5]));
+            } else if (DELETE_DATASET.equals(operation)) {
+                response = datasetResponse(backend.deleteDataset(identityId, path[5]));
+            } else if (UPDATE_RECORDS.equals(operation)) {
+                response = updateRecords(identityId, path[5], new String(body, "UTF-8"));
+            } else {
+                response = listRecords(identityId, path[5], query);
+            }
+            send(exchange, 200, null, response);
+        } catch (SyncBackend.ServiceError e) {
+            sendError(exchange, e);
+        } catch (RuntimeException e) {
+            sendError(exchange, new SyncBackend.ServiceError(400, "InvalidParameterException",
+                    String.valueOf(e.getMessage())));
+        }
+    }
+
+    private String listRecords(String identityId, String datasetName, Map<String, String> query)
+            throws IOException {
+        SyncBackend.RecordsPage page = backend.listRecords(identityId, datasetName,
+                parseLong(query.get("lastSyncCount"), 0),
+                (int) parseLong(query.get("maxResults"), 0), query.get("nextToken"));
+        JsonBuilder json = new JsonBuilder();
+        JsonWriter w = json.writer;
+        w.beginObject();
+        w.name("Records").beginArray();
+        for (SyncBackend.StoredRecord record : page.records) {
+            writeRecord(w, record);
+        }
+        w.endArray();
+        if (page.nextToken != null) {
+            w.name("NextToken").value(page.nextToken);
+        }
+        w.name("Count").value(page.records.size());
+        w.name("DatasetSyncCount").value(page.datasetSyncCount);
+        if (page.lastModifiedBy != null) {
+            w.name("LastModifiedBy").value(page.lastModifiedBy);
+        }
+        w.name("MergedDatasetNames").beginArray().endArray();
+        w.name("DatasetExists").value(page.exists);
+        w.name("DatasetDeletedAfterRequestedSyncCount").value(
+                page.deletedAfterRequestedSyncCount);
+        w.name("SyncSessionToken").value(page.syncSessionToken);
+        w.endObject();
+        return json.toString();
+    }
+
+    private String updateRecords(String identityId, String datasetName, String body)
+            throws IOException {
+        JsonObject request = new JsonParser().parse(body).getAsJsonObject();
+        List<SyncBackend.Patch> patches = new ArrayList<SyncBackend.Patch>();
+        JsonElement patchesElement = request.get("RecordPatches");
+        if (patchesElement != null) {
+            JsonArray array = patchesElement.getAsJsonArray();
+            for (int i = 0; i < array.size(); i++) {
+                JsonObject patch = array.get(i).getAsJsonObject();
+                boolean remove = "remove".equalsIgnoreCase(getString(patch, "Op"));
+                JsonElement deviceDate = patch.get("DeviceLastModifiedDate");
+                patches.add(new SyncBackend.Patch(getString(patch, "Key"),
+                        remove ? null : getString(patch, "Value"),
+                        patch.has("SyncCount") ? patch.get("SyncCount").getAsLong() : 0,
+                        deviceDate == null ? System.currentTimeMillis()
+                                : (long) (deviceDate.getAsDouble() * 1000)));
+            }
+        }
+        List<SyncBackend.StoredRecord> updated = backend.updateRecords(identityId, datasetName,
+                getString(request, "SyncSessionToken"), getString(request, "DeviceId"),
+                patches);
+        JsonBuilder json = new JsonBuilder();
+        JsonWriter w = json.writer;
+        w.beginObject();
+        w.name("Records").beginArray();
+        for (SyncBackend.StoredRecord record : updated) {
+            writeRecord(w, record);
+        }
+        w.endArray();
+        w.endObject();
+        return json.toString();
+    }
+
+    private String listDatasets(String identityId, Map<String, String> query)
+            throws IOException {
+        SyncBackend.DatasetsPage page = backend.listDatasets(identityId,
+                (int) parseLong(query.get("maxResults"), 0), query.get("nextToken"));
+        JsonBuilder json = new JsonBuilder();
+        JsonWriter w = json.writer;
+        w.beginObject();
+        w.name("Datasets").beginArray();
+        for (SyncBackend.DatasetInfo dataset : page.datasets) {
+            writeDataset(w, dataset);
+        }
+        w.endArray();
+        w.name("Count").value(page.datasets.size());
+        if (page.nextToken != null) {
+            w.name("NextToken").value(page.nextToken);
+        }
+        w.endObject();
+        return json.toString();
+    }
+
+    private String datasetResponse(SyncBackend.DatasetInfo dataset) throws IOException {
+        JsonBuilder json = new JsonBuilder();
+        JsonWriter w = json.writer;
+        w.beginObject();
+        w.name("Dataset");
+        writeDataset(w, dataset);
+        w.endObject();
+        return json.toString();
+    }
+
+    private static void writeRecord(JsonWriter w, SyncBackend.StoredRecord record)
+            throws IOException {
+        w.beginObject();
+        w.name("Key").value(record.key);
+        if (record.value != null) {
+            w.name("Value").value(record.value);
+        }
+        w.name("SyncCount").value(record.syncCount);
+        w.name("LastModifiedDate").value(toSeconds(record.lastModifiedMillis));
+        if (record.lastModifiedBy != null) {
+            w.name("LastModifiedBy").value(record.lastModifiedBy);
+        }
+        w.name("DeviceLastModifiedDate").value(toSeconds(record.deviceLastModifiedMillis));
+        w.endObject();
+    }
+
+    private static void writeDataset(JsonWriter w, SyncBackend.DatasetInfo dataset)
+            throws IOException {
+        w.beginObject();
+        w.name("IdentityId").value(dataset.identityId);
+        w.name("DatasetName").value(dataset.name);
+        w.name("CreationDate").value(toSeconds(dataset.creationMillis));
+        w.name("LastModifiedDate").value(toSeconds(dataset.lastModifiedMillis));
+        if (dataset.lastModifiedBy != null) {
+            w.name("LastModifiedBy").value(dataset.lastModifiedBy);
+        }
+        w.name("DataStorage").value(dataset.storageBytes);
+        w.name("NumRecords").value(dataset.recordCount);
+        w.endObject();
+    }
+
+    /**
+     * Dates are epoch seconds on the wire.
+     */
+    private static double toSeconds(long millis) {
+        return millis / 1000.0;
+    }
+
+    private void countRequest(String operation) {
+        AtomicLong count = requestCounts.get(operation);
+        if (count == null) {
+            AtomicLong created = new AtomicLong();
+            count = requestCounts.putIfAbsent(operation, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * What to do to a request, drawn from the fault config.
+     */
+    static final class Fault {
+        long latencyMillis;
+        boolean drop;
+        SyncBackend.ServiceError error;
+    }
+
+    private synchronized Fault nextFault() {
+        FaultConfig config = faults;
+        Fault fault = new Fault();
+        fault.latencyMillis = config.getLatencyMillis();
+        if (config.getLatencyJitterMillis() > 0) {
+            fault.latencyMillis += (long) (random.nextDouble() * config.getLatencyJitterMillis());
+        }
+        if (config.getMaxRequestsPerSecond() > 0) {
+            long now = System.currentTimeMillis();
+            if (now - windowStartMillis >= 1000) {
+                windowStartMillis = now;
+                windowCount = 0;
+            }
+            if (++windowCount > config.getMaxRequestsPerSecond()) {
+                fault.error = throttled();
+                return fault;
+            }
+        }
+        if (random.nextDouble() < config.getThrottleProbability()) {
+            fault.error = throttled();
+        } else if (random.nextDouble() < config.getErrorProbability()) {
+            fault.error = new SyncBackend.ServiceError(500, "InternalErrorException",
+                    "injected internal error");
+        } else if (random.nextDouble() < config.getDropProbability()) {
+            fault.drop = true;
+        }
+        return fault;
+    }
+
+    private static SyncBackend.ServiceError throttled() {
+        return new SyncBackend.ServiceError(429, "TooManyRequestsException", "Rate exceeded");
+    }
+
+    private void sendError(HttpExchange exchange, SyncBackend.ServiceError error)
+            throws IOException {
+        JsonBuilder json = new JsonBuilder();
+        json.writer.beginObject()
+                .name("__type").value("com.amazonaws.cognito.sync.model#" + error.errorType)
+                .name("message").value(error.getMessage())
+                .endObject();
+        send(exchange, error.statusCode, error.errorType, json.toString());
+    }
+
+    private void send(HttpExchange exchange, int statusCode, String errorType, String body)
+            throws IOException {
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.getResponseHeaders().set("x-amzn-RequestId", "standin");
+        if (errorType != null) {
+            exchange.getResponseHeaders().set("x-amzn-ErrorType", errorType + ":");
+        }
+        exchange.sendResponseHeaders(statusCode, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.flush();
+        bytesOut.addAndGet(bytes.length);
+    }
+
+    private static String getString(JsonObject object, String name) {
+        JsonElement element = object.get(name);
+        return element == null || element.isJsonNull() ? null : element.getAsString();
+    }
+
+    private static long parseLong(String s, long defaultValue) {
+        return s == null || s.isEmpty() ? defaultValue : Long.parseLong(s);
+    }
+
+    static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> query = new HashMap<String, String>();
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                query.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+                        URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        }
+        return query;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * A JSON writer into a string.
+     */
+    static final class JsonBuilder {
+        final StringWriter out = new StringWriter();
+        final JsonWriter writer = new JsonWriter(out);
+
+        @Override
+        public String toString() {
+            return out.toString();
+        }
+    }
+}
@@ -0,0 +1,566 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito;
+
+import com.amazonaws.mobileconnectors.cognito.exceptions.DataConflictException;
+import com.amazonaws.mobileconnectors.cognito.exceptions.DataStorageException;
+import com.amazonaws.mobileconnectors.cognito.internal.storage.CognitoSyncStorage;
+import com.amazonaws.mobileconnectors.cognito.internal.storage.RemoteDataStorage.DatasetUpdates;
+import com.amazonaws.mobileconnectors.cognito.internal.util.DatasetUtils;
+import com.amazonaws.mobileconnectors.cognito.internal.util.Log;
+import com.amazonaws.mobileconnectors.cognito.internal.util.StringUtils;
+import com.amazonaws.services.cognitosync.AmazonCognitoSync;
+import com.amazonaws.services.cognitosync.model.LambdaThrottledException;
+import com.amazonaws.services.cognitosync.model.TooManyRequestsException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pushes records of many identities to Cognito Sync concurrently, e.g. to
+ * backfill migrated data. It's meant for server-side use: the sync client is
+ * authorized with developer credentials and every identity gets its own
+ * {@link CognitoSyncStorage} bound to its identity id, with no local storage
+ * involved. Here is a sample usage:
+ *
+ * <pre>
+ * AmazonCognitoSync client = new AmazonCognitoSyncClient(credentials);
+ * BulkSyncDriver driver = new BulkSyncDriver.Builder(identityPoolId, client)
+ *         .parallelism(32)
+ *         .build();
+ * BulkSyncDriver.Report report = driver.run(jobs);
+ * </pre>
+ *
+ * Identities are isolated from each other: a failure of one identity is
+ * reported to the {@link Listener} and doesn't stop the others. Records
+ * conflicting with a concurrent change are retried against the new sync
+ * count. When the service throttles, all workers back off together with
+ * exponential delays, so that parallelism doesn't keep the service
+ * saturated.
+ */
+public class BulkSyncDriver {
+
+    private static final String TAG = "BulkSyncDriver";
+
+    /**
+     * Records to push for one identity.
+     */
+    public static final class Job {
+        private final String identityId;
+        private final Map<String, Map<String, String>> recordsByDataset;
+
+        /**
+         * Constructs a job.
+         *
+         * @param identityId identity id
+         * @param recordsByDataset values to put by key, by dataset name. A
+         *            null value removes the record.
+         */
+        public Job(String identityId, Map<String, Map<String, String>> recordsByDataset) {
+            if (StringUtils.isEmpty(identityId)) {
+                throw new IllegalArgumentException("identity id can't be empty");
+            }
+            if (recordsByDataset == null) {
+                throw new IllegalArgumentException("records can't be null");
+            }
+            for (Map.Entry<String, Map<String, String>> entry : recordsByDataset.entrySet()) {
+                DatasetUtils.validateDatasetName(entry.getKey());
+                for (String key : entry.getValue().keySet()) {
+                    DatasetUtils.validateRecordKey(key);
+                }
+            }
+            this.identityId = identityId;
+            this.recordsByDataset = recordsByDataset;
+        }
+
+        /**
+         * @return identity id
+         */
+        public String getIdentityId() {
+            return identityId;
+        }
+
+        /**
+         * @return values to put by key, by dataset name
+         */
+        public Map<String, Map<String, String>> getRecordsByDataset() {
+            return Collections.unmodifiableMap(recordsByDataset);
+        }
+    }
+
+    /**
+     * Receives the outcome of every identity. Methods are called from worker
+     * threads.
+     */
+    public interface Listener {
+        /**
+         * Called when all datasets of an identity were pushed.
+         *
+         * @param identityId identity id
+         * @param recordsPushed number of records that were changed remotely
+         */
+        void onIdentitySucceeded(String identityId, int recordsPushed);
+
+        /**
+         * Called when an identity failed. Datasets pushed before the failure
+         * stay pushed.
+         *
+         * @param identityId identity id
+         * @param e the cause
+         */
+        void onIdentityFailed(String identityId, Exception e);
+    }
+
+    /**
+     * Throughput and outcome counts of a run.
+     */
+    public static final class Report {
+        private final int identitiesSucceeded;
+        private final int identitiesFailed;
+        private final long recordsPushed;
+        private final long throttleCount;
+        private final long conflictCount;
+        private final long elapsedNanos;
+
+        Report(int identitiesSucceeded, int identitiesFailed, long recordsPushed,
+                long throttleCount, long conflictCount, long elapsedNanos) {
+            this.identitiesSucceeded = identitiesSucceeded;
+            this.identitiesFailed = identitiesFailed;
+            this.recordsPushed = recordsPushed;
+            this.throttleCount = throttleCount;
+            this.conflictCount = conflictCount;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /**
+         * @return number of identities all datasets of which were pushed
+         */
+        public int getIdentitiesSucceeded() {
+            return identitiesSucceeded;
+        }
+
+        /**
+         * @return number of identities that failed
+         */
+        public int getIdentitiesFailed() {
+            return identitiesFailed;
+        }
+
+        /**
+         * @return number of records changed remotely
+         */
+        public long getRecordsPushed() {
+            return recordsPushed;
+        }
+
+        /**
+         * @return number of requests throttled by the service
+         */
+        public long getThrottleCount() {
+            return throttleCount;
+        }
+
+        /**
+         * @return number of pushes retried because of a conflict
+         */
+        public long getConflictCount() {
+            return conflictCount;
+        }
+
+        /**
+         * @return wall time of the run so far in nanoseconds
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * @return identities completed, succeeded or failed, per second
+         */
+        public double getIdentitiesPerSecond() {
+            return perSecond(identitiesSucceeded + identitiesFailed);
+        }
+
+        /**
+         * @return records pushed per second
+         */
+        public double getRecordsPerSecond() {
+            return perSecond(recordsPushed);
+        }
+
+        private double perSecond(long count) {
+            return elapsedNanos <= 0 ? 0 : count * 1e9 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("succeeded:[%d],failed:[%d],records:[%d],throttled:[%d],"
+                    + "conflicts:[%d],identities/s:[%.1f],records/s:[%.1f]",
+                    identitiesSucceeded, identitiesFailed, recordsPushed, throttleCount,
+                    conflictCount, getIdentitiesPerSecond(), getRecordsPerSecond());
+        }
+    }
+
+    private final String identityPoolId;
+    private final AmazonCognitoSync client;
+    private final int parallelism;
+    private final int maxRetries;
+    private final long initialBackoffMillis;
+    private final long maxBackoffMillis;
+    private final Listener listener;
+    private final Random random = new Random();
+
+    private final AtomicInteger identitiesSucceeded = new AtomicInteger();
+    private final AtomicInteger identitiesFailed = new AtomicInteger();
+    private final AtomicLong recordsPushed = new AtomicLong();
+    private final AtomicLong throttleCount = new AtomicLong();
+    private final AtomicLong conflictCount = new AtomicLong();
+    private volatile long startNanos;
+
+    /**
+     * Time before which no worker sends a request, set when throttled.
+     */
+    private final AtomicLong pausedUntilMillis = new AtomicLong();
+    /**
+     * Number of throttled requests in a row, drives the shared backoff.
+     */
+    private final AtomicInteger consecutiveThrottles = new AtomicInteger();
+
+    private BulkSyncDriver(Builder builder) {
+        this.identityPoolId = builder.identityPoolId;
+        this.client = builder.client;
+        this.parallelism = builder.parallelism;
+        this.maxRetries = builder.maxRetries;
+        this.initialBackoffMillis = builder.initialBackoffMillis;
+        this.maxBackoffMillis = builder.maxBackoffMillis;
+        this.listener = builder.listener;
+    }
+
+    /**
+     * Pushes the records of all jobs and waits until they are done. Jobs are
+     * pulled from the iterator as workers free up, so the iterator may stream
+     * them, e.g. from a file, without holding all of them in memory.
+     *
+     * @param jobs jobs to run
+     * @return the report of the run
+     * @throws InterruptedException if interrupted while waiting, in which case
+     *             pending identities are abandoned
+     */
+    public synchronized Report run(Iterator<Job> jobs) throws InterruptedException {
+        identitiesSucceeded.set(0);
+        identitiesFailed.set(0);
+        recordsPushed.set(0);
+        throttleCount.set(0);
+        conflictCount.set(0);
+        consecutiveThrottles.set(0);
+        pausedUntilMillis.set(0);
+        startNanos = System.nanoTime();
+
+        ExecutorService executor = new ThreadPoolExecutor(parallelism, parallelism,
+                0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "BulkSync-" + count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        // at most one job per worker is pulled ahead of time
+        final Semaphore slots = new Semaphore(parallelism);
+        try {
+            while (jobs.hasNext()) {
+                slots.acquire();
+                final Job job = jobs.next();
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            runJob(job);
+                        } finally {
+                            slots.release();
+                        }
+                    }
+                });
+            }
+            slots.acquire(parallelism);
+            slots.release(parallelism);
+        } finally {
+            executor.shutdownNow();
+        }
+        Report report = getReport();
+        Log.i(TAG, "bulk sync done " + report);
+        return report;
+    }
+
+    /**
+     * Gets the report of the current run so far, e.g. to log progress from
+     * another thread, or of the last run once it's over.
+     *
+     * @return a report
+     */
+    public Report getReport() {
+        return new Report(identitiesSucceeded.get(), identitiesFailed.get(),
+                recordsPushed.get(), throttleCount.get(), conflictCount.get(),
+                startNanos == 0 ? 0 : System.nanoTime() - startNanos);
+    }
+
+    void runJob(Job job) {
+        String identityId = job.getIdentityId();
+        CognitoSyncStorage storage = new CognitoSyncStorage(identityPoolId, identityId, client);
+        int pushed = 0;
+        try {
+            for (Map.Entry<String, Map<String, String>> entry : job.recordsByDataset.entrySet()) {
+                pushed += pushDataset(storage, entry.getKey(), entry.getValue());
+            }
+        } catch (Exception e) {
+            identitiesFailed.incrementAndGet();
+            Log.w(TAG, "failed to push identity " + identityId, e);
+            if (listener != null) {
+                try {
+                    listener.onIdentityFailed(identityId, e);
+                } catch (RuntimeException re) {
+                    Log.e(TAG, "listener failed", re);
+                }
+            }
+            return;
+        }
+        identitiesSucceeded.incrementAndGet();
+        if (listener != null) {
+            try {
+                listener.onIdentitySucceeded(identityId, pushed);
+            } catch (RuntimeException re) {
+                Log.e(TAG, "listener failed", re);
+            }
+        }
+    }
+
+    /**
+     * Pushes the values of a dataset, retrying on conflict and throttling.
+     *
+     * @return number of records changed remotely
+     */
+    int pushDataset(CognitoSyncStorage storage, String datasetName, Map<String, String> values)
+            throws InterruptedException {
+        for (int attempt = 0;; attempt++) {
+            awaitBackoff();
+            try {
+                DatasetUpdates updates = storage.listUpdates(datasetName, 0);
+                List<Record> patches = toPatches(updates.getRecords(), values);
+                if (!patches.isEmpty()) {
+                    storage.putRecords(datasetName, patches, updates.getSyncSessionToken(),
+                            null);
+                }
+                consecutiveThrottles.set(0);
+                recordsPushed.addAndGet(patches.size());
+                return patches.size();
+            } catch (DataConflictException dce) {
+                conflictCount.incrementAndGet();
+                if (attempt >= maxRetries) {
+                    throw dce;
+                }
+            } catch (DataStorageException dse) {
+                if (!isThrottled(dse) || attempt >= maxRetries) {
+                    throw dse;
+                }
+                throttleCount.incrementAndGet();
+                throttled();
+            }
+        }
+    }
+
+    /**
+     * Builds the patches that bring remote records to the given values.
+     * Records that already have the value are left alone.
+     */
+    static List<Record> toPatches(List<Record> remoteRecords, Map<String, String> values) {
+        Map<String, Record> remoteByKey = new HashMap<String, Record>();
+        for (Record record : remoteRecords) {
+            remoteByKey.put(record.getKey(), record);
+        }
+        long now = System.currentTimeMillis();
+        List<Record> patches = new ArrayList<Record>();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            Record remote = remoteByKey.get(entry.getKey());
+            if (remote == null ? entry.getValue() == null
+                    : StringUtils.equals(remote.getValue(), entry.getValue())) {
+                continue;
+            }
+            patches.add(new Record.Builder(entry.getKey())
+                    .value(entry.getValue())
+                    .syncCount(remote == null ? 0 : remote.getSyncCount())
+                    .deviceLastModifiedTime(now)
+                    .modified(true)
+                    .build());
+        }
+        return patches;
+    }
+
+    /**
+     * Tests whether a failure is the service throttling requests.
+     */
+    static boolean isThrottled(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof TooManyRequestsException
+                    || cause instanceof LambdaThrottledException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Pushes back the time all workers resume at, exponentially with the
+     * number of throttled requests in a row, with jitter.
+     */
+    private void throttled() {
+        int throttles = consecutiveThrottles.incrementAndGet();
+        long backoff = initialBackoffMillis << Math.min(throttles - 1, 20);
+        backoff = Math.min(maxBackoffMillis, backoff);
+        backoff = backoff / 2 + (long) (random.nextDouble() * (backoff / 2));
+        long resumeAt = System.currentTimeMillis() + backoff;
+        long current;
+        while (resumeAt > (current = pausedUntilMillis.get())
+                && !pausedUntilMillis.compareAndSet(current, resumeAt)) {
+            // retry
+        }
+        Log.d(TAG, "throttled, backing off " + backoff + " ms");
+    }
+
+    private void awaitBackoff() throws InterruptedException {
+        long wait;
+        while ((wait = pausedUntilMillis.get() - System.currentTimeMillis()) > 0) {
+            Thread.sleep(wait);
+        }
+    }
+
+    /**
+     * Builder of a {@link BulkSyncDriver}.
+     */
+    public final static class Builder {
+        private final String identityPoolId;
+        private final AmazonCognitoSync client;
+        private int parallelism = 16;
+        private int maxRetries = 5;
+        private long initialBackoffMillis = 200;
+        private long maxBackoffMillis = 30 * 1000L;
+        private Listener listener;
+
+        /**
+         * Construct a builder.
+         *
+         * @param identityPoolId identity pool id
+         * @param client sync client authorized to access datasets of any
+         *            identity of the pool
+         */
+        public Builder(String identityPoolId, AmazonCognitoSync client) {
+            if (StringUtils.isEmpty(identityPoolId)) {
+                throw new IllegalArgumentException("identity pool id can't be empty");
+            }
+            if (client == null) {
+                throw new IllegalArgumentException("client can't be null");
+            }
+            this.identityPoolId = identityPoolId;
+            this.client = client;
+        }
+
+        /**
+         * Sets the number of identities pushed at the same time. Default is
+         * 16. The HTTP connection pool of the client should be at least as
+         * large.
+         *
+         * @param parallelism number of workers
+         * @return builder itself
+         */
+        public Builder parallelism(int parallelism) {
+            if (parallelism <= 0) {
+                throw new IllegalArgumentException("parallelism must be positive");
+            }
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Sets the number of times a dataset is retried after a conflict or
+         * throttling before the identity fails. Default is 5.
+         *
+         * @param maxRetries max number of retries
+         * @return builder itself
+         */
+        public Builder maxRetries(int maxRetries) {
+            if (maxRetries < 0) {
+                throw new IllegalArgumentException("max retries can't be negative");
+            }
+            this.maxRetries = maxRetries;
+            return this;
+        }
+
+        /**
+         * Sets the bounds of the backoff after throttling. Defaults are 200
+         * ms and 30 s.
+         *
+         * @param initialBackoffMillis backoff after the first throttled
+         *            request
+         * @param maxBackoffMillis largest backoff
+         * @return builder itself
+         */
+        public Builder backoff(long initialBackoffMillis, long maxBackoffMillis) {
+            if (initialBackoffMillis <= 0 || maxBackoffMillis < initialBackoffMillis) {
+                throw new IllegalArgumentException("invalid backoff bounds");
+            }
+            this.initialBackoffMillis = initialBackoffMillis;
+            this.maxBackoffMillis = maxBackoffMillis;
+            return this;
+        }
+
+        /**
+         * Sets the listener of identity outcomes. Default is none.
+         *
+         * @param listener the listener
+         * @return builder itself
+         */
+        public Builder listener(Listener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        /**
+         * Builds a new {@link BulkSyncDriver}.
+         *
+         * @return a new driver
+         */
+        public BulkSyncDriver build() {
+            return new BulkSyncDriver(this);
+        }
+    }
+}
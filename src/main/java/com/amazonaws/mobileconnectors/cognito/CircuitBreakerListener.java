@@ -0,0 +1,40 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito;
+
+/**
+ * Listener of circuit breaker transitions. It can be used to monitor the
+ * health of the connection to Cognito Sync service. Callbacks are invoked on
+ * the thread that caused the transition, which is usually a sync thread, so
+ * implementations should return quickly. They're invoked without holding the
+ * lock of the circuit breaker, so transitions made on different threads in
+ * quick succession may be reported out of order.
+ */
+public interface CircuitBreakerListener {
+
+    /**
+     * Called when the circuit breaker moves from one state to another.
+     *
+     * @param from the previous state
+     * @param to the new state
+     * @param consecutiveFailures number of consecutive network failures seen
+     *            when the transition happened
+     */
+    void onStateChanged(CircuitBreakerState from, CircuitBreakerState to,
+            int consecutiveFailures);
+}
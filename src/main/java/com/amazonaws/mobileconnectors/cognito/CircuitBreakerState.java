@@ -0,0 +1,41 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito;
+
+/**
+ * The state of the circuit breaker that guards requests to Cognito Sync
+ * service. See {@link CognitoSyncManager#getCircuitBreakerState()}.
+ */
+public enum CircuitBreakerState {
+    /**
+     * Requests go through to the service. Network failures are counted.
+     */
+    CLOSED,
+    /**
+     * Too many consecutive network failures were seen. Requests fail fast with
+     * a {@link com.amazonaws.mobileconnectors.cognito.exceptions.NetworkException}
+     * without touching the network until the open period elapses.
+     */
+    OPEN,
+    /**
+     * The open period has elapsed. A single probe request is let through to
+     * test whether the service is reachable again; other requests fail fast
+     * until the probe completes.
+     */
+    HALF_OPEN
+}
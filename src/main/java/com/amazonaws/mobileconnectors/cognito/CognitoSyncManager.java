@@ -19,19 +19,29 @@ package com.amazonaws.mobileconnectors.cognito;
 
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
-import android.util.Log;
 
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.ClientConfiguration;
 import com.amazonaws.auth.CognitoCachingCredentialsProvider;
+import com.amazonaws.auth.CognitoCredentialsProvider;
 import com.amazonaws.auth.IdentityChangedListener;
+import com.amazonaws.http.UrlHttpClient;
+import com.amazonaws.mobileconnectors.cognito.Dataset.SyncCallback;
 import com.amazonaws.mobileconnectors.cognito.exceptions.DataStorageException;
 import com.amazonaws.mobileconnectors.cognito.exceptions.RegistrationFailedException;
 import com.amazonaws.mobileconnectors.cognito.exceptions.UnsubscribeFailedException;
+import com.amazonaws.mobileconnectors.cognito.internal.storage.AdaptivePageSize;
+import com.amazonaws.mobileconnectors.cognito.internal.storage.CircuitBreakerRemoteDataStorage;
 import com.amazonaws.mobileconnectors.cognito.internal.storage.CognitoSyncStorage;
-import com.amazonaws.mobileconnectors.cognito.internal.storage.SQLiteLocalStorage;
+import com.amazonaws.mobileconnectors.cognito.internal.storage.LocalStorage;
+import com.amazonaws.mobileconnectors.cognito.internal.storage.MetadataCachingRemoteDataStorage;
+import com.amazonaws.mobileconnectors.cognito.internal.storage.SnapshotCachingLocalStorage;
+import com.amazonaws.mobileconnectors.cognito.internal.storage.WriteBehindLocalStorage;
 import com.amazonaws.mobileconnectors.cognito.internal.util.DatasetUtils;
+import com.amazonaws.mobileconnectors.cognito.internal.util.Log;
+import com.amazonaws.mobileconnectors.cognito.platform.AndroidPlatform;
+import com.amazonaws.mobileconnectors.cognito.platform.KeyValueStore;
+import com.amazonaws.mobileconnectors.cognito.platform.Platform;
 import com.amazonaws.regions.Region;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.cognitosync.AmazonCognitoSyncClient;
@@ -41,7 +51,11 @@ import com.amazonaws.services.cognitosync.model.ResourceNotFoundException;
 import com.amazonaws.util.VersionInfoUtils;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
 
 /**
  * This saves {@link Dataset} in SQLite database. Here is a sample usage:
@@ -57,6 +71,16 @@ import java.util.List;
  *     // override callbacks
  * });
  * </pre>
+ *
+ * Outside of Android, e.g. on a plain JVM, use a {@link Builder} with a
+ * {@link Platform} such as
+ * {@link com.amazonaws.mobileconnectors.cognito.platform.JvmPlatform} and any
+ * {@link CognitoCredentialsProvider}:
+ *
+ * <pre>
+ * CognitoSyncManager client = new CognitoSyncManager.Builder(new JvmPlatform(),
+ *         Regions.US_EAST_1, provider).build();
+ * </pre>
  */
 
 public class CognitoSyncManager {
@@ -76,15 +100,26 @@ public class CognitoSyncManager {
 
     /**
      * The local storage is singleton to avoid SQLite resource leak and thread
-     * contention.
+     * contention. It's created by the platform of the first instance.
+     */
+    private static LocalStorage local;
+    /**
+     * The write-behind layer of the local storage, shared the same way.
      */
-    private static SQLiteLocalStorage local;
+    private static WriteBehindLocalStorage writeBehind;
 
-    private final Context context;
-    private final CognitoSyncStorage remote;
-    private final CognitoCachingCredentialsProvider provider;
+    private final Platform platform;
+    private final CircuitBreakerRemoteDataStorage circuitBreaker;
+    private final MetadataCachingRemoteDataStorage remote;
+    private final CognitoCredentialsProvider provider;
     private final AmazonCognitoSyncClient syncClient;
+    private final HistogramRequestMetricCollector requestMetrics;
     private final String identityPoolId;
+    private volatile SyncMetricsListener syncMetricsListener;
+    private final DatasetChangeNotifier changeNotifier = new DatasetChangeNotifier();
+    private final LocalStorageExecutor localExecutor = new LocalStorageExecutor();
+    private final TombstoneCompactor tombstoneCompactor;
+    private final DatabaseMaintenance databaseMaintenance;
 
     /**
      * Constructs a CognitoSyncManager object.
@@ -104,38 +139,59 @@ public class CognitoSyncManager {
     /**
      * Final constructor. Package private to allow dependency injection
      *
-     * @param context
+     * @param platform
      * @param region
      * @param provider
      * @param syncClient
+     * @param requestMetrics collector the sync client reports to, or null
      */
-    CognitoSyncManager(Context context, Regions region,
-            CognitoCachingCredentialsProvider provider, AmazonCognitoSyncClient syncClient) {
-        if (context == null) {
-            throw new IllegalArgumentException("context can't be null");
+    CognitoSyncManager(Platform platform, Regions region,
+            CognitoCredentialsProvider provider, AmazonCognitoSyncClient syncClient,
+            HistogramRequestMetricCollector requestMetrics) {
+        if (platform == null) {
+            throw new IllegalArgumentException("platform can't be null");
         }
-        this.context = context;
+        this.platform = platform;
         this.provider = provider;
         this.identityPoolId = provider.getIdentityPoolId();
+        Log.setLogger(platform.getLogger());
         synchronized (CognitoSyncManager.class) {
             if (local == null) {
-                local = new SQLiteLocalStorage(context, DATABASE_NAME);
+                writeBehind = new WriteBehindLocalStorage(
+                        platform.createLocalStorage(DATABASE_NAME));
+                local = new SnapshotCachingLocalStorage(writeBehind);
             }
         }
+        tombstoneCompactor = new TombstoneCompactor(local, provider);
+        databaseMaintenance = new DatabaseMaintenance(local);
 
         this.syncClient = syncClient;
         syncClient.setRegion(Region.getRegion(region));
-        remote = new CognitoSyncStorage(identityPoolId, syncClient, provider);
-        remote.setUserAgent(USER_AGENT);
+        this.requestMetrics = requestMetrics;
+        CognitoSyncStorage syncStorage = new CognitoSyncStorage(identityPoolId, syncClient,
+                provider);
+        syncStorage.setUserAgent(USER_AGENT);
+        syncStorage.setNetworkTypeSource(new AdaptivePageSize.NetworkTypeSource() {
+            @Override
+            public String getNetworkType() {
+                return CognitoSyncManager.this.platform.getConnectivity().getNetworkType();
+            }
+        });
+        circuitBreaker = new CircuitBreakerRemoteDataStorage(syncStorage);
+        remote = new MetadataCachingRemoteDataStorage(circuitBreaker);
         provider.registerIdentityChangedListener(new IdentityChangedListener() {
             @Override
             public void identityChanged(String oldIdentityId, String newIdentityId) {
+                // cached metadata is the old identity's
+                remote.invalidateAll();
                 if (newIdentityId != null) {
                     Log.i(TAG, "identity change detected");
-                    local.changeIdentityId(
-                            oldIdentityId == null ? DatasetUtils.UNKNOWN_IDENTITY_ID
-                                    : oldIdentityId,
-                            newIdentityId);
+                    String fromIdentityId = oldIdentityId == null
+                            ? DatasetUtils.UNKNOWN_IDENTITY_ID : oldIdentityId;
+                    // datasets move and merge, what the last syncs saw no longer holds
+                    forgetRemoteLastModified(fromIdentityId);
+                    forgetRemoteLastModified(newIdentityId);
+                    local.changeIdentityId(fromIdentityId, newIdentityId);
                 }
             }
         });
@@ -153,6 +209,18 @@ public class CognitoSyncManager {
         this(context, region, provider, new ClientConfiguration());
     }
 
+    /**
+     * Constructs a CognitoSyncManager object on the given platform.
+     *
+     * @param platform the platform to run on
+     * @param region Cognito sync region
+     * @param provider a credentials provider
+     */
+    public CognitoSyncManager(Platform platform, Regions region,
+            CognitoCredentialsProvider provider) {
+        this(platform, region, provider, new ClientConfiguration());
+    }
+
     /**
      * Constructs a CognitoSyncManager object.
      *
@@ -163,7 +231,28 @@ public class CognitoSyncManager {
      */
     public CognitoSyncManager(Context context, Regions region,
             CognitoCachingCredentialsProvider provider, ClientConfiguration clientConfiguration) {
-        this(context, region, provider, new AmazonCognitoSyncClient(provider, clientConfiguration));
+        this(new AndroidPlatform(context), region, provider, clientConfiguration);
+    }
+
+    /**
+     * Constructs a CognitoSyncManager object on the given platform.
+     *
+     * @param platform the platform to run on
+     * @param region Cognito sync region
+     * @param provider a credentials provider
+     * @param clientConfiguration client configuration for underlying AWS client
+     */
+    public CognitoSyncManager(Platform platform, Regions region,
+            CognitoCredentialsProvider provider, ClientConfiguration clientConfiguration) {
+        this(platform, region, provider, clientConfiguration,
+                new HistogramRequestMetricCollector());
+    }
+
+    private CognitoSyncManager(Platform platform, Regions region,
+            CognitoCredentialsProvider provider, ClientConfiguration clientConfiguration,
+            HistogramRequestMetricCollector requestMetrics) {
+        this(platform, region, provider, new AmazonCognitoSyncClient(provider, clientConfiguration,
+                new UrlHttpClient(clientConfiguration), requestMetrics), requestMetrics);
     }
 
     /**
@@ -179,7 +268,8 @@ public class CognitoSyncManager {
     public Dataset openOrCreateDataset(String datasetName) {
         DatasetUtils.validateDatasetName(datasetName);
         local.createDataset(getIdentityId(), datasetName);
-        Dataset dataset = new DefaultDataset(context, datasetName, provider, local, remote);
+        Dataset dataset = new DefaultDataset(platform, datasetName, provider, local, remote,
+                syncMetricsListener, changeNotifier, writeBehind, localExecutor);
         return dataset;
     }
 
@@ -197,9 +287,11 @@ public class CognitoSyncManager {
     /**
      * Refreshes dataset metadata. Dataset metadata is pulled from remote
      * storage and stored in local storage. Their record data isn't pulled down
-     * until you sync each dataset. Note: this is a network request, so calling
-     * this method in the main thread will result in
-     * NetworkOnMainThreadException.
+     * until you sync each dataset. Remote metadata is cached for a short time
+     * (see {@link #setDatasetMetadataCacheTtl(long)}), so calling this
+     * repeatedly doesn't list all datasets from remote each time. Note: this
+     * is a network request, so calling this method in the main thread will
+     * result in NetworkOnMainThreadException.
      *
      * @throws DataStorageException thrown when fail to refresh dataset metadata
      */
@@ -208,6 +300,137 @@ public class CognitoSyncManager {
         local.updateDatasetMetadata(getIdentityId(), datasets);
     }
 
+    /**
+     * Synchronizes only the local datasets that have changed. Remote dataset
+     * metadata is listed in one paginated pass, and only datasets that have
+     * local changes, or whose remote metadata has changed since their last
+     * sync, are synchronized with {@link Dataset#synchronize(SyncCallback)}.
+     * The listing comes from the metadata cache when it's fresh, see
+     * {@link #setDatasetMetadataCacheTtl(long)}, so a remote change made
+     * elsewhere may go unnoticed for that long.
+     * For the other datasets {@link SyncCallback#onSuccess(Dataset, List)} is
+     * called right away with no updated records. The callback is invoked once
+     * per local dataset, from background threads. If the listing fails,
+     * {@link SyncCallback#onFailure(DataStorageException)} is called once and
+     * no dataset is synchronized.
+     *
+     * @param callback callback for every dataset
+     */
+    public void synchronizeChangedDatasets(final SyncCallback callback) {
+        if (callback == null) {
+            throw new IllegalArgumentException("callback can't be null");
+        }
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                List<DatasetMetadata> remoteDatasets;
+                try {
+                    remoteDatasets = remote.getDatasets();
+                } catch (DataStorageException dse) {
+                    callback.onFailure(dse);
+                    return;
+                }
+                Map<String, DatasetMetadata> remoteByName = new HashMap<String, DatasetMetadata>();
+                for (DatasetMetadata metadata : remoteDatasets) {
+                    remoteByName.put(metadata.getDatasetName(), metadata);
+                }
+
+                String identityId = getIdentityId();
+                KeyValueStore store = getKeyValueStore();
+                int skipped = 0;
+                for (DatasetMetadata localDataset : local.getDatasets(identityId)) {
+                    String datasetName = localDataset.getDatasetName();
+                    DefaultDataset dataset = new DefaultDataset(platform, datasetName, provider,
+                            local, remote, syncMetricsListener, changeNotifier,
+                            writeBehind, localExecutor);
+                    DatasetMetadata remoteDataset = remoteByName.get(datasetName);
+                    String key = DefaultDataset.remoteLastModifiedKey(identityId, datasetName);
+                    long recorded = store.getLong(key, -1);
+                    if (dataset.needsSync(remoteDataset, recorded)) {
+                        dataset.synchronize(remoteDataset == null ? callback
+                                : new RemoteLastModifiedRecorder(callback, key, recorded,
+                                        remoteDataset.getLastModifiedTime()));
+                    } else {
+                        skipped++;
+                        callback.onSuccess(dataset, Collections.<Record> emptyList());
+                    }
+                }
+                Log.d(TAG, String.format("%d of %d datasets unchanged since last sync",
+                        skipped, remoteDatasets.size()));
+            }
+        }).start();
+    }
+
+    /**
+     * A callback that records the remote last modified date seen in the
+     * listing once a sync that pulled only succeeds. A change made after the
+     * listing gives a newer date, so the dataset is synchronized again next
+     * time. A sync that pushed has recorded the date of its push instead.
+     */
+    private class RemoteLastModifiedRecorder implements SyncCallback {
+        private final SyncCallback callback;
+        private final String key;
+        private final long recorded;
+        private final long remoteLastModified;
+
+        RemoteLastModifiedRecorder(SyncCallback callback, String key, long recorded,
+                long remoteLastModified) {
+            this.callback = callback;
+            this.key = key;
+            this.recorded = recorded;
+            this.remoteLastModified = remoteLastModified;
+        }
+
+        @Override
+        public void onSuccess(Dataset dataset, List<Record> updatedRecords) {
+            KeyValueStore store = getKeyValueStore();
+            if (store.getLong(key, -1) == recorded) {
+                store.putLong(key, remoteLastModified);
+            }
+            callback.onSuccess(dataset, updatedRecords);
+        }
+
+        @Override
+        public boolean onConflict(Dataset dataset, List<SyncConflict> conflicts) {
+            return callback.onConflict(dataset, conflicts);
+        }
+
+        @Override
+        public boolean onDatasetDeleted(Dataset dataset, String datasetName) {
+            return callback.onDatasetDeleted(dataset, datasetName);
+        }
+
+        @Override
+        public boolean onDatasetsMerged(Dataset dataset, List<String> datasetNames) {
+            return callback.onDatasetsMerged(dataset, datasetNames);
+        }
+
+        @Override
+        public void onFailure(DataStorageException dse) {
+            callback.onFailure(dse);
+        }
+    }
+
+    /**
+     * Sets how long dataset metadata pulled from remote storage is cached. The
+     * cached metadata of a dataset is dropped earlier when this device pushes
+     * changes to it, deletes it, or receives a push sync update for it.
+     *
+     * @param ttlMillis time in milliseconds, 0 to always go to remote storage
+     */
+    public void setDatasetMetadataCacheTtl(long ttlMillis) {
+        remote.setTtl(ttlMillis);
+    }
+
+    /**
+     * Drops cached remote metadata so that the next
+     * {@link #refreshDatasetMetadata()} goes to remote storage.
+     */
+    public void invalidateDatasetMetadataCache() {
+        remote.invalidateAll();
+    }
+
     /**
      * Wipes all user data cached locally, including identity id, session
      * credentials, dataset metadata, and all records. Any data that hasn't been
@@ -215,8 +438,14 @@ public class CognitoSyncManager {
      * customer.
      */
     public void wipeData() {
+        String identityId = getIdentityId();
+        forgetRemoteLastModified(identityId);
+        if (!DatasetUtils.UNKNOWN_IDENTITY_ID.equals(identityId)) {
+            forgetRemoteLastModified(DatasetUtils.UNKNOWN_IDENTITY_ID);
+        }
         provider.clear();
         local.wipeData();
+        remote.invalidateAll();
         Log.i(TAG, "All data has been wiped");
     }
 
@@ -224,6 +453,266 @@ public class CognitoSyncManager {
         return DatasetUtils.getIdentityId(provider);
     }
 
+    /**
+     * Drops the remote last modified times recorded by
+     * {@link #synchronizeChangedDatasets(SyncCallback)} for the local datasets
+     * of an identity.
+     */
+    private void forgetRemoteLastModified(String identityId) {
+        KeyValueStore store = getKeyValueStore();
+        for (DatasetMetadata dataset : local.getDatasets(identityId)) {
+            store.remove(DefaultDataset.remoteLastModifiedKey(identityId,
+                    dataset.getDatasetName()));
+        }
+    }
+
+    /**
+     * Gets the state of the circuit breaker that guards requests to Cognito
+     * Sync service. While it's {@link CircuitBreakerState#OPEN}, synchronize
+     * fails fast with a NetworkException instead of waiting for the client
+     * timeout.
+     *
+     * @return the current circuit breaker state
+     */
+    public CircuitBreakerState getCircuitBreakerState() {
+        return circuitBreaker.getState();
+    }
+
+    /**
+     * Sets a listener to be notified when the circuit breaker that guards
+     * requests to Cognito Sync service changes its state.
+     *
+     * @param listener the listener, or null to remove it
+     */
+    public void setCircuitBreakerListener(CircuitBreakerListener listener) {
+        circuitBreaker.setListener(listener);
+    }
+
+    /**
+     * Configures the circuit breaker that guards requests to Cognito Sync
+     * service.
+     *
+     * @param failureThreshold number of consecutive network failures that
+     *            opens the circuit
+     * @param openDurationMillis time in milliseconds the circuit stays open
+     *            before a single probe request is let through
+     */
+    public void configureCircuitBreaker(int failureThreshold, long openDurationMillis) {
+        circuitBreaker.configure(failureThreshold, openDurationMillis);
+    }
+
+    /**
+     * Closes the circuit breaker so that the next request goes to the
+     * network right away, e.g. after the app learns that connectivity is
+     * back.
+     */
+    public void resetCircuitBreaker() {
+        circuitBreaker.reset();
+    }
+
+    /**
+     * Sets a listener to receive the metrics of every sync, such as the time
+     * spent per phase and the number of records pulled and pushed. It applies
+     * to datasets opened after this call. See
+     * {@link HistogramSyncMetricsListener} for an implementation that
+     * aggregates them in memory. No metrics are collected without a listener.
+     *
+     * @param listener the listener, or null to stop collecting metrics
+     */
+    public void setSyncMetricsListener(SyncMetricsListener listener) {
+        this.syncMetricsListener = listener;
+    }
+
+    /**
+     * Adds a listener of the value changes of every dataset opened by this
+     * manager, whatever identity it belongs to, see
+     * {@link DatasetChangeEvent#getIdentityId()}. Use
+     * {@link Dataset#addChangeListener(DatasetChangeListener)} to listen to a
+     * single dataset.
+     *
+     * @param listener the listener
+     */
+    public void addDatasetChangeListener(DatasetChangeListener listener) {
+        changeNotifier.addListener(null, null, listener);
+    }
+
+    /**
+     * Removes a listener added with
+     * {@link #addDatasetChangeListener(DatasetChangeListener)}.
+     *
+     * @param listener the listener
+     */
+    public void removeDatasetChangeListener(DatasetChangeListener listener) {
+        changeNotifier.removeListener(null, null, listener);
+    }
+
+    /**
+     * Sets the executor {@link DatasetChangeEvent}s are delivered on, e.g.
+     * one that posts to the main thread. Changes made while an event is
+     * waiting for the executor are merged into it. By default events are
+     * delivered on a background thread, one at a time.
+     *
+     * @param executor the executor, or null for the default one
+     */
+    public void setDatasetChangeExecutor(Executor executor) {
+        changeNotifier.setExecutor(executor);
+    }
+
+    /**
+     * Turns write-behind mode of {@link Dataset#put(String, String)} and
+     * {@link Dataset#remove(String)} on or off. In write-behind mode puts land
+     * in an in-memory buffer, are visible to {@link Dataset#get(String)} and
+     * {@link Dataset#getAll()} right away, and replace earlier buffered puts
+     * of the same key. The buffer is written to local storage in a single
+     * transaction when it holds maxBufferedWrites keys, maxDelayMillis after
+     * the first buffered put, before a dataset is synchronized or read in any
+     * other way, and on {@link #flush()}. Buffered puts are lost if the
+     * process dies before they're written. The setting applies to all
+     * managers of the process, which share the local storage.
+     *
+     * @param maxBufferedWrites number of buffered keys at which the buffer is
+     *            written, 0 to turn write-behind off and write what is
+     *            buffered
+     * @param maxDelayMillis time after the first buffered put at which the
+     *            buffer is written, 0 for no time limit
+     */
+    public void setWriteBehind(int maxBufferedWrites, long maxDelayMillis) {
+        writeBehind.setWriteBehind(maxBufferedWrites, maxDelayMillis);
+    }
+
+    /**
+     * Writes the puts of all datasets buffered by write-behind mode to local
+     * storage, e.g. when the app goes to the background.
+     */
+    public void flush() {
+        writeBehind.flush();
+    }
+
+    /**
+     * Removes synced tombstones of the current identity from local storage
+     * every intervalMillis on a background thread. A tombstone is the row
+     * {@link Dataset#remove(String)} leaves for a deleted record so that the
+     * deletion can be pushed. Once it's synced and has no newer local change,
+     * it's only read and skipped by every scan of its dataset. Compaction is
+     * off by default.
+     *
+     * @param intervalMillis time between two compactions, 0 to stop
+     * @param batchSize most tombstones removed per transaction, which bounds
+     *            how long a write may wait for a compaction
+     */
+    public void setTombstoneCompaction(long intervalMillis, int batchSize) {
+        tombstoneCompactor.schedule(intervalMillis, batchSize);
+    }
+
+    /**
+     * Removes all synced tombstones of the current identity from local
+     * storage now, on the calling thread, in transactions of batchSize
+     * tombstones. See {@link #setTombstoneCompaction(long, int)}.
+     *
+     * @param batchSize most tombstones removed per transaction
+     * @return rows and bytes removed
+     */
+    public CompactionResult compactTombstones(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batch size must be positive");
+        }
+        return tombstoneCompactor.compact(batchSize);
+    }
+
+    /**
+     * Gets the rows and bytes removed by tombstone compactions of this
+     * manager so far.
+     *
+     * @return rows and bytes removed
+     */
+    public CompactionResult getCompactedTombstones() {
+        return tombstoneCompactor.getTotal();
+    }
+
+    /**
+     * Maintains the local database every intervalMillis on a background
+     * thread, once nothing has been written locally for idleMillis: pages
+     * freed by deletes, dataset merges and wipes are given back to the file
+     * system in steps of pagesPerStep pages, and the statistics the query
+     * planner uses are refreshed. A database created by an earlier version of
+     * the SDK only gives pages back after
+     * {@link #convertToIncrementalVacuum()}. Maintenance is off by default. It
+     * applies to the local storage all managers share, so scheduling it on
+     * one manager is enough.
+     *
+     * @param intervalMillis time between two runs, 0 to stop
+     * @param idleMillis time without local writes before a run or its next
+     *            step starts
+     * @param pagesPerStep most pages given back per step, which bounds how
+     *            long a write may wait for maintenance
+     */
+    public void setDatabaseMaintenance(long intervalMillis, long idleMillis, int pagesPerStep) {
+        databaseMaintenance.schedule(intervalMillis, idleMillis, pagesPerStep);
+    }
+
+    /**
+     * Maintains the local database now, on the calling thread, whether it's
+     * idle or not. See {@link #setDatabaseMaintenance(long, long, int)}.
+     *
+     * @param pagesPerStep most pages given back per step
+     * @return storage stats after maintenance
+     */
+    public StorageStats runDatabaseMaintenance(int pagesPerStep) {
+        if (pagesPerStep <= 0) {
+            throw new IllegalArgumentException("pages per step must be positive");
+        }
+        return databaseMaintenance.run(0, pagesPerStep);
+    }
+
+    /**
+     * Rewrites a local database created by an earlier version of the SDK once,
+     * now, on the calling thread, so that database maintenance can give its
+     * free pages back. Local storage is blocked for as long as copying the
+     * database takes, so call it where that doesn't matter, e.g. once after
+     * an app update, off the main thread. Databases created by this version
+     * don't need it. See {@link #setDatabaseMaintenance(long, long, int)}.
+     *
+     * @return true if the database was rewritten, false if it didn't need to
+     */
+    public boolean convertToIncrementalVacuum() {
+        return local.convertToIncrementalVacuum();
+    }
+
+    /**
+     * Gets the size of the local database, the share of it that is free
+     * pages, and when it was last written and maintained.
+     *
+     * @return storage stats
+     */
+    public StorageStats getStorageStats() {
+        return local.getStorageStats();
+    }
+
+    /**
+     * Enables or disables the collection of per operation request metrics of
+     * the underlying Cognito Sync client, such as ListRecords and
+     * UpdateRecords latencies. Collection is disabled by default.
+     *
+     * @param enabled true to collect request metrics
+     */
+    public void setRequestMetricsEnabled(boolean enabled) {
+        if (requestMetrics == null) {
+            throw new IllegalStateException("the sync client has no request metric collector");
+        }
+        requestMetrics.setEnabled(enabled);
+    }
+
+    /**
+     * Gets the request metrics of the underlying Cognito Sync client. Take a
+     * snapshot with {@link HistogramRequestMetricCollector#getSnapshot()}.
+     *
+     * @return the request metrics, or null if the sync client was created
+     *         without a {@link HistogramRequestMetricCollector}
+     */
+    public HistogramRequestMetricCollector getRequestMetrics() {
+        return requestMetrics;
+    }
+
     /**
      * Register device for push sync for the specified platform. Once this
      * device is registered and you have subscribed to a dataset, this device
@@ -235,7 +724,7 @@ public class CognitoSyncManager {
      *            platform in question.
      */
     public void registerDevice(String platform, String token) {
-        SharedPreferences sp = getSharedPreferences();
+        KeyValueStore store = getKeyValueStore();
 
         if (isDeviceRegistered()) {
             Log.i(TAG, "Device is already registered");
@@ -252,10 +741,9 @@ public class CognitoSyncManager {
         try {
             RegisterDeviceResult result = syncClient.registerDevice(request);
             // Save this first as the namespacing below will need to look it up
-            sp.edit().putString(namespaceId("platform"), platform).apply();
+            store.putString(namespaceId("platform"), platform);
             String deviceId = result.getDeviceId();
-            sp.edit().putString(namespaceIdPlatform("deviceId"), deviceId)
-                    .apply();
+            store.putString(namespaceIdPlatform("deviceId"), deviceId);
             Log.i(TAG, "Device is registered successfully: " + deviceId);
         } catch (AmazonClientException ace) {
             Log.e(TAG, "Failed to register device", ace);
@@ -271,7 +759,7 @@ public class CognitoSyncManager {
      * @return the device id of the current user's device
      */
     public String getDeviceId() {
-    	return getSharedPreferences().getString(namespaceIdPlatform("deviceId"), "");
+    	return getKeyValueStore().getString(namespaceIdPlatform("deviceId"), "");
     }
 
     /**
@@ -283,13 +771,13 @@ public class CognitoSyncManager {
      * @return true if it has, false if it hasn't
      */
     public boolean isDeviceRegistered() {
-        if (provider.getCachedIdentityId() == null) {
+        if (DatasetUtils.getCachedIdentityId(provider) == null) {
             return false;
         }
-        SharedPreferences sp = getSharedPreferences();
+        KeyValueStore store = getKeyValueStore();
 
-        return !sp.getString(namespaceIdPlatform("deviceId"), "").isEmpty()
-                && !sp.getString(namespaceId("platform"), "").isEmpty();
+        return !store.getString(namespaceIdPlatform("deviceId"), "").isEmpty()
+                && !store.getString(namespaceId("platform"), "").isEmpty();
     }
 
     /**
@@ -298,11 +786,10 @@ public class CognitoSyncManager {
      * clearing the information from outside the device.
      */
     public void unregisterDevice() {
-        if (provider.getCachedIdentityId() != null) {
-            SharedPreferences sp = getSharedPreferences();
-            sp.edit().remove(namespaceIdPlatform("deviceId"))
-                    .remove(namespaceId("platform"))
-                    .apply();
+        if (DatasetUtils.getCachedIdentityId(provider) != null) {
+            KeyValueStore store = getKeyValueStore();
+            store.remove(namespaceIdPlatform("deviceId"));
+            store.remove(namespaceId("platform"));
         }
     }
 
@@ -380,17 +867,19 @@ public class CognitoSyncManager {
      * @return the PushSyncUpdate that bundle is converted to
      */
     public PushSyncUpdate getPushSyncUpdate(Intent intent) {
-        return new PushSyncUpdate(intent);
+        PushSyncUpdate update = new PushSyncUpdate(intent);
+        // the dataset has changed remotely, its cached metadata is stale
+        remote.invalidate(update.getDatasetName());
+        return update;
     }
 
-    private SharedPreferences getSharedPreferences() {
-        return context.getSharedPreferences("com.amazonaws.mobileconnectors.cognito",
-                Context.MODE_PRIVATE);
+    private KeyValueStore getKeyValueStore() {
+        return platform.getKeyValueStore();
     }
 
     // prefix the key with identity id and platform
     String namespaceIdPlatform(String key) {
-        String platform = getSharedPreferences().getString(namespaceId("platform"), "");
+        String platform = getKeyValueStore().getString(namespaceId("platform"), "");
         return namespaceId(platform) + "." + key;
     }
 
@@ -401,13 +890,107 @@ public class CognitoSyncManager {
         // It could also be called from a place on the main thread. As a result,
         // we check the cache
         // to do the namespacing by id.
-        return provider.getCachedIdentityId() + "." + key;
+        return DatasetUtils.getCachedIdentityId(provider) + "." + key;
     }
 
     /**
-     * A helper method to close the underlying SQL storage.
+     * A helper method to close the underlying local storage.
      */
     void close() {
         local.close();
     }
+
+    /**
+     * Builder of a {@link CognitoSyncManager} on a given {@link Platform}.
+     * Unlike the constructors, it doesn't need Android classes on the compile
+     * classpath.
+     */
+    public final static class Builder {
+        private final Platform platform;
+        private final Regions region;
+        private final CognitoCredentialsProvider provider;
+        private ClientConfiguration clientConfiguration;
+        private String endpoint;
+        private StorageProfile storageProfile;
+
+        /**
+         * Construct a builder.
+         *
+         * @param platform the platform to run on
+         * @param region Cognito sync region
+         * @param provider a credentials provider
+         */
+        public Builder(Platform platform, Regions region, CognitoCredentialsProvider provider) {
+            if (platform == null) {
+                throw new IllegalArgumentException("platform can't be null");
+            }
+            if (provider == null) {
+                throw new IllegalArgumentException("provider can't be null");
+            }
+            this.platform = platform;
+            this.region = region;
+            this.provider = provider;
+        }
+
+        /**
+         * Sets the client configuration of the underlying AWS client. Default
+         * is a new {@link ClientConfiguration}.
+         *
+         * @param clientConfiguration client configuration
+         * @return builder itself
+         */
+        public Builder clientConfiguration(ClientConfiguration clientConfiguration) {
+            this.clientConfiguration = clientConfiguration;
+            return this;
+        }
+
+        /**
+         * Overrides the endpoint of the region, e.g. to go through a proxy or
+         * to target a local stand-in of the service. Default is the endpoint
+         * of the region.
+         *
+         * @param endpoint endpoint URL, e.g. http://127.0.0.1:8080
+         * @return builder itself
+         */
+        public Builder endpoint(String endpoint) {
+            this.endpoint = endpoint;
+            return this;
+        }
+
+        /**
+         * Tunes the local storage for the memory, speed and durability
+         * trade-off of a profile, see {@link StorageProfile}. The local
+         * storage is shared by all managers, so the profile of the last one
+         * built applies. Default is the settings of the platform, with
+         * snapshots of all datasets read kept in memory.
+         *
+         * @param storageProfile storage profile
+         * @return builder itself
+         */
+        public Builder storageProfile(StorageProfile storageProfile) {
+            if (storageProfile == null) {
+                throw new IllegalArgumentException("storage profile can't be null");
+            }
+            this.storageProfile = storageProfile;
+            return this;
+        }
+
+        /**
+         * Builds a new {@link CognitoSyncManager}.
+         *
+         * @return a new CognitoSyncManager
+         */
+        public CognitoSyncManager build() {
+            CognitoSyncManager manager = new CognitoSyncManager(platform, region, provider,
+                    clientConfiguration == null ? new ClientConfiguration()
+                            : clientConfiguration);
+            if (endpoint != null) {
+                manager.syncClient.setEndpoint(endpoint);
+            }
+            if (storageProfile != null) {
+                local.setStorageProfile(storageProfile);
+            }
+            return manager;
+        }
+    }
 }
@@ -0,0 +1,73 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito;
+
+/**
+ * The outcome of removing synced tombstones, the rows of deleted records,
+ * from local storage.
+ */
+public final class CompactionResult {
+
+    /**
+     * Nothing removed.
+     */
+    public static final CompactionResult NONE = new CompactionResult(0, 0);
+
+    private final long rows;
+    private final long bytes;
+
+    /**
+     * @param rows number of removed rows
+     * @param bytes UTF-8 bytes of the text columns of the removed rows
+     */
+    public CompactionResult(long rows, long bytes) {
+        this.rows = rows;
+        this.bytes = bytes;
+    }
+
+    /**
+     * @return number of removed rows
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * @return UTF-8 bytes of the keys, identity ids, dataset names and last
+     *         modified by of the removed rows
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @param other another result
+     * @return the sum of this and the other result
+     */
+    public CompactionResult plus(CompactionResult other) {
+        if (other.rows == 0) {
+            return this;
+        }
+        return new CompactionResult(rows + other.rows, bytes + other.bytes);
+    }
+
+    @Override
+    public String toString() {
+        return rows + " rows, " + bytes + " bytes";
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito;
+
+import com.amazonaws.mobileconnectors.cognito.internal.storage.LocalStorage;
+import com.amazonaws.mobileconnectors.cognito.internal.util.Log;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the local storage compact and its query statistics fresh: gives
+ * free pages back in short {@link LocalStorage#vacuum(int)} steps, then runs
+ * {@link LocalStorage#analyze()}. Scheduled runs only start, and only go on
+ * from one step to the next, while nothing has been written locally for the
+ * idle time.
+ */
+final class DatabaseMaintenance {
+
+    private static final String TAG = "DatabaseMaintenance";
+
+    private final LocalStorage local;
+
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> task;
+
+    DatabaseMaintenance(LocalStorage local) {
+        this.local = local;
+    }
+
+    /**
+     * Runs maintenance every interval when the storage is idle, or stops it.
+     *
+     * @param intervalMillis time between two runs, 0 to stop
+     * @param idleMillis time without local writes before a run starts
+     * @param pagesPerStep most pages given back per step
+     */
+    synchronized void schedule(long intervalMillis, final long idleMillis,
+            final int pagesPerStep) {
+        if (intervalMillis < 0 || idleMillis < 0) {
+            throw new IllegalArgumentException("times can't be negative");
+        }
+        if (pagesPerStep <= 0) {
+            throw new IllegalArgumentException("pages per step must be positive");
+        }
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+        if (intervalMillis == 0) {
+            return;
+        }
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, TAG);
+                    thread.setDaemon(true);
+                    thread.setPriority(Thread.MIN_PRIORITY);
+                    return thread;
+                }
+            });
+        }
+        task = scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    DatabaseMaintenance.this.run(idleMillis, pagesPerStep);
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "failed to maintain local storage", e);
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Gives back free pages step by step, then refreshes query statistics.
+     *
+     * @param idleMillis time without local writes required before each step,
+     *            0 to run regardless
+     * @param pagesPerStep most pages given back per step
+     * @return storage stats after the run
+     */
+    StorageStats run(long idleMillis, int pagesPerStep) {
+        StorageStats stats = local.getStorageStats();
+        if (!isIdle(stats, idleMillis)) {
+            Log.d(TAG, "local storage is busy, maintenance postponed");
+            return stats;
+        }
+        long reclaimed = 0;
+        while (stats.getFreePageCount() > 0) {
+            long pages = local.vacuum(pagesPerStep);
+            reclaimed += pages;
+            stats = local.getStorageStats();
+            if (pages == 0 || !isIdle(stats, idleMillis)) {
+                break;
+            }
+        }
+        local.analyze();
+        stats = local.getStorageStats();
+        Log.i(TAG, String.format("gave back %d pages, %s", reclaimed, stats));
+        return stats;
+    }
+
+    private static boolean isIdle(StorageStats stats, long idleMillis) {
+        return idleMillis == 0
+                || System.currentTimeMillis() - stats.getLastWriteTime() >= idleMillis;
+    }
+}
@@ -19,8 +19,10 @@ package com.amazonaws.mobileconnectors.cognito;
 
 import com.amazonaws.mobileconnectors.cognito.exceptions.DataStorageException;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 /**
  * Dataset is the container of {@link Record}s. It can have up to 1k
@@ -112,6 +114,65 @@ public interface Dataset {
      */
     void remove(String key);
 
+    /**
+     * Marks the {@link Record}s with the given keys as deleted in a single
+     * local transaction. Keys that don't exist or are deleted already are
+     * skipped. The deletions are written to Cognito Sync service on next
+     * synchronize operation, like {@link #remove(String)}.
+     * 
+     * @param keys keys of the records
+     */
+    void removeAll(Collection<String> keys);
+
+    /**
+     * Marks all {@link Record}s of this dataset as deleted in a single local
+     * transaction. Unlike {@link #delete()}, the dataset itself is kept, and
+     * the deletions are written to Cognito Sync service on next synchronize
+     * operation.
+     */
+    void clear();
+
+    /**
+     * Puts the given value only if the current value of the {@link Record}
+     * with the given key equals the expected one. The check and the write are
+     * a single atomic operation on local storage, so concurrent writers on
+     * this device can't interleave between them. A null expected value means
+     * that the record doesn't exist or is deleted, and a null new value
+     * deletes the record.
+     * 
+     * @param key key of the record
+     * @param expectedValue the value the record must have, or null
+     * @param newValue the value to put, or null to delete the record
+     * @return true if the value was put, false if the current value didn't
+     *         match
+     */
+    boolean compareAndPut(String key, String expectedValue, String newValue);
+
+    /**
+     * Atomically adds delta to the integer value of the {@link Record} with
+     * the given key. A record that doesn't exist or is deleted counts as 0.
+     * 
+     * @param key key of the record
+     * @param delta amount to add, may be negative
+     * @return the new value
+     * @throws IllegalStateException if the current value isn't a decimal
+     *             integer, or the result overflows a long
+     */
+    long increment(String key, long delta);
+
+    /**
+     * Puts all the given values only if the current values of the keys in
+     * expectedValues all equal the expected ones, as a single atomic
+     * operation. A null expected value means that the record must not exist or
+     * be deleted.
+     * 
+     * @param expectedValues expected current values by key
+     * @param values values to put by key, null values delete records
+     * @return true if the values were put, false if any current value didn't
+     *         match
+     */
+    boolean compareAndPutAll(Map<String, String> expectedValues, Map<String, String> values);
+
     /**
      * Saves resolved conflicting {@link Record}s into local storage. This is
      * used inside {@link SyncCallback#onConflict(Dataset, List)} after you
@@ -128,9 +189,76 @@ public interface Dataset {
      */
     List<Record> getAllRecords();
 
+    /**
+     * Retrieves all raw records, marked deleted or not, from local storage in
+     * columnar form. It takes a fraction of the memory of
+     * {@link #getAllRecords()}, which makes it the preferred form to keep a
+     * dataset resident.
+     * 
+     * @return an immutable batch of all raw records
+     */
+    RecordBatch getRecordBatch();
+
+    /**
+     * Retrieves the raw records, marked deleted or not, whose keys start with
+     * the given prefix, in key order. Only the matching records are read from
+     * local storage.
+     * 
+     * @param prefix key prefix, empty for all records
+     * @return a list of the matching raw records
+     */
+    List<Record> getByPrefix(String prefix);
+
+    /**
+     * Retrieves the raw records, marked deleted or not, whose keys are in the
+     * given range, in key order. Only the matching records are read from
+     * local storage.
+     * 
+     * @param fromKey lowest key, inclusive, or null for no lower bound
+     * @param toKey highest key, exclusive, or null for no upper bound
+     * @return a list of the matching raw records
+     */
+    List<Record> getRange(String fromKey, String toKey);
+
+    /**
+     * Streams the raw records whose keys start with the given prefix to a
+     * visitor, in key order, without collecting them in a list.
+     * 
+     * @param prefix key prefix, empty for all records
+     * @param visitor visitor of the matching records
+     */
+    void visitByPrefix(String prefix, RecordVisitor visitor);
+
+    /**
+     * Streams the raw records whose keys are in the given range to a visitor,
+     * in key order, without collecting them in a list.
+     * 
+     * @param fromKey lowest key, inclusive, or null for no lower bound
+     * @param toKey highest key, exclusive, or null for no upper bound
+     * @param visitor visitor of the matching records
+     */
+    void visitRange(String fromKey, String toKey, RecordVisitor visitor);
+
+    /**
+     * A visitor of the records streamed by {@link #visitByPrefix} and
+     * {@link #visitRange}. It's called on the caller's thread while local
+     * storage is being read, so it should be quick.
+     */
+    interface RecordVisitor {
+        /**
+         * Visits a record, marked deleted or not.
+         * 
+         * @param record the record
+         * @return true to continue, false to stop visiting
+         */
+        boolean visit(Record record);
+    }
+
     /**
      * Gets the key-value representation of all records of this dataset. Marked
-     * as deleted records are excluded.
+     * as deleted records are excluded. The map is an unmodifiable snapshot; it
+     * isn't updated by later changes, and repeated calls return the same map
+     * as long as the dataset doesn't change.
      * 
      * @return key-value representation of all records, excluding deleted ones
      */
@@ -167,6 +295,85 @@ public interface Dataset {
      */
     void delete();
 
+    /**
+     * Waits for the values of this dataset queued by
+     * {@link #putAsync(String, String, LocalCallback)} and
+     * {@link #removeAsync(String, LocalCallback)} to be written, then writes
+     * the values buffered by write-behind mode to local storage, see
+     * {@link CognitoSyncManager#setWriteBehind(int, long)}. A sync does this
+     * first.
+     */
+    void flush();
+
+    /**
+     * Gets the value of a record off the caller's thread. It sees the values
+     * queued by {@link #putAsync} and {@link #removeAsync} even if they aren't
+     * written yet.
+     * 
+     * @param key key of the record
+     * @param callback called with the value on a background thread, or null
+     * @return the value, null if the record doesn't exist or is deleted
+     */
+    Future<String> getAsync(String key, LocalCallback<String> callback);
+
+    /**
+     * Gets the key-value representation of all records off the caller's
+     * thread, like {@link #getAll()}. It sees the values queued by
+     * {@link #putAsync} and {@link #removeAsync} even if they aren't written
+     * yet.
+     * 
+     * @param callback called with the values on a background thread, or null
+     * @return key-value representation of all records, excluding deleted ones
+     */
+    Future<Map<String, String>> getAllAsync(LocalCallback<Map<String, String>> callback);
+
+    /**
+     * Puts a value off the caller's thread, like {@link #put(String, String)}.
+     * Writes are queued to a single writer thread, which writes everything
+     * queued for a dataset in one transaction. Asynchronous reads see the
+     * value right away, other reads once the returned future is done.
+     * 
+     * @param key key of the record
+     * @param value string value of the record
+     * @param callback called on a background thread once the value is
+     *            written, or null
+     * @return a future that is done once the value is written
+     */
+    Future<Void> putAsync(String key, String value, LocalCallback<Void> callback);
+
+    /**
+     * Marks a record as deleted off the caller's thread, like
+     * {@link #remove(String)}. It's queued with the writes of
+     * {@link #putAsync}.
+     * 
+     * @param key key of the record
+     * @param callback called on a background thread once the record is
+     *            removed, or null
+     * @return a future that is done once the record is removed
+     */
+    Future<Void> removeAsync(String key, LocalCallback<Void> callback);
+
+    /**
+     * The callback of the asynchronous local operations of a {@link Dataset}.
+     * 
+     * @param <T> type of the result
+     */
+    interface LocalCallback<T> {
+        /**
+         * Called when the operation succeeds.
+         * 
+         * @param result the result, null for writes
+         */
+        void onSuccess(T result);
+
+        /**
+         * Called when the operation fails.
+         * 
+         * @param exception the cause of the failure
+         */
+        void onFailure(DataStorageException exception);
+    }
+
     /**
      * Get the last sync count of this {@link Dataset}.
      * 
@@ -186,6 +393,25 @@ public interface Dataset {
      */
     void unsubscribe();
 
+    /**
+     * Adds a listener of the value changes of this dataset, whether they come
+     * from this device or from a sync. It receives the changes of every
+     * instance of this dataset opened by the same {@link CognitoSyncManager},
+     * for the identity current when it's added. After the identity changes,
+     * add it again to receive the changes of the new identity's dataset.
+     * 
+     * @param listener the listener
+     */
+    void addChangeListener(DatasetChangeListener listener);
+
+    /**
+     * Removes a listener added with
+     * {@link #addChangeListener(DatasetChangeListener)}.
+     * 
+     * @param listener the listener
+     */
+    void removeChangeListener(DatasetChangeListener listener);
+
     /**
      * This is the callback used in {@link Dataset#synchronize(SyncCallback)}.
      */
@@ -0,0 +1,124 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Changes of the values of a dataset, coalesced over one or more writes: a
+ * key written several times appears once with its latest value, and a key
+ * added then removed doesn't appear at all. Values are the ones in local
+ * storage after the changes. Whether a key counts as added, changed or removed
+ * depends on its value before the changes, which is best effort under
+ * concurrent writes of the same key.
+ */
+public final class DatasetChangeEvent {
+
+    /**
+     * Origin of a change.
+     */
+    public enum Source {
+        /**
+         * put, putAll, remove or delete on the dataset.
+         */
+        LOCAL,
+        /**
+         * Remote records applied by a sync, or the remote dataset deleted.
+         */
+        REMOTE,
+        /**
+         * Records passed to {@link Dataset#resolve(java.util.List)}.
+         */
+        CONFLICT_RESOLUTION
+    }
+
+    private final String identityId;
+    private final String datasetName;
+    private final Set<Source> sources;
+    private final Map<String, String> added;
+    private final Map<String, String> changed;
+    private final Set<String> removed;
+
+    DatasetChangeEvent(String identityId, String datasetName, EnumSet<Source> sources,
+            Map<String, String> added, Map<String, String> changed, Set<String> removed) {
+        this.identityId = identityId;
+        this.datasetName = datasetName;
+        this.sources = Collections.unmodifiableSet(sources);
+        this.added = Collections.unmodifiableMap(added);
+        this.changed = Collections.unmodifiableMap(changed);
+        this.removed = Collections.unmodifiableSet(removed);
+    }
+
+    /**
+     * @return identity id the changed dataset belongs to
+     */
+    public String getIdentityId() {
+        return identityId;
+    }
+
+    /**
+     * @return name of the changed dataset
+     */
+    public String getDatasetName() {
+        return datasetName;
+    }
+
+    /**
+     * @return origins of the coalesced changes
+     */
+    public Set<Source> getSources() {
+        return sources;
+    }
+
+    /**
+     * @return values of the keys that didn't exist before
+     */
+    public Map<String, String> getAdded() {
+        return added;
+    }
+
+    /**
+     * @return new values of the keys whose value changed
+     */
+    public Map<String, String> getChanged() {
+        return changed;
+    }
+
+    /**
+     * @return keys that were removed
+     */
+    public Set<String> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return true if the writes didn't change any value in the end
+     */
+    public boolean isEmpty() {
+        return added.isEmpty() && changed.isEmpty() && removed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "dataset:[" + datasetName + "],sources:" + sources + ",added:" + added.keySet()
+                + ",changed:" + changed.keySet() + ",removed:" + removed;
+    }
+}
@@ -0,0 +1,35 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito;
+
+/**
+ * Listener of the changes of dataset values. Changes are batched and
+ * delivered on the executor set with
+ * {@link CognitoSyncManager#setDatasetChangeExecutor(java.util.concurrent.Executor)},
+ * so that a listener receives deltas instead of re-reading the whole dataset.
+ */
+public interface DatasetChangeListener {
+
+    /**
+     * Called with the changes made since the previous event of the same
+     * dataset.
+     *
+     * @param event the coalesced changes
+     */
+    void onDatasetChanged(DatasetChangeEvent event);
+}
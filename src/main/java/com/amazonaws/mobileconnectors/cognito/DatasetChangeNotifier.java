@@ -0,0 +1,314 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito;
+
+import com.amazonaws.mobileconnectors.cognito.internal.util.Log;
+import com.amazonaws.mobileconnectors.cognito.internal.util.StringUtils;
+
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Collects the value changes of datasets and delivers them to
+ * {@link DatasetChangeListener}s. The writes of a dataset operation form a
+ * {@link Transaction}; committed transactions of a dataset are merged into a
+ * pending batch until the executor delivers it, so a burst of writes gives a
+ * single event. Without listeners no transaction is started, and writes don't
+ * pay for the old values reads. Listeners of a dataset and pending batches are
+ * kept by identity id and dataset name, so that the datasets of an identity
+ * don't reach the listeners of another one.
+ * <p>
+ * Old values are best effort: most writes read them in a separate call before
+ * writing, so a concurrent write of the same key in between can make an event
+ * report the wrong old value, and thus a change as an addition or the other
+ * way around. New values are always the written ones.
+ */
+class DatasetChangeNotifier {
+
+    private static final String TAG = "DatasetChangeNotifier";
+
+    /**
+     * Listeners of every dataset.
+     */
+    private final List<DatasetChangeListener> listeners = new CopyOnWriteArrayList<DatasetChangeListener>();
+    /**
+     * Listeners by identity id and dataset name, see {@link #key}.
+     */
+    private final Map<String, List<DatasetChangeListener>> datasetListeners = new ConcurrentHashMap<String, List<DatasetChangeListener>>();
+
+    /**
+     * Pending batches by identity id and dataset name, guarded by this.
+     */
+    private final Map<String, Batch> pending = new HashMap<String, Batch>();
+
+    private volatile Executor executor;
+    private ExecutorService defaultExecutor;
+
+    /**
+     * Adds a listener.
+     *
+     * @param identityId identity the dataset belongs to, ignored for every
+     *            dataset
+     * @param datasetName dataset to listen to, null for every dataset
+     * @param listener the listener
+     */
+    void addListener(String identityId, String datasetName, DatasetChangeListener listener) {
+        if (listener == null) {
+            throw new IllegalArgumentException("listener can't be null");
+        }
+        if (datasetName == null) {
+            listeners.add(listener);
+            return;
+        }
+        String key = key(identityId, datasetName);
+        synchronized (datasetListeners) {
+            List<DatasetChangeListener> list = datasetListeners.get(key);
+            if (list == null) {
+                list = new CopyOnWriteArrayList<DatasetChangeListener>();
+                datasetListeners.put(key, list);
+            }
+            list.add(listener);
+        }
+    }
+
+    /**
+     * Removes a listener.
+     *
+     * @param identityId identity the dataset belongs to, ignored for every
+     *            dataset
+     * @param datasetName dataset it listens to, null for every dataset
+     * @param listener the listener
+     */
+    void removeListener(String identityId, String datasetName,
+            DatasetChangeListener listener) {
+        if (datasetName == null) {
+            listeners.remove(listener);
+            return;
+        }
+        String key = key(identityId, datasetName);
+        synchronized (datasetListeners) {
+            List<DatasetChangeListener> list = datasetListeners.get(key);
+            if (list != null) {
+                list.remove(listener);
+                if (list.isEmpty()) {
+                    datasetListeners.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the executor events are delivered on. By default they're
+     * delivered on a background thread of the notifier, one at a time.
+     *
+     * @param executor the executor, null for the default one
+     */
+    void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    private boolean hasListeners(String identityId, String datasetName) {
+        return !listeners.isEmpty() || datasetListeners.containsKey(key(identityId, datasetName));
+    }
+
+    /**
+     * Starts a transaction if anyone listens to the dataset.
+     *
+     * @param identityId identity the dataset belongs to
+     * @param datasetName dataset name
+     * @param source origin of the changes
+     * @return a transaction, or null if there's no listener
+     */
+    Transaction begin(String identityId, String datasetName, DatasetChangeEvent.Source source) {
+        return hasListeners(identityId, datasetName)
+                ? new Transaction(identityId, datasetName, source) : null;
+    }
+
+    /**
+     * Value changes of a dataset operation.
+     */
+    final class Transaction {
+        private final String identityId;
+        private final String datasetName;
+        private final DatasetChangeEvent.Source source;
+        private final Map<String, String[]> changes = new LinkedHashMap<String, String[]>();
+
+        private Transaction(String identityId, String datasetName,
+                DatasetChangeEvent.Source source) {
+            this.identityId = identityId;
+            this.datasetName = datasetName;
+            this.source = source;
+        }
+
+        /**
+         * Records a change of value.
+         *
+         * @param key record key
+         * @param oldValue value before, null if the key didn't exist
+         * @param newValue value after, null if the key is removed
+         */
+        void change(String key, String oldValue, String newValue) {
+            String[] change = changes.get(key);
+            if (change == null) {
+                changes.put(key, new String[] {
+                        oldValue, newValue
+                });
+            } else {
+                change[1] = newValue;
+            }
+        }
+
+        /**
+         * Hands the changes over for delivery.
+         */
+        void commit() {
+            if (!changes.isEmpty()) {
+                enqueue(this);
+            }
+        }
+    }
+
+    /**
+     * Changes of a dataset waiting for delivery.
+     */
+    private static final class Batch {
+        final String identityId;
+        final String datasetName;
+        final EnumSet<DatasetChangeEvent.Source> sources = EnumSet
+                .noneOf(DatasetChangeEvent.Source.class);
+        final Map<String, String[]> changes = new LinkedHashMap<String, String[]>();
+
+        Batch(String identityId, String datasetName) {
+            this.identityId = identityId;
+            this.datasetName = datasetName;
+        }
+    }
+
+    private void enqueue(Transaction transaction) {
+        final String key = key(transaction.identityId, transaction.datasetName);
+        boolean schedule;
+        synchronized (this) {
+            Batch batch = pending.get(key);
+            schedule = batch == null;
+            if (schedule) {
+                batch = new Batch(transaction.identityId, transaction.datasetName);
+                pending.put(key, batch);
+            }
+            batch.sources.add(transaction.source);
+            for (Map.Entry<String, String[]> entry : transaction.changes.entrySet()) {
+                String[] change = batch.changes.get(entry.getKey());
+                if (change == null) {
+                    batch.changes.put(entry.getKey(), entry.getValue());
+                } else {
+                    // keep the value before the batch, take the latest one
+                    change[1] = entry.getValue()[1];
+                }
+            }
+        }
+        if (schedule) {
+            getExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(key);
+                }
+            });
+        }
+    }
+
+    private void deliver(String key) {
+        Batch batch;
+        synchronized (this) {
+            batch = pending.remove(key);
+        }
+        if (batch == null) {
+            return;
+        }
+        Map<String, String> added = new LinkedHashMap<String, String>();
+        Map<String, String> changed = new LinkedHashMap<String, String>();
+        Set<String> removed = new LinkedHashSet<String>();
+        for (Map.Entry<String, String[]> entry : batch.changes.entrySet()) {
+            String oldValue = entry.getValue()[0];
+            String newValue = entry.getValue()[1];
+            if (oldValue == null && newValue != null) {
+                added.put(entry.getKey(), newValue);
+            } else if (oldValue != null && newValue == null) {
+                removed.add(entry.getKey());
+            } else if (oldValue != null && !StringUtils.equals(oldValue, newValue)) {
+                changed.put(entry.getKey(), newValue);
+            }
+        }
+        DatasetChangeEvent event = new DatasetChangeEvent(batch.identityId, batch.datasetName,
+                batch.sources, added, changed, removed);
+        if (event.isEmpty()) {
+            return;
+        }
+        List<DatasetChangeListener> forDataset = datasetListeners.get(key);
+        if (forDataset != null) {
+            notify(forDataset, event);
+        }
+        notify(listeners, event);
+    }
+
+    private static void notify(List<DatasetChangeListener> listeners, DatasetChangeEvent event) {
+        for (DatasetChangeListener listener : listeners) {
+            try {
+                listener.onDatasetChanged(event);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "dataset change listener failed", e);
+            }
+        }
+    }
+
+    /**
+     * Dataset names can't contain a slash, so the key is unambiguous.
+     */
+    private static String key(String identityId, String datasetName) {
+        return identityId + "/" + datasetName;
+    }
+
+    private Executor getExecutor() {
+        Executor current = executor;
+        if (current != null) {
+            return current;
+        }
+        synchronized (this) {
+            if (defaultExecutor == null) {
+                defaultExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, TAG);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
+            return defaultExecutor;
+        }
+    }
+}
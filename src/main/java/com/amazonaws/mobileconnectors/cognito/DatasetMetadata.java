@@ -32,13 +32,13 @@ public final class DatasetMetadata {
      */
     private final String datasetName;
     /**
-     * Date when the dataset is created
+     * Time when the dataset is created, in milliseconds since epoch
      */
-    private final Date creationDate;
+    private final long creationTime;
     /**
-     * Date when the dataset is last modified
+     * Time when the dataset is last modified, in milliseconds since epoch
      */
-    private final Date lastModifiedDate;
+    private final long lastModifiedTime;
     /**
      * The device that made the last modification
      */
@@ -67,7 +67,17 @@ public final class DatasetMetadata {
      * @return creation date
      */
     public Date getCreationDate() {
-        return new Date(creationDate.getTime());
+        return new Date(creationTime);
+    }
+
+    /**
+     * Gets the creation date of this dataset without allocating a
+     * {@link Date}.
+     * 
+     * @return creation time in milliseconds since epoch
+     */
+    public long getCreationTime() {
+        return creationTime;
     }
 
     /**
@@ -76,7 +86,18 @@ public final class DatasetMetadata {
      * @return date when this dataset is last modified
      */
     public Date getLastModifiedDate() {
-        return new Date(lastModifiedDate.getTime());
+        return new Date(lastModifiedTime);
+    }
+
+    /**
+     * Gets last modified date of this dataset without allocating a
+     * {@link Date}.
+     * 
+     * @return time in milliseconds since epoch when this dataset is last
+     *         modified
+     */
+    public long getLastModifiedTime() {
+        return lastModifiedTime;
     }
 
     /**
@@ -115,13 +136,10 @@ public final class DatasetMetadata {
     private DatasetMetadata(Builder builder) {
         this.datasetName = builder.datasetName;
         this.lastModifiedBy = builder.lastModifiedBy;
-        this.creationDate = builder.creationDate == null
-                ? new Date(0) : new
-                Date(builder.creationDate.getTime());
-        this.lastModifiedDate =
-                builder.lastModifiedDate == null
-                        ? new Date() // default is current time
-                        : new Date(builder.lastModifiedDate.getTime());
+        this.creationTime = builder.creationTime;
+        this.lastModifiedTime = builder.hasLastModifiedTime
+                ? builder.lastModifiedTime
+                : System.currentTimeMillis(); // default is current time
         this.storageSizeBytes = builder.storageSizeBytes;
         this.recordCount = builder.recordCount;
     }
@@ -131,8 +149,9 @@ public final class DatasetMetadata {
      */
     public static final class Builder {
         private final String datasetName;
-        private Date creationDate;
-        private Date lastModifiedDate;
+        private long creationTime;
+        private long lastModifiedTime;
+        private boolean hasLastModifiedTime;
         private String lastModifiedBy;
         private long storageSizeBytes;
         private long recordCount;
@@ -153,7 +172,19 @@ public final class DatasetMetadata {
          * @return builder itself
          */
         public Builder creationDate(Date creationDate) {
-            this.creationDate = creationDate;
+            this.creationTime = creationDate == null ? 0 : creationDate.getTime();
+            return this;
+        }
+
+        /**
+         * Sets the creation date of this dataset in milliseconds since epoch.
+         * Default is 0 (unknown).
+         * 
+         * @param creationTime creation time of this dataset.
+         * @return builder itself
+         */
+        public Builder creationTime(long creationTime) {
+            this.creationTime = creationTime;
             return this;
         }
 
@@ -164,7 +195,21 @@ public final class DatasetMetadata {
          * @return builder itself.
          */
         public Builder lastModifiedDate(Date lastModifiedDate) {
-            this.lastModifiedDate = lastModifiedDate;
+            hasLastModifiedTime = lastModifiedDate != null;
+            this.lastModifiedTime = hasLastModifiedTime ? lastModifiedDate.getTime() : 0;
+            return this;
+        }
+
+        /**
+         * Sets the last modified date in milliseconds since epoch. Default is
+         * current date.
+         * 
+         * @param lastModifiedTime last modified time
+         * @return builder itself.
+         */
+        public Builder lastModifiedTime(long lastModifiedTime) {
+            this.lastModifiedTime = lastModifiedTime;
+            hasLastModifiedTime = true;
             return this;
         }
 
@@ -221,8 +266,8 @@ public final class DatasetMetadata {
     public String toString() {
         StringBuilder sb = new StringBuilder();
         sb.append("dataset_name:[").append(datasetName).append("],")
-                .append("creation_date:[").append(creationDate).append("],")
-                .append("last_modified_date:[").append(lastModifiedDate).append("],")
+                .append("creation_date:[").append(new Date(creationTime)).append("],")
+                .append("last_modified_date:[").append(new Date(lastModifiedTime)).append("],")
                 .append("last_modified_by:[").append(lastModifiedBy).append("],")
                 .append("storage_size_bytes:[").append(storageSizeBytes).append("],")
                 .append("record_count:[").append(recordCount).append("]");
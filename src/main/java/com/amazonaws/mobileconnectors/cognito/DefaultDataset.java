@@ -17,16 +17,7 @@
 
 package com.amazonaws.mobileconnectors.cognito;
 
-import android.content.BroadcastReceiver;
-import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
-import android.content.SharedPreferences;
-import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
-import android.util.Log;
-
-import com.amazonaws.auth.CognitoCachingCredentialsProvider;
+import com.amazonaws.auth.CognitoCredentialsProvider;
 import com.amazonaws.mobileconnectors.cognito.exceptions.DataConflictException;
 import com.amazonaws.mobileconnectors.cognito.exceptions.DataStorageException;
 import com.amazonaws.mobileconnectors.cognito.exceptions.DatasetNotFoundException;
@@ -35,21 +26,28 @@ import com.amazonaws.mobileconnectors.cognito.internal.storage.CognitoSyncStorag
 import com.amazonaws.mobileconnectors.cognito.internal.storage.LocalStorage;
 import com.amazonaws.mobileconnectors.cognito.internal.storage.RemoteDataStorage;
 import com.amazonaws.mobileconnectors.cognito.internal.storage.RemoteDataStorage.DatasetUpdates;
-import com.amazonaws.mobileconnectors.cognito.internal.storage.SQLiteLocalStorage;
+import com.amazonaws.mobileconnectors.cognito.internal.storage.WriteBehindLocalStorage;
 import com.amazonaws.mobileconnectors.cognito.internal.util.DatasetUtils;
+import com.amazonaws.mobileconnectors.cognito.internal.util.Log;
 import com.amazonaws.mobileconnectors.cognito.internal.util.StringUtils;
+import com.amazonaws.mobileconnectors.cognito.platform.Connectivity;
+import com.amazonaws.mobileconnectors.cognito.platform.KeyValueStore;
+import com.amazonaws.mobileconnectors.cognito.platform.Platform;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 /**
  * Default implementation of {@link Dataset}. It uses {@link CognitoSyncStorage}
- * as remote storage and {@link SQLiteLocalStorage} as local storage.
+ * as remote storage and the {@link LocalStorage} of its {@link Platform} as
+ * local storage.
  */
 class DefaultDataset implements Dataset {
 
@@ -61,9 +59,15 @@ class DefaultDataset implements Dataset {
     private static final int MAX_RETRY = 3;
 
     /**
-     * Context that the dataset is attached to
+     * From this many remote records on, the conflict scan reads the local
+     * dataset once as a batch instead of one record per remote record.
      */
-    private final Context context;
+    private static final int BATCH_LOOKUP_THRESHOLD = 16;
+
+    /**
+     * Platform that the dataset is attached to
+     */
+    private final Platform platform;
 
     /**
      * Non empty dataset name
@@ -80,37 +84,147 @@ class DefaultDataset implements Dataset {
     /**
      * Identity id
      */
-    private final CognitoCachingCredentialsProvider provider;
+    private final CognitoCredentialsProvider provider;
+    /**
+     * Listener of sync metrics, null if metrics aren't collected
+     */
+    private final SyncMetricsListener metricsListener;
+    /**
+     * Notifier of value changes
+     */
+    private final DatasetChangeNotifier changeNotifier;
+    /**
+     * Write-behind layer of the local storage, null if there is none
+     */
+    private final WriteBehindLocalStorage writeBehind;
+    /**
+     * Runs asynchronous local operations
+     */
+    private final LocalStorageExecutor localExecutor;
 
     /**
      * Constructs a DefaultDataset object
      * 
-     * @param context context of this dataset
+     * @param platform platform of this dataset
      * @param datasetName non empty dataset name
      * @param provider the credentials provider
      * @param local an instance of LocalStorage
      * @param remote an instance of RemoteDataStorage
      */
-    public DefaultDataset(Context context, String datasetName,
-            CognitoCachingCredentialsProvider provider,
+    public DefaultDataset(Platform platform, String datasetName,
+            CognitoCredentialsProvider provider,
             LocalStorage local, RemoteDataStorage remote) {
-        this.context = context;
+        this(platform, datasetName, provider, local, remote, null);
+    }
+
+    /**
+     * Constructs a DefaultDataset object
+     * 
+     * @param platform platform of this dataset
+     * @param datasetName non empty dataset name
+     * @param provider the credentials provider
+     * @param local an instance of LocalStorage
+     * @param remote an instance of RemoteDataStorage
+     * @param metricsListener listener of sync metrics, or null
+     */
+    public DefaultDataset(Platform platform, String datasetName,
+            CognitoCredentialsProvider provider,
+            LocalStorage local, RemoteDataStorage remote,
+            SyncMetricsListener metricsListener) {
+        this(platform, datasetName, provider, local, remote, metricsListener,
+                new DatasetChangeNotifier(), null, new LocalStorageExecutor());
+    }
+
+    /**
+     * Constructs a DefaultDataset object
+     * 
+     * @param platform platform of this dataset
+     * @param datasetName non empty dataset name
+     * @param provider the credentials provider
+     * @param local an instance of LocalStorage
+     * @param remote an instance of RemoteDataStorage
+     * @param metricsListener listener of sync metrics, or null
+     * @param changeNotifier notifier of value changes, shared by the datasets
+     *            of a manager
+     * @param writeBehind the write-behind layer of local storage, or null
+     * @param localExecutor runs asynchronous local operations, shared by the
+     *            datasets of a manager
+     */
+    DefaultDataset(Platform platform, String datasetName,
+            CognitoCredentialsProvider provider,
+            LocalStorage local, RemoteDataStorage remote,
+            SyncMetricsListener metricsListener, DatasetChangeNotifier changeNotifier,
+            WriteBehindLocalStorage writeBehind, LocalStorageExecutor localExecutor) {
+        this.platform = platform;
         this.datasetName = datasetName;
         this.provider = provider;
         this.local = local;
         this.remote = remote;
+        this.metricsListener = metricsListener;
+        this.changeNotifier = changeNotifier;
+        this.writeBehind = writeBehind;
+        this.localExecutor = localExecutor;
     }
 
     @Override
     public void put(String key, String value) {
-        local.putValue(getIdentityId(), datasetName,
-                DatasetUtils.validateRecordKey(key), value);
+        putValue(DatasetUtils.validateRecordKey(key), value);
     }
 
     @Override
     public void remove(String key) {
-        local.putValue(getIdentityId(), datasetName,
-                DatasetUtils.validateRecordKey(key), null);
+        putValue(DatasetUtils.validateRecordKey(key), null);
+    }
+
+    @Override
+    public void removeAll(Collection<String> keys) {
+        for (String key : keys) {
+            DatasetUtils.validateRecordKey(key);
+        }
+        String identityId = getIdentityId();
+        DatasetChangeNotifier.Transaction changes = changeNotifier.begin(identityId,
+                datasetName, DatasetChangeEvent.Source.LOCAL);
+        Map<String, String> oldValues = changes == null ? null
+                : local.getValueMap(identityId, datasetName);
+        local.removeValues(identityId, datasetName, keys);
+        if (changes != null) {
+            for (String key : keys) {
+                String oldValue = oldValues.get(key);
+                if (oldValue != null) {
+                    changes.change(key, oldValue, null);
+                }
+            }
+            changes.commit();
+        }
+    }
+
+    @Override
+    public void clear() {
+        String identityId = getIdentityId();
+        DatasetChangeNotifier.Transaction changes = changeNotifier.begin(identityId,
+                datasetName, DatasetChangeEvent.Source.LOCAL);
+        Map<String, String> oldValues = changes == null ? null
+                : local.getValueMap(identityId, datasetName);
+        local.removeAllValues(identityId, datasetName);
+        if (changes != null) {
+            for (Map.Entry<String, String> entry : oldValues.entrySet()) {
+                changes.change(entry.getKey(), entry.getValue(), null);
+            }
+            changes.commit();
+        }
+    }
+
+    private void putValue(String key, String value) {
+        String identityId = getIdentityId();
+        DatasetChangeNotifier.Transaction changes = changeNotifier.begin(identityId,
+                datasetName, DatasetChangeEvent.Source.LOCAL);
+        if (changes != null) {
+            changes.change(key, local.getValue(identityId, datasetName, key), value);
+        }
+        local.putValue(identityId, datasetName, key, value);
+        if (changes != null) {
+            changes.commit();
+        }
     }
 
     @Override
@@ -125,7 +239,7 @@ class DefaultDataset implements Dataset {
             throw new IllegalArgumentException("callback can't be null");
         }
 
-        if (!isNetworkAvailable(context)) {
+        if (!platform.getConnectivity().isNetworkAvailable()) {
             callback.onFailure(new NetworkException("Network connectivity unavailable."));
             return;
         }
@@ -137,8 +251,12 @@ class DefaultDataset implements Dataset {
             public void run() {
                 Log.d(TAG, "start to synchronize " + datasetName);
 
+                SyncMetricsListener listener = metricsListener;
+                SyncMetrics.Recorder recorder = listener == null ? SyncMetrics.Recorder.NONE
+                        : new SyncMetrics.Recorder(datasetName);
                 boolean result = false;
                 try {
+                    flush();
                     List<String> mergedDatasets = getLocalMergedDatasets();
                     boolean doSync = true;
                     if (!mergedDatasets.isEmpty()) {
@@ -146,9 +264,12 @@ class DefaultDataset implements Dataset {
                         doSync = callback.onDatasetsMerged(DefaultDataset.this, mergedDatasets);
                     }
                     if (doSync) {
-                        result = synchronizeInternal(callback, MAX_RETRY);
+                        result = synchronizeInternal(callback, MAX_RETRY, recorder);
+                    } else {
+                        recorder.cancelled();
                     }
                 } catch (Exception e) {
+                    recorder.failed(e);
                     callback.onFailure(new DataStorageException("Unknown exception", e));
                 }
 
@@ -157,17 +278,35 @@ class DefaultDataset implements Dataset {
                 } else {
                     Log.d(TAG, "failed to synchronize " + datasetName);
                 }
+
+                if (listener != null) {
+                    reportMetrics(listener, recorder.finish(result));
+                }
             }
         }).start();
     }
 
+    /**
+     * Hands the metrics of a sync to the listener. A failing listener doesn't
+     * affect the sync.
+     */
+    private void reportMetrics(SyncMetricsListener listener, SyncMetrics metrics) {
+        try {
+            listener.onSyncCompleted(metrics);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "sync metrics listener failed", e);
+        }
+    }
+
     /**
      * Deletes the remote dataset, and purges the local dataset.
      * 
      * @param callback
+     * @param recorder recorder of sync metrics
      * @return Success or failure
      */
-    boolean deleteLocalAndPurgeRemoteDataset(final SyncCallback callback) {
+    boolean deleteLocalAndPurgeRemoteDataset(final SyncCallback callback,
+            SyncMetrics.Recorder recorder) {
         try {
             try {
                 remote.deleteDataset(datasetName);
@@ -176,9 +315,11 @@ class DefaultDataset implements Dataset {
                 // should be ignored
             }
             local.purgeDataset(getIdentityId(), datasetName);
+            forgetRemoteLastModified();
             callback.onSuccess(DefaultDataset.this, Collections.<Record> emptyList());
             return true;
         } catch (DataStorageException dse) {
+            recorder.failed(dse);
             callback.onFailure(dse);
             return false;
         }
@@ -191,15 +332,18 @@ class DefaultDataset implements Dataset {
      * @param callback the SyncCallback
      * @param datasetUpdates The current updates from the remote
      * @param retry The current retry count
+     * @param recorder recorder of sync metrics
      * @return If the synchronization succeeded
      */
     boolean handleDatasetMerge(final SyncCallback callback,
-            final DatasetUpdates datasetUpdates, int retry) {
+            final DatasetUpdates datasetUpdates, int retry, SyncMetrics.Recorder recorder) {
         boolean resume = callback.onDatasetsMerged(DefaultDataset.this,
                 new ArrayList<String>(datasetUpdates.getMergedDatasetNameList()));
         if (resume) {
-            return synchronizeInternal(callback, --retry);
+            recorder.retried();
+            return synchronizeInternal(callback, --retry, recorder);
         } else {
+            recorder.cancelled();
             callback.onFailure(new DataStorageException("Manual cancel"));
             return false;
         }
@@ -212,19 +356,27 @@ class DefaultDataset implements Dataset {
      * 
      * @param callback the SyncCallback
      * @param datasetUpdates The updates from the remote
+     * @param recorder recorder of sync metrics
      * @return The result of the client onDatasetDeleted callback
      */
     boolean removeLocalDataset(final SyncCallback callback,
-            final DatasetUpdates datasetUpdates) {
+            final DatasetUpdates datasetUpdates, SyncMetrics.Recorder recorder) {
         boolean resume = callback
                 .onDatasetDeleted(DefaultDataset.this, datasetUpdates.getDatasetName());
         if (resume) {
+            DatasetChangeNotifier.Transaction changes = removeAllValues(
+                    DatasetChangeEvent.Source.REMOTE);
             // remove both records and metadata
             local.deleteDataset(getIdentityId(), datasetName);
             local.purgeDataset(getIdentityId(), datasetName);
+            forgetRemoteLastModified();
+            if (changes != null) {
+                changes.commit();
+            }
             callback.onSuccess(DefaultDataset.this, Collections.<Record> emptyList());
             return true;
         } else {
+            recorder.cancelled();
             callback.onFailure(new DataStorageException("Manual cancel"));
             return false;
         }
@@ -237,23 +389,30 @@ class DefaultDataset implements Dataset {
      * 
      * @param callback
      * @param datasetUpdates
+     * @param recorder recorder of sync metrics
      * @return True, unless the developer does not want to continue syncing upon
      *         a sync conflict
      */
     boolean handleRemoteRecords(final SyncCallback callback,
-            final DatasetUpdates datasetUpdates) {
+            final DatasetUpdates datasetUpdates, SyncMetrics.Recorder recorder) {
         List<Record> remoteRecords = datasetUpdates.getRecords();
 
         if (!remoteRecords.isEmpty()) {
 
             // if conflict, prompt developer/user with callback
+            long start = recorder.start();
+            DatasetChangeNotifier.Transaction changes = changeNotifier.begin(getIdentityId(),
+                    datasetName, DatasetChangeEvent.Source.REMOTE);
             List<SyncConflict> conflicts = new ArrayList<SyncConflict>();
+            RecordBatch localRecords = remoteRecords.size() >= BATCH_LOOKUP_THRESHOLD
+                    ? local.getRecordBatch(getIdentityId(), datasetName)
+                    : null;
             Iterator<Record> iter = remoteRecords.iterator();
             while (iter.hasNext()) {
                 Record remoteRecord = iter.next();
-                Record localRecord = local.getRecord(getIdentityId(),
-                        datasetName,
-                        remoteRecord.getKey());
+                Record localRecord = localRecords != null
+                        ? localRecords.getRecord(remoteRecord.getKey())
+                        : local.getRecord(getIdentityId(), datasetName, remoteRecord.getKey());
                 // only when local is changed and its value is different
                 if (localRecord != null && localRecord.isModified()
                         && localRecord.getSyncCount() != remoteRecord.getSyncCount()
@@ -263,27 +422,38 @@ class DefaultDataset implements Dataset {
                     // conflict
                     // and will be updated by conflict resolution
                     iter.remove();
+                } else if (changes != null) {
+                    changes.change(remoteRecord.getKey(), localRecord == null ? null
+                            : localRecord.getValue(), remoteRecord.getValue());
                 }
             }
+            recorder.end(SyncMetrics.Phase.CONFLICT_SCAN, start);
             if (!conflicts.isEmpty()) {
                 Log.i(TAG, String.format("%d records in conflict!", conflicts.size()));
+                recorder.conflicts(conflicts.size());
                 if (!callback.onConflict(DefaultDataset.this, conflicts)) {
                     // if they didn't want to continue on resolving conflicts
                     // return
+                    recorder.cancelled();
                     return false;
                 }
             }
 
             // if there are non-conflicting records from the remote, update them
             // in local
+            start = recorder.start();
             if (!remoteRecords.isEmpty()) {
                 Log.i(TAG, String.format("save %d records to local", remoteRecords.size()));
                 local.putRecords(getIdentityId(), datasetName, remoteRecords);
+                if (changes != null) {
+                    changes.commit();
+                }
             }
             // new last sync count
             Log.i(TAG, String.format("updated sync count %d", datasetUpdates.getSyncCount()));
             local.updateLastSyncCount(getIdentityId(), datasetName,
                     datasetUpdates.getSyncCount());
+            recorder.end(SyncMetrics.Phase.APPLY_REMOTE, start);
         }
 
         return true;
@@ -297,13 +467,16 @@ class DefaultDataset implements Dataset {
      * @param callback the SyncCallback
      * @param datasetUpdates The updates from the remote store
      * @param retry The current retry count
+     * @param recorder recorder of sync metrics
      * @return If this portion of the synchronization was successful
      */
     boolean handleLocalModifications(final SyncCallback callback,
-            final DatasetUpdates datasetUpdates, int retry) {
+            final DatasetUpdates datasetUpdates, int retry, SyncMetrics.Recorder recorder) {
 
         // push changes to remote
+        long start = recorder.start();
         List<Record> localChanges = getModifiedRecords();
+        recorder.end(SyncMetrics.Phase.LOCAL_SCAN, start);
 
         if (!localChanges.isEmpty()) {
 
@@ -318,40 +491,54 @@ class DefaultDataset implements Dataset {
 
             Log.i(TAG, String.format("push %d records to remote", localChanges.size()));
             List<Record> result = null;
+            recorder.pushed(localChanges);
+            start = recorder.start();
             try {
-                SharedPreferences sp = getSharedPreferences();
-                String deviceId = sp.getString(namespaceIdPlatform("deviceId"), null);
+                String deviceId = getKeyValueStore().getString(namespaceIdPlatform("deviceId"), null);
                 result = remote.putRecords(datasetName, localChanges,
                         datasetUpdates.getSyncSessionToken(), deviceId);
             } catch (DataConflictException dce) {
+                recorder.end(SyncMetrics.Phase.PUSH, start);
                 Log.i(TAG, "conflicts detected when pushing changes to remote.");
                 if (lastSyncCount > maxPatchSyncCount) {
                     local.updateLastSyncCount(getIdentityId(), datasetName, maxPatchSyncCount);
                 }
-                return synchronizeInternal(callback, --retry);
+                recorder.retried();
+                return synchronizeInternal(callback, --retry, recorder);
             } catch (DataStorageException dse) {
+                recorder.end(SyncMetrics.Phase.PUSH, start);
+                recorder.failed(dse);
                 callback.onFailure(dse);
                 return false;
             }
+            recorder.end(SyncMetrics.Phase.PUSH, start);
 
             // update local meta data
+            start = recorder.start();
             local.conditionallyPutRecords(getIdentityId(), datasetName, result, localChanges);
 
             // verify the server sync count is increased exactly by one, meaning
             // no
             // other updates were made during this update.
             long newSyncCount = 0;
+            long pushedLastModified = 0;
             for (Record record : result) {
                 newSyncCount = newSyncCount < record.getSyncCount()
                         ? record.getSyncCount()
                         : newSyncCount;
+                pushedLastModified = Math.max(pushedLastModified, record.getLastModifiedTime());
             }
 
             if (newSyncCount == lastSyncCount + 1) {
                 Log.i(TAG, String.format("updated sync count %d", newSyncCount));
                 local.updateLastSyncCount(getIdentityId(), datasetName,
                         newSyncCount);
+                // the push is the latest remote change, so the remote last
+                // modified date stays at its time until another one is made
+                getKeyValueStore().putLong(remoteLastModifiedKey(getIdentityId(), datasetName),
+                        pushedLastModified);
             }
+            recorder.end(SyncMetrics.Phase.APPLY_PUSH, start);
         }
 
         // call back
@@ -364,13 +551,17 @@ class DefaultDataset implements Dataset {
      * 
      * @param callback callback during synchronization
      * @param retry number of retries before it's considered failure
+     * @param recorder recorder of sync metrics
      * @return true if synchronize successfully, false otherwise
      */
-    synchronized boolean synchronizeInternal(final SyncCallback callback, int retry) {
+    synchronized boolean synchronizeInternal(final SyncCallback callback, int retry,
+            SyncMetrics.Recorder recorder) {
         if (retry < 0) {
             Log.e(TAG, "Synchronize failed because it exceeded the maximum retries");
-            callback.onFailure(new DataStorageException(
-                    "Synchronize failed because it exceeded the maximum retries"));
+            DataStorageException e = new DataStorageException(
+                    "Synchronize failed because it exceeded the maximum retries");
+            recorder.failed(e);
+            callback.onFailure(e);
             return false;
         }
 
@@ -378,34 +569,39 @@ class DefaultDataset implements Dataset {
 
         // if dataset is deleted locally, push it to remote
         if (lastSyncCount == -1) {
-            return deleteLocalAndPurgeRemoteDataset(callback);
+            return deleteLocalAndPurgeRemoteDataset(callback, recorder);
         }
 
         // get latest modified records from remote
         Log.d(TAG, "get latest modified records since " + lastSyncCount);
         DatasetUpdates datasetUpdates = null;
+        long start = recorder.start();
         try {
             datasetUpdates = remote.listUpdates(datasetName, lastSyncCount);
         } catch (DataStorageException e) {
+            recorder.end(SyncMetrics.Phase.LIST_UPDATES, start);
+            recorder.failed(e);
             callback.onFailure(e);
             return false;
         }
+        recorder.end(SyncMetrics.Phase.LIST_UPDATES, start);
+        recorder.pulled(datasetUpdates.getRecords(), datasetUpdates.getPageCount());
 
         if (!datasetUpdates.getMergedDatasetNameList().isEmpty()) {
-            return handleDatasetMerge(callback, datasetUpdates, retry);
+            return handleDatasetMerge(callback, datasetUpdates, retry, recorder);
         }
 
         // if the dataset doesn't exist or is deleted, trigger onDelete
         if (lastSyncCount != 0 && !datasetUpdates.isExists()
                 || datasetUpdates.isDeleted()) {
-            return removeLocalDataset(callback, datasetUpdates);
+            return removeLocalDataset(callback, datasetUpdates, recorder);
         }
 
-        if (!handleRemoteRecords(callback, datasetUpdates)) {
+        if (!handleRemoteRecords(callback, datasetUpdates, recorder)) {
             return false;
         }
 
-        return handleLocalModifications(callback, datasetUpdates, retry);
+        return handleLocalModifications(callback, datasetUpdates, retry, recorder);
     }
 
     @Override
@@ -413,11 +609,64 @@ class DefaultDataset implements Dataset {
         return local.getRecords(getIdentityId(), datasetName);
     }
 
+    @Override
+    public List<Record> getByPrefix(String prefix) {
+        RecordCollector collector = new RecordCollector();
+        visitByPrefix(prefix, collector);
+        return collector.records;
+    }
+
+    @Override
+    public List<Record> getRange(String fromKey, String toKey) {
+        RecordCollector collector = new RecordCollector();
+        visitRange(fromKey, toKey, collector);
+        return collector.records;
+    }
+
+    @Override
+    public void visitByPrefix(String prefix, RecordVisitor visitor) {
+        if (prefix == null) {
+            throw new IllegalArgumentException("prefix can't be null");
+        }
+        if (visitor == null) {
+            throw new IllegalArgumentException("visitor can't be null");
+        }
+        local.visitRecordsByPrefix(getIdentityId(), datasetName, prefix, visitor);
+    }
+
+    @Override
+    public void visitRange(String fromKey, String toKey, RecordVisitor visitor) {
+        if (visitor == null) {
+            throw new IllegalArgumentException("visitor can't be null");
+        }
+        local.visitRecordRange(getIdentityId(), datasetName, fromKey, toKey, visitor);
+    }
+
+    /**
+     * Collects visited records into a list.
+     */
+    private static final class RecordCollector implements RecordVisitor {
+        final List<Record> records = new ArrayList<Record>();
+
+        @Override
+        public boolean visit(Record record) {
+            records.add(record);
+            return true;
+        }
+    }
+
+    @Override
+    public RecordBatch getRecordBatch() {
+        return local.getRecordBatch(getIdentityId(), datasetName);
+    }
+
     @Override
     public long getTotalSizeInBytes() {
+        RecordBatch records = local.getRecordBatch(getIdentityId(), datasetName);
         long size = 0;
-        for (Record record : local.getRecords(getIdentityId(), datasetName)) {
-            size += DatasetUtils.computeRecordSize(record);
+        for (int i = 0; i < records.size(); i++) {
+            size += StringUtils.utf8ByteLength(records.getKey(i))
+                    + StringUtils.utf8ByteLength(records.getValue(i));
         }
         return size;
     }
@@ -437,7 +686,45 @@ class DefaultDataset implements Dataset {
 
     @Override
     public void delete() {
+        DatasetChangeNotifier.Transaction changes = removeAllValues(
+                DatasetChangeEvent.Source.LOCAL);
         local.deleteDataset(getIdentityId(), datasetName);
+        forgetRemoteLastModified();
+        if (changes != null) {
+            changes.commit();
+        }
+    }
+
+    @Override
+    public void flush() {
+        localExecutor.awaitWritten(this);
+        if (writeBehind != null) {
+            writeBehind.flush(getIdentityId(), datasetName);
+        }
+    }
+
+    @Override
+    public Future<String> getAsync(String key, LocalCallback<String> callback) {
+        return localExecutor.get(this, DatasetUtils.validateRecordKey(key), callback);
+    }
+
+    @Override
+    public Future<Map<String, String>> getAllAsync(LocalCallback<Map<String, String>> callback) {
+        return localExecutor.getAll(this, callback);
+    }
+
+    @Override
+    public Future<Void> putAsync(String key, String value, LocalCallback<Void> callback) {
+        return localExecutor.put(this, DatasetUtils.validateRecordKey(key), value, callback);
+    }
+
+    @Override
+    public Future<Void> removeAsync(String key, LocalCallback<Void> callback) {
+        return localExecutor.put(this, DatasetUtils.validateRecordKey(key), null, callback);
+    }
+
+    String getDatasetName() {
+        return datasetName;
     }
 
     @Override
@@ -447,7 +734,20 @@ class DefaultDataset implements Dataset {
 
     @Override
     public void resolve(List<Record> remoteRecords) {
-        local.putRecords(getIdentityId(), datasetName, remoteRecords);
+        String identityId = getIdentityId();
+        DatasetChangeNotifier.Transaction changes = changeNotifier.begin(identityId,
+                datasetName, DatasetChangeEvent.Source.CONFLICT_RESOLUTION);
+        if (changes != null) {
+            for (Record record : remoteRecords) {
+                changes.change(record.getKey(),
+                        local.getValue(identityId, datasetName, record.getKey()),
+                        record.getValue());
+            }
+        }
+        local.putRecords(identityId, datasetName, remoteRecords);
+        if (changes != null) {
+            changes.commit();
+        }
     }
 
     @Override
@@ -455,18 +755,121 @@ class DefaultDataset implements Dataset {
         for (String key : values.keySet()) {
             DatasetUtils.validateRecordKey(key);
         }
-        local.putAllValues(getIdentityId(), datasetName, values);
+        String identityId = getIdentityId();
+        DatasetChangeNotifier.Transaction changes = changeNotifier.begin(identityId,
+                datasetName, DatasetChangeEvent.Source.LOCAL);
+        if (changes != null) {
+            for (Map.Entry<String, String> entry : values.entrySet()) {
+                changes.change(entry.getKey(),
+                        local.getValue(identityId, datasetName, entry.getKey()),
+                        entry.getValue());
+            }
+        }
+        local.putAllValues(identityId, datasetName, values);
+        if (changes != null) {
+            changes.commit();
+        }
     }
 
     @Override
-    public Map<String, String> getAll() {
-        Map<String, String> map = new HashMap<String, String>();
-        for (Record record : local.getRecords(getIdentityId(), datasetName)) {
-            if (!record.isDeleted()) {
-                map.put(record.getKey(), record.getValue());
+    public boolean compareAndPut(String key, String expectedValue, String newValue) {
+        DatasetUtils.validateRecordKey(key);
+        String identityId = getIdentityId();
+        DatasetChangeNotifier.Transaction changes = changeNotifier.begin(identityId,
+                datasetName, DatasetChangeEvent.Source.LOCAL);
+        if (!local.compareAndPutValue(identityId, datasetName, key, expectedValue, newValue)) {
+            return false;
+        }
+        // putting the value it had changes nothing to tell
+        if (changes != null && !StringUtils.equals(expectedValue, newValue)) {
+            changes.change(key, expectedValue, newValue);
+            changes.commit();
+        }
+        return true;
+    }
+
+    @Override
+    public long increment(String key, long delta) {
+        DatasetUtils.validateRecordKey(key);
+        String identityId = getIdentityId();
+        DatasetChangeNotifier.Transaction changes = changeNotifier.begin(identityId,
+                datasetName, DatasetChangeEvent.Source.LOCAL);
+        String oldValue = changes == null ? null : local.getValue(identityId, datasetName, key);
+        long value = local.incrementValue(identityId, datasetName, key, delta);
+        if (changes != null) {
+            // the increment tells the value it replaced, if there was one
+            changes.change(key, oldValue == null ? null : String.valueOf(value - delta),
+                    String.valueOf(value));
+            changes.commit();
+        }
+        return value;
+    }
+
+    @Override
+    public boolean compareAndPutAll(Map<String, String> expectedValues,
+            Map<String, String> values) {
+        for (String key : expectedValues.keySet()) {
+            DatasetUtils.validateRecordKey(key);
+        }
+        for (String key : values.keySet()) {
+            DatasetUtils.validateRecordKey(key);
+        }
+        String identityId = getIdentityId();
+        DatasetChangeNotifier.Transaction changes = changeNotifier.begin(identityId,
+                datasetName, DatasetChangeEvent.Source.LOCAL);
+        Map<String, String> oldValues = null;
+        if (changes != null) {
+            oldValues = new HashMap<String, String>();
+            for (String key : values.keySet()) {
+                oldValues.put(key, expectedValues.containsKey(key)
+                        ? expectedValues.get(key)
+                        : local.getValue(identityId, datasetName, key));
+            }
+        }
+        if (!local.compareAndPutAllValues(identityId, datasetName, expectedValues, values)) {
+            return false;
+        }
+        if (changes != null) {
+            for (Map.Entry<String, String> entry : values.entrySet()) {
+                String oldValue = oldValues.get(entry.getKey());
+                if (!StringUtils.equals(oldValue, entry.getValue())) {
+                    changes.change(entry.getKey(), oldValue, entry.getValue());
+                }
             }
+            changes.commit();
         }
-        return map;
+        return true;
+    }
+
+    @Override
+    public void addChangeListener(DatasetChangeListener listener) {
+        changeNotifier.addListener(getIdentityId(), datasetName, listener);
+    }
+
+    @Override
+    public void removeChangeListener(DatasetChangeListener listener) {
+        changeNotifier.removeListener(getIdentityId(), datasetName, listener);
+    }
+
+    /**
+     * Starts a transaction where all current values are removed, if anyone
+     * listens.
+     */
+    private DatasetChangeNotifier.Transaction removeAllValues(DatasetChangeEvent.Source source) {
+        DatasetChangeNotifier.Transaction changes = changeNotifier.begin(getIdentityId(),
+                datasetName, source);
+        if (changes != null) {
+            for (Map.Entry<String, String> entry : local.getValueMap(getIdentityId(),
+                    datasetName).entrySet()) {
+                changes.change(entry.getKey(), entry.getValue(), null);
+            }
+        }
+        return changes;
+    }
+
+    @Override
+    public Map<String, String> getAll() {
+        return local.getValueMap(getIdentityId(), datasetName);
     }
 
     String getIdentityId() {
@@ -501,16 +904,65 @@ class DefaultDataset implements Dataset {
         return mergedDatasets;
     }
 
+    /**
+     * Gets the key of the key-value store under which the remote last
+     * modified time seen by the last sync of a dataset is recorded.
+     *
+     * @param identityId identity id
+     * @param datasetName dataset name
+     * @return key-value store key
+     */
+    static String remoteLastModifiedKey(String identityId, String datasetName) {
+        return identityId + "." + datasetName + ".remoteLastModified";
+    }
+
+    /**
+     * Drops the remote last modified time recorded after the last sync, once
+     * the dataset is deleted or purged.
+     */
+    private void forgetRemoteLastModified() {
+        getKeyValueStore().remove(remoteLastModifiedKey(getIdentityId(), datasetName));
+    }
+
+    /**
+     * Decides whether this dataset has anything to synchronize, based on its
+     * metadata from a remote listing instead of pulling its records. It needs
+     * a sync if it has local changes or merged datasets, if it's deleted on
+     * either side, if it has never been synced, or if its remote last
+     * modified date differs from the one recorded after the last sync.
+     *
+     * @param remoteMetadata metadata from the remote listing, null if the
+     *            dataset isn't listed remotely
+     * @param syncedRemoteLastModified remote last modified time in
+     *            milliseconds recorded after the last successful sync, -1 if
+     *            unknown
+     * @return true if the dataset needs a full sync, false otherwise
+     */
+    boolean needsSync(DatasetMetadata remoteMetadata, long syncedRemoteLastModified) {
+        String identityId = getIdentityId();
+        long lastSyncCount = local.getLastSyncCount(identityId, datasetName);
+        if (lastSyncCount == -1
+                || local.hasModifiedRecords(identityId, datasetName)
+                || !getLocalMergedDatasets().isEmpty()) {
+            return true;
+        }
+        if (remoteMetadata == null) {
+            // never synced local only dataset has nothing to pull
+            return lastSyncCount != 0;
+        }
+        return lastSyncCount == 0
+                || remoteMetadata.getLastModifiedTime() != syncedRemoteLastModified;
+    }
+
     /**
      * Pending sync request, set when connectivity is unavailable
      */
-    private SyncOnConnectivity pendingSyncRequest = null;
+    private Connectivity.Subscription pendingSyncRequest = null;
 
     /**
-     * This customized broadcast receiver will perform a sync once the
-     * connectivity is back.
+     * Performs a sync once the connectivity is back.
      */
-    static class SyncOnConnectivity extends BroadcastReceiver {
+    static class SyncOnConnectivity implements Runnable {
         WeakReference<Dataset> datasetRef;
         WeakReference<SyncCallback> callbackRef;
 
@@ -520,13 +972,8 @@ class DefaultDataset implements Dataset {
         }
 
         @Override
-        public void onReceive(Context context, Intent intent) {
-            if (!DefaultDataset.isNetworkAvailable(context)) {
-                Log.d(TAG, "Connectivity is unavailable.");
-                return;
-            }
+        public void run() {
             Log.d(TAG, "Connectivity is available. Try synchronizing.");
-            context.unregisterReceiver(this);
 
             // dereference dataset and callback
             Dataset dataset = datasetRef.get();
@@ -543,44 +990,31 @@ class DefaultDataset implements Dataset {
 
     @Override
     public void synchronizeOnConnectivity(SyncCallback callback) {
-        if (isNetworkAvailable(context)) {
+        Connectivity connectivity = platform.getConnectivity();
+        if (connectivity.isNetworkAvailable()) {
             synchronize(callback);
         } else {
             discardPendingSyncRequest();
             Log.d(TAG, "Connectivity is unavailable. "
                     + "Scheduling synchronize for when connectivity is resumed.");
-            pendingSyncRequest = new SyncOnConnectivity(this, callback);
-            // listen to only connectivity change
-            context.registerReceiver(pendingSyncRequest,
-                    new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+            Connectivity.Subscription subscription = connectivity
+                    .whenAvailable(new SyncOnConnectivity(this, callback));
+            synchronized (this) {
+                pendingSyncRequest = subscription;
+            }
         }
     }
 
     void discardPendingSyncRequest() {
-        if (pendingSyncRequest != null) {
-            Log.d(TAG, "Discard previous pending sync request");
-            synchronized (this) {
-                try {
-                    context.unregisterReceiver(pendingSyncRequest);
-                } catch (IllegalArgumentException e) {
-                    // ignore in case it has been unregistered
-                    Log.d(TAG, "SyncOnConnectivity has been unregistered.");
-                }
+        synchronized (this) {
+            if (pendingSyncRequest != null) {
+                Log.d(TAG, "Discard previous pending sync request");
+                pendingSyncRequest.cancel();
                 pendingSyncRequest = null;
             }
         }
     }
 
-    static boolean isNetworkAvailable(Context context) {
-        ConnectivityManager cm = (ConnectivityManager) context
-                .getSystemService(Context.CONNECTIVITY_SERVICE);
-        if (cm == null) {
-            return false;
-        }
-        NetworkInfo activeNetwork = cm.getActiveNetworkInfo();
-        return activeNetwork != null && activeNetwork.isConnected();
-    }
-
     @Override
     public long getLastSyncCount() {
         return local.getLastSyncCount(getIdentityId(), datasetName);
@@ -588,7 +1022,7 @@ class DefaultDataset implements Dataset {
 
     @Override
     public void unsubscribe() {
-        String deviceId = getSharedPreferences().getString(namespaceIdPlatform("deviceId"), "");
+        String deviceId = getKeyValueStore().getString(namespaceIdPlatform("deviceId"), "");
         if (deviceId.isEmpty()) {
             throw new IllegalStateException("Device hasn't been registered yet");
         }
@@ -597,21 +1031,20 @@ class DefaultDataset implements Dataset {
 
     @Override
     public void subscribe() {
-        String deviceId = getSharedPreferences().getString(namespaceIdPlatform("deviceId"), "");
+        String deviceId = getKeyValueStore().getString(namespaceIdPlatform("deviceId"), "");
         if (deviceId.isEmpty()) {
             throw new IllegalStateException("Device hasn't been registered yet");
         }
         remote.subscribeToDataset(datasetName, deviceId);
     }
 
-    private SharedPreferences getSharedPreferences() {
-        return context.getSharedPreferences("com.amazonaws.mobileconnectors.cognito",
-                Context.MODE_PRIVATE);
+    private KeyValueStore getKeyValueStore() {
+        return platform.getKeyValueStore();
     }
     
     // prefix the key with identity id and platform
     String namespaceIdPlatform(String key) {
-        String platform = getSharedPreferences().getString(namespaceId("platform"), "");
+        String platform = getKeyValueStore().getString(namespaceId("platform"), "");
         return namespaceId(platform) + "." + key;
     }
     
@@ -1,10 +1,9 @@
 
 package com.amazonaws.mobileconnectors.cognito;
 
-import android.util.Log;
-
 import com.amazonaws.mobileconnectors.cognito.Dataset.SyncCallback;
 import com.amazonaws.mobileconnectors.cognito.exceptions.DataStorageException;
+import com.amazonaws.mobileconnectors.cognito.internal.util.Log;
 
 import java.util.ArrayList;
 import java.util.List;
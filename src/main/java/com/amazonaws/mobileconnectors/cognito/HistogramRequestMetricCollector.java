@@ -0,0 +1,363 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito;
+
+import com.amazonaws.AmazonWebServiceRequest;
+import com.amazonaws.Request;
+import com.amazonaws.Response;
+import com.amazonaws.metrics.RequestMetricCollector;
+import com.amazonaws.util.TimingInfo;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link RequestMetricCollector} that aggregates the request metrics of
+ * the Cognito Sync client per operation, e.g. ListRecords or UpdateRecords:
+ * a histogram of the client execution time in milliseconds, retries
+ * included, histograms of request and response body sizes, and counts of
+ * requests, retries and errors by type. It's lock-free and safe to read while
+ * requests are in flight.
+ * <p>
+ * It's disabled by default, in which case the client doesn't time requests
+ * at all. Enable it with {@link #setEnabled(boolean)}, then read
+ * {@link #getSnapshot()} from time to time, e.g. to upload p50 and p99
+ * latencies.
+ */
+public class HistogramRequestMetricCollector extends RequestMetricCollector {
+
+    /**
+     * Operation name used when the request can't be identified.
+     */
+    public static final String UNKNOWN = "Unknown";
+
+    private static final String CONTENT_LENGTH = "Content-Length";
+
+    /*
+     * Names the client records its metrics under. They're looked up by name
+     * because AWSRequestMetrics and its Field enum are deprecated in this SDK
+     * without a replacement.
+     */
+    private static final String CLIENT_EXECUTE_TIME = "ClientExecuteTime";
+    private static final String RETRY_COUNT = "RetryCount";
+    private static final String AWS_ERROR_CODE = "AWSErrorCode";
+    private static final String EXCEPTION = "Exception";
+
+    private final ConcurrentMap<String, OperationStats> statsByOperation = new ConcurrentHashMap<String, OperationStats>();
+
+    private volatile boolean enabled;
+
+    /**
+     * Constructs a disabled collector.
+     */
+    public HistogramRequestMetricCollector() {
+        this(false);
+    }
+
+    /**
+     * Constructs a collector.
+     *
+     * @param enabled whether to collect metrics from the start
+     */
+    public HistogramRequestMetricCollector(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Enables or disables the collection. It applies to requests that start
+     * after this call.
+     *
+     * @param enabled true to collect metrics
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void collectMetrics(Request<?> request, Response<?> response) {
+        OperationStats stats = statsFor(operationName(request.getOriginalRequest()));
+        stats.requestCount.incrementAndGet();
+
+        TimingInfo timing = request.getAWSRequestMetrics() == null ? null
+                : request.getAWSRequestMetrics().getTimingInfo();
+        if (timing != null) {
+            TimingInfo execute = timing.getSubMeasurement(CLIENT_EXECUTE_TIME);
+            Double executeMillis = execute == null ? null : execute.getTimeTakenMillisIfKnown();
+            if (executeMillis != null) {
+                stats.latency.record(Math.round(executeMillis));
+            }
+            Number retries = timing.getCounter(RETRY_COUNT);
+            if (retries != null) {
+                stats.retryCount.addAndGet(retries.longValue());
+            }
+        }
+
+        long requestBytes = contentLength(request.getHeaders());
+        if (requestBytes >= 0) {
+            stats.requestBytes.record(requestBytes);
+        }
+        if (response != null) {
+            if (response.getHttpResponse() != null) {
+                long responseBytes = contentLength(response.getHttpResponse().getHeaders());
+                if (responseBytes >= 0) {
+                    stats.responseBytes.record(responseBytes);
+                }
+            }
+        } else {
+            stats.errorCount.incrementAndGet();
+            increment(stats.errorCounts, errorType(request));
+        }
+    }
+
+    /**
+     * Takes a snapshot of the metrics of all operations seen so far.
+     *
+     * @return snapshots by operation name
+     */
+    public Map<String, OperationSnapshot> getSnapshot() {
+        Map<String, OperationSnapshot> snapshot = new HashMap<String, OperationSnapshot>();
+        for (Map.Entry<String, OperationStats> entry : statsByOperation.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().snapshot(entry.getKey()));
+        }
+        return snapshot;
+    }
+
+    /**
+     * Takes a snapshot of the metrics of an operation.
+     *
+     * @param operation operation name, e.g. ListRecords
+     * @return the snapshot, empty if the operation hasn't been seen
+     */
+    public OperationSnapshot getSnapshot(String operation) {
+        OperationStats stats = statsByOperation.get(operation);
+        return (stats == null ? new OperationStats() : stats).snapshot(operation);
+    }
+
+    /**
+     * Clears all metrics collected so far.
+     */
+    public void reset() {
+        statsByOperation.clear();
+    }
+
+    private OperationStats statsFor(String operation) {
+        OperationStats stats = statsByOperation.get(operation);
+        if (stats == null) {
+            OperationStats newStats = new OperationStats();
+            stats = statsByOperation.putIfAbsent(operation, newStats);
+            if (stats == null) {
+                stats = newStats;
+            }
+        }
+        return stats;
+    }
+
+    static String operationName(AmazonWebServiceRequest originalRequest) {
+        if (originalRequest == null) {
+            return UNKNOWN;
+        }
+        String name = originalRequest.getClass().getSimpleName();
+        return name.endsWith("Request") ? name.substring(0, name.length() - 7) : name;
+    }
+
+    /**
+     * Gets the type of error of a failed request: the service error code if
+     * the service returned one, the simple class name of the exception
+     * otherwise.
+     */
+    static String errorType(Request<?> request) {
+        if (request.getAWSRequestMetrics() == null) {
+            return UNKNOWN;
+        }
+        String errorCode = lastProperty(request.getAWSRequestMetrics().getProperty(AWS_ERROR_CODE));
+        if (errorCode != null) {
+            return errorCode;
+        }
+        List<Object> exceptions = request.getAWSRequestMetrics().getProperty(EXCEPTION);
+        if (exceptions != null && !exceptions.isEmpty()) {
+            return exceptions.get(exceptions.size() - 1).getClass().getSimpleName();
+        }
+        return UNKNOWN;
+    }
+
+    private static String lastProperty(List<Object> values) {
+        if (values == null || values.isEmpty()) {
+            return null;
+        }
+        Object value = values.get(values.size() - 1);
+        return value == null ? null : value.toString();
+    }
+
+    /**
+     * @return the Content-Length header, -1 if it's absent or invalid
+     */
+    static long contentLength(Map<String, String> headers) {
+        if (headers == null) {
+            return -1;
+        }
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (CONTENT_LENGTH.equalsIgnoreCase(header.getKey()) && header.getValue() != null) {
+                try {
+                    return Long.parseLong(header.getValue().trim());
+                } catch (NumberFormatException e) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static void increment(ConcurrentMap<String, AtomicLong> counts, String key) {
+        AtomicLong count = counts.get(key);
+        if (count == null) {
+            AtomicLong newCount = new AtomicLong();
+            count = counts.putIfAbsent(key, newCount);
+            if (count == null) {
+                count = newCount;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    private static class OperationStats {
+        final Histogram latency = new Histogram();
+        final Histogram requestBytes = new Histogram();
+        final Histogram responseBytes = new Histogram();
+        final AtomicLong requestCount = new AtomicLong();
+        final AtomicLong errorCount = new AtomicLong();
+        final AtomicLong retryCount = new AtomicLong();
+        final ConcurrentMap<String, AtomicLong> errorCounts = new ConcurrentHashMap<String, AtomicLong>();
+
+        OperationSnapshot snapshot(String operation) {
+            Map<String, Long> errors = new HashMap<String, Long>();
+            for (Map.Entry<String, AtomicLong> entry : errorCounts.entrySet()) {
+                errors.put(entry.getKey(), entry.getValue().get());
+            }
+            return new OperationSnapshot(operation, requestCount.get(), errorCount.get(),
+                    retryCount.get(), latency.snapshot(), requestBytes.snapshot(),
+                    responseBytes.snapshot(), errors);
+        }
+    }
+
+    /**
+     * An immutable view of the metrics of an operation.
+     */
+    public static final class OperationSnapshot {
+        private final String operation;
+        private final long requestCount;
+        private final long errorCount;
+        private final long retryCount;
+        private final Histogram.Snapshot latency;
+        private final Histogram.Snapshot requestBytes;
+        private final Histogram.Snapshot responseBytes;
+        private final Map<String, Long> errorCounts;
+
+        OperationSnapshot(String operation, long requestCount, long errorCount, long retryCount,
+                Histogram.Snapshot latency, Histogram.Snapshot requestBytes,
+                Histogram.Snapshot responseBytes, Map<String, Long> errorCounts) {
+            this.operation = operation;
+            this.requestCount = requestCount;
+            this.errorCount = errorCount;
+            this.retryCount = retryCount;
+            this.latency = latency;
+            this.requestBytes = requestBytes;
+            this.responseBytes = responseBytes;
+            this.errorCounts = Collections.unmodifiableMap(errorCounts);
+        }
+
+        /**
+         * @return operation name, e.g. ListRecords
+         */
+        public String getOperation() {
+            return operation;
+        }
+
+        /**
+         * @return number of requests, failed ones included
+         */
+        public long getRequestCount() {
+            return requestCount;
+        }
+
+        /**
+         * @return number of failed requests
+         */
+        public long getErrorCount() {
+            return errorCount;
+        }
+
+        /**
+         * @return number of retries made by the client
+         */
+        public long getRetryCount() {
+            return retryCount;
+        }
+
+        /**
+         * @return histogram of the client execution time in milliseconds
+         */
+        public Histogram.Snapshot getLatency() {
+            return latency;
+        }
+
+        /**
+         * @return histogram of request body sizes in bytes
+         */
+        public Histogram.Snapshot getRequestBytes() {
+            return requestBytes;
+        }
+
+        /**
+         * @return histogram of response body sizes in bytes, as announced by
+         *         the service
+         */
+        public Histogram.Snapshot getResponseBytes() {
+            return responseBytes;
+        }
+
+        /**
+         * @return number of failed requests by service error code or exception
+         *         simple class name
+         */
+        public Map<String, Long> getErrorCounts() {
+            return errorCounts;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("operation:[").append(operation).append("],")
+                    .append("requests:[").append(requestCount).append("],")
+                    .append("errors:[").append(errorCount).append("],")
+                    .append("retries:[").append(retryCount).append("],")
+                    .append("latencyMillis:{").append(latency).append("},")
+                    .append("errorCounts:").append(errorCounts);
+            return sb.toString();
+        }
+    }
+}
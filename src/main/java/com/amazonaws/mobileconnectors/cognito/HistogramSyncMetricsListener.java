@@ -0,0 +1,199 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito;
+
+import com.amazonaws.mobileconnectors.cognito.SyncMetrics.Outcome;
+import com.amazonaws.mobileconnectors.cognito.SyncMetrics.Phase;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A {@link SyncMetricsListener} that aggregates sync metrics in memory:
+ * histograms of the total and per phase durations in nanoseconds and of the
+ * records and bytes moved per sync, plus counts of outcomes, failure types,
+ * retries and conflicts. It's safe to read while syncs are reporting to it.
+ *
+ * <pre>
+ * HistogramSyncMetricsListener metrics = new HistogramSyncMetricsListener();
+ * syncManager.setSyncMetricsListener(metrics);
+ * ...
+ * long p99 = metrics.getPhaseDuration(Phase.LIST_UPDATES).getPercentile(99);
+ * </pre>
+ */
+public class HistogramSyncMetricsListener implements SyncMetricsListener {
+
+    private final Histogram totalDuration = new Histogram();
+    private final Histogram[] phaseDurations;
+    private final Histogram recordsPulled = new Histogram();
+    private final Histogram bytesPulled = new Histogram();
+    private final Histogram recordsPushed = new Histogram();
+    private final Histogram bytesPushed = new Histogram();
+    private final Histogram pageCounts = new Histogram();
+    private final AtomicLongArray outcomeCounts = new AtomicLongArray(Outcome.values().length);
+    private final AtomicLong retryCount = new AtomicLong();
+    private final AtomicLong conflictCount = new AtomicLong();
+    private final ConcurrentMap<String, AtomicLong> failureCounts = new ConcurrentHashMap<String, AtomicLong>();
+
+    /**
+     * Constructs an empty listener.
+     */
+    public HistogramSyncMetricsListener() {
+        phaseDurations = new Histogram[Phase.values().length];
+        for (int i = 0; i < phaseDurations.length; i++) {
+            phaseDurations[i] = new Histogram();
+        }
+    }
+
+    @Override
+    public void onSyncCompleted(SyncMetrics metrics) {
+        totalDuration.record(metrics.getTotalNanos());
+        for (Phase phase : Phase.values()) {
+            phaseDurations[phase.ordinal()].record(metrics.getPhaseNanos(phase));
+        }
+        recordsPulled.record(metrics.getRecordsPulled());
+        bytesPulled.record(metrics.getBytesPulled());
+        recordsPushed.record(metrics.getRecordsPushed());
+        bytesPushed.record(metrics.getBytesPushed());
+        pageCounts.record(metrics.getPageCount());
+        outcomeCounts.incrementAndGet(metrics.getOutcome().ordinal());
+        retryCount.addAndGet(metrics.getRetryCount());
+        conflictCount.addAndGet(metrics.getConflictCount());
+        String failureType = metrics.getFailureType();
+        if (failureType != null) {
+            AtomicLong count = failureCounts.get(failureType);
+            if (count == null) {
+                AtomicLong newCount = new AtomicLong();
+                count = failureCounts.putIfAbsent(failureType, newCount);
+                if (count == null) {
+                    count = newCount;
+                }
+            }
+            count.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return histogram of the wall time of syncs in nanoseconds
+     */
+    public Histogram.Snapshot getTotalDuration() {
+        return totalDuration.snapshot();
+    }
+
+    /**
+     * @param phase a phase
+     * @return histogram of the time spent in the phase per sync in
+     *         nanoseconds
+     */
+    public Histogram.Snapshot getPhaseDuration(Phase phase) {
+        return phaseDurations[phase.ordinal()].snapshot();
+    }
+
+    /**
+     * @return histogram of the number of records pulled per sync
+     */
+    public Histogram.Snapshot getRecordsPulled() {
+        return recordsPulled.snapshot();
+    }
+
+    /**
+     * @return histogram of the bytes pulled per sync
+     */
+    public Histogram.Snapshot getBytesPulled() {
+        return bytesPulled.snapshot();
+    }
+
+    /**
+     * @return histogram of the number of records pushed per sync
+     */
+    public Histogram.Snapshot getRecordsPushed() {
+        return recordsPushed.snapshot();
+    }
+
+    /**
+     * @return histogram of the bytes pushed per sync
+     */
+    public Histogram.Snapshot getBytesPushed() {
+        return bytesPushed.snapshot();
+    }
+
+    /**
+     * @return histogram of the number of ListRecords pages per sync
+     */
+    public Histogram.Snapshot getPageCounts() {
+        return pageCounts.snapshot();
+    }
+
+    /**
+     * @param outcome an outcome
+     * @return number of syncs that ended with the outcome
+     */
+    public long getOutcomeCount(Outcome outcome) {
+        return outcomeCounts.get(outcome.ordinal());
+    }
+
+    /**
+     * @return total number of retries over all syncs
+     */
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    /**
+     * @return total number of records in conflict over all syncs
+     */
+    public long getConflictCount() {
+        return conflictCount.get();
+    }
+
+    /**
+     * @return number of failed syncs by exception simple class name
+     */
+    public Map<String, Long> getFailureCounts() {
+        Map<String, Long> counts = new HashMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : failureCounts.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().get());
+        }
+        return counts;
+    }
+
+    /**
+     * Clears everything aggregated so far.
+     */
+    public void reset() {
+        totalDuration.reset();
+        for (Histogram histogram : phaseDurations) {
+            histogram.reset();
+        }
+        recordsPulled.reset();
+        bytesPulled.reset();
+        recordsPushed.reset();
+        bytesPushed.reset();
+        pageCounts.reset();
+        for (int i = 0; i < outcomeCounts.length(); i++) {
+            outcomeCounts.set(i, 0);
+        }
+        retryCount.set(0);
+        conflictCount.set(0);
+        failureCounts.clear();
+    }
+}
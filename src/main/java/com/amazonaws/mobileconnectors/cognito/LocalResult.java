@@ -0,0 +1,110 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito;
+
+import com.amazonaws.mobileconnectors.cognito.exceptions.DataStorageException;
+import com.amazonaws.mobileconnectors.cognito.internal.util.Log;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The result of an asynchronous local operation of a {@link Dataset}. It's
+ * completed once, by the thread that ran the operation, which then calls the
+ * callback, if any. Operations can't be cancelled.
+ *
+ * @param <T> type of the result
+ */
+class LocalResult<T> implements Future<T> {
+
+    private static final String TAG = "LocalResult";
+
+    private final Dataset.LocalCallback<T> callback;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private T value;
+    private DataStorageException failure;
+
+    LocalResult(Dataset.LocalCallback<T> callback) {
+        this.callback = callback;
+    }
+
+    void succeed(T value) {
+        this.value = value;
+        done.countDown();
+        if (callback != null) {
+            try {
+                callback.onSuccess(value);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "local operation callback failed", e);
+            }
+        }
+    }
+
+    void fail(RuntimeException e) {
+        failure = e instanceof DataStorageException ? (DataStorageException) e
+                : new DataStorageException("local operation failed", e);
+        done.countDown();
+        if (callback != null) {
+            try {
+                callback.onFailure(failure);
+            } catch (RuntimeException ce) {
+                Log.e(TAG, "local operation callback failed", ce);
+            }
+        }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return false;
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return false;
+    }
+
+    @Override
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        done.await();
+        return result();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException,
+            ExecutionException, TimeoutException {
+        if (!done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return result();
+    }
+
+    private T result() throws ExecutionException {
+        if (failure != null) {
+            throw new ExecutionException(failure);
+        }
+        return value;
+    }
+}
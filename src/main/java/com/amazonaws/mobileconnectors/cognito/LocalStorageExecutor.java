@@ -0,0 +1,346 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito;
+
+import com.amazonaws.mobileconnectors.cognito.internal.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Runs the asynchronous local operations of {@link Dataset}s off the caller's
+ * thread. Writes are queued to a single writer thread, which takes everything
+ * queued at once, keeps the last value of each key and writes each dataset
+ * with one {@link Dataset#putAll(Map)}, i.e. one local storage transaction.
+ * Reads run on a small pool, concurrently with each other and with queued
+ * writes. Queued writes that aren't written yet are visible to asynchronous
+ * reads, so they read their writes; other reads see them once their futures
+ * are done, and a sync waits for them first. While the transaction of a
+ * dataset is being written, asynchronous reads of that dataset wait for it,
+ * so that they don't miss values moving from the queue to local storage;
+ * reads of other datasets don't. Writes are kept by the identity current when
+ * they were queued. Threads are started on first use.
+ */
+class LocalStorageExecutor {
+
+    private static final String TAG = "LocalStorageExecutor";
+
+    /**
+     * Number of threads serving reads.
+     */
+    private static final int READER_THREADS = 2;
+
+    /**
+     * Max number of queued writes taken in a batch.
+     */
+    private static final int MAX_BATCH = 512;
+
+    private static class PendingWrite {
+        final DefaultDataset dataset;
+        final String datasetKey;
+        final String key;
+        final String value;
+        final LocalResult<Void> result;
+
+        PendingWrite(DefaultDataset dataset, String datasetKey, String key, String value,
+                LocalResult<Void> result) {
+            this.dataset = dataset;
+            this.datasetKey = datasetKey;
+            this.key = key;
+            this.value = value;
+            this.result = result;
+        }
+    }
+
+    private final BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<PendingWrite>();
+
+    /**
+     * Queued writes that aren't written yet, by identity id and dataset name,
+     * see {@link #key}, then by record key. Guarded by itself.
+     */
+    private final Map<String, Map<String, PendingWrite>> pending = new HashMap<String, Map<String, PendingWrite>>();
+
+    /**
+     * Locks by identity id and dataset name. One is held for writing while
+     * the dataset's values are written and removed from {@link #pending}, and
+     * for reading while a read looks at local storage and {@link #pending},
+     * so that a read never misses a write in between. Guarded by itself.
+     */
+    private final Map<String, ReadWriteLock> locks = new HashMap<String, ReadWriteLock>();
+
+    private ExecutorService readers;
+    private volatile Thread writer;
+
+    /**
+     * Reads a value.
+     */
+    LocalResult<String> get(final DefaultDataset dataset, final String key,
+            Dataset.LocalCallback<String> callback) {
+        final LocalResult<String> result = new LocalResult<String>(callback);
+        getReaders().execute(new Runnable() {
+            @Override
+            public void run() {
+                String value;
+                String datasetKey = key(dataset);
+                ReadWriteLock lock = lock(datasetKey);
+                lock.readLock().lock();
+                try {
+                    PendingWrite write = pendingWrite(datasetKey, key);
+                    value = write != null ? write.value : dataset.get(key);
+                } catch (RuntimeException e) {
+                    result.fail(e);
+                    return;
+                } finally {
+                    lock.readLock().unlock();
+                }
+                result.succeed(value);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Reads the value map of a dataset.
+     */
+    LocalResult<Map<String, String>> getAll(final DefaultDataset dataset,
+            Dataset.LocalCallback<Map<String, String>> callback) {
+        final LocalResult<Map<String, String>> result = new LocalResult<Map<String, String>>(
+                callback);
+        getReaders().execute(new Runnable() {
+            @Override
+            public void run() {
+                Map<String, String> values;
+                String datasetKey = key(dataset);
+                ReadWriteLock lock = lock(datasetKey);
+                lock.readLock().lock();
+                try {
+                    values = dataset.getAll();
+                    List<PendingWrite> writes = pendingWrites(datasetKey);
+                    if (!writes.isEmpty()) {
+                        values = new HashMap<String, String>(values);
+                        for (PendingWrite write : writes) {
+                            if (write.value == null) {
+                                values.remove(write.key);
+                            } else {
+                                values.put(write.key, write.value);
+                            }
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    result.fail(e);
+                    return;
+                } finally {
+                    lock.readLock().unlock();
+                }
+                result.succeed(values);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Queues a write. A null value removes the record.
+     */
+    LocalResult<Void> put(DefaultDataset dataset, String key, String value,
+            Dataset.LocalCallback<Void> callback) {
+        LocalResult<Void> result = new LocalResult<Void>(callback);
+        PendingWrite write = new PendingWrite(dataset, key(dataset), key, value, result);
+        synchronized (pending) {
+            Map<String, PendingWrite> writes = pending.get(write.datasetKey);
+            if (writes == null) {
+                writes = new HashMap<String, PendingWrite>();
+                pending.put(write.datasetKey, writes);
+            }
+            writes.put(key, write);
+        }
+        startWriter();
+        queue.add(write);
+        return result;
+    }
+
+    /**
+     * Waits until the writes of a dataset queued so far are written, e.g.
+     * before it's synchronized. A write that failed was reported to its own
+     * callback and future, so it doesn't fail this.
+     */
+    void awaitWritten(DefaultDataset dataset) {
+        if (Thread.currentThread() == writer) {
+            // called back from a write, the queue waits for this thread
+            return;
+        }
+        for (PendingWrite write : pendingWrites(key(dataset))) {
+            try {
+                write.result.get();
+            } catch (ExecutionException e) {
+                // reported to the write's callback
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private PendingWrite pendingWrite(String datasetKey, String key) {
+        synchronized (pending) {
+            Map<String, PendingWrite> writes = pending.get(datasetKey);
+            return writes == null ? null : writes.get(key);
+        }
+    }
+
+    private List<PendingWrite> pendingWrites(String datasetKey) {
+        synchronized (pending) {
+            Map<String, PendingWrite> writes = pending.get(datasetKey);
+            return writes == null ? new ArrayList<PendingWrite>()
+                    : new ArrayList<PendingWrite>(writes.values());
+        }
+    }
+
+    /**
+     * Writes a batch of queued writes, one transaction per dataset.
+     */
+    private void write(List<PendingWrite> batch) {
+        Map<String, List<PendingWrite>> byDataset = new LinkedHashMap<String, List<PendingWrite>>();
+        for (PendingWrite write : batch) {
+            List<PendingWrite> writes = byDataset.get(write.datasetKey);
+            if (writes == null) {
+                writes = new ArrayList<PendingWrite>();
+                byDataset.put(write.datasetKey, writes);
+            }
+            writes.add(write);
+        }
+        for (Map.Entry<String, List<PendingWrite>> entry : byDataset.entrySet()) {
+            List<PendingWrite> writes = entry.getValue();
+            // later writes of a key replace earlier ones
+            Map<String, String> values = new LinkedHashMap<String, String>();
+            for (PendingWrite write : writes) {
+                values.put(write.key, write.value);
+            }
+            RuntimeException failure = null;
+            ReadWriteLock lock = lock(entry.getKey());
+            lock.writeLock().lock();
+            try {
+                // after an identity change this goes to the new identity,
+                // which local storage merged the old one's datasets into
+                writes.get(0).dataset.putAll(values);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "failed to write " + values.size() + " values to "
+                        + entry.getKey(), e);
+                failure = e;
+            } finally {
+                removePending(entry.getKey(), writes);
+                lock.writeLock().unlock();
+            }
+            for (PendingWrite write : writes) {
+                if (failure == null) {
+                    write.result.succeed(null);
+                } else {
+                    write.result.fail(failure);
+                }
+            }
+        }
+    }
+
+    private void removePending(String datasetKey, List<PendingWrite> written) {
+        synchronized (pending) {
+            Map<String, PendingWrite> writes = pending.get(datasetKey);
+            if (writes == null) {
+                return;
+            }
+            for (PendingWrite write : written) {
+                // unless the key was written again since
+                if (writes.get(write.key) == write) {
+                    writes.remove(write.key);
+                }
+            }
+            if (writes.isEmpty()) {
+                pending.remove(datasetKey);
+            }
+        }
+    }
+
+    private ReadWriteLock lock(String datasetKey) {
+        synchronized (locks) {
+            ReadWriteLock lock = locks.get(datasetKey);
+            if (lock == null) {
+                lock = new ReentrantReadWriteLock();
+                locks.put(datasetKey, lock);
+            }
+            return lock;
+        }
+    }
+
+    /**
+     * Dataset names can't contain a slash, so the key is unambiguous.
+     */
+    private static String key(DefaultDataset dataset) {
+        return dataset.getIdentityId() + "/" + dataset.getDatasetName();
+    }
+
+    private synchronized ExecutorService getReaders() {
+        if (readers == null) {
+            readers = Executors.newFixedThreadPool(READER_THREADS, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, TAG + "-reader");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return readers;
+    }
+
+    private synchronized void startWriter() {
+        if (writer != null) {
+            return;
+        }
+        writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                List<PendingWrite> batch = new ArrayList<PendingWrite>();
+                while (true) {
+                    try {
+                        batch.add(queue.take());
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                    try {
+                        write(batch);
+                    } catch (RuntimeException e) {
+                        Log.e(TAG, "failed to write a batch", e);
+                    }
+                    batch.clear();
+                }
+            }
+        }, TAG + "-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+}
@@ -18,8 +18,8 @@ package com.amazonaws.mobileconnectors.cognito;
 
 import android.os.Bundle;
 import android.content.Intent;
-import android.util.Log;
 
+import com.amazonaws.mobileconnectors.cognito.internal.util.Log;
 import com.amazonaws.services.cognitosync.model.InvalidParameterException;
 
 /**
@@ -42,17 +42,19 @@ public final class Record {
      */
     private final long syncCount;
     /**
-     * The server timestamp of this record when it was last modified.
+     * The server timestamp of this record when it was last modified, in
+     * milliseconds since epoch.
      */
-    private final Date lastModifiedDate;
+    private final long lastModifiedTime;
     /**
      * An identifier of the user or device which modified this record last.
      */
     private final String lastModifiedBy;
     /**
-     * The local timestamp of this record when it was last modified.
+     * The local timestamp of this record when it was last modified, in
+     * milliseconds since epoch.
      */
-    private final Date deviceLastModifiedDate;
+    private final long deviceLastModifiedTime;
     /**
      * A flag that indicates whether this record is modified locally but hasn't
      * been synced.
@@ -96,7 +98,17 @@ public final class Record {
      * @return the server timestamp when it was last modified.
      */
     public Date getLastModifiedDate() {
-        return new Date(lastModifiedDate.getTime());
+        return new Date(lastModifiedTime);
+    }
+
+    /**
+     * Gets the server timestamp of this record when it was last modified,
+     * without allocating a {@link Date}.
+     * 
+     * @return the server timestamp in milliseconds since epoch
+     */
+    public long getLastModifiedTime() {
+        return lastModifiedTime;
     }
 
     /**
@@ -116,7 +128,17 @@ public final class Record {
      * @return the local timestamp of the device that made the last modification
      */
     public Date getDeviceLastModifiedDate() {
-        return new Date(deviceLastModifiedDate.getTime());
+        return new Date(deviceLastModifiedTime);
+    }
+
+    /**
+     * Gets the local timestamp of this record when it was last modified,
+     * without allocating a {@link Date}.
+     * 
+     * @return the local timestamp in milliseconds since epoch
+     */
+    public long getDeviceLastModifiedTime() {
+        return deviceLastModifiedTime;
     }
 
     /**
@@ -149,13 +171,12 @@ public final class Record {
         key = builder.key;
         value = builder.value;
         syncCount = builder.syncCount;
-        lastModifiedDate = builder.lastModifiedDate == null
-                ? new Date()
-                : new Date(builder.lastModifiedDate.getTime());
+        long now = builder.hasLastModifiedTime && builder.hasDeviceLastModifiedTime
+                ? 0 : System.currentTimeMillis();
+        lastModifiedTime = builder.hasLastModifiedTime ? builder.lastModifiedTime : now;
         lastModifiedBy = builder.lastModifiedBy;
-        deviceLastModifiedDate = builder.deviceLastModifiedDate == null
-                ? new Date()
-                : new Date(builder.deviceLastModifiedDate.getTime());
+        deviceLastModifiedTime = builder.hasDeviceLastModifiedTime
+                ? builder.deviceLastModifiedTime : now;
         modified = builder.modified;
     }
 
@@ -166,9 +187,11 @@ public final class Record {
         private final String key;
         private String value;
         private long syncCount;
-        private Date lastModifiedDate;
+        private long lastModifiedTime;
+        private boolean hasLastModifiedTime;
         private String lastModifiedBy;
-        private Date deviceLastModifiedDate;
+        private long deviceLastModifiedTime;
+        private boolean hasDeviceLastModifiedTime;
         private boolean modified;
 
         /**
@@ -218,7 +241,21 @@ public final class Record {
          * @return builder itself
          */
         public Builder lastModifiedDate(Date lastModifiedDate) {
-            this.lastModifiedDate = lastModifiedDate;
+            hasLastModifiedTime = lastModifiedDate != null;
+            lastModifiedTime = hasLastModifiedTime ? lastModifiedDate.getTime() : 0;
+            return this;
+        }
+
+        /**
+         * Sets the last modified date of this {@link Record} in milliseconds
+         * since epoch. Default is the current time.
+         * 
+         * @param lastModifiedTime last modified time of this record
+         * @return builder itself
+         */
+        public Builder lastModifiedTime(long lastModifiedTime) {
+            this.lastModifiedTime = lastModifiedTime;
+            hasLastModifiedTime = true;
             return this;
         }
 
@@ -244,7 +281,22 @@ public final class Record {
          * @return builder itself
          */
         public Builder deviceLastModifiedDate(Date deviceLastModifiedDate) {
-            this.deviceLastModifiedDate = deviceLastModifiedDate;
+            hasDeviceLastModifiedTime = deviceLastModifiedDate != null;
+            deviceLastModifiedTime = hasDeviceLastModifiedTime
+                    ? deviceLastModifiedDate.getTime() : 0;
+            return this;
+        }
+
+        /**
+         * Sets the device last modified date of this {@link Record} in
+         * milliseconds since epoch. Default is the current time.
+         * 
+         * @param deviceLastModifiedTime device last modified time
+         * @return builder itself
+         */
+        public Builder deviceLastModifiedTime(long deviceLastModifiedTime) {
+            this.deviceLastModifiedTime = deviceLastModifiedTime;
+            hasDeviceLastModifiedTime = true;
             return this;
         }
 
@@ -276,9 +328,9 @@ public final class Record {
         sb.append("key:[").append(key).append("],")
                 .append("value:[").append(value).append("],")
                 .append("sync_count:[").append(syncCount).append("],")
-                .append("last_modified_date:[").append(lastModifiedDate).append("],")
+                .append("last_modified_date:[").append(new Date(lastModifiedTime)).append("],")
                 .append("last_modified_by:[").append(lastModifiedBy).append("],")
-                .append("device_last_modified_date:[").append(deviceLastModifiedDate).append("],")
+                .append("device_last_modified_date:[").append(new Date(deviceLastModifiedTime)).append("],")
                 .append("last_modified_by:[").append(lastModifiedBy).append("],")
                 .append("is_modified:[").append(modified).append("]");
         return sb.toString();
@@ -0,0 +1,424 @@
+/**
+ * Copyright 2013-2016 Amazon.com, 
+ * Inc. or its affiliates. All Rights Reserved.
+ * 
+ * Licensed under the Amazon Software License (the "License"). 
+ * You may not use this file except in compliance with the 
+ * License. A copy of the License is located at
+ * 
+ *     http://aws.amazon.com/asl/
+ * 
+ * or in the "license" file accompanying this file. This file is 
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR 
+ * CONDITIONS OF ANY KIND, express or implied. See the License 
+ * for the specific language governing permissions and 
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito;
+
+import com.amazonaws.mobileconnectors.cognito.internal.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable, columnar form of the records of a {@link Dataset}. Instead of
+ * one {@link Record} per key, fields are held in parallel arrays sorted by
+ * key, dirty flags in a bit set, and equal lastModifiedBy strings are shared.
+ * That makes it a compact representation to keep datasets resident, and the
+ * unit in which a whole dataset is read from local storage. Lookups by key
+ * are binary searches; {@link #getRecord(int)} materializes a {@link Record}
+ * only when one is needed.
+ */
+public final class RecordBatch {
+
+    /**
+     * A batch without records.
+     */
+    public static final RecordBatch EMPTY = new Builder(0).build();
+
+    private final String[] keys;
+    private final String[] values;
+    private final long[] syncCounts;
+    private final long[] lastModifiedTimes;
+    private final String[] lastModifiedBy;
+    private final long[] deviceLastModifiedTimes;
+    private final BitSet modified;
+
+    private RecordBatch(Builder builder) {
+        int size = builder.size;
+        keys = Arrays.copyOf(builder.keys, size);
+        values = Arrays.copyOf(builder.values, size);
+        syncCounts = Arrays.copyOf(builder.syncCounts, size);
+        lastModifiedTimes = Arrays.copyOf(builder.lastModifiedTimes, size);
+        lastModifiedBy = Arrays.copyOf(builder.lastModifiedBy, size);
+        deviceLastModifiedTimes = Arrays.copyOf(builder.deviceLastModifiedTimes, size);
+        modified = (BitSet) builder.modified.clone();
+        if (!builder.sorted) {
+            sortByKey();
+        }
+        for (int i = 1; i < size; i++) {
+            if (keys[i - 1].equals(keys[i])) {
+                throw new IllegalArgumentException("duplicate key " + keys[i]);
+            }
+        }
+    }
+
+    /**
+     * Creates a batch of records.
+     *
+     * @param records records with distinct keys, in any order
+     * @return a batch of the records
+     */
+    public static RecordBatch fromRecords(Collection<Record> records) {
+        Builder builder = new Builder(records.size());
+        for (Record record : records) {
+            builder.add(record);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Gets the number of records, including the ones marked as deleted.
+     *
+     * @return number of records
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * Gets the position of a key.
+     *
+     * @param key key of a record
+     * @return the position of the record, or -1 if there is none
+     */
+    public int indexOf(String key) {
+        int index = Arrays.binarySearch(keys, key);
+        return index < 0 ? -1 : index;
+    }
+
+    /**
+     * Gets whether there is a record with a key, marked as deleted or not.
+     *
+     * @param key key of a record
+     * @return true if there is a record with the key
+     */
+    public boolean containsKey(String key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * Gets the value of a key.
+     *
+     * @param key key of a record
+     * @return value of the record, or null if it doesn't exist or is deleted
+     */
+    public String getValue(String key) {
+        int index = indexOf(key);
+        return index < 0 ? null : values[index];
+    }
+
+    /**
+     * Gets the record with a key.
+     *
+     * @param key key of a record
+     * @return a new record, or null if there is none
+     */
+    public Record getRecord(String key) {
+        int index = indexOf(key);
+        return index < 0 ? null : getRecord(index);
+    }
+
+    /**
+     * Gets the key at a position. Keys are in ascending order.
+     *
+     * @param index position between 0 and size() - 1
+     * @return key of the record
+     */
+    public String getKey(int index) {
+        return keys[index];
+    }
+
+    /**
+     * Gets the value at a position.
+     *
+     * @param index position between 0 and size() - 1
+     * @return value of the record, null if it's marked as deleted
+     */
+    public String getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * Gets the sync count at a position.
+     *
+     * @param index position between 0 and size() - 1
+     * @return sync count of the record
+     */
+    public long getSyncCount(int index) {
+        return syncCounts[index];
+    }
+
+    /**
+     * Gets the server last modified time at a position.
+     *
+     * @param index position between 0 and size() - 1
+     * @return last modified time in milliseconds since epoch
+     */
+    public long getLastModifiedTime(int index) {
+        return lastModifiedTimes[index];
+    }
+
+    /**
+     * Gets the user or device that last modified the record at a position.
+     *
+     * @param index position between 0 and size() - 1
+     * @return last modified by
+     */
+    public String getLastModifiedBy(int index) {
+        return lastModifiedBy[index];
+    }
+
+    /**
+     * Gets the device last modified time at a position.
+     *
+     * @param index position between 0 and size() - 1
+     * @return device last modified time in milliseconds since epoch
+     */
+    public long getDeviceLastModifiedTime(int index) {
+        return deviceLastModifiedTimes[index];
+    }
+
+    /**
+     * Gets whether the record at a position is modified locally but hasn't
+     * been synced.
+     *
+     * @param index position between 0 and size() - 1
+     * @return the modified flag of the record
+     */
+    public boolean isModified(int index) {
+        return modified.get(index);
+    }
+
+    /**
+     * Gets whether the record at a position is marked as deleted.
+     *
+     * @param index position between 0 and size() - 1
+     * @return true if the value is null
+     */
+    public boolean isDeleted(int index) {
+        return values[index] == null;
+    }
+
+    /**
+     * Gets the number of locally modified records.
+     *
+     * @return number of records with the modified flag
+     */
+    public int getModifiedCount() {
+        return modified.cardinality();
+    }
+
+    /**
+     * Materializes the record at a position.
+     *
+     * @param index position between 0 and size() - 1
+     * @return a new record
+     */
+    public Record getRecord(int index) {
+        return new Record.Builder(keys[index])
+                .value(values[index])
+                .syncCount(syncCounts[index])
+                .lastModifiedTime(lastModifiedTimes[index])
+                .lastModifiedBy(lastModifiedBy[index])
+                .deviceLastModifiedTime(deviceLastModifiedTimes[index])
+                .modified(modified.get(index))
+                .build();
+    }
+
+    /**
+     * Materializes all records.
+     *
+     * @return a new list of records in key order
+     */
+    public List<Record> toRecords() {
+        List<Record> records = new ArrayList<Record>(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            records.add(getRecord(i));
+        }
+        return records;
+    }
+
+    /**
+     * Gets the key-value map of the records that aren't marked as deleted.
+     *
+     * @return a new map
+     */
+    public Map<String, String> toValueMap() {
+        Map<String, String> map = new HashMap<String, String>();
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] != null) {
+                map.put(keys[i], values[i]);
+            }
+        }
+        return map;
+    }
+
+    private void sortByKey() {
+        Integer[] order = new Integer[keys.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        final String[] unsorted = keys.clone();
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return unsorted[a].compareTo(unsorted[b]);
+            }
+        });
+        String[] oldValues = values.clone();
+        long[] oldSyncCounts = syncCounts.clone();
+        long[] oldLastModifiedTimes = lastModifiedTimes.clone();
+        String[] oldLastModifiedBy = lastModifiedBy.clone();
+        long[] oldDeviceLastModifiedTimes = deviceLastModifiedTimes.clone();
+        BitSet oldModified = (BitSet) modified.clone();
+        for (int i = 0; i < order.length; i++) {
+            int from = order[i];
+            keys[i] = unsorted[from];
+            values[i] = oldValues[from];
+            syncCounts[i] = oldSyncCounts[from];
+            lastModifiedTimes[i] = oldLastModifiedTimes[from];
+            lastModifiedBy[i] = oldLastModifiedBy[from];
+            deviceLastModifiedTimes[i] = oldDeviceLastModifiedTimes[from];
+            modified.set(i, oldModified.get(from));
+        }
+    }
+
+    /**
+     * A builder of {@link RecordBatch}. Records can be added in any order,
+     * adding them in key order saves a sort.
+     */
+    public static final class Builder {
+        private String[] keys;
+        private String[] values;
+        private long[] syncCounts;
+        private long[] lastModifiedTimes;
+        private String[] lastModifiedBy;
+        private long[] deviceLastModifiedTimes;
+        private final BitSet modified = new BitSet();
+        private int size;
+        private boolean sorted = true;
+        private final Map<String, String> sharedLastModifiedBy = new HashMap<String, String>();
+
+        /**
+         * Constructs a builder.
+         *
+         * @param expectedSize the expected number of records
+         */
+        public Builder(int expectedSize) {
+            int capacity = Math.max(expectedSize, 1);
+            keys = new String[capacity];
+            values = new String[capacity];
+            syncCounts = new long[capacity];
+            lastModifiedTimes = new long[capacity];
+            lastModifiedBy = new String[capacity];
+            deviceLastModifiedTimes = new long[capacity];
+        }
+
+        /**
+         * Adds a record.
+         *
+         * @param record the record to add
+         * @return builder itself
+         */
+        public Builder add(Record record) {
+            return add(record.getKey(), record.getValue(), record.getSyncCount(),
+                    record.getLastModifiedTime(), record.getLastModifiedBy(),
+                    record.getDeviceLastModifiedTime(), record.isModified());
+        }
+
+        /**
+         * Adds a record by its fields.
+         *
+         * @param key non empty key
+         * @param value value, null if the record is marked as deleted
+         * @param syncCount non negative sync count
+         * @param lastModifiedTime server last modified time in milliseconds
+         * @param lastModifiedBy user or device that last modified the record
+         * @param deviceLastModifiedTime device last modified time in
+         *            milliseconds
+         * @param modified whether the record is modified locally
+         * @return builder itself
+         */
+        public Builder add(String key, String value, long syncCount, long lastModifiedTime,
+                String lastModifiedBy, long deviceLastModifiedTime, boolean modified) {
+            if (StringUtils.isEmpty(key)) {
+                throw new IllegalArgumentException("key can't be empty");
+            }
+            if (syncCount < 0) {
+                throw new IllegalArgumentException("sync count can't be negative");
+            }
+            if (size == keys.length) {
+                grow();
+            }
+            if (size > 0 && keys[size - 1].compareTo(key) > 0) {
+                sorted = false;
+            }
+            keys[size] = key;
+            values[size] = value;
+            syncCounts[size] = syncCount;
+            lastModifiedTimes[size] = lastModifiedTime;
+            this.lastModifiedBy[size] = share(lastModifiedBy);
+            deviceLastModifiedTimes[size] = deviceLastModifiedTime;
+            this.modified.set(size, modified);
+            size++;
+            return this;
+        }
+
+        /**
+         * Builds the batch.
+         *
+         * @return a new {@link RecordBatch}
+         * @throws IllegalArgumentException if a key was added twice
+         */
+        public RecordBatch build() {
+            return new RecordBatch(this);
+        }
+
+        private String share(String lastModifiedBy) {
+            if (lastModifiedBy == null) {
+                return null;
+            }
+            String shared = sharedLastModifiedBy.get(lastModifiedBy);
+            if (shared == null) {
+                sharedLastModifiedBy.put(lastModifiedBy, lastModifiedBy);
+                shared = lastModifiedBy;
+            }
+            return shared;
+        }
+
+        private void grow() {
+            int capacity = keys.length * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            values = Arrays.copyOf(values, capacity);
+            syncCounts = Arrays.copyOf(syncCounts, capacity);
+            lastModifiedTimes = Arrays.copyOf(lastModifiedTimes, capacity);
+            lastModifiedBy = Arrays.copyOf(lastModifiedBy, capacity);
+            deviceLastModifiedTimes = Arrays.copyOf(deviceLastModifiedTimes, capacity);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "record_batch:[" + keys.length + " records, " + getModifiedCount()
+                + " modified]";
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito;
+
+/**
+ * How the local storage trades memory for read speed and durability. A
+ * profile sets the page cache, memory-mapped I/O, synchronous level and
+ * journal mode of the SQLite database, and how many datasets keep a snapshot
+ * of their values in memory. Settings the SQLite version of the device
+ * doesn't support are skipped: memory-mapped I/O needs SQLite 3.7.17 and the
+ * write-ahead log 3.7.0, Android 3.0.
+ */
+public enum StorageProfile {
+
+    /**
+     * Small page cache, no memory mapping, a rollback journal that is deleted
+     * after each transaction and no snapshots, for devices short on memory.
+     */
+    LOW_MEMORY(64, 0, "FULL", "DELETE", 0),
+
+    /**
+     * A moderate page cache and snapshots of the datasets used most, without
+     * memory mapping. The journal is truncated rather than deleted and
+     * transactions only sync at critical moments.
+     */
+    BALANCED(512, 0, "NORMAL", "TRUNCATE", 8),
+
+    /**
+     * A large page cache, the database file mapped into memory, a write-ahead
+     * log so that reads don't wait for writes, and snapshots of all datasets
+     * read, for apps that read much more than they write.
+     */
+    READ_HEAVY(2000, 32L * 1024 * 1024, "NORMAL", "WAL", Integer.MAX_VALUE);
+
+    private final int cacheSizePages;
+    private final long mmapSizeBytes;
+    private final String synchronous;
+    private final String journalMode;
+    private final int maxSnapshots;
+
+    private StorageProfile(int cacheSizePages, long mmapSizeBytes, String synchronous,
+            String journalMode, int maxSnapshots) {
+        this.cacheSizePages = cacheSizePages;
+        this.mmapSizeBytes = mmapSizeBytes;
+        this.synchronous = synchronous;
+        this.journalMode = journalMode;
+        this.maxSnapshots = maxSnapshots;
+    }
+
+    /**
+     * @return pages the database keeps in its page cache, PRAGMA cache_size
+     */
+    public int getCacheSizePages() {
+        return cacheSizePages;
+    }
+
+    /**
+     * @return bytes of the database file mapped into memory, 0 for none,
+     *         PRAGMA mmap_size
+     */
+    public long getMmapSizeBytes() {
+        return mmapSizeBytes;
+    }
+
+    /**
+     * @return PRAGMA synchronous, e.g. FULL or NORMAL
+     */
+    public String getSynchronous() {
+        return synchronous;
+    }
+
+    /**
+     * @return PRAGMA journal_mode, e.g. DELETE, TRUNCATE or WAL
+     */
+    public String getJournalMode() {
+        return journalMode;
+    }
+
+    /**
+     * @return most datasets whose values are kept in memory between reads
+     */
+    public int getMaxSnapshots() {
+        return maxSnapshots;
+    }
+}
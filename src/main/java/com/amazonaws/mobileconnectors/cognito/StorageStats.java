@@ -0,0 +1,109 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito;
+
+/**
+ * Size and upkeep of the local storage of datasets.
+ */
+public final class StorageStats {
+
+    private final long sizeBytes;
+    private final long pageSize;
+    private final long freePageCount;
+    private final long lastWriteTime;
+    private final long lastMaintenanceTime;
+
+    /**
+     * @param sizeBytes size of the storage in bytes
+     * @param pageSize size of a database page in bytes, 0 if the storage
+     *            isn't paged
+     * @param freePageCount number of unused pages
+     * @param lastWriteTime time of the last local change or sync, in
+     *            milliseconds since epoch
+     * @param lastMaintenanceTime time of the last maintenance step, in
+     *            milliseconds since epoch, 0 if none ran
+     */
+    public StorageStats(long sizeBytes, long pageSize, long freePageCount, long lastWriteTime,
+            long lastMaintenanceTime) {
+        this.sizeBytes = sizeBytes;
+        this.pageSize = pageSize;
+        this.freePageCount = freePageCount;
+        this.lastWriteTime = lastWriteTime;
+        this.lastMaintenanceTime = lastMaintenanceTime;
+    }
+
+    /**
+     * @return size of the storage in bytes, free pages and the journal or
+     *         write-ahead log file included
+     */
+    public long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    /**
+     * @return size of a database page in bytes, 0 if the storage isn't paged
+     */
+    public long getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * @return number of pages of the storage
+     */
+    public long getPageCount() {
+        return pageSize == 0 ? 0 : sizeBytes / pageSize;
+    }
+
+    /**
+     * @return number of unused pages, which a vacuum gives back to the file
+     *         system
+     */
+    public long getFreePageCount() {
+        return freePageCount;
+    }
+
+    /**
+     * @return share of the pages that are unused, between 0 and 1
+     */
+    public double getFreePageRatio() {
+        long pageCount = getPageCount();
+        return pageCount == 0 ? 0 : (double) freePageCount / pageCount;
+    }
+
+    /**
+     * @return time of the last local change or sync, in milliseconds since
+     *         epoch, 0 if none
+     */
+    public long getLastWriteTime() {
+        return lastWriteTime;
+    }
+
+    /**
+     * @return time of the last maintenance step, in milliseconds since epoch,
+     *         0 if none ran since the storage was opened
+     */
+    public long getLastMaintenanceTime() {
+        return lastMaintenanceTime;
+    }
+
+    @Override
+    public String toString() {
+        return sizeBytes + " bytes, " + freePageCount + " of " + getPageCount()
+                + " pages free";
+    }
+}
@@ -17,8 +17,6 @@
 
 package com.amazonaws.mobileconnectors.cognito;
 
-import java.util.Date;
-
 /**
  * This consists of the conflicting record from the remote storage and the local
  * storage.
@@ -83,9 +81,9 @@ public class SyncConflict {
         return new Record.Builder(key)
                 .value(remoteRecord.getValue())
                 .syncCount(remoteRecord.getSyncCount())
-                .lastModifiedDate(remoteRecord.getLastModifiedDate())
+                .lastModifiedTime(remoteRecord.getLastModifiedTime())
                 .lastModifiedBy(remoteRecord.getLastModifiedBy())
-                .deviceLastModifiedDate(remoteRecord.getDeviceLastModifiedDate())
+                .deviceLastModifiedTime(remoteRecord.getDeviceLastModifiedTime())
                 .modified(false)
                 .build();
     }
@@ -99,9 +97,9 @@ public class SyncConflict {
         return new Record.Builder(key)
                 .value(localRecord.getValue())
                 .syncCount(remoteRecord.getSyncCount())
-                .lastModifiedDate(localRecord.getLastModifiedDate())
+                .lastModifiedTime(localRecord.getLastModifiedTime())
                 .lastModifiedBy(localRecord.getLastModifiedBy())
-                .deviceLastModifiedDate(localRecord.getDeviceLastModifiedDate())
+                .deviceLastModifiedTime(localRecord.getDeviceLastModifiedTime())
                 .modified(true)
                 .build();
     }
@@ -113,13 +111,13 @@ public class SyncConflict {
      * @return resolved record
      */
     public Record resolveWithValue(String newValue) {
-    	Date now = new Date();
+        long now = System.currentTimeMillis();
         return new Record.Builder(key)
                 .value(newValue)
                 .syncCount(remoteRecord.getSyncCount())
-                .lastModifiedDate(now)
+                .lastModifiedTime(now)
                 .lastModifiedBy(localRecord.getLastModifiedBy())
-                .deviceLastModifiedDate(now)
+                .deviceLastModifiedTime(now)
                 .modified(true)
                 .build();
     }
@@ -131,7 +129,7 @@ public class SyncConflict {
      * @return the record that has a later last modified date.
      */
     public Record resolveWithLastWriterWins() {
-        return remoteRecord.getLastModifiedDate().after(localRecord.getLastModifiedDate()) ?
+        return remoteRecord.getLastModifiedTime() > localRecord.getLastModifiedTime() ?
                 resolveWithRemoteRecord() : resolveWithLocalRecord();
     }
 }
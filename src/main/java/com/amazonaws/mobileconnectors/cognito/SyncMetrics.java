@@ -0,0 +1,331 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito;
+
+import com.amazonaws.mobileconnectors.cognito.internal.util.DatasetUtils;
+
+import java.util.List;
+
+/**
+ * Metrics of a single {@link Dataset#synchronize(Dataset.SyncCallback)},
+ * reported to a {@link SyncMetricsListener}. Durations are in nanoseconds and
+ * add up over the retries of the sync. Time spent in the
+ * {@link Dataset.SyncCallback} isn't attributed to any phase.
+ */
+public final class SyncMetrics {
+
+    /**
+     * Phases of a sync.
+     */
+    public enum Phase {
+        /**
+         * Fetching remote changes with ListRecords, all pages included.
+         */
+        LIST_UPDATES,
+        /**
+         * Reading the local record of every remote change to detect
+         * conflicts.
+         */
+        CONFLICT_SCAN,
+        /**
+         * Writing remote changes and the new sync count to local storage.
+         */
+        APPLY_REMOTE,
+        /**
+         * Reading local changes to push.
+         */
+        LOCAL_SCAN,
+        /**
+         * Pushing local changes with UpdateRecords.
+         */
+        PUSH,
+        /**
+         * Writing the pushed records and the new sync count to local storage.
+         */
+        APPLY_PUSH
+    }
+
+    /**
+     * Outcome of a sync.
+     */
+    public enum Outcome {
+        /**
+         * {@link Dataset.SyncCallback#onSuccess(Dataset, List)} was called.
+         */
+        SUCCESS,
+        /**
+         * onFailure was called because of an error.
+         */
+        FAILURE,
+        /**
+         * The sync was stopped by the callback, e.g. by returning false from
+         * {@link Dataset.SyncCallback#onConflict(Dataset, List)}.
+         */
+        CANCELLED
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private final String datasetName;
+    private final Outcome outcome;
+    private final String failureType;
+    private final long totalNanos;
+    private final long[] phaseNanos;
+    private final int recordsPulled;
+    private final long bytesPulled;
+    private final int recordsPushed;
+    private final long bytesPushed;
+    private final int pageCount;
+    private final int retryCount;
+    private final int conflictCount;
+
+    private SyncMetrics(Recorder recorder, Outcome outcome, long totalNanos) {
+        this.datasetName = recorder.datasetName;
+        this.outcome = outcome;
+        this.failureType = recorder.failure == null ? null
+                : recorder.failure.getClass().getSimpleName();
+        this.totalNanos = totalNanos;
+        this.phaseNanos = recorder.phaseNanos;
+        this.recordsPulled = recorder.recordsPulled;
+        this.bytesPulled = recorder.bytesPulled;
+        this.recordsPushed = recorder.recordsPushed;
+        this.bytesPushed = recorder.bytesPushed;
+        this.pageCount = recorder.pageCount;
+        this.retryCount = recorder.retryCount;
+        this.conflictCount = recorder.conflictCount;
+    }
+
+    /**
+     * @return name of the synchronized dataset
+     */
+    public String getDatasetName() {
+        return datasetName;
+    }
+
+    /**
+     * @return outcome of the sync
+     */
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * @return simple class name of the exception passed to onFailure, or null
+     *         if the sync didn't fail
+     */
+    public String getFailureType() {
+        return failureType;
+    }
+
+    /**
+     * @return wall time of the sync in nanoseconds
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * @param phase a phase
+     * @return time spent in the phase in nanoseconds
+     */
+    public long getPhaseNanos(Phase phase) {
+        return phaseNanos[phase.ordinal()];
+    }
+
+    /**
+     * @return number of remote records pulled, all retries included
+     */
+    public int getRecordsPulled() {
+        return recordsPulled;
+    }
+
+    /**
+     * @return UTF-8 size of the keys and values of the pulled records
+     */
+    public long getBytesPulled() {
+        return bytesPulled;
+    }
+
+    /**
+     * @return number of local records pushed, all retries included
+     */
+    public int getRecordsPushed() {
+        return recordsPushed;
+    }
+
+    /**
+     * @return UTF-8 size of the keys and values of the pushed records
+     */
+    public long getBytesPushed() {
+        return bytesPushed;
+    }
+
+    /**
+     * @return number of ListRecords pages fetched
+     */
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * @return number of times the sync started over, e.g. after a conflict
+     *         on push
+     */
+    public int getRetryCount() {
+        return retryCount;
+    }
+
+    /**
+     * @return number of records in conflict passed to onConflict
+     */
+    public int getConflictCount() {
+        return conflictCount;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("dataset:[").append(datasetName).append("],")
+                .append("outcome:[").append(outcome).append("],")
+                .append("totalNanos:[").append(totalNanos).append("],");
+        for (Phase phase : PHASES) {
+            sb.append(phase).append(":[").append(getPhaseNanos(phase)).append("],");
+        }
+        sb.append("recordsPulled:[").append(recordsPulled).append("],")
+                .append("recordsPushed:[").append(recordsPushed).append("],")
+                .append("pages:[").append(pageCount).append("],")
+                .append("retries:[").append(retryCount).append("],")
+                .append("conflicts:[").append(conflictCount).append("]");
+        return sb.toString();
+    }
+
+    /**
+     * Collects the metrics of a sync as it goes. {@link #NONE} is a shared
+     * recorder that ignores everything, used when no listener is installed so
+     * that a sync without a listener doesn't allocate or read the clock.
+     */
+    static class Recorder {
+
+        static final Recorder NONE = new Recorder(null, false);
+
+        private final String datasetName;
+        private final boolean enabled;
+        private final long startNanos;
+        private final long[] phaseNanos;
+        private int recordsPulled;
+        private long bytesPulled;
+        private int recordsPushed;
+        private long bytesPushed;
+        private int pageCount;
+        private int retryCount;
+        private int conflictCount;
+        private boolean cancelled;
+        private Exception failure;
+
+        Recorder(String datasetName) {
+            this(datasetName, true);
+        }
+
+        private Recorder(String datasetName, boolean enabled) {
+            this.datasetName = datasetName;
+            this.enabled = enabled;
+            this.startNanos = enabled ? System.nanoTime() : 0;
+            this.phaseNanos = enabled ? new long[PHASES.length] : null;
+        }
+
+        boolean isEnabled() {
+            return enabled;
+        }
+
+        /**
+         * @return the start time of a phase, to be passed to
+         *         {@link #end(Phase, long)}
+         */
+        long start() {
+            return enabled ? System.nanoTime() : 0;
+        }
+
+        void end(Phase phase, long start) {
+            if (enabled) {
+                phaseNanos[phase.ordinal()] += System.nanoTime() - start;
+            }
+        }
+
+        void pulled(List<Record> records, int pages) {
+            if (enabled) {
+                recordsPulled += records.size();
+                bytesPulled += sizeOf(records);
+                pageCount += pages;
+            }
+        }
+
+        void pushed(List<Record> records) {
+            if (enabled) {
+                recordsPushed += records.size();
+                bytesPushed += sizeOf(records);
+            }
+        }
+
+        void retried() {
+            if (enabled) {
+                retryCount++;
+            }
+        }
+
+        void conflicts(int count) {
+            if (enabled) {
+                conflictCount += count;
+            }
+        }
+
+        void cancelled() {
+            if (enabled) {
+                cancelled = true;
+            }
+        }
+
+        void failed(Exception e) {
+            if (enabled) {
+                failure = e;
+            }
+        }
+
+        /**
+         * Builds the metrics once the sync is over.
+         *
+         * @param success the result of the sync
+         * @return the metrics, null if this recorder isn't enabled
+         */
+        SyncMetrics finish(boolean success) {
+            if (!enabled) {
+                return null;
+            }
+            Outcome outcome = success ? Outcome.SUCCESS
+                    : cancelled ? Outcome.CANCELLED : Outcome.FAILURE;
+            return new SyncMetrics(this, outcome, System.nanoTime() - startNanos);
+        }
+
+        private static long sizeOf(List<Record> records) {
+            long size = 0;
+            for (int i = 0, n = records.size(); i < n; i++) {
+                size += DatasetUtils.computeRecordSize(records.get(i));
+            }
+            return size;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito;
+
+/**
+ * Listener of sync metrics. It's called once at the end of every sync with the
+ * metrics of that sync, on the sync thread, so implementations should return
+ * quickly. {@link HistogramSyncMetricsListener} aggregates them in memory.
+ */
+public interface SyncMetricsListener {
+
+    /**
+     * Called when a sync is over, whatever its outcome.
+     *
+     * @param metrics the metrics of the sync
+     */
+    void onSyncCompleted(SyncMetrics metrics);
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito;
+
+import com.amazonaws.auth.CognitoCredentialsProvider;
+import com.amazonaws.mobileconnectors.cognito.internal.storage.LocalStorage;
+import com.amazonaws.mobileconnectors.cognito.internal.util.DatasetUtils;
+import com.amazonaws.mobileconnectors.cognito.internal.util.Log;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Removes synced tombstones of the current identity from local storage, see
+ * {@link LocalStorage#compactTombstones}, on demand or periodically on a
+ * background thread. Each batch is a transaction of its own, so writers wait
+ * for one batch at most.
+ */
+final class TombstoneCompactor {
+
+    private static final String TAG = "TombstoneCompactor";
+
+    private final LocalStorage local;
+    private final CognitoCredentialsProvider provider;
+
+    private CompactionResult total = CompactionResult.NONE;
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> task;
+
+    TombstoneCompactor(LocalStorage local, CognitoCredentialsProvider provider) {
+        this.local = local;
+        this.provider = provider;
+    }
+
+    /**
+     * Compacts every interval, or stops compacting.
+     *
+     * @param intervalMillis time between two compactions, 0 to stop
+     * @param batchSize most tombstones removed per transaction
+     */
+    synchronized void schedule(long intervalMillis, final int batchSize) {
+        if (intervalMillis < 0) {
+            throw new IllegalArgumentException("interval can't be negative");
+        }
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batch size must be positive");
+        }
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+        if (intervalMillis == 0) {
+            return;
+        }
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, TAG);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        task = scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compact(batchSize);
+                } catch (RuntimeException e) {
+                    Log.w(TAG, "failed to compact tombstones", e);
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Removes all synced tombstones of the datasets of the current identity,
+     * in batches.
+     *
+     * @param batchSize most tombstones removed per transaction
+     * @return rows and bytes removed
+     */
+    CompactionResult compact(int batchSize) {
+        String identityId = DatasetUtils.getIdentityId(provider);
+        CompactionResult result = CompactionResult.NONE;
+        for (DatasetMetadata dataset : local.getDatasets(identityId)) {
+            CompactionResult batch;
+            do {
+                batch = local.compactTombstones(identityId, dataset.getDatasetName(), batchSize);
+                result = result.plus(batch);
+            } while (batch.getRows() == batchSize);
+        }
+        if (result.getRows() > 0) {
+            Log.i(TAG, "removed tombstones: " + result);
+            synchronized (this) {
+                total = total.plus(result);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return rows and bytes removed since this compactor was created
+     */
+    synchronized CompactionResult getTotal() {
+        return total;
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito.internal.storage;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Page size of a paginated list operation that adapts to the observed page
+ * latency and payload size. Page sizes are tracked separately per network
+ * type, e.g. WIFI and MOBILE, and always stay within the configured bounds.
+ * Latency drives the page size: a full page that came back well within the
+ * latency target doubles it, and a page over the target, or a failed
+ * request, halves it. The payload target only halves pages that also took
+ * more than half the latency target, so that a fast link keeps large pages
+ * however big they are.
+ */
+public class AdaptivePageSize {
+
+    /**
+     * Network type used when the type is unknown.
+     */
+    public static final String UNKNOWN_NETWORK_TYPE = "UNKNOWN";
+
+    /**
+     * Source of the type of the network requests currently go through.
+     */
+    public interface NetworkTypeSource {
+        /**
+         * @return the current network type, e.g. WIFI or MOBILE, or null if
+         *         unknown
+         */
+        String getNetworkType();
+    }
+
+    private final int minPageSize;
+    private final int maxPageSize;
+    private final int initialPageSize;
+    private final long targetLatencyMillis;
+    private final long targetPageBytes;
+
+    private final Map<String, Integer> pageSizeByNetworkType = new HashMap<String, Integer>();
+
+    /**
+     * Constructs an adaptive page size.
+     *
+     * @param minPageSize lower bound of the page size
+     * @param maxPageSize upper bound of the page size
+     * @param initialPageSize page size used on a network type before any page
+     *            was observed on it
+     * @param targetLatencyMillis latency a page should stay within
+     * @param targetPageBytes approximate payload size a page should stay
+     *            within unless the link is fast
+     */
+    public AdaptivePageSize(int minPageSize, int maxPageSize, int initialPageSize,
+            long targetLatencyMillis, long targetPageBytes) {
+        if (minPageSize <= 0 || maxPageSize < minPageSize) {
+            throw new IllegalArgumentException("invalid page size bounds");
+        }
+        if (targetLatencyMillis <= 0 || targetPageBytes <= 0) {
+            throw new IllegalArgumentException("targets must be positive");
+        }
+        this.minPageSize = minPageSize;
+        this.maxPageSize = maxPageSize;
+        this.initialPageSize = clamp(initialPageSize);
+        this.targetLatencyMillis = targetLatencyMillis;
+        this.targetPageBytes = targetPageBytes;
+    }
+
+    /**
+     * Gets the page size to request next on the given network type.
+     *
+     * @param networkType network type, null if unknown
+     * @return page size within bounds
+     */
+    public synchronized int getPageSize(String networkType) {
+        Integer pageSize = pageSizeByNetworkType.get(key(networkType));
+        return pageSize == null ? initialPageSize : pageSize;
+    }
+
+    /**
+     * Feeds back a page that was received.
+     *
+     * @param networkType network type the page went through, null if unknown
+     * @param requested page size that was requested
+     * @param received number of items received
+     * @param latencyMillis time taken to fetch the page
+     * @param pageBytes approximate payload size of the page
+     */
+    public synchronized void onPage(String networkType, int requested, int received,
+            long latencyMillis, long pageBytes) {
+        int pageSize = getPageSize(networkType);
+        boolean fast = latencyMillis * 2 <= targetLatencyMillis;
+        if (latencyMillis > targetLatencyMillis || (!fast && pageBytes > targetPageBytes)) {
+            pageSize = pageSize / 2;
+        } else if (received >= requested && fast) {
+            // only a full page tells that a larger one would have been used
+            pageSize = pageSize * 2;
+        }
+        pageSizeByNetworkType.put(key(networkType), clamp(pageSize));
+    }
+
+    /**
+     * Feeds back a page request that failed, e.g. timed out.
+     *
+     * @param networkType network type the request went through, null if
+     *            unknown
+     */
+    public synchronized void onFailure(String networkType) {
+        pageSizeByNetworkType.put(key(networkType), clamp(getPageSize(networkType) / 2));
+    }
+
+    private int clamp(int pageSize) {
+        return Math.max(minPageSize, Math.min(maxPageSize, pageSize));
+    }
+
+    private static String key(String networkType) {
+        return networkType == null ? UNKNOWN_NETWORK_TYPE : networkType;
+    }
+}
@@ -0,0 +1,417 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito.internal.storage;
+
+import com.amazonaws.mobileconnectors.cognito.CircuitBreakerListener;
+import com.amazonaws.mobileconnectors.cognito.CircuitBreakerState;
+import com.amazonaws.mobileconnectors.cognito.DatasetMetadata;
+import com.amazonaws.mobileconnectors.cognito.Record;
+import com.amazonaws.mobileconnectors.cognito.exceptions.DataStorageException;
+import com.amazonaws.mobileconnectors.cognito.exceptions.NetworkException;
+import com.amazonaws.mobileconnectors.cognito.internal.util.Log;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link RemoteDataStorage} that guards another one with a circuit breaker.
+ * After a number of consecutive network failures the circuit opens and all
+ * requests fail fast with {@link NetworkException} without touching the
+ * network. Once the open period has elapsed, the circuit becomes half open and
+ * lets a single probe request through. A successful probe closes the circuit,
+ * a failed one opens it again. Any response from the service, including a
+ * service error, counts as a success since the service is reachable.
+ */
+public class CircuitBreakerRemoteDataStorage implements RemoteDataStorage {
+
+    private static final String TAG = "CircuitBreaker";
+
+    /**
+     * Default number of consecutive network failures that opens the circuit.
+     */
+    public static final int DEFAULT_FAILURE_THRESHOLD = 3;
+
+    /**
+     * Default time in milliseconds the circuit stays open before a probe
+     * request is allowed.
+     */
+    public static final long DEFAULT_OPEN_DURATION_MILLIS = 30 * 1000L;
+
+    private final RemoteDataStorage remote;
+
+    private int failureThreshold;
+    private long openDurationMillis;
+
+    private CircuitBreakerState state = CircuitBreakerState.CLOSED;
+    private int consecutiveFailures;
+    /** System.nanoTime() when the circuit last opened */
+    private long openedAt;
+    private boolean probeInFlight;
+    private CircuitBreakerListener listener;
+
+    /**
+     * Constructs a circuit breaker with default settings.
+     *
+     * @param remote the remote storage to guard
+     */
+    public CircuitBreakerRemoteDataStorage(RemoteDataStorage remote) {
+        this(remote, DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_DURATION_MILLIS);
+    }
+
+    /**
+     * Constructs a circuit breaker.
+     *
+     * @param remote the remote storage to guard
+     * @param failureThreshold number of consecutive network failures that
+     *            opens the circuit
+     * @param openDurationMillis time in milliseconds the circuit stays open
+     *            before a probe request is allowed
+     */
+    public CircuitBreakerRemoteDataStorage(RemoteDataStorage remote, int failureThreshold,
+            long openDurationMillis) {
+        if (remote == null) {
+            throw new IllegalArgumentException("remote can't be null");
+        }
+        this.remote = remote;
+        configure(failureThreshold, openDurationMillis);
+    }
+
+    /**
+     * Changes the thresholds of this circuit breaker. The current state is
+     * kept.
+     *
+     * @param failureThreshold number of consecutive network failures that
+     *            opens the circuit, must be positive
+     * @param openDurationMillis time in milliseconds the circuit stays open
+     *            before a probe request is allowed, must not be negative
+     */
+    public synchronized void configure(int failureThreshold, long openDurationMillis) {
+        if (failureThreshold <= 0) {
+            throw new IllegalArgumentException("failure threshold must be positive");
+        }
+        if (openDurationMillis < 0) {
+            throw new IllegalArgumentException("open duration can't be negative");
+        }
+        this.failureThreshold = failureThreshold;
+        this.openDurationMillis = openDurationMillis;
+    }
+
+    /**
+     * Gets the current state of the circuit. An open circuit whose open period
+     * has elapsed is still reported as open until the next request probes
+     * the service.
+     *
+     * @return the current state
+     */
+    public synchronized CircuitBreakerState getState() {
+        return state;
+    }
+
+    /**
+     * Gets the number of consecutive network failures seen so far.
+     *
+     * @return number of consecutive failures
+     */
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * Sets a listener to be notified of state transitions.
+     *
+     * @param listener the listener, or null to remove it
+     */
+    public synchronized void setListener(CircuitBreakerListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Closes the circuit and clears the failure count, e.g. when the device
+     * reports that connectivity is back.
+     */
+    public void reset() {
+        Transition transition;
+        synchronized (this) {
+            consecutiveFailures = 0;
+            probeInFlight = false;
+            transition = transitionTo(CircuitBreakerState.CLOSED);
+        }
+        notifyListener(transition);
+    }
+
+    @Override
+    public List<DatasetMetadata> getDatasets() throws DataStorageException {
+        boolean probe = acquire("list datasets");
+        try {
+            List<DatasetMetadata> datasets = remote.getDatasets();
+            recordSuccess();
+            return datasets;
+        } catch (RuntimeException e) {
+            throw recordFailure(e);
+        } finally {
+            if (probe) {
+                releaseProbe();
+            }
+        }
+    }
+
+    @Override
+    public DatasetMetadata getDatasetMetadata(String datasetName) throws DataStorageException {
+        boolean probe = acquire("get metadata of dataset " + datasetName);
+        try {
+            DatasetMetadata metadata = remote.getDatasetMetadata(datasetName);
+            recordSuccess();
+            return metadata;
+        } catch (RuntimeException e) {
+            throw recordFailure(e);
+        } finally {
+            if (probe) {
+                releaseProbe();
+            }
+        }
+    }
+
+    @Override
+    public DatasetUpdates listUpdates(String datasetName, long lastSyncCount)
+            throws DataStorageException {
+        boolean probe = acquire("list records in dataset " + datasetName);
+        try {
+            DatasetUpdates updates = remote.listUpdates(datasetName, lastSyncCount);
+            recordSuccess();
+            return updates;
+        } catch (RuntimeException e) {
+            throw recordFailure(e);
+        } finally {
+            if (probe) {
+                releaseProbe();
+            }
+        }
+    }
+
+    @Override
+    public List<Record> putRecords(String datasetName, List<Record> records,
+            String syncSessionToken, String deviceId) {
+        boolean probe = acquire("update records in dataset " + datasetName);
+        try {
+            List<Record> result = remote.putRecords(datasetName, records, syncSessionToken,
+                    deviceId);
+            recordSuccess();
+            return result;
+        } catch (RuntimeException e) {
+            throw recordFailure(e);
+        } finally {
+            if (probe) {
+                releaseProbe();
+            }
+        }
+    }
+
+    @Override
+    public void unsubscribeFromDataset(String datasetName, String deviceId) {
+        boolean probe = acquire("unsubscribe from dataset " + datasetName);
+        try {
+            remote.unsubscribeFromDataset(datasetName, deviceId);
+            recordSuccess();
+        } catch (RuntimeException e) {
+            throw recordFailure(e);
+        } finally {
+            if (probe) {
+                releaseProbe();
+            }
+        }
+    }
+
+    @Override
+    public void subscribeToDataset(String datasetName, String deviceId) {
+        boolean probe = acquire("subscribe to dataset " + datasetName);
+        try {
+            remote.subscribeToDataset(datasetName, deviceId);
+            recordSuccess();
+        } catch (RuntimeException e) {
+            throw recordFailure(e);
+        } finally {
+            if (probe) {
+                releaseProbe();
+            }
+        }
+    }
+
+    @Override
+    public void deleteDataset(String datasetName) {
+        boolean probe = acquire("delete dataset " + datasetName);
+        try {
+            remote.deleteDataset(datasetName);
+            recordSuccess();
+        } catch (RuntimeException e) {
+            throw recordFailure(e);
+        } finally {
+            if (probe) {
+                releaseProbe();
+            }
+        }
+    }
+
+    /**
+     * Checks whether a request may go through. When the circuit is open and
+     * the open period has elapsed, the caller becomes the probe.
+     *
+     * @param operation description of the request for the error message
+     * @return true if the caller is the probe and must call
+     *         {@link #releaseProbe()} once the request is done
+     * @throws NetworkException if the circuit doesn't allow the request
+     */
+    boolean acquire(String operation) {
+        Transition transition = null;
+        try {
+            synchronized (this) {
+                if (state == CircuitBreakerState.OPEN
+                        && System.nanoTime() - openedAt
+                                >= TimeUnit.MILLISECONDS.toNanos(openDurationMillis)) {
+                    transition = transitionTo(CircuitBreakerState.HALF_OPEN);
+                }
+                if (state == CircuitBreakerState.CLOSED) {
+                    return false;
+                }
+                if (state == CircuitBreakerState.HALF_OPEN && !probeInFlight) {
+                    Log.d(TAG, "probing service with request to " + operation);
+                    probeInFlight = true;
+                    return true;
+                }
+                throw new NetworkException("Circuit breaker is " + state
+                        + ", skipped request to " + operation);
+            }
+        } finally {
+            notifyListener(transition);
+        }
+    }
+
+    /**
+     * Lets another request probe the service if the probe ended without
+     * being recorded, e.g. because it threw an {@link Error}.
+     */
+    synchronized void releaseProbe() {
+        probeInFlight = false;
+    }
+
+    /**
+     * Records a request that reached the service.
+     */
+    void recordSuccess() {
+        Transition transition;
+        synchronized (this) {
+            consecutiveFailures = 0;
+            probeInFlight = false;
+            transition = transitionTo(CircuitBreakerState.CLOSED);
+        }
+        notifyListener(transition);
+    }
+
+    /**
+     * Records a failed request. Only network failures count against the
+     * circuit; other errors mean the service was reachable.
+     *
+     * @param e the exception thrown by the remote storage
+     * @return the same exception, to be rethrown
+     */
+    RuntimeException recordFailure(RuntimeException e) {
+        if (!isNetworkFailure(e)) {
+            recordSuccess();
+            return e;
+        }
+        Transition transition = null;
+        synchronized (this) {
+            consecutiveFailures++;
+            if (state == CircuitBreakerState.HALF_OPEN
+                    || (state == CircuitBreakerState.CLOSED
+                            && consecutiveFailures >= failureThreshold)) {
+                probeInFlight = false;
+                openedAt = System.nanoTime();
+                transition = transitionTo(CircuitBreakerState.OPEN);
+            }
+        }
+        notifyListener(transition);
+        return e;
+    }
+
+    /**
+     * A state change to report to the listener once the lock is released.
+     */
+    private static final class Transition {
+        final CircuitBreakerListener listener;
+        final CircuitBreakerState from;
+        final CircuitBreakerState to;
+        final int consecutiveFailures;
+
+        Transition(CircuitBreakerListener listener, CircuitBreakerState from,
+                CircuitBreakerState to, int consecutiveFailures) {
+            this.listener = listener;
+            this.from = from;
+            this.to = to;
+            this.consecutiveFailures = consecutiveFailures;
+        }
+    }
+
+    /**
+     * Changes the state. Must hold the lock.
+     *
+     * @return the transition to notify the listener of, null if there is none
+     */
+    private Transition transitionTo(CircuitBreakerState newState) {
+        if (state == newState) {
+            return null;
+        }
+        CircuitBreakerState oldState = state;
+        state = newState;
+        Log.i(TAG, String.format("circuit breaker %s -> %s after %d consecutive failures",
+                oldState, newState, consecutiveFailures));
+        return listener == null ? null
+                : new Transition(listener, oldState, newState, consecutiveFailures);
+    }
+
+    /**
+     * Notifies the listener without holding the lock, so that a slow or
+     * reentrant listener doesn't hold up requests.
+     */
+    private static void notifyListener(Transition transition) {
+        if (transition != null) {
+            transition.listener.onStateChanged(transition.from, transition.to,
+                    transition.consecutiveFailures);
+        }
+    }
+
+    /**
+     * Tests whether an exception is caused by network problem, either
+     * classified as {@link NetworkException} by the remote storage or caused by
+     * an {@link IOException}.
+     *
+     * @param t the exception to test
+     * @return true if it's a network failure, false otherwise
+     */
+    static boolean isNetworkFailure(Throwable t) {
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause instanceof NetworkException || cause instanceof IOException) {
+                return true;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return false;
+    }
+}
@@ -17,11 +17,9 @@
 
 package com.amazonaws.mobileconnectors.cognito.internal.storage;
 
-import android.util.Log;
-
 import com.amazonaws.AmazonClientException;
 import com.amazonaws.AmazonWebServiceRequest;
-import com.amazonaws.auth.CognitoCachingCredentialsProvider;
+import com.amazonaws.auth.CognitoCredentialsProvider;
 import com.amazonaws.mobileconnectors.cognito.DatasetMetadata;
 import com.amazonaws.mobileconnectors.cognito.Record;
 import com.amazonaws.mobileconnectors.cognito.exceptions.DataAccessNotAuthorizedException;
@@ -32,6 +30,7 @@ import com.amazonaws.mobileconnectors.cognito.exceptions.DatasetNotFoundExceptio
 import com.amazonaws.mobileconnectors.cognito.exceptions.NetworkException;
 import com.amazonaws.mobileconnectors.cognito.exceptions.SubscribeFailedException;
 import com.amazonaws.mobileconnectors.cognito.exceptions.UnsubscribeFailedException;
+import com.amazonaws.mobileconnectors.cognito.internal.util.Log;
 import com.amazonaws.regions.Region;
 import com.amazonaws.regions.Regions;
 import com.amazonaws.services.cognitosync.AmazonCognitoSync;
@@ -58,6 +57,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Cognito remote storage powered by AWS Cognito Sync service
@@ -71,26 +71,65 @@ public class CognitoSyncStorage implements RemoteDataStorage {
      */
     private final String identityPoolId;
     private final AmazonCognitoSync client;
-    private final CognitoCachingCredentialsProvider provider;
+    private final CognitoCredentialsProvider provider;
+    /**
+     * Identity id all requests are made for, null to ask the provider
+     */
+    private final String identityId;
 
     /**
      * User agent string to append to all requests
      */
     private String userAgent;
 
+    /**
+     * Page size of ListRecords. 1024 is the largest page the service returns.
+     */
+    private volatile AdaptivePageSize recordPageSize = new AdaptivePageSize(64, 1024, 1024,
+            5000, 256 * 1024);
+    /**
+     * Page size of ListDatasets. An identity has at most 20 datasets, so a
+     * single page holds them all and there's nothing to adapt.
+     */
+    private static final int DATASET_PAGE_SIZE = 64;
+    private volatile AdaptivePageSize.NetworkTypeSource networkTypeSource;
+
     public CognitoSyncStorage(String identityPoolId, AmazonCognitoSync client,
-            CognitoCachingCredentialsProvider provider) {
+            CognitoCredentialsProvider provider) {
         this.identityPoolId = identityPoolId;
         this.client = client;
         this.provider = provider;
+        this.identityId = null;
+        userAgent = "";
+    }
+
+    /**
+     * Constructs a storage bound to a given identity. This is meant for
+     * server-side use, where the client is authorized with developer
+     * credentials to access datasets of any identity in the pool.
+     *
+     * @param identityPoolId identity pool id
+     * @param identityId identity id all requests are made for
+     * @param client the sync client
+     */
+    public CognitoSyncStorage(String identityPoolId, String identityId,
+            AmazonCognitoSync client) {
+        if (identityId == null) {
+            throw new IllegalArgumentException("identity id can't be null");
+        }
+        this.identityPoolId = identityPoolId;
+        this.client = client;
+        this.provider = null;
+        this.identityId = identityId;
         userAgent = "";
     }
 
     @Deprecated
     public CognitoSyncStorage(String identityPoolId, Regions region,
-            CognitoCachingCredentialsProvider provider) {
+            CognitoCredentialsProvider provider) {
         this.identityPoolId = identityPoolId;
         this.provider = provider;
+        this.identityId = null;
         client = new AmazonCognitoSyncClient(provider);
         client.setRegion(Region.getRegion(region));
         userAgent = "";
@@ -109,8 +148,7 @@ public class CognitoSyncStorage implements RemoteDataStorage {
             ListDatasetsRequest request = new ListDatasetsRequest();
             appendUserAgent(request, userAgent);
             request.setIdentityPoolId(identityPoolId);
-            // a large enough number to reduce # of requests
-            request.setMaxResults("64");
+            request.setMaxResults(String.valueOf(DATASET_PAGE_SIZE));
             request.setNextToken(nextToken);
 
             ListDatasetsResult result = null;
@@ -133,40 +171,88 @@ public class CognitoSyncStorage implements RemoteDataStorage {
     @Override
     public DatasetUpdates listUpdates(String datasetName, long lastSyncCount) {
         DatasetUpdatesImpl.Builder builder = new DatasetUpdatesImpl.Builder(datasetName);
+        String errorMessage = "Failed to list records in dataset: " + datasetName;
+        String networkType = getNetworkType();
 
         String nextToken = null;
         do {
-            ListRecordsRequest request = new ListRecordsRequest();
-            appendUserAgent(request, userAgent);
-            request.setIdentityPoolId(identityPoolId);
-            request.setDatasetName(datasetName);
-            request.setLastSyncCount(String.valueOf(lastSyncCount));
-            // mark it large enough to reduce # of requests
-            request.setMaxResults("1024");
-            request.setNextToken(nextToken);
+            int pageSize = recordPageSize.getPageSize(networkType);
             ListRecordsResult result = null;
+            // immune to wall clock changes, which would skew the page size
+            long start = System.nanoTime();
             try {
-                request.setIdentityId(getIdentityId());
-                result = client.listRecords(request);
+                result = client.listRecords(newListRecordsRequest(datasetName, lastSyncCount,
+                        getIdentityId(), nextToken, pageSize));
             } catch (AmazonClientException ace) {
-                throw handleException(ace, "Failed to list records in dataset: " + datasetName);
+                if (isNetworkException(ace)) {
+                    recordPageSize.onFailure(networkType);
+                }
+                throw handleException(ace, errorMessage);
             }
-            for (com.amazonaws.services.cognitosync.model.Record remoteRecord : result.getRecords()) {
+            long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            long pageBytes = 0;
+            for (com.amazonaws.services.cognitosync.model.Record remoteRecord : result
+                    .getRecords()) {
+                // char count is close enough to UTF-8 bytes for sizing pages
+                pageBytes += remoteRecord.getKey() == null ? 0 : remoteRecord.getKey().length();
+                pageBytes += remoteRecord.getValue() == null ? 0
+                        : remoteRecord.getValue().length();
                 builder.addRecord(modelToRecord(remoteRecord));
             }
-            builder.syncSessionToken(result.getSyncSessionToken())
+            recordPageSize.onPage(networkType, pageSize, result.getRecords().size(), latency,
+                    pageBytes);
+            builder.addPage()
+                    .syncSessionToken(result.getSyncSessionToken())
                     .syncCount(result.getDatasetSyncCount())
                     .exists(result.isDatasetExists())
                     .deleted(result.isDatasetDeletedAfterRequestedSyncCount())
                     .mergedDatasetNameList(result.getMergedDatasetNames());
 
-            // update last evaluated key
             nextToken = result.getNextToken();
         } while (nextToken != null);
 
         return builder.build();
     }
 
+    ListRecordsRequest newListRecordsRequest(String datasetName, long lastSyncCount,
+            String identityId, String nextToken, int pageSize) {
+        ListRecordsRequest request = new ListRecordsRequest();
+        appendUserAgent(request, userAgent);
+        request.setIdentityPoolId(identityPoolId);
+        request.setIdentityId(identityId);
+        request.setDatasetName(datasetName);
+        request.setLastSyncCount(String.valueOf(lastSyncCount));
+        request.setMaxResults(String.valueOf(pageSize));
+        request.setNextToken(nextToken);
+        return request;
+    }
+
+    /**
+     * Sets the page size used for ListRecords.
+     *
+     * @param recordPageSize page size of ListRecords
+     */
+    public void setRecordPageSize(AdaptivePageSize recordPageSize) {
+        if (recordPageSize == null) {
+            throw new IllegalArgumentException("page size can't be null");
+        }
+        this.recordPageSize = recordPageSize;
+    }
+
+    /**
+     * Sets the source of the network type that page sizes are tracked by.
+     *
+     * @param networkTypeSource source of the network type, null if unknown
+     */
+    public void setNetworkTypeSource(AdaptivePageSize.NetworkTypeSource networkTypeSource) {
+        this.networkTypeSource = networkTypeSource;
+    }
+
+    String getNetworkType() {
+        AdaptivePageSize.NetworkTypeSource source = networkTypeSource;
+        return source == null ? null : source.getNetworkType();
+    }
+
     /*
      * (non-Javadoc)
      * @see com.amazonaws.cognitov2.RemoteStorage#saveRecords(java.lang.String,
@@ -227,9 +313,7 @@ public class CognitoSyncStorage implements RemoteDataStorage {
         patch.setValue(record.getValue());
         patch.setSyncCount(record.getSyncCount());
         patch.setOp(record.getValue() == null ? Operation.Remove : Operation.Replace);
-        if (record.getDeviceLastModifiedDate() != null) {
-            patch.setDeviceLastModifiedDate(record.getDeviceLastModifiedDate());
-        }
+        patch.setDeviceLastModifiedDate(new Date(record.getDeviceLastModifiedTime()));
         return patch;
     }
 
@@ -244,12 +328,10 @@ public class CognitoSyncStorage implements RemoteDataStorage {
                 .value(model.getValue())
                 .syncCount(model.getSyncCount() == null ? 0 : model.getSyncCount())
                 .lastModifiedBy(model.getLastModifiedBy())
-                .lastModifiedDate(model.getLastModifiedDate() == null
-                        ? new Date(0)
-                        : model.getLastModifiedDate())
-                .deviceLastModifiedDate(model.getDeviceLastModifiedDate() == null
-                        ? new Date(0)
-                        : model.getDeviceLastModifiedDate())
+                .lastModifiedTime(model.getLastModifiedDate() == null
+                        ? 0 : model.getLastModifiedDate().getTime())
+                .deviceLastModifiedTime(model.getDeviceLastModifiedDate() == null
+                        ? 0 : model.getDeviceLastModifiedDate().getTime())
                 .modified(false)
                 .build();
     }
@@ -295,7 +377,7 @@ public class CognitoSyncStorage implements RemoteDataStorage {
     }
 
     String getIdentityId() throws AmazonClientException, NotAuthorizedException {
-        return provider.getIdentityId();
+        return identityId != null ? identityId : provider.getIdentityId();
     }
 
     /**
@@ -331,9 +413,9 @@ public class CognitoSyncStorage implements RemoteDataStorage {
 
     @Override
     public void unsubscribeFromDataset(String datasetName, String deviceId) {
-        String identityId = provider.getIdentityId();
+        String identityId = getIdentityId();
         UnsubscribeFromDatasetRequest request = new UnsubscribeFromDatasetRequest()
-                .withIdentityPoolId(provider.getIdentityPoolId())
+                .withIdentityPoolId(identityPoolId)
                 .withIdentityId(identityId)
                 .withDatasetName(datasetName)
                 .withDeviceId(deviceId);
@@ -347,9 +429,9 @@ public class CognitoSyncStorage implements RemoteDataStorage {
 
     @Override
     public void subscribeToDataset(String datasetName, String deviceId) {
-        String identityId = provider.getIdentityId();
+        String identityId = getIdentityId();
         SubscribeToDatasetRequest request = new SubscribeToDatasetRequest()
-                .withIdentityPoolId(provider.getIdentityPoolId())
+                .withIdentityPoolId(identityPoolId)
                 .withIdentityId(identityId)
                 .withDatasetName(datasetName)
                 .withDeviceId(deviceId);
@@ -380,6 +462,7 @@ public class CognitoSyncStorage implements RemoteDataStorage {
         private final boolean exists;
         private final boolean deleted;
         private final List<String> mergedDatasetNameList;
+        private final int pageCount;
 
         @Override
         public String getDatasetName() {
@@ -416,6 +499,11 @@ public class CognitoSyncStorage implements RemoteDataStorage {
             return mergedDatasetNameList;
         }
 
+        @Override
+        public int getPageCount() {
+            return pageCount;
+        }
+
         private DatasetUpdatesImpl(Builder builder) {
             this.datasetName = builder.datasetName;
             this.records = builder.records;
@@ -424,6 +512,7 @@ public class CognitoSyncStorage implements RemoteDataStorage {
             this.exists = builder.exists;
             this.deleted = builder.deleted;
             this.mergedDatasetNameList = builder.mergedDatasetNameList;
+            this.pageCount = builder.pageCount;
         }
 
         static class Builder {
@@ -434,6 +523,7 @@ public class CognitoSyncStorage implements RemoteDataStorage {
             private boolean exists = true;
             private boolean deleted = false;
             private final List<String> mergedDatasetNameList = new ArrayList<String>();
+            private int pageCount = 0;
 
             Builder(String datasetName) {
                 this.datasetName = datasetName;
@@ -459,6 +549,11 @@ public class CognitoSyncStorage implements RemoteDataStorage {
                 return this;
             }
 
+            Builder addPage() {
+                pageCount++;
+                return this;
+            }
+
             Builder addRecord(Record record) {
                 records.add(record);
                 return this;
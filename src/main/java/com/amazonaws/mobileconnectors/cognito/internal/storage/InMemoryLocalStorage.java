@@ -0,0 +1,685 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito.internal.storage;
+
+import com.amazonaws.mobileconnectors.cognito.CompactionResult;
+import com.amazonaws.mobileconnectors.cognito.Dataset;
+import com.amazonaws.mobileconnectors.cognito.DatasetMetadata;
+import com.amazonaws.mobileconnectors.cognito.Record;
+import com.amazonaws.mobileconnectors.cognito.RecordBatch;
+import com.amazonaws.mobileconnectors.cognito.StorageProfile;
+import com.amazonaws.mobileconnectors.cognito.StorageStats;
+import com.amazonaws.mobileconnectors.cognito.internal.util.DatasetUtils;
+import com.amazonaws.mobileconnectors.cognito.internal.util.Log;
+import com.amazonaws.mobileconnectors.cognito.internal.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * A {@link LocalStorage} that keeps datasets in memory, for platforms without
+ * SQLite such as a plain JVM. It mirrors the behavior of
+ * {@link SQLiteLocalStorage}: the same defaults, the same modified flags and
+ * sync counts, the same identity change rules. Nothing survives the process.
+ */
+public class InMemoryLocalStorage implements LocalStorage {
+
+    private static final String TAG = "InMemoryLocalStorage";
+
+    /**
+     * A row of the datasets table.
+     */
+    static class DatasetRow {
+        String identityId;
+        String datasetName;
+        long creationTimestamp;
+        long lastModifiedTimestamp;
+        String lastModifiedBy;
+        long storageSizeBytes;
+        long recordCount;
+        long lastSyncCount;
+        long lastSyncTimestamp;
+        /**
+         * Sync counts of the keys whose tombstones were compacted, see
+         * SQLiteLocalStorage#TABLE_COMPACTIONS.
+         */
+        final Map<String, Long> compactedSyncCounts = new HashMap<String, Long>();
+
+        DatasetRow(String identityId, String datasetName) {
+            this.identityId = identityId;
+            this.datasetName = datasetName;
+        }
+
+        DatasetMetadata toMetadata() {
+            return new DatasetMetadata.Builder(datasetName)
+                    .creationTime(creationTimestamp)
+                    .lastModifiedTime(lastModifiedTimestamp)
+                    .lastModifiedBy(lastModifiedBy)
+                    .storageSizeBytes(storageSizeBytes)
+                    .recordCount(recordCount)
+                    .build();
+        }
+    }
+
+    /**
+     * Dataset rows by identity id and dataset name.
+     */
+    private final Map<String, DatasetRow> datasets = new LinkedHashMap<String, DatasetRow>();
+
+    /**
+     * Records by identity id and dataset name, then by key.
+     */
+    private final Map<String, TreeMap<String, Record>> records = new HashMap<String, TreeMap<String, Record>>();
+    private long lastMaintenanceTime;
+
+    static String datasetKey(String identityId, String datasetName) {
+        return identityId + "\n" + datasetName;
+    }
+
+    private DatasetRow getRow(String identityId, String datasetName) {
+        return datasets.get(datasetKey(identityId, datasetName));
+    }
+
+    private TreeMap<String, Record> getRecordMap(String identityId, String datasetName,
+            boolean create) {
+        String datasetKey = datasetKey(identityId, datasetName);
+        TreeMap<String, Record> recordMap = records.get(datasetKey);
+        if (recordMap == null && create) {
+            recordMap = new TreeMap<String, Record>();
+            records.put(datasetKey, recordMap);
+        }
+        return recordMap;
+    }
+
+    @Override
+    public synchronized void createDataset(String identityId, String datasetName) {
+        if (getRow(identityId, datasetName) == null) {
+            DatasetRow row = new DatasetRow(identityId, datasetName);
+            row.creationTimestamp = System.currentTimeMillis();
+            row.lastModifiedTimestamp = row.creationTimestamp;
+            datasets.put(datasetKey(identityId, datasetName), row);
+        }
+    }
+
+    @Override
+    public synchronized String getValue(String identityId, String datasetName, String key) {
+        Record record = getRecord(identityId, datasetName, key);
+        return record == null ? null : record.getValue();
+    }
+
+    @Override
+    public synchronized void putValue(String identityId, String datasetName, String key,
+            String value) {
+        putValueInternal(identityId, datasetName, key, value);
+        updateLastModifiedTimestamp(identityId, datasetName);
+    }
+
+    @Override
+    public synchronized Map<String, String> getValueMap(String identityId, String datasetName) {
+        Map<String, String> values = new HashMap<String, String>();
+        TreeMap<String, Record> recordMap = getRecordMap(identityId, datasetName, false);
+        if (recordMap != null) {
+            for (Record record : recordMap.values()) {
+                if (!record.isDeleted()) {
+                    values.put(record.getKey(), record.getValue());
+                }
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public synchronized void putAllValues(String identityId, String datasetName,
+            Map<String, String> values) {
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            putValueInternal(identityId, datasetName, entry.getKey(), entry.getValue());
+        }
+        updateLastModifiedTimestamp(identityId, datasetName);
+    }
+
+    @Override
+    public synchronized int removeValues(String identityId, String datasetName,
+            Collection<String> keys) {
+        int removed = 0;
+        for (String key : new HashSet<String>(keys)) {
+            if (getValue(identityId, datasetName, key) != null) {
+                putValueInternal(identityId, datasetName, key, null);
+                removed++;
+            }
+        }
+        if (removed > 0) {
+            updateLastModifiedTimestamp(identityId, datasetName);
+        }
+        return removed;
+    }
+
+    @Override
+    public synchronized int removeAllValues(String identityId, String datasetName) {
+        TreeMap<String, Record> recordMap = getRecordMap(identityId, datasetName, false);
+        return recordMap == null ? 0
+                : removeValues(identityId, datasetName, new ArrayList<String>(recordMap.keySet()));
+    }
+
+    @Override
+    public synchronized CompactionResult compactTombstones(String identityId,
+            String datasetName, int maxRows) {
+        DatasetRow row = getRow(identityId, datasetName);
+        TreeMap<String, Record> recordMap = getRecordMap(identityId, datasetName, false);
+        if (row == null || recordMap == null) {
+            return CompactionResult.NONE;
+        }
+        long rows = 0;
+        long bytes = 0;
+        Iterator<Record> iterator = recordMap.values().iterator();
+        while (rows < maxRows && iterator.hasNext()) {
+            Record record = iterator.next();
+            if (record.isDeleted() && !record.isModified()
+                    && record.getSyncCount() <= row.lastSyncCount) {
+                iterator.remove();
+                row.compactedSyncCounts.put(record.getKey(), record.getSyncCount());
+                rows++;
+                bytes += StringUtils.utf8ByteLength(record.getKey())
+                        + StringUtils.utf8ByteLength(record.getLastModifiedBy())
+                        + StringUtils.utf8ByteLength(identityId)
+                        + StringUtils.utf8ByteLength(datasetName);
+            }
+        }
+        return rows == 0 ? CompactionResult.NONE : new CompactionResult(rows, bytes);
+    }
+
+    @Override
+    public synchronized StorageStats getStorageStats() {
+        long sizeBytes = 0;
+        for (TreeMap<String, Record> recordMap : records.values()) {
+            for (Record record : recordMap.values()) {
+                sizeBytes += StringUtils.utf8ByteLength(record.getKey())
+                        + StringUtils.utf8ByteLength(record.getValue());
+            }
+        }
+        long lastWriteTime = 0;
+        for (DatasetRow row : datasets.values()) {
+            lastWriteTime = Math.max(lastWriteTime,
+                    Math.max(row.lastModifiedTimestamp, row.lastSyncTimestamp));
+        }
+        return new StorageStats(sizeBytes, 0, 0, lastWriteTime, lastMaintenanceTime);
+    }
+
+    @Override
+    public synchronized long vacuum(int maxPages) {
+        // nothing to give back, maps shrink on removal
+        lastMaintenanceTime = System.currentTimeMillis();
+        return 0;
+    }
+
+    @Override
+    public boolean convertToIncrementalVacuum() {
+        return false;
+    }
+
+    @Override
+    public synchronized void analyze() {
+        lastMaintenanceTime = System.currentTimeMillis();
+    }
+
+    @Override
+    public void setStorageProfile(StorageProfile profile) {
+        // nothing to tune, all records are in memory
+    }
+
+    @Override
+    public synchronized boolean compareAndPutValue(String identityId, String datasetName,
+            String key, String expectedValue, String value) {
+        if (!StringUtils.equals(getValue(identityId, datasetName, key), expectedValue)) {
+            return false;
+        }
+        putValue(identityId, datasetName, key, value);
+        return true;
+    }
+
+    @Override
+    public synchronized long incrementValue(String identityId, String datasetName, String key,
+            long delta) {
+        String current = getValue(identityId, datasetName, key);
+        if (current != null && !isInteger(current)) {
+            throw new IllegalStateException(String.format(
+                    "value of %s in dataset %s isn't an integer", key, datasetName));
+        }
+        long value = current == null ? 0 : Long.parseLong(current);
+        long sum = value + delta;
+        if (((value ^ sum) & (delta ^ sum)) < 0) {
+            throw new IllegalStateException(String.format(
+                    "incrementing %s in dataset %s overflows", key, datasetName));
+        }
+        putValue(identityId, datasetName, key, String.valueOf(sum));
+        return sum;
+    }
+
+    @Override
+    public synchronized boolean compareAndPutAllValues(String identityId, String datasetName,
+            Map<String, String> expectedValues, Map<String, String> values) {
+        for (Map.Entry<String, String> entry : expectedValues.entrySet()) {
+            if (!StringUtils.equals(getValue(identityId, datasetName, entry.getKey()),
+                    entry.getValue())) {
+                return false;
+            }
+        }
+        putAllValues(identityId, datasetName, values);
+        return true;
+    }
+
+    /**
+     * Whether a value is a decimal integer in canonical form, the values that
+     * SQLiteLocalStorage increments.
+     */
+    private static boolean isInteger(String value) {
+        try {
+            return value.equals(String.valueOf(Long.parseLong(value)));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Puts a value as a local change. Nothing changes if the value is the same
+     * as the stored one.
+     */
+    void putValueInternal(String identityId, String datasetName, String key, String value) {
+        TreeMap<String, Record> recordMap = getRecordMap(identityId, datasetName, true);
+        Record record = recordMap.get(key);
+        if (record != null && StringUtils.equals(record.getValue(), value)) {
+            return;
+        }
+        long syncCount;
+        if (record != null) {
+            syncCount = record.getSyncCount();
+        } else {
+            // a key created again starts from where its tombstone was
+            Long compacted = forgetCompactedSyncCount(identityId, datasetName, key);
+            syncCount = compacted == null ? 0 : compacted;
+        }
+        recordMap.put(key, new Record.Builder(key)
+                .value(value)
+                .syncCount(syncCount)
+                .lastModifiedTime(record == null ? 0 : record.getLastModifiedTime())
+                .lastModifiedBy(record == null ? null : record.getLastModifiedBy())
+                .deviceLastModifiedTime(System.currentTimeMillis())
+                .modified(true)
+                .build());
+    }
+
+    /**
+     * Forgets the compacted sync count of a key that has a record again.
+     *
+     * @return the forgotten sync count, null if the key wasn't compacted
+     */
+    private Long forgetCompactedSyncCount(String identityId, String datasetName, String key) {
+        DatasetRow row = getRow(identityId, datasetName);
+        return row == null ? null : row.compactedSyncCounts.remove(key);
+    }
+
+    @Override
+    public synchronized Record getRecord(String identityId, String datasetName, String key) {
+        TreeMap<String, Record> recordMap = getRecordMap(identityId, datasetName, false);
+        return recordMap == null ? null : recordMap.get(key);
+    }
+
+    @Override
+    public synchronized List<Record> getRecords(String identityId, String datasetName) {
+        TreeMap<String, Record> recordMap = getRecordMap(identityId, datasetName, false);
+        return recordMap == null ? new ArrayList<Record>()
+                : new ArrayList<Record>(recordMap.values());
+    }
+
+    @Override
+    public synchronized RecordBatch getRecordBatch(String identityId, String datasetName) {
+        TreeMap<String, Record> recordMap = getRecordMap(identityId, datasetName, false);
+        return recordMap == null ? RecordBatch.EMPTY
+                : RecordBatch.fromRecords(recordMap.values());
+    }
+
+    @Override
+    public void visitRecordsByPrefix(String identityId, String datasetName, String prefix,
+            Dataset.RecordVisitor visitor) {
+        List<Record> matching = new ArrayList<Record>();
+        synchronized (this) {
+            TreeMap<String, Record> recordMap = getRecordMap(identityId, datasetName, false);
+            if (recordMap != null) {
+                for (Record record : recordMap.tailMap(prefix).values()) {
+                    if (!record.getKey().startsWith(prefix)) {
+                        break;
+                    }
+                    matching.add(record);
+                }
+            }
+        }
+        visit(matching, visitor);
+    }
+
+    @Override
+    public void visitRecordRange(String identityId, String datasetName, String fromKey,
+            String toKey, Dataset.RecordVisitor visitor) {
+        List<Record> matching = new ArrayList<Record>();
+        synchronized (this) {
+            TreeMap<String, Record> recordMap = getRecordMap(identityId, datasetName, false);
+            if (recordMap != null
+                    && (fromKey == null || toKey == null || fromKey.compareTo(toKey) < 0)) {
+                SortedMap<String, Record> range = recordMap;
+                if (fromKey != null) {
+                    range = range.tailMap(fromKey);
+                }
+                if (toKey != null) {
+                    range = range.headMap(toKey);
+                }
+                matching.addAll(range.values());
+            }
+        }
+        visit(matching, visitor);
+    }
+
+    /**
+     * Hands records to a visitor outside the lock, so that it may write.
+     */
+    private static void visit(List<Record> records, Dataset.RecordVisitor visitor) {
+        for (Record record : records) {
+            if (!visitor.visit(record)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public synchronized boolean hasModifiedRecords(String identityId, String datasetName) {
+        TreeMap<String, Record> recordMap = getRecordMap(identityId, datasetName, false);
+        if (recordMap != null) {
+            for (Record record : recordMap.values()) {
+                if (record.isModified()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized List<Record> getModifiedRecords(String identityId, String datasetName) {
+        List<Record> modified = new ArrayList<Record>();
+        TreeMap<String, Record> recordMap = getRecordMap(identityId, datasetName, false);
+        if (recordMap != null) {
+            for (Record record : recordMap.values()) {
+                if (record.isModified()) {
+                    modified.add(record);
+                }
+            }
+        }
+        return modified;
+    }
+
+    @Override
+    public synchronized void putRecords(String identityId, String datasetName,
+            List<Record> records) {
+        TreeMap<String, Record> recordMap = getRecordMap(identityId, datasetName, true);
+        for (Record record : records) {
+            recordMap.put(record.getKey(), record);
+            forgetCompactedSyncCount(identityId, datasetName, record.getKey());
+        }
+    }
+
+    @Override
+    public synchronized void conditionallyPutRecords(String identityId, String datasetName,
+            List<Record> records, List<Record> localRecords) {
+        Map<String, Record> localRecordMap = new HashMap<String, Record>();
+        for (Record record : localRecords) {
+            localRecordMap.put(record.getKey(), record);
+        }
+        TreeMap<String, Record> recordMap = getRecordMap(identityId, datasetName, true);
+        for (Record record : records) {
+            // skip records changed locally since the snapshot was taken
+            Record databaseRecord = recordMap.get(record.getKey());
+            Record oldDatabaseRecord = localRecordMap.get(record.getKey());
+            if (databaseRecord != null && oldDatabaseRecord != null
+                    && (!StringUtils.equals(databaseRecord.getValue(),
+                            oldDatabaseRecord.getValue())
+                            || databaseRecord.getSyncCount() != oldDatabaseRecord.getSyncCount()
+                            || !StringUtils.equals(databaseRecord.getLastModifiedBy(),
+                                    oldDatabaseRecord.getLastModifiedBy()))) {
+                continue;
+            }
+            recordMap.put(record.getKey(), record);
+            forgetCompactedSyncCount(identityId, datasetName, record.getKey());
+        }
+    }
+
+    @Override
+    public synchronized List<DatasetMetadata> getDatasets(String identityId) {
+        List<DatasetMetadata> result = new ArrayList<DatasetMetadata>();
+        for (DatasetRow row : datasets.values()) {
+            if (row.identityId.equals(identityId)) {
+                result.add(row.toMetadata());
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void deleteDataset(String identityId, String datasetName) {
+        TreeMap<String, Record> recordMap = records.remove(datasetKey(identityId, datasetName));
+        Log.i(TAG, String.format("%d records were deleted from dataset %s",
+                recordMap == null ? 0 : recordMap.size(), datasetName));
+        DatasetRow row = getRow(identityId, datasetName);
+        if (row == null) {
+            Log.e(TAG, String.format("couldn't mark dataset %s deleted", datasetName));
+            return;
+        }
+        row.lastModifiedTimestamp = System.currentTimeMillis();
+        row.lastSyncCount = -1;
+        row.compactedSyncCounts.clear();
+    }
+
+    @Override
+    public synchronized void purgeDataset(String identityId, String datasetName) {
+        deleteDataset(identityId, datasetName);
+        if (datasets.remove(datasetKey(identityId, datasetName)) == null) {
+            Log.e(TAG, String.format("failed to purge dataset %s", datasetName));
+        }
+    }
+
+    @Override
+    public synchronized DatasetMetadata getDatasetMetadata(String identityId,
+            String datasetName) {
+        DatasetRow row = getRow(identityId, datasetName);
+        return row == null ? null : row.toMetadata();
+    }
+
+    @Override
+    public synchronized long getLastSyncCount(String identityId, String datasetName) {
+        DatasetRow row = getRow(identityId, datasetName);
+        if (row == null) {
+            Log.w(TAG, String.format("couldn't find dataset %s", datasetName));
+            return 0;
+        }
+        return row.lastSyncCount;
+    }
+
+    @Override
+    public synchronized void updateLastSyncCount(String identityId, String datasetName,
+            long lastSyncCount) {
+        DatasetRow row = getRow(identityId, datasetName);
+        if (row == null) {
+            Log.e(TAG, String.format("failed to update last sync count of dataset %s",
+                    datasetName));
+            return;
+        }
+        row.lastSyncCount = lastSyncCount;
+        row.lastSyncTimestamp = System.currentTimeMillis();
+    }
+
+    @Override
+    public synchronized void wipeData() {
+        datasets.clear();
+        records.clear();
+    }
+
+    @Override
+    public synchronized void changeIdentityId(String oldIdentityId, String newIdentityId) {
+        if (DatasetUtils.UNKNOWN_IDENTITY_ID.equals(oldIdentityId)) {
+            // datasets created prior to having a cognito id are reparented,
+            // the ones whose names are taken get the old id appended
+            Set<String> newNames = new HashSet<String>();
+            for (DatasetRow row : datasets.values()) {
+                if (row.identityId.equals(newIdentityId)) {
+                    newNames.add(row.datasetName);
+                }
+            }
+            for (DatasetRow row : rowsOf(oldIdentityId)) {
+                String newName = newNames.contains(row.datasetName)
+                        ? row.datasetName + "." + oldIdentityId
+                        : row.datasetName;
+                moveDataset(row, newIdentityId, newName);
+            }
+            moveOrphanRecords(oldIdentityId, newIdentityId, null);
+        } else {
+            // 1. copy oldIdentityId/dataset to newIdentityId/dataset as local
+            // changes
+            for (DatasetRow row : rowsOf(oldIdentityId)) {
+                if (getRow(newIdentityId, row.datasetName) == null) {
+                    DatasetRow copy = new DatasetRow(newIdentityId, row.datasetName);
+                    copy.creationTimestamp = row.creationTimestamp;
+                    copy.storageSizeBytes = row.storageSizeBytes;
+                    copy.recordCount = row.recordCount;
+                    datasets.put(datasetKey(newIdentityId, row.datasetName), copy);
+                }
+            }
+            for (Map.Entry<String, TreeMap<String, Record>> entry
+                    : new ArrayList<Map.Entry<String, TreeMap<String, Record>>>(
+                            records.entrySet())) {
+                String[] key = entry.getKey().split("\n", 2);
+                if (!key[0].equals(oldIdentityId)) {
+                    continue;
+                }
+                TreeMap<String, Record> copy = getRecordMap(newIdentityId, key[1], true);
+                for (Record record : entry.getValue().values()) {
+                    if (!copy.containsKey(record.getKey())) {
+                        copy.put(record.getKey(), new Record.Builder(record.getKey())
+                                .value(record.getValue())
+                                .lastModifiedTime(record.getLastModifiedTime())
+                                .lastModifiedBy(record.getLastModifiedBy())
+                                .deviceLastModifiedTime(record.getDeviceLastModifiedTime())
+                                .modified(true)
+                                .build());
+                    }
+                }
+            }
+            // 2. rename oldIdentityId/dataset to
+            // newIdentityId/dataset.oldIdentityId
+            for (DatasetRow row : rowsOf(oldIdentityId)) {
+                moveDataset(row, newIdentityId, row.datasetName + "." + oldIdentityId);
+            }
+            moveOrphanRecords(oldIdentityId, newIdentityId, "." + oldIdentityId);
+        }
+    }
+
+    private List<DatasetRow> rowsOf(String identityId) {
+        List<DatasetRow> rows = new ArrayList<DatasetRow>();
+        for (DatasetRow row : datasets.values()) {
+            if (row.identityId.equals(identityId)) {
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Moves a dataset row, with its compacted keys, and its records to
+     * another identity id and name.
+     */
+    private void moveDataset(DatasetRow row, String identityId, String datasetName) {
+        datasets.remove(datasetKey(row.identityId, row.datasetName));
+        TreeMap<String, Record> recordMap = records.remove(datasetKey(row.identityId,
+                row.datasetName));
+        row.identityId = identityId;
+        row.datasetName = datasetName;
+        datasets.put(datasetKey(identityId, datasetName), row);
+        if (recordMap != null) {
+            records.put(datasetKey(identityId, datasetName), recordMap);
+        }
+    }
+
+    /**
+     * Moves records left under an identity id without a dataset row.
+     */
+    private void moveOrphanRecords(String oldIdentityId, String newIdentityId, String suffix) {
+        Iterator<Map.Entry<String, TreeMap<String, Record>>> iter = records.entrySet()
+                .iterator();
+        Map<String, TreeMap<String, Record>> moved = new HashMap<String, TreeMap<String, Record>>();
+        while (iter.hasNext()) {
+            Map.Entry<String, TreeMap<String, Record>> entry = iter.next();
+            String[] key = entry.getKey().split("\n", 2);
+            if (key[0].equals(oldIdentityId)) {
+                String datasetName = suffix == null ? key[1] : key[1] + suffix;
+                moved.put(datasetKey(newIdentityId, datasetName), entry.getValue());
+                iter.remove();
+            }
+        }
+        records.putAll(moved);
+    }
+
+    @Override
+    public synchronized void updateDatasetMetadata(String identityId,
+            List<DatasetMetadata> datasetMetadata) {
+        for (DatasetMetadata metadata : datasetMetadata) {
+            DatasetRow row = getRow(identityId, metadata.getDatasetName());
+            if (row == null) {
+                row = new DatasetRow(identityId, metadata.getDatasetName());
+                datasets.put(datasetKey(identityId, metadata.getDatasetName()), row);
+            }
+            row.creationTimestamp = metadata.getCreationTime();
+            row.lastModifiedTimestamp = metadata.getLastModifiedTime();
+            row.lastModifiedBy = metadata.getLastModifiedBy();
+            row.recordCount = metadata.getRecordCount();
+            row.storageSizeBytes = metadata.getStorageSizeBytes();
+        }
+    }
+
+    @Override
+    public void close() {
+        // nothing to release
+    }
+
+    /**
+     * Updates the last modified timestamp of a dataset, usually when a record
+     * value is set.
+     */
+    private void updateLastModifiedTimestamp(String identityId, String datasetName) {
+        DatasetRow row = getRow(identityId, datasetName);
+        if (row == null) {
+            Log.w(TAG, String.format("failed to update last modified timestamp of dataset %s",
+                    datasetName));
+            return;
+        }
+        row.lastModifiedTimestamp = System.currentTimeMillis();
+    }
+}
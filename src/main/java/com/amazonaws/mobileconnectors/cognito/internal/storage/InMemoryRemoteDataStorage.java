@@ -0,0 +1,713 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito.internal.storage;
+
+import com.amazonaws.mobileconnectors.cognito.DatasetMetadata;
+import com.amazonaws.mobileconnectors.cognito.Record;
+import com.amazonaws.mobileconnectors.cognito.exceptions.DataConflictException;
+import com.amazonaws.mobileconnectors.cognito.exceptions.DataStorageException;
+import com.amazonaws.mobileconnectors.cognito.exceptions.DatasetNotFoundException;
+import com.amazonaws.mobileconnectors.cognito.exceptions.NetworkException;
+import com.amazonaws.mobileconnectors.cognito.internal.util.DatasetUtils;
+import com.amazonaws.services.cognitosync.model.TooManyRequestsException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * A {@link RemoteDataStorage} that keeps the datasets of one identity in
+ * memory, with the semantics of Cognito Sync service: dataset and record
+ * sync counts, sync session tokens, conflicts on stale sync counts, paged
+ * listings and deleted datasets. Latency, throttling, conflicts and network
+ * failures can be injected, and every call is recorded, so that the sync
+ * engine can be tested and benchmarked without HTTP.
+ * <p>
+ * Injected failures throw what {@link CognitoSyncStorage} throws for the
+ * corresponding service errors: a {@link DataConflictException} for a
+ * conflict, a {@link NetworkException} for a network failure, and a
+ * {@link DataStorageException} caused by a {@link TooManyRequestsException}
+ * for throttling. All random choices come from a seeded {@link Random}.
+ */
+public class InMemoryRemoteDataStorage implements RemoteDataStorage {
+
+    /**
+     * Operations of the service, as recorded in {@link Call}s.
+     */
+    public enum Operation {
+        LIST_DATASETS, DESCRIBE_DATASET, LIST_RECORDS, UPDATE_RECORDS, DELETE_DATASET,
+        SUBSCRIBE_TO_DATASET, UNSUBSCRIBE_FROM_DATASET
+    }
+
+    /**
+     * A distribution of latencies in milliseconds.
+     */
+    public interface LatencyDistribution {
+        /**
+         * @param random the random source of the storage
+         * @return the latency of the next call in milliseconds
+         */
+        long nextMillis(Random random);
+    }
+
+    /**
+     * No latency at all.
+     */
+    public static final LatencyDistribution NO_LATENCY = fixedLatency(0);
+
+    /**
+     * @param millis latency of every call
+     * @return a constant latency
+     */
+    public static LatencyDistribution fixedLatency(final long millis) {
+        return new LatencyDistribution() {
+            @Override
+            public long nextMillis(Random random) {
+                return millis;
+            }
+        };
+    }
+
+    /**
+     * @param minMillis lowest latency
+     * @param maxMillis highest latency
+     * @return latencies uniformly distributed in [minMillis, maxMillis]
+     */
+    public static LatencyDistribution uniformLatency(final long minMillis, final long maxMillis) {
+        if (minMillis < 0 || maxMillis < minMillis) {
+            throw new IllegalArgumentException("invalid latency range");
+        }
+        return new LatencyDistribution() {
+            @Override
+            public long nextMillis(Random random) {
+                return minMillis + (long) (random.nextDouble() * (maxMillis - minMillis + 1));
+            }
+        };
+    }
+
+    /**
+     * Log-normal latencies, the usual shape of network round trips: most
+     * calls close to the median and a long tail.
+     *
+     * @param medianMillis median latency
+     * @param sigma standard deviation of the log of the latency, e.g. 0.5
+     * @return a log-normal latency
+     */
+    public static LatencyDistribution logNormalLatency(final long medianMillis,
+            final double sigma) {
+        if (medianMillis < 0 || sigma < 0) {
+            throw new IllegalArgumentException("invalid latency parameters");
+        }
+        return new LatencyDistribution() {
+            @Override
+            public long nextMillis(Random random) {
+                return Math.round(medianMillis * Math.exp(sigma * random.nextGaussian()));
+            }
+        };
+    }
+
+    /**
+     * A recorded call. A ListRecords call is recorded per page.
+     */
+    public static final class Call {
+        private final Operation operation;
+        private final String datasetName;
+        private final long latencyMillis;
+        private final int recordCount;
+        private final String error;
+
+        Call(Operation operation, String datasetName, long latencyMillis, int recordCount,
+                String error) {
+            this.operation = operation;
+            this.datasetName = datasetName;
+            this.latencyMillis = latencyMillis;
+            this.recordCount = recordCount;
+            this.error = error;
+        }
+
+        public Operation getOperation() {
+            return operation;
+        }
+
+        /**
+         * @return dataset name, null for ListDatasets
+         */
+        public String getDatasetName() {
+            return datasetName;
+        }
+
+        /**
+         * @return latency injected in the call
+         */
+        public long getLatencyMillis() {
+            return latencyMillis;
+        }
+
+        /**
+         * @return records listed or pushed
+         */
+        public int getRecordCount() {
+            return recordCount;
+        }
+
+        /**
+         * @return simple class name of the exception thrown, null if the call
+         *         succeeded
+         */
+        public String getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return operation + "(" + (datasetName == null ? "" : datasetName) + "):[records:"
+                    + recordCount + ",latency:" + latencyMillis
+                    + (error == null ? "" : ",error:" + error) + "]";
+        }
+    }
+
+    private static final class StoredDataset {
+        final String name;
+        final long creationTime;
+        long lastModifiedTime;
+        String lastModifiedBy;
+        long syncCount;
+        boolean deleted;
+        List<String> mergedDatasetNames = Collections.emptyList();
+        final Map<String, Record> records = new TreeMap<String, Record>();
+
+        StoredDataset(String name, long creationTime) {
+            this.name = name;
+            this.creationTime = creationTime;
+        }
+
+        DatasetMetadata toMetadata() {
+            long size = 0;
+            long count = 0;
+            for (Record record : records.values()) {
+                if (record.getValue() != null) {
+                    size += DatasetUtils.computeRecordSize(record);
+                    count++;
+                }
+            }
+            return new DatasetMetadata.Builder(name)
+                    .creationTime(creationTime)
+                    .lastModifiedTime(lastModifiedTime)
+                    .lastModifiedBy(lastModifiedBy)
+                    .storageSizeBytes(size)
+                    .recordCount(count)
+                    .build();
+        }
+    }
+
+    private static final Comparator<Record> BY_SYNC_COUNT = new Comparator<Record>() {
+        @Override
+        public int compare(Record a, Record b) {
+            if (a.getSyncCount() != b.getSyncCount()) {
+                return a.getSyncCount() < b.getSyncCount() ? -1 : 1;
+            }
+            return a.getKey().compareTo(b.getKey());
+        }
+    };
+
+    private final String identityId;
+    private final LatencyDistribution latency;
+    private final int recordPageSize;
+    private final double throttleProbability;
+    private final double conflictProbability;
+    private final double failureProbability;
+    private final Random random;
+
+    private final Map<String, StoredDataset> datasets = new TreeMap<String, StoredDataset>();
+    private final Set<String> sessions = new HashSet<String>();
+    private final Map<String, Set<String>> subscriptions = new HashMap<String, Set<String>>();
+    private final List<Call> calls = new ArrayList<Call>();
+
+    private InMemoryRemoteDataStorage(Builder builder) {
+        this.identityId = builder.identityId;
+        this.latency = builder.latency;
+        this.recordPageSize = builder.recordPageSize;
+        this.throttleProbability = builder.throttleProbability;
+        this.conflictProbability = builder.conflictProbability;
+        this.failureProbability = builder.failureProbability;
+        this.random = new Random(builder.seed);
+    }
+
+    /**
+     * Outcome of the fault injection of a call.
+     */
+    private static final class Injection {
+        final long latencyMillis;
+        final DataStorageException failure;
+
+        Injection(long latencyMillis, DataStorageException failure) {
+            this.latencyMillis = latencyMillis;
+            this.failure = failure;
+        }
+    }
+
+    /**
+     * Draws the latency and the injected failure of a call, sleeps the
+     * latency and records the call if it fails.
+     */
+    private Injection inject(Operation operation, String datasetName, String message) {
+        long latencyMillis;
+        DataStorageException failure = null;
+        synchronized (this) {
+            latencyMillis = Math.max(0, latency.nextMillis(random));
+            if (throttleProbability > 0 && random.nextDouble() < throttleProbability) {
+                failure = new DataStorageException(message,
+                        new TooManyRequestsException("Rate exceeded"));
+            } else if (failureProbability > 0 && random.nextDouble() < failureProbability) {
+                failure = new NetworkException(message);
+            }
+        }
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failure = new NetworkException(message);
+            }
+        }
+        if (failure != null) {
+            record(operation, datasetName, latencyMillis, 0, failure);
+        }
+        return new Injection(latencyMillis, failure);
+    }
+
+    private synchronized void record(Operation operation, String datasetName,
+            long latencyMillis, int recordCount, Exception error) {
+        calls.add(new Call(operation, datasetName, latencyMillis, recordCount,
+                error == null ? null : error.getClass().getSimpleName()));
+    }
+
+    @Override
+    public List<DatasetMetadata> getDatasets() throws DataStorageException {
+        Injection injection = inject(Operation.LIST_DATASETS, null,
+                "Failed to list dataset metadata");
+        if (injection.failure != null) {
+            throw injection.failure;
+        }
+        synchronized (this) {
+            List<DatasetMetadata> result = new ArrayList<DatasetMetadata>();
+            for (StoredDataset dataset : datasets.values()) {
+                if (!dataset.deleted) {
+                    result.add(dataset.toMetadata());
+                }
+            }
+            record(Operation.LIST_DATASETS, null, injection.latencyMillis, 0, null);
+            return result;
+        }
+    }
+
+    @Override
+    public DatasetMetadata getDatasetMetadata(String datasetName) throws DataStorageException {
+        String message = "Failed to get metadata of dataset: " + datasetName;
+        Injection injection = inject(Operation.DESCRIBE_DATASET, datasetName, message);
+        if (injection.failure != null) {
+            throw injection.failure;
+        }
+        synchronized (this) {
+            StoredDataset dataset = datasets.get(datasetName);
+            if (dataset == null || dataset.deleted) {
+                DatasetNotFoundException e = new DatasetNotFoundException(message);
+                record(Operation.DESCRIBE_DATASET, datasetName, injection.latencyMillis, 0, e);
+                throw e;
+            }
+            record(Operation.DESCRIBE_DATASET, datasetName, injection.latencyMillis, 0, null);
+            return dataset.toMetadata();
+        }
+    }
+
+    @Override
+    public DatasetUpdates listUpdates(String datasetName, long lastSyncCount)
+            throws DataStorageException {
+        CognitoSyncStorage.DatasetUpdatesImpl.Builder builder =
+                new CognitoSyncStorage.DatasetUpdatesImpl.Builder(datasetName);
+        int offset = 0;
+        boolean more = true;
+        while (more) {
+            // every page is a request of its own and sees the latest state
+            Injection injection = inject(Operation.LIST_RECORDS, datasetName,
+                    "Failed to list records in dataset: " + datasetName);
+            if (injection.failure != null) {
+                throw injection.failure;
+            }
+            synchronized (this) {
+                String token = UUID.randomUUID().toString();
+                sessions.add(token);
+                StoredDataset dataset = datasets.get(datasetName);
+                builder.addPage().syncSessionToken(token);
+                if (dataset == null || dataset.deleted) {
+                    builder.syncCount(dataset == null ? 0 : dataset.syncCount)
+                            .exists(false)
+                            .deleted(dataset != null && lastSyncCount > 0);
+                    record(Operation.LIST_RECORDS, datasetName, injection.latencyMillis, 0,
+                            null);
+                    break;
+                }
+                List<Record> changed = new ArrayList<Record>();
+                for (Record record : dataset.records.values()) {
+                    if (record.getSyncCount() > lastSyncCount) {
+                        changed.add(record);
+                    }
+                }
+                Collections.sort(changed, BY_SYNC_COUNT);
+                int end = Math.min(changed.size(), offset + recordPageSize);
+                for (int i = Math.min(offset, end); i < end; i++) {
+                    builder.addRecord(changed.get(i));
+                }
+                builder.syncCount(dataset.syncCount)
+                        .exists(true)
+                        .deleted(false)
+                        .mergedDatasetNameList(dataset.mergedDatasetNames);
+                record(Operation.LIST_RECORDS, datasetName, injection.latencyMillis,
+                        Math.max(0, end - offset), null);
+                more = end < changed.size();
+                offset = end;
+            }
+        }
+        return builder.build();
+    }
+
+    @Override
+    public List<Record> putRecords(String datasetName, List<Record> records,
+            String syncSessionToken, String deviceId)
+            throws DatasetNotFoundException, DataConflictException {
+        String message = "Failed to update records in dataset: " + datasetName;
+        Injection injection = inject(Operation.UPDATE_RECORDS, datasetName, message);
+        if (injection.failure != null) {
+            throw injection.failure;
+        }
+        synchronized (this) {
+            if (syncSessionToken == null || !sessions.remove(syncSessionToken)) {
+                DataStorageException e = new DataStorageException(message
+                        + ": invalid sync session token");
+                record(Operation.UPDATE_RECORDS, datasetName, injection.latencyMillis,
+                        records.size(), e);
+                throw e;
+            }
+            StoredDataset dataset = datasets.get(datasetName);
+            boolean conflict = conflictProbability > 0
+                    && random.nextDouble() < conflictProbability;
+            for (int i = 0; !conflict && i < records.size(); i++) {
+                Record record = records.get(i);
+                Record current = dataset == null || dataset.deleted ? null
+                        : dataset.records.get(record.getKey());
+                conflict = record.getSyncCount() != (current == null ? 0 : current
+                        .getSyncCount());
+            }
+            if (conflict) {
+                DataConflictException e = new DataConflictException(message);
+                record(Operation.UPDATE_RECORDS, datasetName, injection.latencyMillis,
+                        records.size(), e);
+                throw e;
+            }
+            List<Record> updated = apply(datasetName, records,
+                    deviceId == null ? identityId : deviceId);
+            record(Operation.UPDATE_RECORDS, datasetName, injection.latencyMillis,
+                    records.size(), null);
+            return updated;
+        }
+    }
+
+    /**
+     * Applies records to a dataset as one change, creating the dataset if
+     * needed.
+     */
+    private List<Record> apply(String datasetName, List<Record> records, String modifiedBy) {
+        long now = System.currentTimeMillis();
+        StoredDataset dataset = datasets.get(datasetName);
+        if (dataset == null || dataset.deleted) {
+            StoredDataset created = new StoredDataset(datasetName, now);
+            // the sync count keeps growing across a deletion
+            created.syncCount = dataset == null ? 0 : dataset.syncCount;
+            dataset = created;
+            datasets.put(datasetName, dataset);
+        }
+        List<Record> updated = new ArrayList<Record>(records.size());
+        if (records.isEmpty()) {
+            return updated;
+        }
+        dataset.syncCount++;
+        dataset.lastModifiedTime = now;
+        dataset.lastModifiedBy = modifiedBy;
+        for (Record record : records) {
+            Record stored = new Record.Builder(record.getKey())
+                    .value(record.getValue())
+                    .syncCount(dataset.syncCount)
+                    .lastModifiedTime(now)
+                    .lastModifiedBy(modifiedBy)
+                    .deviceLastModifiedTime(record.getDeviceLastModifiedTime())
+                    .modified(false)
+                    .build();
+            dataset.records.put(record.getKey(), stored);
+            updated.add(stored);
+        }
+        return updated;
+    }
+
+    @Override
+    public void deleteDataset(String datasetName) throws DatasetNotFoundException {
+        String message = "Failed to delete dataset: " + datasetName;
+        Injection injection = inject(Operation.DELETE_DATASET, datasetName, message);
+        if (injection.failure != null) {
+            throw injection.failure;
+        }
+        synchronized (this) {
+            StoredDataset dataset = datasets.get(datasetName);
+            if (dataset == null || dataset.deleted) {
+                DatasetNotFoundException e = new DatasetNotFoundException(message);
+                record(Operation.DELETE_DATASET, datasetName, injection.latencyMillis, 0, e);
+                throw e;
+            }
+            dataset.deleted = true;
+            dataset.records.clear();
+            dataset.mergedDatasetNames = Collections.emptyList();
+            dataset.lastModifiedTime = System.currentTimeMillis();
+            record(Operation.DELETE_DATASET, datasetName, injection.latencyMillis, 0, null);
+        }
+    }
+
+    @Override
+    public void subscribeToDataset(String datasetName, String deviceId) {
+        Injection injection = inject(Operation.SUBSCRIBE_TO_DATASET, datasetName,
+                "Failed to subscribe to dataset: " + datasetName);
+        if (injection.failure != null) {
+            throw injection.failure;
+        }
+        synchronized (this) {
+            Set<String> devices = subscriptions.get(datasetName);
+            if (devices == null) {
+                devices = new HashSet<String>();
+                subscriptions.put(datasetName, devices);
+            }
+            devices.add(deviceId);
+            record(Operation.SUBSCRIBE_TO_DATASET, datasetName, injection.latencyMillis, 0,
+                    null);
+        }
+    }
+
+    @Override
+    public void unsubscribeFromDataset(String datasetName, String deviceId) {
+        Injection injection = inject(Operation.UNSUBSCRIBE_FROM_DATASET, datasetName,
+                "Failed to unsubscribe from dataset: " + datasetName);
+        if (injection.failure != null) {
+            throw injection.failure;
+        }
+        synchronized (this) {
+            Set<String> devices = subscriptions.get(datasetName);
+            if (devices != null) {
+                devices.remove(deviceId);
+            }
+            record(Operation.UNSUBSCRIBE_FROM_DATASET, datasetName, injection.latencyMillis,
+                    0, null);
+        }
+    }
+
+    /**
+     * Writes records as another device would, without latency, fault
+     * injection or recording. Handy to seed a test or to cause conflicts.
+     *
+     * @param datasetName dataset name, created if needed
+     * @param values values by key, a null value removes the record
+     * @param deviceId device the change is attributed to
+     */
+    public synchronized void putRemote(String datasetName, Map<String, String> values,
+            String deviceId) {
+        List<Record> records = new ArrayList<Record>(values.size());
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            records.add(new Record.Builder(entry.getKey()).value(entry.getValue()).build());
+        }
+        apply(datasetName, records, deviceId);
+    }
+
+    /**
+     * Makes the next listings of a dataset report merged datasets, as the
+     * service does after identities are merged.
+     *
+     * @param datasetName dataset name
+     * @param mergedDatasetNames names of the merged datasets, empty to clear
+     */
+    public synchronized void setMergedDatasetNames(String datasetName,
+            List<String> mergedDatasetNames) {
+        StoredDataset dataset = datasets.get(datasetName);
+        if (dataset == null) {
+            throw new IllegalArgumentException("no dataset " + datasetName);
+        }
+        dataset.mergedDatasetNames = new ArrayList<String>(mergedDatasetNames);
+    }
+
+    /**
+     * @param datasetName dataset name
+     * @return the current values of a dataset, without removed records
+     */
+    public synchronized Map<String, String> getRemoteValues(String datasetName) {
+        Map<String, String> values = new TreeMap<String, String>();
+        StoredDataset dataset = datasets.get(datasetName);
+        if (dataset != null) {
+            for (Record record : dataset.records.values()) {
+                if (record.getValue() != null) {
+                    values.put(record.getKey(), record.getValue());
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * @param datasetName dataset name
+     * @return devices subscribed to a dataset
+     */
+    public synchronized Set<String> getSubscriptions(String datasetName) {
+        Set<String> devices = subscriptions.get(datasetName);
+        return devices == null ? Collections.<String> emptySet()
+                : new HashSet<String>(devices);
+    }
+
+    /**
+     * @return all calls recorded so far, oldest first
+     */
+    public synchronized List<Call> getCalls() {
+        return new ArrayList<Call>(calls);
+    }
+
+    /**
+     * @return number of calls recorded so far by operation, operations
+     *         without calls included
+     */
+    public synchronized Map<Operation, Integer> getCallCounts() {
+        Map<Operation, Integer> counts = new EnumMap<Operation, Integer>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            counts.put(operation, 0);
+        }
+        for (Call call : calls) {
+            counts.put(call.operation, counts.get(call.operation) + 1);
+        }
+        return counts;
+    }
+
+    /**
+     * Forgets the recorded calls.
+     */
+    public synchronized void clearCalls() {
+        calls.clear();
+    }
+
+    /**
+     * Builder of {@link InMemoryRemoteDataStorage}. By default there's no
+     * latency nor injected failure, and pages hold up to 1024 records as the
+     * service does.
+     */
+    public static final class Builder {
+        private final String identityId;
+        private LatencyDistribution latency = NO_LATENCY;
+        private int recordPageSize = 1024;
+        private double throttleProbability;
+        private double conflictProbability;
+        private double failureProbability;
+        private long seed = 42;
+
+        /**
+         * @param identityId identity the datasets belong to, used as last
+         *            modifier when no device id is given
+         */
+        public Builder(String identityId) {
+            this.identityId = identityId;
+        }
+
+        /**
+         * @param latency latency of every call, every page of a listing
+         *            included
+         */
+        public Builder latency(LatencyDistribution latency) {
+            if (latency == null) {
+                throw new IllegalArgumentException("latency can't be null");
+            }
+            this.latency = latency;
+            return this;
+        }
+
+        /**
+         * @param recordPageSize number of records per ListRecords page
+         */
+        public Builder recordPageSize(int recordPageSize) {
+            if (recordPageSize < 1) {
+                throw new IllegalArgumentException("page size must be positive");
+            }
+            this.recordPageSize = recordPageSize;
+            return this;
+        }
+
+        /**
+         * @param throttleProbability probability that a call is throttled
+         */
+        public Builder throttleProbability(double throttleProbability) {
+            this.throttleProbability = checkProbability(throttleProbability);
+            return this;
+        }
+
+        /**
+         * @param conflictProbability probability that a push is rejected with
+         *            a conflict although sync counts match, as if another
+         *            device pushed first
+         */
+        public Builder conflictProbability(double conflictProbability) {
+            this.conflictProbability = checkProbability(conflictProbability);
+            return this;
+        }
+
+        /**
+         * @param failureProbability probability that a call fails with a
+         *            network error
+         */
+        public Builder failureProbability(double failureProbability) {
+            this.failureProbability = checkProbability(failureProbability);
+            return this;
+        }
+
+        /**
+         * @param seed seed of the latencies and injected failures
+         */
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        private static double checkProbability(double p) {
+            if (p < 0 || p > 1) {
+                throw new IllegalArgumentException("probability must be between 0 and 1");
+            }
+            return p;
+        }
+
+        public InMemoryRemoteDataStorage build() {
+            return new InMemoryRemoteDataStorage(this);
+        }
+    }
+}
@@ -17,12 +17,17 @@
 
 package com.amazonaws.mobileconnectors.cognito.internal.storage;
 
+import com.amazonaws.mobileconnectors.cognito.CompactionResult;
 import com.amazonaws.mobileconnectors.cognito.Dataset;
 import com.amazonaws.mobileconnectors.cognito.DatasetMetadata;
 import com.amazonaws.mobileconnectors.cognito.Record;
+import com.amazonaws.mobileconnectors.cognito.RecordBatch;
+import com.amazonaws.mobileconnectors.cognito.StorageProfile;
+import com.amazonaws.mobileconnectors.cognito.StorageStats;
 import com.amazonaws.mobileconnectors.cognito.exceptions.DataStorageException;
 import com.amazonaws.mobileconnectors.cognito.exceptions.DatasetNotFoundException;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -31,6 +36,16 @@ import java.util.Map;
  */
 public interface LocalStorage {
 
+    /**
+     * Creates a new {@link Dataset}. Nothing will happen if a dataset with the
+     * same name exists. This should be called before any operation related to
+     * this dataset name is performed.
+     * 
+     * @param identityId identity id
+     * @param datasetName dataset name
+     */
+    public void createDataset(String identityId, String datasetName);
+
     /**
      * Retrieves the string value of a key in dataset. The value can be null
      * when the record doesn't exist or is marked as deleted.
@@ -75,6 +90,135 @@ public interface LocalStorage {
      */
     public void putAllValues(String identityId, String datasetName, Map<String, String> values);
 
+    /**
+     * Marks the records of the given keys as deleted, keeping their sync
+     * counts so that the deletions are pushed on the next sync. Keys that
+     * don't exist or are deleted already are skipped.
+     * 
+     * @param identityId identity id
+     * @param datasetName dataset name
+     * @param keys keys of the records
+     * @return number of records marked as deleted
+     */
+    public int removeValues(String identityId, String datasetName, Collection<String> keys);
+
+    /**
+     * Marks all records of a dataset as deleted, keeping their sync counts so
+     * that the deletions are pushed on the next sync.
+     * 
+     * @param identityId identity id
+     * @param datasetName dataset name
+     * @return number of records marked as deleted
+     */
+    public int removeAllValues(String identityId, String datasetName);
+
+    /**
+     * Removes up to maxRows tombstones of a dataset: records that are marked
+     * as deleted, have no local change, and whose sync count is at most the
+     * last sync count of the dataset, so that the remote dataset has the
+     * deletion already. Removing them leaves the values of the dataset as
+     * they are. The storage keeps the sync count of each removed key, and a
+     * record created again for the key starts from it, so that its push goes
+     * on top of the deletion like it would have with the tombstone.
+     * 
+     * @param identityId identity id
+     * @param datasetName dataset name
+     * @param maxRows most rows to remove
+     * @return rows and bytes removed, fewer than maxRows rows once no
+     *         tombstone is left
+     */
+    public CompactionResult compactTombstones(String identityId, String datasetName,
+            int maxRows);
+
+    /**
+     * Gets the size and upkeep of the storage.
+     * 
+     * @return storage stats
+     */
+    public StorageStats getStorageStats();
+
+    /**
+     * Gives up to maxPages unused pages back to the file system, in a single
+     * short step, so that the storage shrinks after deletes. A storage that
+     * doesn't use incremental vacuum gives nothing back, see
+     * {@link #convertToIncrementalVacuum()}.
+     * 
+     * @param maxPages most pages to give back
+     * @return number of pages given back
+     */
+    public long vacuum(int maxPages);
+
+    /**
+     * Turns on incremental vacuum in a storage created without it by
+     * rewriting the whole storage once, which blocks all other access to it
+     * meanwhile.
+     * 
+     * @return true if the storage was converted, false if it already used
+     *         incremental vacuum or has nothing to convert
+     */
+    public boolean convertToIncrementalVacuum();
+
+    /**
+     * Refreshes the statistics the storage plans its queries with.
+     */
+    public void analyze();
+
+    /**
+     * Tunes the storage for the memory, speed and durability trade-off of a
+     * profile. Settings the storage doesn't support are skipped.
+     * 
+     * @param profile non null storage profile
+     */
+    public void setStorageProfile(StorageProfile profile);
+
+    /**
+     * Atomically puts the value of a key if its current value is the expected
+     * one, with the same effects as
+     * {@link #putValue(String, String, String, String)}.
+     * 
+     * @param identityId identity id
+     * @param datasetName dataset name
+     * @param key key of the record
+     * @param expectedValue the expected value, null if the record is expected
+     *            not to exist or to be marked as deleted
+     * @param value string value. If null, the record is marked as deleted.
+     * @return true if the value was as expected and is put, false otherwise
+     */
+    public boolean compareAndPutValue(String identityId, String datasetName, String key,
+            String expectedValue, String value);
+
+    /**
+     * Atomically adds a delta to the integer value of a key and marks the
+     * record as dirty. A record that doesn't exist or is marked as deleted
+     * counts as 0.
+     * 
+     * @param identityId identity id
+     * @param datasetName dataset name
+     * @param key key of the record
+     * @param delta the amount to add, may be negative
+     * @return the new value
+     * @throws IllegalStateException if the current value isn't a decimal
+     *             integer
+     */
+    public long incrementValue(String identityId, String datasetName, String key, long delta);
+
+    /**
+     * Atomically puts a key-value map if the current values of some keys are
+     * the expected ones, in one transaction like
+     * {@link #putAllValues(String, String, Map)}. Nothing is put if any of them
+     * isn't.
+     * 
+     * @param identityId identity id
+     * @param datasetName dataset name
+     * @param expectedValues the expected value by key, null for a record
+     *            expected not to exist or to be marked as deleted
+     * @param values a key-value map
+     * @return true if all values were as expected and the map is put, false
+     *         otherwise
+     */
+    public boolean compareAndPutAllValues(String identityId, String datasetName,
+            Map<String, String> expectedValues, Map<String, String> values);
+
     /**
      * Gets a raw record from local store. If the dataset/key combo doesn't
      * exist, null will be returned.
@@ -95,6 +239,43 @@ public interface LocalStorage {
      */
     public List<Record> getRecords(String identityId, String datasetName);
 
+    /**
+     * Gets all records of a dataset, marked as deleted or not, in columnar
+     * form. It reads the same records as
+     * {@link #getRecords(String, String)} without creating a {@link Record}
+     * per row.
+     * 
+     * @param identityId identity id
+     * @param datasetName the dataset name
+     * @return a batch of all records, empty if the dataset doesn't exist
+     */
+    public RecordBatch getRecordBatch(String identityId, String datasetName);
+
+    /**
+     * Streams the records, marked as deleted or not, whose keys start with the
+     * given prefix to a visitor in key order, until it returns false.
+     * 
+     * @param identityId identity id
+     * @param datasetName the dataset name
+     * @param prefix key prefix, empty for all records
+     * @param visitor visitor of the records
+     */
+    public void visitRecordsByPrefix(String identityId, String datasetName, String prefix,
+            Dataset.RecordVisitor visitor);
+
+    /**
+     * Streams the records, marked as deleted or not, whose keys are in the
+     * given range to a visitor in key order, until it returns false.
+     * 
+     * @param identityId identity id
+     * @param datasetName the dataset name
+     * @param fromKey lowest key, inclusive, or null for no lower bound
+     * @param toKey highest key, exclusive, or null for no upper bound
+     * @param visitor visitor of the records
+     */
+    public void visitRecordRange(String identityId, String datasetName, String fromKey,
+            String toKey, Dataset.RecordVisitor visitor);
+
     /**
      * Retrieves a list of locally modified records since last successful sync
      * operation.
@@ -105,6 +286,16 @@ public interface LocalStorage {
      */
     public List<Record> getModifiedRecords(String identityId, String datasetName);
 
+    /**
+     * Checks whether a dataset has records modified locally since the last
+     * successful sync, without reading them.
+     * 
+     * @param identityId identity id
+     * @param datasetName dataset name
+     * @return true if at least one record is modified
+     */
+    public boolean hasModifiedRecords(String identityId, String datasetName);
+
     /**
      * Puts a list of raw records into dataset.
      * 
@@ -209,4 +400,9 @@ public interface LocalStorage {
      * @param datasetMetadata a list of metadata to update
      */
     public void updateDatasetMetadata(String identityId, List<DatasetMetadata> datasetMetadata);
+
+    /**
+     * Close the local storage. Any operation called after this will fail.
+     */
+    public void close();
 }
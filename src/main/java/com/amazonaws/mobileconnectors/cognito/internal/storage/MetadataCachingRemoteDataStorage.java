@@ -0,0 +1,223 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito.internal.storage;
+
+import com.amazonaws.mobileconnectors.cognito.DatasetMetadata;
+import com.amazonaws.mobileconnectors.cognito.Record;
+import com.amazonaws.mobileconnectors.cognito.exceptions.DataStorageException;
+import com.amazonaws.mobileconnectors.cognito.internal.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A {@link RemoteDataStorage} that caches dataset metadata returned by
+ * another one for a limited time, so that repeated calls to
+ * {@link #getDatasets()} and {@link #getDatasetMetadata(String)} don't go to
+ * the network. The cached metadata of a dataset is invalidated when records
+ * are pushed to it, when it's deleted, when a sync pulls remote changes of it,
+ * and when {@link #invalidate(String)} is called, e.g. on a push sync update.
+ * Entries aren't keyed by identity, so {@link #invalidateAll()} must be
+ * called when the identity changes. A TTL of 0 disables the cache.
+ */
+public class MetadataCachingRemoteDataStorage implements RemoteDataStorage {
+
+    private static final String TAG = "MetadataCache";
+
+    /**
+     * Default time in milliseconds cached metadata stays valid.
+     */
+    public static final long DEFAULT_TTL_MILLIS = 60 * 1000L;
+
+    private final RemoteDataStorage remote;
+
+    private long ttlMillis;
+
+    /**
+     * Cached metadata by dataset name, and the time they were fetched.
+     */
+    private final Map<String, DatasetMetadata> metadataByName = new HashMap<String, DatasetMetadata>();
+    private final Map<String, Long> fetchedAtByName = new HashMap<String, Long>();
+
+    /**
+     * The cached full listing, null if it's not cached or invalidated.
+     */
+    private List<DatasetMetadata> listing;
+    private long listedAt;
+
+    /**
+     * Counts invalidations, so that metadata fetched while one happened isn't
+     * cached.
+     */
+    private long generation;
+
+    /**
+     * Constructs a cache with the default TTL.
+     *
+     * @param remote the remote storage to cache metadata of
+     */
+    public MetadataCachingRemoteDataStorage(RemoteDataStorage remote) {
+        this(remote, DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * Constructs a cache.
+     *
+     * @param remote the remote storage to cache metadata of
+     * @param ttlMillis time in milliseconds cached metadata stays valid, 0 to
+     *            disable caching
+     */
+    public MetadataCachingRemoteDataStorage(RemoteDataStorage remote, long ttlMillis) {
+        if (remote == null) {
+            throw new IllegalArgumentException("remote can't be null");
+        }
+        this.remote = remote;
+        setTtl(ttlMillis);
+    }
+
+    /**
+     * Sets the time cached metadata stays valid. Entries that are already
+     * cached are subject to the new TTL.
+     *
+     * @param ttlMillis time in milliseconds, 0 to disable caching
+     */
+    public synchronized void setTtl(long ttlMillis) {
+        if (ttlMillis < 0) {
+            throw new IllegalArgumentException("ttl can't be negative");
+        }
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * Drops the cached metadata of a dataset. The next full listing goes to
+     * the network as well since it includes this dataset.
+     *
+     * @param datasetName dataset name
+     */
+    public synchronized void invalidate(String datasetName) {
+        metadataByName.remove(datasetName);
+        fetchedAtByName.remove(datasetName);
+        listing = null;
+        generation++;
+    }
+
+    /**
+     * Drops all cached metadata.
+     */
+    public synchronized void invalidateAll() {
+        metadataByName.clear();
+        fetchedAtByName.clear();
+        listing = null;
+        generation++;
+    }
+
+    @Override
+    public List<DatasetMetadata> getDatasets() throws DataStorageException {
+        long fetchGeneration;
+        synchronized (this) {
+            if (listing != null && isFresh(listedAt)) {
+                Log.d(TAG, "dataset listing served from cache");
+                return new ArrayList<DatasetMetadata>(listing);
+            }
+            fetchGeneration = generation;
+        }
+        List<DatasetMetadata> datasets = remote.getDatasets();
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            if (generation != fetchGeneration) {
+                // invalidated while in flight, the listing may be stale
+                return datasets;
+            }
+            listing = new ArrayList<DatasetMetadata>(datasets);
+            listedAt = now;
+            for (DatasetMetadata metadata : datasets) {
+                metadataByName.put(metadata.getDatasetName(), metadata);
+                fetchedAtByName.put(metadata.getDatasetName(), now);
+            }
+        }
+        return datasets;
+    }
+
+    @Override
+    public DatasetMetadata getDatasetMetadata(String datasetName) throws DataStorageException {
+        long fetchGeneration;
+        synchronized (this) {
+            Long fetchedAt = fetchedAtByName.get(datasetName);
+            if (fetchedAt != null && isFresh(fetchedAt)) {
+                return metadataByName.get(datasetName);
+            }
+            fetchGeneration = generation;
+        }
+        DatasetMetadata metadata = remote.getDatasetMetadata(datasetName);
+        synchronized (this) {
+            if (generation != fetchGeneration) {
+                return metadata;
+            }
+            metadataByName.put(datasetName, metadata);
+            fetchedAtByName.put(datasetName, System.currentTimeMillis());
+        }
+        return metadata;
+    }
+
+    @Override
+    public DatasetUpdates listUpdates(String datasetName, long lastSyncCount)
+            throws DataStorageException {
+        DatasetUpdates updates = remote.listUpdates(datasetName, lastSyncCount);
+        if (!updates.getRecords().isEmpty() || updates.isDeleted() || !updates.isExists()) {
+            invalidate(datasetName);
+        }
+        return updates;
+    }
+
+    @Override
+    public List<Record> putRecords(String datasetName, List<Record> records,
+            String syncSessionToken, String deviceId) {
+        try {
+            return remote.putRecords(datasetName, records, syncSessionToken, deviceId);
+        } finally {
+            // the push may have partially succeeded, drop it either way
+            invalidate(datasetName);
+        }
+    }
+
+    @Override
+    public void deleteDataset(String datasetName) {
+        try {
+            remote.deleteDataset(datasetName);
+        } finally {
+            invalidate(datasetName);
+        }
+    }
+
+    @Override
+    public void unsubscribeFromDataset(String datasetName, String deviceId) {
+        remote.unsubscribeFromDataset(datasetName, deviceId);
+    }
+
+    @Override
+    public void subscribeToDataset(String datasetName, String deviceId) {
+        remote.subscribeToDataset(datasetName, deviceId);
+    }
+
+    private boolean isFresh(long fetchedAt) {
+        long age = System.currentTimeMillis() - fetchedAt;
+        return age >= 0 && age < ttlMillis;
+    }
+}
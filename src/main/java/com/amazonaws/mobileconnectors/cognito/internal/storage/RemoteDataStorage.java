@@ -122,6 +122,13 @@ public interface RemoteDataStorage {
 
         public List<String> getMergedDatasetNameList();
 
+        /**
+         * Gets the number of pages the updates were fetched in
+         *
+         * @return number of pages
+         */
+        public int getPageCount();
+
     }
 
 }
@@ -22,18 +22,27 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
 import android.util.Log;
 
+import com.amazonaws.mobileconnectors.cognito.CompactionResult;
 import com.amazonaws.mobileconnectors.cognito.Dataset;
 import com.amazonaws.mobileconnectors.cognito.DatasetMetadata;
 import com.amazonaws.mobileconnectors.cognito.Record;
+import com.amazonaws.mobileconnectors.cognito.RecordBatch;
+import com.amazonaws.mobileconnectors.cognito.StorageProfile;
+import com.amazonaws.mobileconnectors.cognito.StorageStats;
 import com.amazonaws.mobileconnectors.cognito.exceptions.DataStorageException;
 import com.amazonaws.mobileconnectors.cognito.internal.util.DatasetUtils;
 import com.amazonaws.mobileconnectors.cognito.internal.util.StringUtils;
 
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -58,6 +67,29 @@ public class SQLiteLocalStorage implements LocalStorage {
      */
     static final String TABLE_RECORDS = "records";
 
+    /**
+     * Name of the compactions table. It keeps the sync count of each key whose
+     * tombstone was removed, so that the key gets it back when it's created
+     * again.
+     */
+    static final String TABLE_COMPACTIONS = "compactions";
+
+    /**
+     * Where clause selecting a record by identity id, dataset name and key.
+     */
+    static final String RECORD_KEY_CLAUSE = "identity_id = ? AND dataset_name = ? AND key = ?";
+
+    /**
+     * Where clause selecting a compacted key by identity id, dataset name and
+     * key.
+     */
+    static final String COMPACTION_KEY_CLAUSE = RECORD_KEY_CLAUSE;
+
+    /**
+     * Most keys bound to a single statement.
+     */
+    static final int MAX_KEYS_PER_STATEMENT = 500;
+
     /**
      * A holder for the columns in datasets table.
      */
@@ -107,21 +139,50 @@ public class SQLiteLocalStorage implements LocalStorage {
         };
     }
 
+    /**
+     * A holder for the columns in compactions table.
+     */
+    static class CompactionColumns {
+        static final String IDENTITY_ID = "identity_id";
+        static final String DATASET_NAME = "dataset_name";
+        static final String KEY = "key";
+        static final String SYNC_COUNT = "sync_count";
+    }
+
     /**
      * This helper creates two tables per identity id: one to save the meta data
      * of a dataset such as last server sync count and its status; the other to
-     * save a local copy of dataset.
+     * save a local copy of dataset. A third one keeps what tombstone
+     * compaction needs to remember.
      */
     private class DatabaseHelper extends SQLiteOpenHelper {
 
         private static final int DB_VERSION = 2;
 
+        /**
+         * Whether the tables were created by this helper, and incremental
+         * vacuum may still have to be turned on in {@link #onOpen}.
+         */
+        private boolean created;
+
         public DatabaseHelper(Context context, String cognitoId) {
             super(context.getApplicationContext(), cognitoId, null, DB_VERSION);
         }
 
+        /**
+         * Turns on incremental vacuum in a new database. Called before
+         * {@link #onCreate(SQLiteDatabase)} on API 16 and up, which the compile
+         * target predates, so it isn't annotated with Override.
+         */
+        public void onConfigure(SQLiteDatabase db) {
+            if (!db.isReadOnly() && db.getVersion() == 0) {
+                turnOnIncrementalVacuum(db);
+            }
+        }
+
         @Override
         public void onCreate(SQLiteDatabase db) {
+            created = true;
             // create datasets table
             db.execSQL("CREATE TABLE " + TABLE_DATASETS + "("
                     + DatasetColumns.IDENTITY_ID + " TEXT NOT NULL,"
@@ -151,6 +212,42 @@ public class SQLiteLocalStorage implements LocalStorage {
                     + "UNIQUE (" + RecordColumns.IDENTITY_ID + ", " + RecordColumns.DATASET_NAME
                     + ", " + RecordColumns.KEY + ")"
                     + ")");
+            createCompactionsTable(db);
+        }
+
+        /**
+         * Turns on incremental vacuum in a database just created without
+         * {@link #onConfigure(SQLiteDatabase)}, while it's still empty.
+         * Creates the compactions table in databases created before it
+         * existed. It only holds what tombstone compaction adds, so it doesn't
+         * need a new database version, which would wipe all data. Pragmas of
+         * the storage profile last as long as the connection, so they're
+         * applied again.
+         */
+        @Override
+        public void onOpen(SQLiteDatabase db) {
+            if (created) {
+                created = false;
+                turnOnIncrementalVacuum(db);
+            }
+            if (!db.isReadOnly()) {
+                createCompactionsTable(db);
+            }
+            StorageProfile current = profile;
+            if (current != null) {
+                applyStorageProfile(db, current);
+            }
+        }
+
+        private void createCompactionsTable(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE_COMPACTIONS + "("
+                    + CompactionColumns.IDENTITY_ID + " TEXT NOT NULL,"
+                    + CompactionColumns.DATASET_NAME + " TEXT NOT NULL,"
+                    + CompactionColumns.KEY + " TEXT NOT NULL,"
+                    + CompactionColumns.SYNC_COUNT + " INTEGER NOT NULL DEFAULT 0,"
+                    + "UNIQUE (" + CompactionColumns.IDENTITY_ID + ", "
+                    + CompactionColumns.DATASET_NAME + ", " + CompactionColumns.KEY + ")"
+                    + ")");
         }
 
         /**
@@ -162,6 +259,7 @@ public class SQLiteLocalStorage implements LocalStorage {
             Log.w(TAG, "Upgrading database; wiping all data");
             db.execSQL("DROP TABLE IF EXISTS " + TABLE_DATASETS);
             db.execSQL("DROP TABLE IF EXISTS " + TABLE_RECORDS);
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_COMPACTIONS);
             onCreate(db);
         }
     }
@@ -171,6 +269,16 @@ public class SQLiteLocalStorage implements LocalStorage {
      */
     private final DatabaseHelper helper;
 
+    /**
+     * Value of PRAGMA auto_vacuum that keeps free pages in the file until
+     * PRAGMA incremental_vacuum gives them back.
+     */
+    static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    private volatile long lastMaintenanceTime;
+
+    private volatile StorageProfile profile;
+
     /**
      * Creates a {@link SQLiteLocalStorage} object.
      * 
@@ -181,6 +289,20 @@ public class SQLiteLocalStorage implements LocalStorage {
         helper = new DatabaseHelper(context, databaseName);
     }
 
+    /**
+     * Turns on incremental vacuum unless it's on. PRAGMA auto_vacuum only
+     * changes a database without tables, and Android creates its locale table
+     * as soon as it opens one, so it takes a VACUUM, which is instant while
+     * the database is empty. Must not be called in a transaction.
+     */
+    static void turnOnIncrementalVacuum(SQLiteDatabase db) {
+        if (pragma(db, "auto_vacuum") == AUTO_VACUUM_INCREMENTAL) {
+            return;
+        }
+        db.execSQL("PRAGMA auto_vacuum = " + AUTO_VACUUM_INCREMENTAL);
+        db.execSQL("VACUUM");
+    }
+
     /**
      * Creates a new {@link Dataset}. Stores its information in datasets table.
      * Nothing will happen if a dataset with the same name exists. This should
@@ -191,6 +313,7 @@ public class SQLiteLocalStorage implements LocalStorage {
      * @param identityId identity id
      * @param datasetName dataset name
      */
+    @Override
     public void createDataset(String identityId, String datasetName) {
         SQLiteDatabase db = helper.getWritableDatabase();
         db.beginTransaction();
@@ -202,10 +325,9 @@ public class SQLiteLocalStorage implements LocalStorage {
                 ContentValues values = new ContentValues();
                 values.put(DatasetColumns.IDENTITY_ID, identityId);
                 values.put(DatasetColumns.DATASET_NAME, datasetName);
-                values.put(DatasetColumns.CREATION_TIMESTAMP,
-                        String.valueOf(new Date().getTime()));
-                values.put(DatasetColumns.LAST_MODIFIED_TIMESTAMP,
-                        String.valueOf(new Date().getTime()));
+                long now = System.currentTimeMillis();
+                values.put(DatasetColumns.CREATION_TIMESTAMP, now);
+                values.put(DatasetColumns.LAST_MODIFIED_TIMESTAMP, now);
                 // use default values for other fields
                 long row = db.insert(TABLE_DATASETS, null, values);
                 if (row == -1) {
@@ -268,6 +390,468 @@ public class SQLiteLocalStorage implements LocalStorage {
         }
     }
 
+    @Override
+    public int removeValues(String identityId, String datasetName, Collection<String> keys) {
+        SQLiteDatabase db = helper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            int removed = 0;
+            Iterator<String> iterator = keys.iterator();
+            while (iterator.hasNext()) {
+                // a statement per chunk keeps under SQLite's limit of 999 arguments
+                List<String> chunk = new ArrayList<String>(MAX_KEYS_PER_STATEMENT);
+                while (iterator.hasNext() && chunk.size() < MAX_KEYS_PER_STATEMENT) {
+                    chunk.add(iterator.next());
+                }
+                removed += removeValuesInternal(db, identityId, datasetName, chunk);
+            }
+            if (removed > 0) {
+                updateLastModifiedTimestamp(db, identityId, datasetName);
+            }
+            db.setTransactionSuccessful();
+            return removed;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public int removeAllValues(String identityId, String datasetName) {
+        SQLiteDatabase db = helper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            int removed = removeValuesInternal(db, identityId, datasetName, null);
+            if (removed > 0) {
+                updateLastModifiedTimestamp(db, identityId, datasetName);
+            }
+            db.setTransactionSuccessful();
+            return removed;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public CompactionResult compactTombstones(String identityId, String datasetName,
+            int maxRows) {
+        // DELETE ... LIMIT needs a compile option Android doesn't set
+        String tombstones = "SELECT rowid FROM " + TABLE_RECORDS
+                + " WHERE " + RecordColumns.IDENTITY_ID + " = ? AND "
+                + RecordColumns.DATASET_NAME + " = ? AND "
+                + RecordColumns.VALUE + " IS NULL AND "
+                + RecordColumns.MODIFIED + " = 0 AND "
+                + RecordColumns.SYNC_COUNT + " <= (SELECT " + DatasetColumns.LAST_SYNC_COUNT
+                + " FROM " + TABLE_DATASETS + " WHERE " + DatasetColumns.IDENTITY_ID + " = ? AND "
+                + DatasetColumns.DATASET_NAME + " = ?)"
+                + " ORDER BY rowid LIMIT " + maxRows;
+        String[] args = new String[] {
+                identityId, datasetName, identityId, datasetName
+        };
+        SQLiteDatabase db = helper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            long rows;
+            long bytes;
+            Cursor c = db.rawQuery("SELECT COUNT(*), TOTAL("
+                    + "LENGTH(CAST(" + RecordColumns.IDENTITY_ID + " AS BLOB)) + "
+                    + "LENGTH(CAST(" + RecordColumns.DATASET_NAME + " AS BLOB)) + "
+                    + "LENGTH(CAST(" + RecordColumns.KEY + " AS BLOB)) + "
+                    + "IFNULL(LENGTH(CAST(" + RecordColumns.LAST_MODIFIED_BY + " AS BLOB)), 0))"
+                    + " FROM " + TABLE_RECORDS + " WHERE rowid IN (" + tombstones + ")", args);
+            try {
+                c.moveToFirst();
+                rows = c.getLong(0);
+                bytes = c.getLong(1);
+            } finally {
+                c.close();
+            }
+            if (rows == 0) {
+                return CompactionResult.NONE;
+            }
+            db.execSQL("INSERT OR REPLACE INTO " + TABLE_COMPACTIONS + " ("
+                    + CompactionColumns.IDENTITY_ID + ", " + CompactionColumns.DATASET_NAME + ", "
+                    + CompactionColumns.KEY + ", " + CompactionColumns.SYNC_COUNT + ") SELECT "
+                    + RecordColumns.IDENTITY_ID + ", " + RecordColumns.DATASET_NAME + ", "
+                    + RecordColumns.KEY + ", " + RecordColumns.SYNC_COUNT + " FROM "
+                    + TABLE_RECORDS + " WHERE rowid IN (" + tombstones + ")", args);
+            db.execSQL("DELETE FROM " + TABLE_RECORDS + " WHERE rowid IN (" + tombstones + ")",
+                    args);
+            db.setTransactionSuccessful();
+            return new CompactionResult(rows, bytes);
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public StorageStats getStorageStats() {
+        SQLiteDatabase db = helper.getWritableDatabase();
+        long lastWriteTime = 0;
+        Cursor c = db.rawQuery("SELECT MAX(" + DatasetColumns.LAST_MODIFIED_TIMESTAMP + "), MAX("
+                + DatasetColumns.LAST_SYNC_TIMESTAMP + ") FROM " + TABLE_DATASETS, null);
+        try {
+            if (c.moveToFirst()) {
+                lastWriteTime = Math.max(c.getLong(0), c.getLong(1));
+            }
+        } finally {
+            c.close();
+        }
+        // the write-ahead log or rollback journal is part of the storage too
+        String path = db.getPath();
+        long sizeBytes = new File(path).length() + new File(path + "-wal").length()
+                + new File(path + "-journal").length();
+        return new StorageStats(sizeBytes, db.getPageSize(),
+                pragma(db, "freelist_count"), lastWriteTime, lastMaintenanceTime);
+    }
+
+    @Override
+    public long vacuum(int maxPages) {
+        SQLiteDatabase db = helper.getWritableDatabase();
+        if (pragma(db, "auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+            // see convertToIncrementalVacuum()
+            return 0;
+        }
+        long freePages = pragma(db, "freelist_count");
+        if (freePages > 0) {
+            // a row per page, execSQL would only run the first step
+            Cursor c = db.rawQuery("PRAGMA incremental_vacuum(" + maxPages + ")", null);
+            try {
+                c.getCount();
+            } finally {
+                c.close();
+            }
+        }
+        lastMaintenanceTime = System.currentTimeMillis();
+        return freePages - pragma(db, "freelist_count");
+    }
+
+    @Override
+    public boolean convertToIncrementalVacuum() {
+        SQLiteDatabase db = helper.getWritableDatabase();
+        if (pragma(db, "auto_vacuum") == AUTO_VACUUM_INCREMENTAL) {
+            return false;
+        }
+        Log.i(TAG, "turning on incremental vacuum");
+        turnOnIncrementalVacuum(db);
+        lastMaintenanceTime = System.currentTimeMillis();
+        return pragma(db, "auto_vacuum") == AUTO_VACUUM_INCREMENTAL;
+    }
+
+    @Override
+    public void analyze() {
+        helper.getWritableDatabase().execSQL("ANALYZE");
+        lastMaintenanceTime = System.currentTimeMillis();
+    }
+
+    @Override
+    public void setStorageProfile(StorageProfile profile) {
+        if (profile == null) {
+            throw new IllegalArgumentException("profile can't be null");
+        }
+        SQLiteDatabase db = helper.getWritableDatabase();
+        this.profile = profile;
+        applyStorageProfile(db, profile);
+    }
+
+    private static void applyStorageProfile(SQLiteDatabase db, StorageProfile profile) {
+        db.execSQL("PRAGMA cache_size = " + profile.getCacheSizePages());
+        db.execSQL("PRAGMA synchronous = " + profile.getSynchronous());
+        if (!db.isReadOnly()) {
+            applyJournalMode(db, profile.getJournalMode());
+        }
+        // unknown to SQLite before 3.7.17, which answers nothing
+        if (pragmaString(db, "mmap_size = " + profile.getMmapSizeBytes()) == null
+                && profile.getMmapSizeBytes() > 0) {
+            Log.i(TAG, "memory-mapped I/O isn't supported");
+        }
+    }
+
+    /**
+     * Sets the journal mode. From API 16 the connection pool sets the journal
+     * mode of every connection it opens, so WAL is turned on and off through
+     * its API, which also lets it open reader connections. Choosing between
+     * the rollback journal modes, and anything before API 16, only has the
+     * PRAGMA.
+     */
+    private static void applyJournalMode(SQLiteDatabase db, String journalMode) {
+        boolean wal = "WAL".equalsIgnoreCase(journalMode);
+        // Build.VERSION_CODES.JELLY_BEAN, newer than the compile target
+        if (Build.VERSION.SDK_INT >= 16) {
+            boolean applied = invoke(db, wal
+                    ? "enableWriteAheadLogging"
+                    : "disableWriteAheadLogging");
+            if (wal && applied) {
+                return;
+            }
+        }
+        // answers the mode in effect, which stays the same when the
+        // requested one isn't supported, like WAL before SQLite 3.7.0
+        String current = pragmaString(db, "journal_mode = " + journalMode);
+        if (!journalMode.equalsIgnoreCase(current)) {
+            Log.i(TAG, "journal mode " + journalMode + " isn't supported, staying in "
+                    + current);
+        }
+    }
+
+    /**
+     * Calls a method without parameters of SQLiteDatabase that the compile
+     * target doesn't have.
+     *
+     * @return false if the call failed or answered false
+     */
+    private static boolean invoke(SQLiteDatabase db, String method) {
+        try {
+            Object result = SQLiteDatabase.class.getMethod(method).invoke(db);
+            return !Boolean.FALSE.equals(result);
+        } catch (NoSuchMethodException e) {
+            Log.w(TAG, method + " isn't available", e);
+        } catch (IllegalAccessException e) {
+            Log.w(TAG, method + " isn't accessible", e);
+        } catch (InvocationTargetException e) {
+            Log.w(TAG, method + " failed", e.getCause());
+        }
+        return false;
+    }
+
+    /**
+     * Reads or sets a PRAGMA that answers text, null if it answers nothing.
+     */
+    static String pragmaString(SQLiteDatabase db, String pragma) {
+        Cursor c = db.rawQuery("PRAGMA " + pragma, null);
+        try {
+            return c.moveToFirst() ? c.getString(0) : null;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Reads a numeric PRAGMA.
+     */
+    static long pragma(SQLiteDatabase db, String name) {
+        Cursor c = db.rawQuery("PRAGMA " + name, null);
+        try {
+            return c.moveToFirst() ? c.getLong(0) : 0;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Gets the sync count a key had when its tombstone was compacted, which a
+     * record created again for it starts from, so that its push is on top of
+     * the deletion.
+     *
+     * @return the sync count, 0 if the key wasn't compacted
+     */
+    static long getCompactedSyncCount(SQLiteDatabase db, String identityId, String datasetName,
+            String key) {
+        Cursor c = db.query(TABLE_COMPACTIONS, new String[] {
+                CompactionColumns.SYNC_COUNT
+        }, COMPACTION_KEY_CLAUSE, new String[] {
+                identityId, datasetName, key
+        }, null, null, null);
+        try {
+            return c.moveToFirst() ? c.getLong(0) : 0;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Forgets the compacted sync count of a key that has a record again.
+     */
+    static void forgetCompactedSyncCount(SQLiteDatabase db, String identityId,
+            String datasetName, String key) {
+        db.delete(TABLE_COMPACTIONS, COMPACTION_KEY_CLAUSE, new String[] {
+                identityId, datasetName, key
+        });
+    }
+
+    /**
+     * Marks the records of the given keys, or all records if keys is null,
+     * as deleted with a single statement. Records deleted already are left
+     * alone, and sync counts are kept for the next push. Must be called in a
+     * transaction.
+     *
+     * @return number of records marked as deleted
+     */
+    int removeValuesInternal(SQLiteDatabase db, String identityId, String datasetName,
+            List<String> keys) {
+        List<Object> args = new ArrayList<Object>(3 + (keys == null ? 0 : keys.size()));
+        args.add(System.currentTimeMillis());
+        args.add(identityId);
+        args.add(datasetName);
+        StringBuilder sql = new StringBuilder("UPDATE " + TABLE_RECORDS + " SET "
+                + RecordColumns.VALUE + " = NULL, "
+                + RecordColumns.MODIFIED + " = 1, "
+                + RecordColumns.DEVICE_LAST_MODIFIED_TIMESTAMP + " = ?"
+                + " WHERE " + RecordColumns.IDENTITY_ID + " = ? AND "
+                + RecordColumns.DATASET_NAME + " = ? AND "
+                + RecordColumns.VALUE + " IS NOT NULL");
+        if (keys != null) {
+            sql.append(" AND ").append(RecordColumns.KEY).append(" IN (");
+            for (int i = 0; i < keys.size(); i++) {
+                sql.append(i == 0 ? "?" : ", ?");
+            }
+            sql.append(")");
+            args.addAll(keys);
+        }
+        db.execSQL(sql.toString(), args.toArray());
+        return (int) changes(db);
+    }
+
+    @Override
+    public boolean compareAndPutValue(String identityId, String datasetName, String key,
+            String expectedValue, String value) {
+        if (StringUtils.equals(expectedValue, value)) {
+            // nothing to write, like putValue
+            return StringUtils.equals(getValue(identityId, datasetName, key), expectedValue);
+        }
+        SQLiteDatabase db = helper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            boolean put = compareAndPutInternal(db, identityId, datasetName, key,
+                    expectedValue, value);
+            if (put) {
+                updateLastModifiedTimestamp(db, identityId, datasetName);
+            }
+            db.setTransactionSuccessful();
+            return put;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public long incrementValue(String identityId, String datasetName, String key, long delta) {
+        String[] recordKey = new String[] {
+                identityId, datasetName, key
+        };
+        SQLiteDatabase db = helper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            // only canonical decimal integers are incremented in place
+            db.execSQL("UPDATE " + TABLE_RECORDS + " SET "
+                    + RecordColumns.VALUE + " = CAST(CAST(" + RecordColumns.VALUE
+                    + " AS INTEGER) + ? AS TEXT), "
+                    + RecordColumns.MODIFIED + " = 1, "
+                    + RecordColumns.DEVICE_LAST_MODIFIED_TIMESTAMP + " = ?"
+                    + " WHERE " + RECORD_KEY_CLAUSE
+                    + " AND CAST(CAST(" + RecordColumns.VALUE + " AS INTEGER) AS TEXT) = "
+                    + RecordColumns.VALUE,
+                    new Object[] {
+                            delta, System.currentTimeMillis(),
+                            identityId, datasetName, key
+                    });
+            long result;
+            if (changes(db) == 1) {
+                Cursor c = db.query(TABLE_RECORDS, new String[] {
+                        RecordColumns.VALUE
+                }, RECORD_KEY_CLAUSE, recordKey, null, null, null);
+                try {
+                    c.moveToFirst();
+                    result = Long.parseLong(c.getString(0));
+                } catch (NumberFormatException e) {
+                    // SQLite turned the sum into a real, rolled back
+                    throw new IllegalStateException(String.format(
+                            "incrementing %s in dataset %s overflows", key, datasetName));
+                } finally {
+                    c.close();
+                }
+            } else if (compareAndPutInternal(db, identityId, datasetName, key, null,
+                    String.valueOf(delta))) {
+                result = delta;
+            } else {
+                throw new IllegalStateException(String.format(
+                        "value of %s in dataset %s isn't an integer", key, datasetName));
+            }
+            updateLastModifiedTimestamp(db, identityId, datasetName);
+            db.setTransactionSuccessful();
+            return result;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @Override
+    public boolean compareAndPutAllValues(String identityId, String datasetName,
+            Map<String, String> expectedValues, Map<String, String> values) {
+        SQLiteDatabase db = helper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (Map.Entry<String, String> entry : expectedValues.entrySet()) {
+                if (!StringUtils.equals(getValue(identityId, datasetName, entry.getKey()),
+                        entry.getValue())) {
+                    return false;
+                }
+            }
+            for (Map.Entry<String, String> entry : values.entrySet()) {
+                putValueInternal(db, identityId, datasetName, entry.getKey(), entry.getValue());
+            }
+            updateLastModifiedTimestamp(db, identityId, datasetName);
+            db.setTransactionSuccessful();
+            return true;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Puts a value with a single conditional statement if the current value
+     * is the expected one: an update of the record holding the expected
+     * value, or an insert when no record is expected. Must be called in a
+     * transaction.
+     *
+     * @return true if a record is updated or inserted
+     */
+    boolean compareAndPutInternal(SQLiteDatabase db, String identityId, String datasetName,
+            String key, String expectedValue, String value) {
+        long now = System.currentTimeMillis();
+        db.execSQL("UPDATE " + TABLE_RECORDS + " SET "
+                + RecordColumns.VALUE + " = ?, "
+                + RecordColumns.MODIFIED + " = 1, "
+                + RecordColumns.DEVICE_LAST_MODIFIED_TIMESTAMP + " = ?"
+                + " WHERE " + RECORD_KEY_CLAUSE
+                + " AND " + RecordColumns.VALUE + " IS ?",
+                new Object[] {
+                        value, now, identityId, datasetName, key, expectedValue
+                });
+        if (changes(db) == 1) {
+            return true;
+        }
+        if (expectedValue != null) {
+            return false;
+        }
+        // the unique key makes this a no-op if the record exists
+        db.execSQL("INSERT OR IGNORE INTO " + TABLE_RECORDS + " ("
+                + RecordColumns.IDENTITY_ID + ", " + RecordColumns.DATASET_NAME + ", "
+                + RecordColumns.KEY + ", " + RecordColumns.VALUE + ", "
+                + RecordColumns.MODIFIED + ", " + RecordColumns.SYNC_COUNT + ", "
+                + RecordColumns.DEVICE_LAST_MODIFIED_TIMESTAMP + ") VALUES (?, ?, ?, ?, 1, ?, ?)",
+                new Object[] {
+                        identityId, datasetName, key, value,
+                        getCompactedSyncCount(db, identityId, datasetName, key), now
+                });
+        if (changes(db) != 1) {
+            return false;
+        }
+        forgetCompactedSyncCount(db, identityId, datasetName, key);
+        return true;
+    }
+
+    /**
+     * Gets the number of rows changed by the last statement.
+     */
+    static long changes(SQLiteDatabase db) {
+        SQLiteStatement statement = db.compileStatement("SELECT changes()");
+        try {
+            return statement.simpleQueryForLong();
+        } finally {
+            statement.close();
+        }
+    }
+
     /**
      * Puts key value into database. If the value is the same as the cached
      * value, nothing will be updated and true is returned.
@@ -292,12 +876,17 @@ public class SQLiteLocalStorage implements LocalStorage {
         values.put(RecordColumns.KEY, key);
         values.put(RecordColumns.VALUE, value);
         values.put(RecordColumns.MODIFIED, true);
-        values.put(RecordColumns.SYNC_COUNT, record == null ? 0 : record.getSyncCount());
-        values.put(RecordColumns.DEVICE_LAST_MODIFIED_TIMESTAMP,
-                String.valueOf(new Date().getTime()));
+        values.put(RecordColumns.SYNC_COUNT, record == null
+                ? getCompactedSyncCount(db, identityId, datasetName, key)
+                : record.getSyncCount());
+        values.put(RecordColumns.DEVICE_LAST_MODIFIED_TIMESTAMP, System.currentTimeMillis());
 
         if (record == null) {
-            return db.insert(TABLE_RECORDS, null, values) != -1;
+            if (db.insert(TABLE_RECORDS, null, values) == -1) {
+                return false;
+            }
+            forgetCompactedSyncCount(db, identityId, datasetName, key);
+            return true;
         } else {
             return db.update(TABLE_RECORDS, values,
                     RecordColumns.IDENTITY_ID + " = ? AND " + RecordColumns.DATASET_NAME
@@ -348,10 +937,9 @@ public class SQLiteLocalStorage implements LocalStorage {
     DatasetMetadata cursorToDatasetMetadata(Cursor c) {
         String datasetName = c.getString(c.getColumnIndex(DatasetColumns.DATASET_NAME));
         return new DatasetMetadata.Builder(datasetName)
-                .creationDate(new Date(c.getLong(
-                        c.getColumnIndex(DatasetColumns.CREATION_TIMESTAMP))))
-                .lastModifiedDate(new Date(c.getLong(
-                        c.getColumnIndex(DatasetColumns.LAST_MODIFIED_TIMESTAMP))))
+                .creationTime(c.getLong(c.getColumnIndex(DatasetColumns.CREATION_TIMESTAMP)))
+                .lastModifiedTime(c.getLong(
+                        c.getColumnIndex(DatasetColumns.LAST_MODIFIED_TIMESTAMP)))
                 .lastModifiedBy(c.getString(c.getColumnIndex(DatasetColumns.LAST_MODIFIED_BY)))
                 .storageSizeBytes(c.getLong(c.getColumnIndex(DatasetColumns.STORAGE_SIZE_BYTES)))
                 .recordCount(c.getLong(c.getColumnIndex(DatasetColumns.RECORD_COUNT)))
@@ -397,6 +985,97 @@ public class SQLiteLocalStorage implements LocalStorage {
         return records;
     }
 
+    @Override
+    public RecordBatch getRecordBatch(String identityId, String datasetName) {
+        SQLiteDatabase db = helper.getWritableDatabase();
+        Cursor c = db.query(TABLE_RECORDS, RecordColumns.ALL,
+                RecordColumns.IDENTITY_ID + " = ? AND "
+                        + RecordColumns.DATASET_NAME + " = ?",
+                new String[] {
+                        identityId, datasetName
+                }, null, null, RecordColumns.KEY);
+        try {
+            int key = c.getColumnIndex(RecordColumns.KEY);
+            int value = c.getColumnIndex(RecordColumns.VALUE);
+            int syncCount = c.getColumnIndex(RecordColumns.SYNC_COUNT);
+            int lastModified = c.getColumnIndex(RecordColumns.LAST_MODIFIED_TIMESTAMP);
+            int lastModifiedBy = c.getColumnIndex(RecordColumns.LAST_MODIFIED_BY);
+            int deviceLastModified = c.getColumnIndex(
+                    RecordColumns.DEVICE_LAST_MODIFIED_TIMESTAMP);
+            int modified = c.getColumnIndex(RecordColumns.MODIFIED);
+            RecordBatch.Builder batch = new RecordBatch.Builder(c.getCount());
+            while (c.moveToNext()) {
+                batch.add(c.getString(key), c.getString(value), c.getLong(syncCount),
+                        c.getLong(lastModified), c.getString(lastModifiedBy),
+                        c.getLong(deviceLastModified), c.getInt(modified) == 1);
+            }
+            return batch.build();
+        } finally {
+            c.close();
+        }
+    }
+
+    @Override
+    public void visitRecordsByPrefix(String identityId, String datasetName, String prefix,
+            Dataset.RecordVisitor visitor) {
+        // a key range keeps the lookup on the unique index, unlike LIKE or GLOB
+        visitRecordRange(identityId, datasetName, prefix.isEmpty() ? null : prefix,
+                prefixEnd(prefix), visitor);
+    }
+
+    @Override
+    public void visitRecordRange(String identityId, String datasetName, String fromKey,
+            String toKey, Dataset.RecordVisitor visitor) {
+        StringBuilder selection = new StringBuilder(RecordColumns.IDENTITY_ID + " = ? AND "
+                + RecordColumns.DATASET_NAME + " = ?");
+        List<String> selectionArgs = new ArrayList<String>(4);
+        selectionArgs.add(identityId);
+        selectionArgs.add(datasetName);
+        if (fromKey != null) {
+            selection.append(" AND ").append(RecordColumns.KEY).append(" >= ?");
+            selectionArgs.add(fromKey);
+        }
+        if (toKey != null) {
+            selection.append(" AND ").append(RecordColumns.KEY).append(" < ?");
+            selectionArgs.add(toKey);
+        }
+
+        SQLiteDatabase db = helper.getWritableDatabase();
+        Cursor c = db.query(TABLE_RECORDS, RecordColumns.ALL, selection.toString(),
+                selectionArgs.toArray(new String[selectionArgs.size()]), null, null,
+                RecordColumns.KEY);
+        try {
+            while (c.moveToNext() && visitor.visit(cursorToRecord(c))) {
+                // keep visiting
+            }
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Gets the smallest key greater than all keys starting with the given
+     * prefix, in the code point order SQLite compares UTF-8 text in, by
+     * incrementing the last code point that can be incremented.
+     * 
+     * @param prefix key prefix
+     * @return the exclusive upper bound, or null if there is none
+     */
+    static String prefixEnd(String prefix) {
+        int end = prefix.length();
+        while (end > 0) {
+            int codePoint = prefix.codePointBefore(end);
+            end -= Character.charCount(codePoint);
+            if (codePoint < Character.MAX_CODE_POINT) {
+                int next = codePoint + 1 == Character.MIN_SURROGATE
+                        ? Character.MAX_SURROGATE + 1 : codePoint + 1;
+                return new StringBuilder(end + 2).append(prefix, 0, end)
+                        .appendCodePoint(next).toString();
+            }
+        }
+        return null;
+    }
+
     /**
      * Converts a Cursor object into a Record object. This could potentially
      * throws exception if the stored record has bogus data that fails the
@@ -409,11 +1088,10 @@ public class SQLiteLocalStorage implements LocalStorage {
         return new Record.Builder(c.getString(c.getColumnIndex(RecordColumns.KEY)))
                 .value(c.getString(c.getColumnIndex(RecordColumns.VALUE)))
                 .syncCount(c.getLong(c.getColumnIndex(RecordColumns.SYNC_COUNT)))
-                .deviceLastModifiedDate(
-                        new Date(c.getLong(c
-                                .getColumnIndex(RecordColumns.DEVICE_LAST_MODIFIED_TIMESTAMP))))
-                .lastModifiedDate(
-                        new Date(c.getLong(c.getColumnIndex(RecordColumns.LAST_MODIFIED_TIMESTAMP))))
+                .deviceLastModifiedTime(
+                        c.getLong(c.getColumnIndex(RecordColumns.DEVICE_LAST_MODIFIED_TIMESTAMP)))
+                .lastModifiedTime(
+                        c.getLong(c.getColumnIndex(RecordColumns.LAST_MODIFIED_TIMESTAMP)))
                 .lastModifiedBy(c.getString(c.getColumnIndex(RecordColumns.LAST_MODIFIED_BY)))
                 .modified(c.getInt(c.getColumnIndex(RecordColumns.MODIFIED)) == 1)
                 .build();
@@ -487,6 +1165,12 @@ public class SQLiteLocalStorage implements LocalStorage {
                     });
             Log.i(TAG, String.format("%d records were deleted from dataset %s",
                     rows, datasetName));
+            db.delete(TABLE_COMPACTIONS,
+                    CompactionColumns.IDENTITY_ID + " = ? AND "
+                            + CompactionColumns.DATASET_NAME + " = ?",
+                    new String[] {
+                            identityId, datasetName
+                    });
 
             ContentValues values = new ContentValues();
             values.put(DatasetColumns.LAST_MODIFIED_TIMESTAMP, System.currentTimeMillis());
@@ -544,6 +1228,21 @@ public class SQLiteLocalStorage implements LocalStorage {
         return lastSyncCount;
     }
 
+    @Override
+    public boolean hasModifiedRecords(String identityId, String datasetName) {
+        SQLiteDatabase db = helper.getWritableDatabase();
+        Cursor c = db.rawQuery("SELECT 1 FROM " + TABLE_RECORDS + " WHERE "
+                + RecordColumns.IDENTITY_ID + " = ? AND " + RecordColumns.DATASET_NAME + " = ? AND "
+                + RecordColumns.MODIFIED + " = 1 LIMIT 1", new String[] {
+                identityId, datasetName
+        });
+        try {
+            return c.moveToFirst();
+        } finally {
+            c.close();
+        }
+    }
+
     @Override
     public List<Record> getModifiedRecords(String identityId, String datasetName) {
         List<Record> records = new ArrayList<Record>();
@@ -567,6 +1266,7 @@ public class SQLiteLocalStorage implements LocalStorage {
     /**
      * Close the local storage. Any operation called after this will fail.
      */
+    @Override
     public void close() {
         helper.close();
     }
@@ -596,6 +1296,7 @@ public class SQLiteLocalStorage implements LocalStorage {
         try {
             db.execSQL("DELETE FROM " + TABLE_DATASETS);
             db.execSQL("DELETE FROM " + TABLE_RECORDS);
+            db.execSQL("DELETE FROM " + TABLE_COMPACTIONS);
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
@@ -662,18 +1363,15 @@ public class SQLiteLocalStorage implements LocalStorage {
         values.put(RecordColumns.SYNC_COUNT, record.getSyncCount());
         values.put(RecordColumns.MODIFIED, record.isModified());
         values.put(RecordColumns.LAST_MODIFIED_BY, record.getLastModifiedBy());
-        if(record.getLastModifiedDate() != null){
-            values.put(RecordColumns.LAST_MODIFIED_TIMESTAMP, 
-                    String.valueOf(record.getLastModifiedDate().getTime()));
-        }
-        if(record.getDeviceLastModifiedDate() != null){
-            values.put(RecordColumns.DEVICE_LAST_MODIFIED_TIMESTAMP, 
-                    String.valueOf(record.getDeviceLastModifiedDate().getTime()));
-        }
+        values.put(RecordColumns.LAST_MODIFIED_TIMESTAMP, record.getLastModifiedTime());
+        values.put(RecordColumns.DEVICE_LAST_MODIFIED_TIMESTAMP,
+                record.getDeviceLastModifiedTime());
         long row = db.replace(TABLE_RECORDS, null, values);
         if (row == -1) {
             Log.e(TAG, String.format("failed to store record [%s: %s] into dataset %s",
                     record.getKey(), record.getValue(), datasetName));
+        } else {
+            forgetCompactedSyncCount(db, identityId, datasetName, record.getKey());
         }
     }
     
@@ -734,6 +1432,16 @@ public class SQLiteLocalStorage implements LocalStorage {
                                     oldIdentityId,
                                     oldDatasetName
                                 });
+
+                        db.execSQL("UPDATE " + TABLE_COMPACTIONS
+                                + " SET "
+                                + CompactionColumns.DATASET_NAME + " = '" + oldDatasetName + "." + oldIdentityId + "'"
+                                + " WHERE " + CompactionColumns.IDENTITY_ID + " = ?"
+                                + " AND " + CompactionColumns.DATASET_NAME + " = ?",
+                                new String[] {
+                                    oldIdentityId,
+                                    oldDatasetName
+                                });
                     }
                 }
                 
@@ -754,6 +1462,15 @@ public class SQLiteLocalStorage implements LocalStorage {
                         new String[] {
                             oldIdentityId
                         });
+
+                // compactions table
+                db.execSQL("UPDATE " + TABLE_COMPACTIONS
+                        + " SET "
+                        + CompactionColumns.IDENTITY_ID + " = '" + newIdentityId + "'"
+                        + " WHERE " + CompactionColumns.IDENTITY_ID + " = ?",
+                        new String[] {
+                            oldIdentityId
+                        });
             } else {
 
                 // 1. copy oldIdentityId/dataset to newIdentityId/dataset
@@ -826,6 +1543,18 @@ public class SQLiteLocalStorage implements LocalStorage {
                         new String[] {
                             oldIdentityId
                         });
+
+                // compactions table, the copies under the new identity
+                // start over and have no compacted keys
+                db.execSQL("UPDATE " + TABLE_COMPACTIONS
+                        + " SET "
+                        + CompactionColumns.IDENTITY_ID + " = '" + newIdentityId + "', "
+                        + CompactionColumns.DATASET_NAME + " = "
+                        + CompactionColumns.DATASET_NAME + " || '." + oldIdentityId + "'"
+                        + " WHERE " + CompactionColumns.IDENTITY_ID + " = ?",
+                        new String[] {
+                            oldIdentityId
+                        });
             }
             db.setTransactionSuccessful();
         } finally {
@@ -889,8 +1618,8 @@ public class SQLiteLocalStorage implements LocalStorage {
         ContentValues values = new ContentValues();
         values.put(DatasetColumns.IDENTITY_ID, identityId);
         values.put(DatasetColumns.DATASET_NAME, metadata.getDatasetName());
-        values.put(DatasetColumns.CREATION_TIMESTAMP, metadata.getCreationDate().getTime());
-        values.put(DatasetColumns.LAST_MODIFIED_TIMESTAMP, metadata.getLastModifiedDate().getTime());
+        values.put(DatasetColumns.CREATION_TIMESTAMP, metadata.getCreationTime());
+        values.put(DatasetColumns.LAST_MODIFIED_TIMESTAMP, metadata.getLastModifiedTime());
         values.put(DatasetColumns.LAST_MODIFIED_BY, metadata.getLastModifiedBy());
         values.put(DatasetColumns.RECORD_COUNT, metadata.getRecordCount());
         values.put(DatasetColumns.STORAGE_SIZE_BYTES, metadata.getStorageSizeBytes());
@@ -0,0 +1,536 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito.internal.storage;
+
+import com.amazonaws.mobileconnectors.cognito.CompactionResult;
+import com.amazonaws.mobileconnectors.cognito.Dataset;
+import com.amazonaws.mobileconnectors.cognito.DatasetMetadata;
+import com.amazonaws.mobileconnectors.cognito.Record;
+import com.amazonaws.mobileconnectors.cognito.RecordBatch;
+import com.amazonaws.mobileconnectors.cognito.StorageProfile;
+import com.amazonaws.mobileconnectors.cognito.StorageStats;
+import com.amazonaws.mobileconnectors.cognito.exceptions.DataStorageException;
+import com.amazonaws.mobileconnectors.cognito.exceptions.DatasetNotFoundException;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link LocalStorage} that keeps an immutable snapshot of the value map of
+ * each dataset read through {@link #getValueMap(String, String)}, so that
+ * repeated reads of an unchanged dataset return the same map without querying
+ * another storage or copying. Writes go through to the other storage and
+ * then set the snapshot aside along with the values written, locally or by a
+ * sync. The next read of the value map applies them to a single copy of the
+ * snapshot, so a burst of writes costs one copy rather than one per write,
+ * and none if nobody reads the map in between. Writes whose outcome isn't
+ * known from their arguments, like conditional puts or deletes, drop the
+ * snapshot and the next read loads it again.
+ * <p>
+ * Cache hits don't lock. Writes are serialized with each other so that
+ * snapshots are patched in the order the other storage applied them.
+ * <p>
+ * All snapshots are kept unless a {@link StorageProfile} bounds them, in
+ * which case the least recently read ones are dropped first.
+ */
+public class SnapshotCachingLocalStorage implements LocalStorage {
+
+    /**
+     * Snapshot of a dataset. The generation counts writes to the dataset, so
+     * that a snapshot loaded while a write happened isn't cached.
+     */
+    private static class Entry {
+        long generation;
+        volatile Map<String, String> snapshot;
+        volatile long lastRead;
+        /**
+         * Snapshot set aside by writes, and the values they wrote, a null
+         * value removing the key. Guarded by the storage.
+         */
+        Map<String, String> base;
+        Map<String, String> patches;
+    }
+
+    private final LocalStorage local;
+
+    /**
+     * Entries by identity id and dataset name, see {@link #key}. Entries are
+     * only added or replaced while holding the lock of this storage.
+     */
+    private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    private volatile int maxSnapshots = Integer.MAX_VALUE;
+
+    /**
+     * Constructs a cache.
+     *
+     * @param local the local storage to cache value maps of
+     */
+    public SnapshotCachingLocalStorage(LocalStorage local) {
+        if (local == null) {
+            throw new IllegalArgumentException("local can't be null");
+        }
+        this.local = local;
+    }
+
+    /**
+     * Gets the local storage this one caches value maps of.
+     *
+     * @return the underlying local storage
+     */
+    public LocalStorage getDelegate() {
+        return local;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The returned map is an unmodifiable snapshot that isn't affected by
+     * later writes.
+     */
+    @Override
+    public Map<String, String> getValueMap(String identityId, String datasetName) {
+        Map<String, String> cached = cachedSnapshot(identityId, datasetName);
+        if (cached != null) {
+            return cached;
+        }
+        String key = key(identityId, datasetName);
+        Entry entry;
+        long generation;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(key, entry);
+            }
+            Map<String, String> snapshot = entry.snapshot;
+            if (snapshot != null) {
+                return snapshot;
+            }
+            if (entry.base != null) {
+                return applyPatches(entry);
+            }
+            generation = entry.generation;
+        }
+        Map<String, String> snapshot = Collections.unmodifiableMap(
+                new HashMap<String, String>(local.getValueMap(identityId, datasetName)));
+        synchronized (this) {
+            if (entries.get(key) == entry && entry.generation == generation
+                    && maxSnapshots > 0) {
+                entry.lastRead = System.nanoTime();
+                entry.snapshot = snapshot;
+                trim();
+            }
+        }
+        return snapshot;
+    }
+
+    @Override
+    public String getValue(String identityId, String datasetName, String key) {
+        Map<String, String> snapshot = cachedSnapshot(identityId, datasetName);
+        if (snapshot != null) {
+            return snapshot.get(key);
+        }
+        return local.getValue(identityId, datasetName, key);
+    }
+
+    @Override
+    public synchronized void putValue(String identityId, String datasetName, String key,
+            String value) {
+        try {
+            local.putValue(identityId, datasetName, key, value);
+        } catch (RuntimeException e) {
+            invalidate(identityId, datasetName);
+            throw e;
+        }
+        patch(identityId, datasetName, Collections.singletonMap(key, value));
+    }
+
+    @Override
+    public synchronized void putAllValues(String identityId, String datasetName,
+            Map<String, String> values) {
+        try {
+            local.putAllValues(identityId, datasetName, values);
+        } catch (RuntimeException e) {
+            invalidate(identityId, datasetName);
+            throw e;
+        }
+        patch(identityId, datasetName, values);
+    }
+
+    @Override
+    public synchronized int removeValues(String identityId, String datasetName,
+            Collection<String> keys) {
+        int removed;
+        try {
+            removed = local.removeValues(identityId, datasetName, keys);
+        } catch (RuntimeException e) {
+            invalidate(identityId, datasetName);
+            throw e;
+        }
+        Map<String, String> values = new HashMap<String, String>();
+        for (String key : keys) {
+            values.put(key, null);
+        }
+        patch(identityId, datasetName, values);
+        return removed;
+    }
+
+    @Override
+    public synchronized int removeAllValues(String identityId, String datasetName) {
+        try {
+            return local.removeAllValues(identityId, datasetName);
+        } finally {
+            invalidate(identityId, datasetName);
+        }
+    }
+
+    @Override
+    public CompactionResult compactTombstones(String identityId, String datasetName,
+            int maxRows) {
+        // tombstones aren't in the snapshots
+        return local.compactTombstones(identityId, datasetName, maxRows);
+    }
+
+    @Override
+    public StorageStats getStorageStats() {
+        return local.getStorageStats();
+    }
+
+    @Override
+    public long vacuum(int maxPages) {
+        return local.vacuum(maxPages);
+    }
+
+    @Override
+    public boolean convertToIncrementalVacuum() {
+        return local.convertToIncrementalVacuum();
+    }
+
+    @Override
+    public void analyze() {
+        local.analyze();
+    }
+
+    @Override
+    public synchronized void setStorageProfile(StorageProfile profile) {
+        if (profile == null) {
+            throw new IllegalArgumentException("profile can't be null");
+        }
+        maxSnapshots = profile.getMaxSnapshots();
+        trim();
+        local.setStorageProfile(profile);
+    }
+
+    @Override
+    public synchronized boolean compareAndPutValue(String identityId, String datasetName,
+            String key, String expectedValue, String value) {
+        boolean put;
+        try {
+            put = local.compareAndPutValue(identityId, datasetName, key, expectedValue, value);
+        } catch (RuntimeException e) {
+            invalidate(identityId, datasetName);
+            throw e;
+        }
+        if (put) {
+            patch(identityId, datasetName, Collections.singletonMap(key, value));
+        }
+        return put;
+    }
+
+    @Override
+    public synchronized long incrementValue(String identityId, String datasetName, String key,
+            long delta) {
+        long value;
+        try {
+            value = local.incrementValue(identityId, datasetName, key, delta);
+        } catch (RuntimeException e) {
+            invalidate(identityId, datasetName);
+            throw e;
+        }
+        patch(identityId, datasetName, Collections.singletonMap(key, String.valueOf(value)));
+        return value;
+    }
+
+    @Override
+    public synchronized boolean compareAndPutAllValues(String identityId, String datasetName,
+            Map<String, String> expectedValues, Map<String, String> values) {
+        boolean put;
+        try {
+            put = local.compareAndPutAllValues(identityId, datasetName, expectedValues, values);
+        } catch (RuntimeException e) {
+            invalidate(identityId, datasetName);
+            throw e;
+        }
+        if (put) {
+            patch(identityId, datasetName, values);
+        }
+        return put;
+    }
+
+    @Override
+    public synchronized void putRecords(String identityId, String datasetName,
+            List<Record> records) {
+        try {
+            local.putRecords(identityId, datasetName, records);
+        } catch (RuntimeException e) {
+            invalidate(identityId, datasetName);
+            throw e;
+        }
+        Map<String, String> values = new HashMap<String, String>();
+        for (Record record : records) {
+            values.put(record.getKey(), record.getValue());
+        }
+        patch(identityId, datasetName, values);
+    }
+
+    @Override
+    public synchronized void conditionallyPutRecords(String identityId, String datasetName,
+            List<Record> records, List<Record> localRecords) {
+        // records changed locally in the meantime are skipped, which only the
+        // other storage knows about
+        try {
+            local.conditionallyPutRecords(identityId, datasetName, records, localRecords);
+        } finally {
+            invalidate(identityId, datasetName);
+        }
+    }
+
+    @Override
+    public synchronized void deleteDataset(String identityId, String datasetName)
+            throws DatasetNotFoundException {
+        try {
+            local.deleteDataset(identityId, datasetName);
+        } finally {
+            invalidate(identityId, datasetName);
+        }
+    }
+
+    @Override
+    public synchronized void purgeDataset(String identityId, String datasetName) {
+        try {
+            local.purgeDataset(identityId, datasetName);
+        } finally {
+            invalidate(identityId, datasetName);
+        }
+    }
+
+    @Override
+    public synchronized void wipeData() {
+        try {
+            local.wipeData();
+        } finally {
+            entries.clear();
+        }
+    }
+
+    @Override
+    public synchronized void changeIdentityId(String oldIdentityId, String newIdentityId) {
+        // datasets are merged and renamed, drop them all
+        try {
+            local.changeIdentityId(oldIdentityId, newIdentityId);
+        } finally {
+            entries.clear();
+        }
+    }
+
+    @Override
+    public void createDataset(String identityId, String datasetName) {
+        local.createDataset(identityId, datasetName);
+    }
+
+    @Override
+    public Record getRecord(String identityId, String datasetName, String key) {
+        return local.getRecord(identityId, datasetName, key);
+    }
+
+    @Override
+    public List<Record> getRecords(String identityId, String datasetName) {
+        return local.getRecords(identityId, datasetName);
+    }
+
+    @Override
+    public RecordBatch getRecordBatch(String identityId, String datasetName) {
+        return local.getRecordBatch(identityId, datasetName);
+    }
+
+    @Override
+    public void visitRecordsByPrefix(String identityId, String datasetName, String prefix,
+            Dataset.RecordVisitor visitor) {
+        local.visitRecordsByPrefix(identityId, datasetName, prefix, visitor);
+    }
+
+    @Override
+    public void visitRecordRange(String identityId, String datasetName, String fromKey,
+            String toKey, Dataset.RecordVisitor visitor) {
+        local.visitRecordRange(identityId, datasetName, fromKey, toKey, visitor);
+    }
+
+    @Override
+    public boolean hasModifiedRecords(String identityId, String datasetName) {
+        return local.hasModifiedRecords(identityId, datasetName);
+    }
+
+    @Override
+    public List<Record> getModifiedRecords(String identityId, String datasetName) {
+        return local.getModifiedRecords(identityId, datasetName);
+    }
+
+    @Override
+    public List<DatasetMetadata> getDatasets(String identityId) throws DataStorageException {
+        return local.getDatasets(identityId);
+    }
+
+    @Override
+    public DatasetMetadata getDatasetMetadata(String identityId, String datasetName)
+            throws DataStorageException {
+        return local.getDatasetMetadata(identityId, datasetName);
+    }
+
+    @Override
+    public long getLastSyncCount(String identityId, String datasetName) {
+        return local.getLastSyncCount(identityId, datasetName);
+    }
+
+    @Override
+    public void updateLastSyncCount(String identityId, String datasetName, long lastSyncCount) {
+        local.updateLastSyncCount(identityId, datasetName, lastSyncCount);
+    }
+
+    @Override
+    public void updateDatasetMetadata(String identityId, List<DatasetMetadata> datasetMetadata) {
+        local.updateDatasetMetadata(identityId, datasetMetadata);
+    }
+
+    @Override
+    public synchronized void close() {
+        entries.clear();
+        local.close();
+    }
+
+    private Map<String, String> cachedSnapshot(String identityId, String datasetName) {
+        Entry entry = entries.get(key(identityId, datasetName));
+        if (entry == null) {
+            return null;
+        }
+        Map<String, String> snapshot = entry.snapshot;
+        if (snapshot != null) {
+            entry.lastRead = System.nanoTime();
+        }
+        return snapshot;
+    }
+
+    /**
+     * Drops the least recently read snapshots beyond the most kept. Must hold
+     * the lock.
+     */
+    private void trim() {
+        int count = 0;
+        for (Entry entry : entries.values()) {
+            if (isHeld(entry)) {
+                count++;
+            }
+        }
+        for (; count > maxSnapshots; count--) {
+            Entry oldest = null;
+            for (Entry entry : entries.values()) {
+                if (isHeld(entry)
+                        && (oldest == null || entry.lastRead - oldest.lastRead < 0)) {
+                    oldest = entry;
+                }
+            }
+            oldest.snapshot = null;
+            oldest.base = null;
+            oldest.patches = null;
+        }
+    }
+
+    private static boolean isHeld(Entry entry) {
+        return entry.snapshot != null || entry.base != null;
+    }
+
+    /**
+     * Records written values against the snapshot of a dataset, if there is
+     * one, for the next read to apply. A null value removes the key. Must hold
+     * the lock.
+     */
+    private void patch(String identityId, String datasetName, Map<String, String> values) {
+        Entry entry = entries.get(key(identityId, datasetName));
+        if (entry == null) {
+            return;
+        }
+        entry.generation++;
+        if (values.isEmpty()) {
+            return;
+        }
+        Map<String, String> snapshot = entry.snapshot;
+        if (snapshot != null) {
+            entry.snapshot = null;
+            entry.base = snapshot;
+            entry.patches = new HashMap<String, String>();
+        }
+        if (entry.base != null) {
+            entry.patches.putAll(values);
+        }
+    }
+
+    /**
+     * Applies the values written since the snapshot was set aside, in one
+     * copy, and caches the result. Must hold the lock.
+     */
+    private Map<String, String> applyPatches(Entry entry) {
+        Map<String, String> patched = new HashMap<String, String>(entry.base);
+        for (Map.Entry<String, String> value : entry.patches.entrySet()) {
+            if (value.getValue() == null) {
+                patched.remove(value.getKey());
+            } else {
+                patched.put(value.getKey(), value.getValue());
+            }
+        }
+        Map<String, String> snapshot = Collections.unmodifiableMap(patched);
+        entry.base = null;
+        entry.patches = null;
+        entry.lastRead = System.nanoTime();
+        entry.snapshot = snapshot;
+        return snapshot;
+    }
+
+    /**
+     * Drops the snapshot of a dataset. Must hold the lock.
+     */
+    private void invalidate(String identityId, String datasetName) {
+        Entry entry = entries.get(key(identityId, datasetName));
+        if (entry != null) {
+            entry.generation++;
+            entry.snapshot = null;
+            entry.base = null;
+            entry.patches = null;
+        }
+    }
+
+    /**
+     * Dataset names can't contain a slash, so the key is unambiguous.
+     */
+    private static String key(String identityId, String datasetName) {
+        return identityId + "/" + datasetName;
+    }
+}
@@ -0,0 +1,520 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito.internal.storage;
+
+import com.amazonaws.mobileconnectors.cognito.CompactionResult;
+import com.amazonaws.mobileconnectors.cognito.Dataset;
+import com.amazonaws.mobileconnectors.cognito.DatasetMetadata;
+import com.amazonaws.mobileconnectors.cognito.Record;
+import com.amazonaws.mobileconnectors.cognito.RecordBatch;
+import com.amazonaws.mobileconnectors.cognito.StorageProfile;
+import com.amazonaws.mobileconnectors.cognito.StorageStats;
+import com.amazonaws.mobileconnectors.cognito.exceptions.DataStorageException;
+import com.amazonaws.mobileconnectors.cognito.exceptions.DatasetNotFoundException;
+import com.amazonaws.mobileconnectors.cognito.internal.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link LocalStorage} that can buffer {@link #putValue} in memory and
+ * write them to another storage later, for apps that put the same keys many
+ * times a second. Buffered values are visible to {@link #getValue} and
+ * {@link #getValueMap} right away, and a value put again before a flush
+ * replaces the buffered one. The buffer of a dataset is written with a single
+ * {@link #putAllValues} call, which is one transaction in SQLite:
+ * <ul>
+ * <li>when the number of buffered keys reaches a limit;</li>
+ * <li>a while after the first buffered write;</li>
+ * <li>before any other read or write of the dataset's records, so a sync
+ * always sees the buffered values;</li>
+ * <li>on {@link #flush()}.</li>
+ * </ul>
+ * Buffering is off until {@link #setWriteBehind(int, long)} turns it on.
+ * Buffered values are lost if the process dies before they're flushed.
+ */
+public class WriteBehindLocalStorage implements LocalStorage {
+
+    private static final String TAG = "WriteBehindLocalStorage";
+
+    private final LocalStorage local;
+
+    /**
+     * Buffered values by dataset, see {@link #key}, then by record key. A null
+     * value removes the record. Guarded by this.
+     */
+    private final Map<String, DatasetBuffer> buffers = new LinkedHashMap<String, DatasetBuffer>();
+    private int bufferedCount;
+
+    private int maxBufferedWrites;
+    private long maxDelayMillis;
+    private boolean flushScheduled;
+    private ScheduledExecutorService scheduler;
+
+    private static class DatasetBuffer {
+        final String identityId;
+        final String datasetName;
+        final Map<String, String> values = new LinkedHashMap<String, String>();
+
+        DatasetBuffer(String identityId, String datasetName) {
+            this.identityId = identityId;
+            this.datasetName = datasetName;
+        }
+    }
+
+    /**
+     * Constructs a storage that writes through until buffering is turned on.
+     *
+     * @param local the local storage to write to
+     */
+    public WriteBehindLocalStorage(LocalStorage local) {
+        if (local == null) {
+            throw new IllegalArgumentException("local can't be null");
+        }
+        this.local = local;
+    }
+
+    /**
+     * Turns buffering of {@link #putValue} on or off. Turning it off flushes
+     * what is buffered.
+     *
+     * @param maxBufferedWrites number of buffered keys, across datasets, at
+     *            which the buffer is flushed on the writing thread; 0 turns
+     *            buffering off
+     * @param maxDelayMillis time after the first buffered write at which the
+     *            buffer is flushed on a background thread, 0 for no time limit
+     */
+    public void setWriteBehind(int maxBufferedWrites, long maxDelayMillis) {
+        if (maxBufferedWrites < 0 || maxDelayMillis < 0) {
+            throw new IllegalArgumentException("limits can't be negative");
+        }
+        synchronized (this) {
+            this.maxBufferedWrites = maxBufferedWrites;
+            this.maxDelayMillis = maxDelayMillis;
+            if (maxBufferedWrites == 0) {
+                flushAll();
+            }
+        }
+    }
+
+    /**
+     * Gets whether puts are buffered.
+     *
+     * @return true if buffering is on
+     */
+    public synchronized boolean isWriteBehind() {
+        return maxBufferedWrites > 0;
+    }
+
+    /**
+     * Writes the buffered values of all datasets.
+     */
+    public synchronized void flush() {
+        flushAll();
+    }
+
+    /**
+     * Writes the buffered values of a dataset.
+     *
+     * @param identityId identity id
+     * @param datasetName dataset name
+     */
+    public synchronized void flush(String identityId, String datasetName) {
+        DatasetBuffer buffer = buffers.remove(key(identityId, datasetName));
+        if (buffer != null) {
+            write(buffer);
+        }
+    }
+
+    @Override
+    public void putValue(String identityId, String datasetName, String key, String value) {
+        synchronized (this) {
+            if (maxBufferedWrites > 0) {
+                String datasetKey = key(identityId, datasetName);
+                DatasetBuffer buffer = buffers.get(datasetKey);
+                if (buffer == null) {
+                    buffer = new DatasetBuffer(identityId, datasetName);
+                    buffers.put(datasetKey, buffer);
+                }
+                boolean added = !buffer.values.containsKey(key);
+                buffer.values.put(key, value);
+                if (added) {
+                    bufferedCount++;
+                }
+                if (bufferedCount >= maxBufferedWrites) {
+                    flushAll();
+                } else {
+                    scheduleFlush();
+                }
+                return;
+            }
+        }
+        local.putValue(identityId, datasetName, key, value);
+    }
+
+    @Override
+    public String getValue(String identityId, String datasetName, String key) {
+        synchronized (this) {
+            DatasetBuffer buffer = buffers.get(key(identityId, datasetName));
+            if (buffer != null && buffer.values.containsKey(key)) {
+                return buffer.values.get(key);
+            }
+        }
+        return local.getValue(identityId, datasetName, key);
+    }
+
+    @Override
+    public Map<String, String> getValueMap(String identityId, String datasetName) {
+        Map<String, String> overlay = null;
+        synchronized (this) {
+            DatasetBuffer buffer = buffers.get(key(identityId, datasetName));
+            if (buffer != null) {
+                overlay = new HashMap<String, String>(buffer.values);
+            }
+        }
+        Map<String, String> values = local.getValueMap(identityId, datasetName);
+        if (overlay == null) {
+            return values;
+        }
+        values = new HashMap<String, String>(values);
+        for (Map.Entry<String, String> entry : overlay.entrySet()) {
+            if (entry.getValue() == null) {
+                values.remove(entry.getKey());
+            } else {
+                values.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return values;
+    }
+
+    @Override
+    public synchronized void putAllValues(String identityId, String datasetName,
+            Map<String, String> values) {
+        flush(identityId, datasetName);
+        local.putAllValues(identityId, datasetName, values);
+    }
+
+    @Override
+    public synchronized int removeValues(String identityId, String datasetName,
+            Collection<String> keys) {
+        flush(identityId, datasetName);
+        return local.removeValues(identityId, datasetName, keys);
+    }
+
+    @Override
+    public synchronized int removeAllValues(String identityId, String datasetName) {
+        flush(identityId, datasetName);
+        return local.removeAllValues(identityId, datasetName);
+    }
+
+    @Override
+    public synchronized CompactionResult compactTombstones(String identityId,
+            String datasetName, int maxRows) {
+        // a buffered put of a removed key must land on its tombstone
+        flush(identityId, datasetName);
+        return local.compactTombstones(identityId, datasetName, maxRows);
+    }
+
+    @Override
+    public StorageStats getStorageStats() {
+        return local.getStorageStats();
+    }
+
+    @Override
+    public long vacuum(int maxPages) {
+        return local.vacuum(maxPages);
+    }
+
+    @Override
+    public boolean convertToIncrementalVacuum() {
+        return local.convertToIncrementalVacuum();
+    }
+
+    @Override
+    public void analyze() {
+        local.analyze();
+    }
+
+    @Override
+    public void setStorageProfile(StorageProfile profile) {
+        local.setStorageProfile(profile);
+    }
+
+    @Override
+    public synchronized boolean compareAndPutValue(String identityId, String datasetName,
+            String key, String expectedValue, String value) {
+        flush(identityId, datasetName);
+        return local.compareAndPutValue(identityId, datasetName, key, expectedValue, value);
+    }
+
+    @Override
+    public synchronized long incrementValue(String identityId, String datasetName, String key,
+            long delta) {
+        flush(identityId, datasetName);
+        return local.incrementValue(identityId, datasetName, key, delta);
+    }
+
+    @Override
+    public synchronized boolean compareAndPutAllValues(String identityId, String datasetName,
+            Map<String, String> expectedValues, Map<String, String> values) {
+        flush(identityId, datasetName);
+        return local.compareAndPutAllValues(identityId, datasetName, expectedValues, values);
+    }
+
+    @Override
+    public Record getRecord(String identityId, String datasetName, String key) {
+        flush(identityId, datasetName);
+        return local.getRecord(identityId, datasetName, key);
+    }
+
+    @Override
+    public List<Record> getRecords(String identityId, String datasetName) {
+        flush(identityId, datasetName);
+        return local.getRecords(identityId, datasetName);
+    }
+
+    @Override
+    public RecordBatch getRecordBatch(String identityId, String datasetName) {
+        flush(identityId, datasetName);
+        return local.getRecordBatch(identityId, datasetName);
+    }
+
+    @Override
+    public void visitRecordsByPrefix(String identityId, String datasetName, String prefix,
+            Dataset.RecordVisitor visitor) {
+        flush(identityId, datasetName);
+        local.visitRecordsByPrefix(identityId, datasetName, prefix, visitor);
+    }
+
+    @Override
+    public void visitRecordRange(String identityId, String datasetName, String fromKey,
+            String toKey, Dataset.RecordVisitor visitor) {
+        flush(identityId, datasetName);
+        local.visitRecordRange(identityId, datasetName, fromKey, toKey, visitor);
+    }
+
+    @Override
+    public boolean hasModifiedRecords(String identityId, String datasetName) {
+        synchronized (this) {
+            DatasetBuffer buffer = buffers.get(key(identityId, datasetName));
+            if (buffer != null && !buffer.values.isEmpty()) {
+                return true;
+            }
+        }
+        return local.hasModifiedRecords(identityId, datasetName);
+    }
+
+    @Override
+    public List<Record> getModifiedRecords(String identityId, String datasetName) {
+        flush(identityId, datasetName);
+        return local.getModifiedRecords(identityId, datasetName);
+    }
+
+    @Override
+    public synchronized void putRecords(String identityId, String datasetName,
+            List<Record> records) {
+        flush(identityId, datasetName);
+        local.putRecords(identityId, datasetName, records);
+    }
+
+    @Override
+    public synchronized void conditionallyPutRecords(String identityId, String datasetName,
+            List<Record> records, List<Record> localRecords) {
+        flush(identityId, datasetName);
+        local.conditionallyPutRecords(identityId, datasetName, records, localRecords);
+    }
+
+    @Override
+    public List<DatasetMetadata> getDatasets(String identityId) throws DataStorageException {
+        // sizes and record counts include the buffered values
+        flush();
+        return local.getDatasets(identityId);
+    }
+
+    @Override
+    public DatasetMetadata getDatasetMetadata(String identityId, String datasetName)
+            throws DataStorageException {
+        flush(identityId, datasetName);
+        return local.getDatasetMetadata(identityId, datasetName);
+    }
+
+    @Override
+    public synchronized void deleteDataset(String identityId, String datasetName)
+            throws DatasetNotFoundException {
+        discard(identityId, datasetName);
+        local.deleteDataset(identityId, datasetName);
+    }
+
+    @Override
+    public synchronized void purgeDataset(String identityId, String datasetName) {
+        discard(identityId, datasetName);
+        local.purgeDataset(identityId, datasetName);
+    }
+
+    @Override
+    public synchronized void wipeData() {
+        buffers.clear();
+        bufferedCount = 0;
+        local.wipeData();
+    }
+
+    @Override
+    public synchronized void changeIdentityId(String oldIdentityId, String newIdentityId) {
+        flushAll();
+        local.changeIdentityId(oldIdentityId, newIdentityId);
+    }
+
+    @Override
+    public void createDataset(String identityId, String datasetName) {
+        local.createDataset(identityId, datasetName);
+    }
+
+    @Override
+    public long getLastSyncCount(String identityId, String datasetName) {
+        return local.getLastSyncCount(identityId, datasetName);
+    }
+
+    @Override
+    public void updateLastSyncCount(String identityId, String datasetName, long lastSyncCount) {
+        local.updateLastSyncCount(identityId, datasetName, lastSyncCount);
+    }
+
+    @Override
+    public void updateDatasetMetadata(String identityId, List<DatasetMetadata> datasetMetadata) {
+        local.updateDatasetMetadata(identityId, datasetMetadata);
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            flushAll();
+            if (scheduler != null) {
+                scheduler.shutdown();
+                scheduler = null;
+            }
+        }
+        local.close();
+    }
+
+    /**
+     * Writes all buffers. Must hold the lock.
+     */
+    private void flushAll() {
+        List<DatasetBuffer> pending = new ArrayList<DatasetBuffer>(buffers.values());
+        buffers.clear();
+        RuntimeException failure = null;
+        for (DatasetBuffer buffer : pending) {
+            try {
+                write(buffer);
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Writes a buffer that was removed from {@link #buffers}. If the write
+     * fails, its values go back to the buffer unless they were put again in
+     * the meantime. Must hold the lock.
+     */
+    private void write(DatasetBuffer buffer) {
+        bufferedCount -= buffer.values.size();
+        try {
+            local.putAllValues(buffer.identityId, buffer.datasetName, buffer.values);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "failed to flush buffered writes of " + buffer.datasetName, e);
+            String datasetKey = key(buffer.identityId, buffer.datasetName);
+            DatasetBuffer current = buffers.get(datasetKey);
+            if (current == null) {
+                buffers.put(datasetKey, buffer);
+                bufferedCount += buffer.values.size();
+            } else {
+                for (Map.Entry<String, String> entry : buffer.values.entrySet()) {
+                    if (!current.values.containsKey(entry.getKey())) {
+                        current.values.put(entry.getKey(), entry.getValue());
+                        bufferedCount++;
+                    }
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Drops the buffered values of a dataset. Must hold the lock.
+     */
+    private void discard(String identityId, String datasetName) {
+        DatasetBuffer buffer = buffers.remove(key(identityId, datasetName));
+        if (buffer != null) {
+            bufferedCount -= buffer.values.size();
+        }
+    }
+
+    /**
+     * Schedules a flush of everything after the delay, unless one is already
+     * scheduled. Must hold the lock.
+     */
+    private void scheduleFlush() {
+        if (maxDelayMillis == 0 || flushScheduled) {
+            return;
+        }
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, TAG);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        flushScheduled = true;
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (WriteBehindLocalStorage.this) {
+                    flushScheduled = false;
+                    try {
+                        flushAll();
+                    } catch (RuntimeException e) {
+                        // logged by write, the values stay buffered for the next flush
+                        scheduleFlush();
+                    }
+                }
+            }
+        }, maxDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Dataset names can't contain a slash, so the key is unambiguous.
+     */
+    private static String key(String identityId, String datasetName) {
+        return identityId + "/" + datasetName;
+    }
+}
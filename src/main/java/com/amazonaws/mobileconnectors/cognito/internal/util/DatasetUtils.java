@@ -2,6 +2,7 @@
 package com.amazonaws.mobileconnectors.cognito.internal.util;
 
 import com.amazonaws.auth.CognitoCachingCredentialsProvider;
+import com.amazonaws.auth.CognitoCredentialsProvider;
 import com.amazonaws.mobileconnectors.cognito.Record;
 
 import java.util.regex.Pattern;
@@ -70,10 +71,24 @@ public final class DatasetUtils {
      * 
      * @return the identity id associated with this dataset
      */
-    public static String getIdentityId(CognitoCachingCredentialsProvider provider) {
-        return provider.getCachedIdentityId() == null
-                ? UNKNOWN_IDENTITY_ID
-                : provider.getCachedIdentityId();
+    public static String getIdentityId(CognitoCredentialsProvider provider) {
+        String identityId = getCachedIdentityId(provider);
+        return identityId == null ? UNKNOWN_IDENTITY_ID : identityId;
+    }
+
+    /**
+     * Gets the identity id the provider currently has without going to the
+     * network if it's a {@link CognitoCachingCredentialsProvider}. Other
+     * providers are asked for their identity id, which may go to the network.
+     * 
+     * @param provider the credentials provider
+     * @return the identity id, null if unknown
+     */
+    public static String getCachedIdentityId(CognitoCredentialsProvider provider) {
+        if (provider instanceof CognitoCachingCredentialsProvider) {
+            return ((CognitoCachingCredentialsProvider) provider).getCachedIdentityId();
+        }
+        return provider.getIdentityId();
     }
 
 }
@@ -0,0 +1,79 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito.internal.util;
+
+import com.amazonaws.mobileconnectors.cognito.platform.JavaUtilLogger;
+import com.amazonaws.mobileconnectors.cognito.platform.Logger;
+import com.amazonaws.mobileconnectors.cognito.platform.Logger.Level;
+
+/**
+ * Logging facade of the sync engine, with the same shape as android.util.Log
+ * so that the engine doesn't depend on Android. Messages go to the
+ * {@link Logger} of the platform in use, java.util.logging until one is set.
+ */
+public final class Log {
+
+    private static volatile Logger logger = new JavaUtilLogger();
+
+    private Log() {
+    }
+
+    /**
+     * Sets the logger messages go to.
+     *
+     * @param newLogger the logger
+     */
+    public static void setLogger(Logger newLogger) {
+        if (newLogger == null) {
+            throw new IllegalArgumentException("logger can't be null");
+        }
+        logger = newLogger;
+    }
+
+    public static void d(String tag, String msg) {
+        logger.log(Level.DEBUG, tag, msg, null);
+    }
+
+    public static void d(String tag, String msg, Throwable t) {
+        logger.log(Level.DEBUG, tag, msg, t);
+    }
+
+    public static void i(String tag, String msg) {
+        logger.log(Level.INFO, tag, msg, null);
+    }
+
+    public static void i(String tag, String msg, Throwable t) {
+        logger.log(Level.INFO, tag, msg, t);
+    }
+
+    public static void w(String tag, String msg) {
+        logger.log(Level.WARN, tag, msg, null);
+    }
+
+    public static void w(String tag, String msg, Throwable t) {
+        logger.log(Level.WARN, tag, msg, t);
+    }
+
+    public static void e(String tag, String msg) {
+        logger.log(Level.ERROR, tag, msg, null);
+    }
+
+    public static void e(String tag, String msg, Throwable t) {
+        logger.log(Level.ERROR, tag, msg, t);
+    }
+}
@@ -0,0 +1,233 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito.platform;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.util.Log;
+
+import com.amazonaws.mobileconnectors.cognito.internal.storage.LocalStorage;
+import com.amazonaws.mobileconnectors.cognito.internal.storage.SQLiteLocalStorage;
+
+/**
+ * {@link Platform} binding to Android: connectivity from
+ * {@link ConnectivityManager}, settings in {@link SharedPreferences}, logs to
+ * logcat and datasets in SQLite.
+ */
+public class AndroidPlatform implements Platform {
+
+    private static final String TAG = "AndroidPlatform";
+
+    /**
+     * Name of the shared preferences the settings are stored in.
+     */
+    static final String PREFERENCES_NAME = "com.amazonaws.mobileconnectors.cognito";
+
+    private final Context context;
+    private final Connectivity connectivity;
+    private final KeyValueStore keyValueStore;
+    private final Logger logger;
+
+    /**
+     * Constructs an Android platform.
+     *
+     * @param context a context of the app
+     */
+    public AndroidPlatform(Context context) {
+        if (context == null) {
+            throw new IllegalArgumentException("context can't be null");
+        }
+        this.context = context;
+        this.connectivity = new AndroidConnectivity(context);
+        this.keyValueStore = new SharedPreferencesStore(
+                context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE));
+        this.logger = new AndroidLogger();
+    }
+
+    /**
+     * @return the context of the app
+     */
+    public Context getContext() {
+        return context;
+    }
+
+    @Override
+    public Connectivity getConnectivity() {
+        return connectivity;
+    }
+
+    @Override
+    public KeyValueStore getKeyValueStore() {
+        return keyValueStore;
+    }
+
+    @Override
+    public Logger getLogger() {
+        return logger;
+    }
+
+    @Override
+    public LocalStorage createLocalStorage(String name) {
+        return new SQLiteLocalStorage(context, name);
+    }
+
+    static class AndroidConnectivity implements Connectivity {
+        private final Context context;
+
+        AndroidConnectivity(Context context) {
+            this.context = context;
+        }
+
+        @Override
+        public boolean isNetworkAvailable() {
+            NetworkInfo activeNetwork = getActiveNetworkInfo();
+            return activeNetwork != null && activeNetwork.isConnected();
+        }
+
+        @Override
+        public String getNetworkType() {
+            NetworkInfo activeNetwork = getActiveNetworkInfo();
+            return activeNetwork == null ? null : activeNetwork.getTypeName();
+        }
+
+        private NetworkInfo getActiveNetworkInfo() {
+            ConnectivityManager cm = (ConnectivityManager) context
+                    .getSystemService(Context.CONNECTIVITY_SERVICE);
+            return cm == null ? null : cm.getActiveNetworkInfo();
+        }
+
+        @Override
+        public Subscription whenAvailable(Runnable callback) {
+            final OnConnectivity receiver = new OnConnectivity(this, callback);
+            // listen to only connectivity change
+            context.registerReceiver(receiver,
+                    new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+            return new Subscription() {
+                @Override
+                public void cancel() {
+                    receiver.unregister();
+                }
+            };
+        }
+
+        void unregisterReceiver(BroadcastReceiver receiver) {
+            try {
+                context.unregisterReceiver(receiver);
+            } catch (IllegalArgumentException e) {
+                // ignore in case it has been unregistered
+                Log.d(TAG, "receiver has been unregistered.");
+            }
+        }
+    }
+
+    /**
+     * This broadcast receiver runs a callback once the connectivity is back.
+     */
+    static class OnConnectivity extends BroadcastReceiver {
+        private final AndroidConnectivity connectivity;
+        private Runnable callback;
+
+        OnConnectivity(AndroidConnectivity connectivity, Runnable callback) {
+            this.connectivity = connectivity;
+            this.callback = callback;
+        }
+
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (!connectivity.isNetworkAvailable()) {
+                Log.d(TAG, "Connectivity is unavailable.");
+                return;
+            }
+            Runnable toRun;
+            synchronized (this) {
+                toRun = callback;
+                callback = null;
+            }
+            connectivity.unregisterReceiver(this);
+            if (toRun != null) {
+                Log.d(TAG, "Connectivity is available.");
+                toRun.run();
+            }
+        }
+
+        synchronized void unregister() {
+            if (callback != null) {
+                callback = null;
+                connectivity.unregisterReceiver(this);
+            }
+        }
+    }
+
+    static class SharedPreferencesStore implements KeyValueStore {
+        private final SharedPreferences sp;
+
+        SharedPreferencesStore(SharedPreferences sp) {
+            this.sp = sp;
+        }
+
+        @Override
+        public String getString(String key, String defaultValue) {
+            return sp.getString(key, defaultValue);
+        }
+
+        @Override
+        public long getLong(String key, long defaultValue) {
+            return sp.getLong(key, defaultValue);
+        }
+
+        @Override
+        public void putString(String key, String value) {
+            sp.edit().putString(key, value).apply();
+        }
+
+        @Override
+        public void putLong(String key, long value) {
+            sp.edit().putLong(key, value).apply();
+        }
+
+        @Override
+        public void remove(String key) {
+            sp.edit().remove(key).apply();
+        }
+    }
+
+    static class AndroidLogger implements Logger {
+        @Override
+        public void log(Level level, String tag, String message, Throwable t) {
+            switch (level) {
+                case DEBUG:
+                    Log.d(tag, message, t);
+                    break;
+                case INFO:
+                    Log.i(tag, message, t);
+                    break;
+                case WARN:
+                    Log.w(tag, message, t);
+                    break;
+                default:
+                    Log.e(tag, message, t);
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito.platform;
+
+/**
+ * Network connectivity as seen by the sync engine.
+ */
+public interface Connectivity {
+
+    /**
+     * @return true if a network is connected, false otherwise
+     */
+    boolean isNetworkAvailable();
+
+    /**
+     * @return the type of the active network, e.g. WIFI or MOBILE, or null
+     *         if unknown
+     */
+    String getNetworkType();
+
+    /**
+     * Runs a callback once, the next time the network becomes available. The
+     * callback may run on any thread.
+     *
+     * @param callback the callback
+     * @return a subscription to cancel the callback
+     */
+    Subscription whenAvailable(Runnable callback);
+
+    /**
+     * A pending callback registered with {@link #whenAvailable(Runnable)}.
+     */
+    interface Subscription {
+        /**
+         * Cancels the callback. It's a no-op if the callback already ran or
+         * was cancelled.
+         */
+        void cancel();
+    }
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito.platform;
+
+/**
+ * A {@link Logger} that logs to java.util.logging, with the tag as logger
+ * name under com.amazonaws.mobileconnectors.cognito. java.util.logging types
+ * are fully qualified since their names clash with {@link Logger}.
+ */
+public class JavaUtilLogger implements Logger {
+
+    private static final String PREFIX = "com.amazonaws.mobileconnectors.cognito.";
+
+    @Override
+    public void log(Logger.Level level, String tag, String message, Throwable t) {
+        java.util.logging.Logger logger = java.util.logging.Logger.getLogger(PREFIX + tag);
+        java.util.logging.Level julLevel = toJulLevel(level);
+        if (!logger.isLoggable(julLevel)) {
+            return;
+        }
+        if (t == null) {
+            logger.log(julLevel, message);
+        } else {
+            logger.log(julLevel, message, t);
+        }
+    }
+
+    private static java.util.logging.Level toJulLevel(Logger.Level level) {
+        switch (level) {
+            case DEBUG:
+                return java.util.logging.Level.FINE;
+            case INFO:
+                return java.util.logging.Level.INFO;
+            case WARN:
+                return java.util.logging.Level.WARNING;
+            default:
+                return java.util.logging.Level.SEVERE;
+        }
+    }
+}
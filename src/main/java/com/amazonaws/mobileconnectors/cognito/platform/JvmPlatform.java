@@ -0,0 +1,202 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito.platform;
+
+import com.amazonaws.mobileconnectors.cognito.internal.storage.InMemoryLocalStorage;
+import com.amazonaws.mobileconnectors.cognito.internal.storage.LocalStorage;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * {@link Platform} for a plain JVM, e.g. a server-side tool, a load generator
+ * or a test harness. The network is assumed available unless told otherwise
+ * with {@link #setNetworkAvailable(boolean)}, settings and datasets are kept
+ * in memory, and logs go to java.util.logging.
+ */
+public class JvmPlatform implements Platform {
+
+    private final JvmConnectivity connectivity = new JvmConnectivity();
+    private final KeyValueStore keyValueStore = new InMemoryKeyValueStore();
+    private final Logger logger;
+
+    /**
+     * Constructs a JVM platform logging to java.util.logging.
+     */
+    public JvmPlatform() {
+        this(new JavaUtilLogger());
+    }
+
+    /**
+     * Constructs a JVM platform.
+     *
+     * @param logger the logger the sync engine logs to
+     */
+    public JvmPlatform(Logger logger) {
+        if (logger == null) {
+            throw new IllegalArgumentException("logger can't be null");
+        }
+        this.logger = logger;
+    }
+
+    /**
+     * Sets whether the network is available. Callbacks waiting for the network
+     * run on the calling thread when it becomes available.
+     *
+     * @param networkAvailable true if the network is available
+     */
+    public void setNetworkAvailable(boolean networkAvailable) {
+        connectivity.setNetworkAvailable(networkAvailable);
+    }
+
+    /**
+     * Sets the network type reported to the sync engine.
+     *
+     * @param networkType network type, e.g. WIFI, or null if unknown
+     */
+    public void setNetworkType(String networkType) {
+        connectivity.networkType = networkType;
+    }
+
+    @Override
+    public Connectivity getConnectivity() {
+        return connectivity;
+    }
+
+    @Override
+    public KeyValueStore getKeyValueStore() {
+        return keyValueStore;
+    }
+
+    @Override
+    public Logger getLogger() {
+        return logger;
+    }
+
+    @Override
+    public LocalStorage createLocalStorage(String name) {
+        return new InMemoryLocalStorage();
+    }
+
+    static class JvmConnectivity implements Connectivity {
+        private volatile boolean networkAvailable = true;
+        private volatile String networkType;
+        private final List<PendingCallback> pending = new CopyOnWriteArrayList<PendingCallback>();
+
+        void setNetworkAvailable(boolean networkAvailable) {
+            this.networkAvailable = networkAvailable;
+            if (networkAvailable) {
+                for (PendingCallback callback : pending) {
+                    pending.remove(callback);
+                    callback.run();
+                }
+            }
+        }
+
+        @Override
+        public boolean isNetworkAvailable() {
+            return networkAvailable;
+        }
+
+        @Override
+        public String getNetworkType() {
+            return networkType;
+        }
+
+        @Override
+        public Subscription whenAvailable(Runnable callback) {
+            final PendingCallback pendingCallback = new PendingCallback(callback);
+            pending.add(pendingCallback);
+            if (networkAvailable) {
+                // the network came back while registering
+                pending.remove(pendingCallback);
+                pendingCallback.run();
+            }
+            return new Subscription() {
+                @Override
+                public void cancel() {
+                    pending.remove(pendingCallback);
+                    pendingCallback.cancel();
+                }
+            };
+        }
+    }
+
+    /**
+     * A callback that runs at most once.
+     */
+    static class PendingCallback {
+        private Runnable callback;
+
+        PendingCallback(Runnable callback) {
+            this.callback = callback;
+        }
+
+        void run() {
+            Runnable toRun;
+            synchronized (this) {
+                toRun = callback;
+                callback = null;
+            }
+            if (toRun != null) {
+                toRun.run();
+            }
+        }
+
+        synchronized void cancel() {
+            callback = null;
+        }
+    }
+
+    static class InMemoryKeyValueStore implements KeyValueStore {
+        private final Map<String, Object> values = new ConcurrentHashMap<String, Object>();
+
+        @Override
+        public String getString(String key, String defaultValue) {
+            Object value = values.get(key);
+            return value instanceof String ? (String) value : defaultValue;
+        }
+
+        @Override
+        public long getLong(String key, long defaultValue) {
+            Object value = values.get(key);
+            return value instanceof Long ? (Long) value : defaultValue;
+        }
+
+        @Override
+        public void putString(String key, String value) {
+            if (value == null) {
+                values.remove(key);
+            } else {
+                values.put(key, value);
+            }
+        }
+
+        @Override
+        public void putLong(String key, long value) {
+            values.put(key, value);
+        }
+
+        @Override
+        public void remove(String key) {
+            values.remove(key);
+        }
+    }
+}
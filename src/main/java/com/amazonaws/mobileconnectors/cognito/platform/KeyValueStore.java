@@ -0,0 +1,66 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito.platform;
+
+/**
+ * A small persistent key-value store for settings of the sync engine, such as
+ * the device id used for push sync. Writes may be persisted asynchronously.
+ */
+public interface KeyValueStore {
+
+    /**
+     * Gets a string value.
+     *
+     * @param key the key
+     * @param defaultValue value returned if the key is absent
+     * @return the value or defaultValue
+     */
+    String getString(String key, String defaultValue);
+
+    /**
+     * Gets a long value.
+     *
+     * @param key the key
+     * @param defaultValue value returned if the key is absent
+     * @return the value or defaultValue
+     */
+    long getLong(String key, long defaultValue);
+
+    /**
+     * Sets a string value.
+     *
+     * @param key the key
+     * @param value the value
+     */
+    void putString(String key, String value);
+
+    /**
+     * Sets a long value.
+     *
+     * @param key the key
+     * @param value the value
+     */
+    void putLong(String key, long value);
+
+    /**
+     * Removes a key.
+     *
+     * @param key the key
+     */
+    void remove(String key);
+}
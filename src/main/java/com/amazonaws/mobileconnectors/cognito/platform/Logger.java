@@ -0,0 +1,41 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito.platform;
+
+/**
+ * Destination of the log messages of the sync engine.
+ */
+public interface Logger {
+
+    /**
+     * Log levels, from the most to the least verbose.
+     */
+    enum Level {
+        DEBUG, INFO, WARN, ERROR
+    }
+
+    /**
+     * Logs a message.
+     *
+     * @param level level of the message
+     * @param tag tag of the component that logs, e.g. DefaultDataset
+     * @param message the message
+     * @param t an exception to log along, or null
+     */
+    void log(Level level, String tag, String message, Throwable t);
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright 2013-2016 Amazon.com,
+ * Inc. or its affiliates. All Rights Reserved.
+ *
+ * Licensed under the Amazon Software License (the "License").
+ * You may not use this file except in compliance with the
+ * License. A copy of the License is located at
+ *
+ *     http://aws.amazon.com/asl/
+ *
+ * or in the "license" file accompanying this file. This file is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, express or implied. See the License
+ * for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.amazonaws.mobileconnectors.cognito.platform;
+
+import com.amazonaws.mobileconnectors.cognito.internal.storage.LocalStorage;
+
+/**
+ * Everything the sync engine needs from the platform it runs on.
+ */
+public interface Platform {
+
+    /**
+     * @return network connectivity of the platform
+     */
+    Connectivity getConnectivity();
+
+    /**
+     * @return the store of the settings of the sync engine
+     */
+    KeyValueStore getKeyValueStore();
+
+    /**
+     * @return the logger the sync engine logs to
+     */
+    Logger getLogger();
+
+    /**
+     * Creates the local storage of datasets.
+     *
+     * @param name name of the storage, e.g. a database name
+     * @return a new local storage
+     */
+    LocalStorage createLocalStorage(String name);
+}
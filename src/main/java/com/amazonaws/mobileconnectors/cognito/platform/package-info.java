@@ -0,0 +1,9 @@
+/**
+ * Platform abstraction of the Cognito sync engine: connectivity, key-value
+ * preferences, logging and local storage. {@link
+ * com.amazonaws.mobileconnectors.cognito.platform.AndroidPlatform} binds it
+ * to Android, {@link com.amazonaws.mobileconnectors.cognito.platform.JvmPlatform}
+ * to a plain JVM, e.g. for backend jobs and load tests.
+ */
+
+package com.amazonaws.mobileconnectors.cognito.platform;
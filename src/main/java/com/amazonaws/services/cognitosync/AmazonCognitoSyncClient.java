@@ -241,6 +241,38 @@ public class AmazonCognitoSyncClient extends AmazonWebServiceClient implements A
         init();
     }
 
+    /**
+     * Constructs a new client to invoke service methods on
+     * AmazonCognitoSync using the specified AWS account credentials
+     * provider, client configuration options, http client and request
+     * metric collector.
+     * 
+     * <p>
+     * All service calls made using this new client object are blocking, and will not
+     * return until the service call completes.
+     *
+     * @param awsCredentialsProvider
+     *            The AWS credentials provider which will provide credentials
+     *            to authenticate requests with AWS services.
+     * @param clientConfiguration The client configuration options controlling how this
+     *                       client connects to AmazonCognitoSync
+     *                       (ex: proxy settings, retry counts, etc.).
+     * @param httpClient A http client
+     * @param requestMetricCollector optional request metric collector
+     */
+    // the SDK deprecates request metric collectors without a replacement,
+    // yet it's the only way to observe the requests of this client
+    @SuppressWarnings("deprecation")
+    public AmazonCognitoSyncClient(AWSCredentialsProvider awsCredentialsProvider,
+            ClientConfiguration clientConfiguration, HttpClient httpClient,
+            RequestMetricCollector requestMetricCollector) {
+        super(adjustClientConfiguration(clientConfiguration), httpClient, requestMetricCollector);
+        
+        this.awsCredentialsProvider = awsCredentialsProvider;
+        
+        init();
+    }
+
     private void init() {
         jsonErrorUnmarshallers = new ArrayList<JsonErrorUnmarshaller>();
         jsonErrorUnmarshallers.add(new ResourceConflictExceptionUnmarshaller());